@@ -0,0 +1,349 @@
+package bench;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import util.registry.CorruptRegistryDataException;
+import util.registry.Registry;
+import util.registry.RegistryClient;
+import util.registry.RegistryServer;
+import util.registry.RegistryStore;
+
+
+/**
+ * JMH benchmark suite of the registry operations, on generated registry
+ * databases of several sizes and key/value shapes.
+ * <p> The one-shot benchmarks time whole operations as run by the command
+ * line tool (one {@link Registry#process()} per operation), the others the
+ * operations of a resident server or of an embedded registry: </p>
+ * <p>    - load: loads the whole database (batch query of a single key) </p>
+ * <p>    - queryHit, queryMiss: streams the database till the key (middle key, absent key) </p>
+ * <p>    - queryBatchMiss: batch query of {@value #MISS_BATCH_SIZE} absent keys </p>
+ * <p>    - entry, entryForce: appends a new key, overwrites a present key </p>
+ * <p>    - rewrite: loads and rewrites the whole database (conversion to its own format) </p>
+ * <p>    - merge: merges a source of a tenth of the size, half of it new keys </p>
+ * <p>    - serverEntry: appends a new key through a resident {@link RegistryServer}
+ * from {@value #SERVER_CLIENTS} client threads, every entry synced to the
+ * disk before its response, with group commit on and off ({@link Server}) </p>
+ * <p>    - storeMix: a mix of {@link RegistryStore} operations from several
+ * threads, {@value #STORE_GETS}% get, {@value #STORE_PUTS}% put and the
+ * rest putIfAbsent of a new key, in operations per millisecond, to see
+ * how the throughput scales with the threads ({@link Store}); -t takes a
+ * single count, e.g. for t in 1 2 4 8; do java -jar bench/target/benchmarks.jar
+ * storeMix -t $t; done </p>
+ * <p> The database of every size, shape and format is generated once per
+ * trial by the {@link Databases} state, and copied to a working database
+ * before every iteration, or before every invocation for the benchmarks
+ * which rewrite it ({@link Pristine}), so that no invocation times the
+ * leftovers of another. With a bloom parameter above 0 the database gets a
+ * Bloom filter of its keys at that false positive rate, see
+ * {@link Registry#forDbBloom(double, String, boolean)}, to compare
+ * miss-heavy workloads with and without it. With the index parameter set
+ * the database gets a hash index, see {@link Registry#forDbIndex(String, boolean)},
+ * to compare cold queries reading the database at the offset of the key
+ * with queries streaming it. </p>
+ * <p> The sizes range from 10^3 to 10^7 pairs. The largest databases take
+ * minutes to generate and about 6 GiB of disk with long pairs (350 MiB with
+ * short ones), for a quicker run leave them out with
+ * -p size=1000,10000,100000,1000000, or run them alone with -p size=10000000. </p>
+ * <p> Usage: java -jar bench/target/benchmarks.jar [benchmark regexp]
+ * [-p size=1000,10000,100000,1000000,10000000] [-p shape=short,long]
+ * [-p format=text,binary,framed,dictionary,compressed] [-p bloom=0,0.01]
+ * [-p index=false,true] [-p groupCommit=true,false] [-t threads]
+ * [-rf json -rff results-file], see java -jar bench/target/benchmarks.jar -h </p>
+ * */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class RegistryBenchmark {
+    private static final int MISS_BATCH_SIZE = 100;
+    private static final int SERVER_CLIENTS = 8;
+    private static final int SERVER_DB_SIZE = 100_000;
+    private static final int STORE_THREADS = 4, STORE_SIZE = 100_000, STORE_GETS = 90, STORE_PUTS = 8;
+
+    /**
+     * Generated databases and the keys the benchmarks query and enter.
+     * */
+    @State(Scope.Benchmark)
+    public static class Databases {
+        @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+        public long size;
+
+        @Param({ "short", "long" })
+        public String shape;
+
+        @Param({ "text" })
+        public String format;
+
+        @Param({ "0" }) /* 0: no Bloom filter */
+        public double bloom;
+
+        @Param({ "false" })
+        public boolean index;
+
+        Path workDir, pristine, mergeSource, db;
+        String dbFileName, middleKey, absentKey;
+        String[] absentKeys, middleKeys;
+        long counter;
+
+        @Setup(Level.Trial)
+        public void generate() throws IOException, CorruptRegistryDataException {
+            if(!(bloom >= 0 && bloom < 1))
+                throw new IllegalArgumentException("Invalid false positive rate: " + bloom);
+            workDir = Files.createTempDirectory("registry-bench");
+            pristine = workDir.resolve("db-" + size + "-" + shape + "-" + format);
+            mergeSource = workDir.resolve("merge-" + size + "-" + shape);
+            db = workDir.resolve("work-db");
+            dbFileName = db.toString();
+            RegistryBenchmark.generate(pristine, 0, size, shape);
+            if(!format.equals("text"))
+                Registry.forDbConvert(format, pristine.toString(), true).process();
+            if(bloom > 0)
+                Registry.forDbBloom(bloom, pristine.toString(), true).process();
+            if(index)
+                Registry.forDbIndex(pristine.toString(), true).process();
+            RegistryBenchmark.generate(mergeSource, size - size / 20, size / 10, shape);
+            middleKey = key(size / 2, shape);
+            middleKeys = new String[] { middleKey };
+            absentKey = key(size, shape) + "-absent";
+            absentKeys = new String[MISS_BATCH_SIZE];
+            for(int i = 0; i < absentKeys.length; i++)
+                absentKeys[i] = key(size + i, shape) + "-absent";
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() throws IOException {
+            copy(pristine, db);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            RegistryBenchmark.delete(workDir);
+        }
+    }
+
+    /**
+     * Working database restored from the pristine one before every invocation.
+     * */
+    @State(Scope.Thread)
+    public static class Pristine {
+        @Setup(Level.Invocation)
+        public void reset(final Databases databases) throws IOException {
+            copy(databases.pristine, databases.db);
+            Files.deleteIfExists(Paths.get(databases.dbFileName + ".rejects"));
+        }
+    }
+
+    /**
+     * Resident server of a database of {@value #SERVER_DB_SIZE} short pairs,
+     * started once per trial and left running till the end of the fork. The
+     * log is compacted into the database as the entries make it outgrow the
+     * database, as with one-shot entries.
+     * */
+    @State(Scope.Benchmark)
+    public static class Server {
+        @Param({ "true", "false" })
+        public boolean groupCommit;
+
+        Path workDir;
+        RegistryClient client;
+        final AtomicLong counter = new AtomicLong();
+        volatile Exception failure;
+
+        @Setup(Level.Trial)
+        public void start() throws Exception {
+            workDir = Files.createTempDirectory("registry-bench-server");
+            Path db = workDir.resolve("db");
+            RegistryBenchmark.generate(db, 0, SERVER_DB_SIZE, "short");
+            String socketFileName = workDir.resolve("socket").toString();
+            RegistryServer server = new RegistryServer(socketFileName, db.toString(), true).withGroupCommit(groupCommit);
+            Thread thread = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch(IOException | CorruptRegistryDataException e) {
+                    failure = e;
+                }
+            }, "registry-bench-server");
+            thread.setDaemon(true);
+            thread.start();
+            client = new RegistryClient(socketFileName);
+            for(long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30); ; Thread.sleep(10)) {
+                try {
+                    client.process("query", key(0, "short"));
+                    return;
+                } catch(IOException e) { /* not listening yet */
+                    if(failure != null)
+                        throw failure;
+                    if(System.nanoTime() > deadline)
+                        throw e;
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            RegistryBenchmark.delete(workDir);
+        }
+    }
+
+    /**
+     * Embedded registry of {@value #STORE_SIZE} short pairs, opened once
+     * per trial and shared by the benchmark threads, its changes written
+     * back every second as a long-lived embedding would.
+     * */
+    @State(Scope.Benchmark)
+    public static class Store {
+        Path workDir;
+        RegistryStore store;
+        final AtomicLong counter = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void open() throws IOException, CorruptRegistryDataException {
+            workDir = Files.createTempDirectory("registry-bench-store");
+            Path db = workDir.resolve("db");
+            RegistryBenchmark.generate(db, 0, STORE_SIZE, "short");
+            store = RegistryStore.open(db, 1000);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException, CorruptRegistryDataException {
+            store.close();
+            RegistryBenchmark.delete(workDir);
+        }
+    }
+
+    @Benchmark
+    public String load(final Databases databases) throws IOException, CorruptRegistryDataException {
+        return Registry.forDbBatchQuery(databases.middleKeys, null, false, OutputStream.nullOutputStream(),
+                                        databases.dbFileName, true).process();
+    }
+
+    @Benchmark
+    public String queryHit(final Databases databases) throws IOException, CorruptRegistryDataException {
+        return Registry.forDbQuery(databases.middleKey, databases.dbFileName, true).process();
+    }
+
+    @Benchmark
+    public String queryMiss(final Databases databases) throws IOException, CorruptRegistryDataException {
+        return Registry.forDbQuery(databases.absentKey, databases.dbFileName, true).process();
+    }
+
+    @Benchmark
+    public String queryBatchMiss(final Databases databases) throws IOException, CorruptRegistryDataException {
+        return Registry.forDbBatchQuery(databases.absentKeys, null, false, OutputStream.nullOutputStream(),
+                                        databases.dbFileName, true).process();
+    }
+
+    @Benchmark
+    public String entry(final Databases databases) throws IOException, CorruptRegistryDataException {
+        return Registry.forDbEntry(false, new String[] { key(databases.size + databases.counter++, databases.shape),
+                                                         value(0, databases.shape) },
+                                   databases.dbFileName, true).process();
+    }
+
+    @Benchmark
+    public String entryForce(final Databases databases) throws IOException, CorruptRegistryDataException {
+        return Registry.forDbEntry(true, new String[] { databases.middleKey, value(databases.counter++, databases.shape) },
+                                   databases.dbFileName, true).process();
+    }
+
+    @Benchmark
+    public String rewrite(final Databases databases, final Pristine pristine) throws IOException, CorruptRegistryDataException {
+        return Registry.forDbConvert(databases.format, databases.dbFileName, true).process();
+    }
+
+    @Benchmark
+    public String merge(final Databases databases, final Pristine pristine) throws IOException, CorruptRegistryDataException {
+        return Registry.forDbMerge(databases.dbFileName, databases.mergeSource.toString()).process();
+    }
+
+    @Benchmark
+    @Threads(SERVER_CLIENTS)
+    public String serverEntry(final Server server) throws IOException, CorruptRegistryDataException {
+        return server.client.process("entry", "false", key(SERVER_DB_SIZE + server.counter.getAndIncrement(), "short"),
+                                     value(0, "short"));
+    }
+
+    @Benchmark
+    @Threads(STORE_THREADS)
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public String storeMix(final Store store) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int operation = random.nextInt(100);
+        if(operation < STORE_GETS)
+            return store.store.get(key(random.nextInt(STORE_SIZE), "short"));
+        if(operation < STORE_GETS + STORE_PUTS)
+            return store.store.put(key(random.nextInt(STORE_SIZE), "short"), value(random.nextInt(), "short"));
+        return store.store.putIfAbsent(key(STORE_SIZE + store.counter.getAndIncrement(), "short"), value(0, "short"));
+    }
+
+    /* writes the pairs numbered from first on, in text format */
+    static void generate(final Path file, final long first, final long count, final String shape) throws IOException {
+        try(BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for(long i = first; i < first + count; i++) {
+                writer.write("K: "); writer.write(key(i, shape)); writer.newLine();
+                writer.write("V: "); writer.write(value(i, shape)); writer.newLine();
+            }
+        }
+    }
+
+    /* short: ~10 characters, long: ~64 characters */
+    static String key(final long i, final String shape) {
+        return shape.equals("short") ? "k" + i : "service.instance-" + (i % 97) + ".configuration.parameter.number-" + i;
+    }
+
+    /* short: ~16 characters, long: ~512 characters */
+    static String value(final long i, final String shape) {
+        String value = "value-" + i + "-";
+        return value + "x".repeat(Math.max(0, (shape.equals("short") ? 16 : 512) - value.length()));
+    }
+
+    static void delete(final Path directory) throws IOException {
+        try(Stream<Path> files = Files.walk(directory)) {
+            for(Path file : (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+
+    /* copies the Bloom filter and the hash index along, with the size and last modified time they are checked against */
+    static void copy(final Path from, final Path to) throws IOException {
+        Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        Files.deleteIfExists(Paths.get(to + ".log"));
+        for(String suffix : new String[] { ".bloom", ".idx" }) {
+            Path file = Paths.get(from + suffix);
+            if(Files.exists(file))
+                Files.copy(file, Paths.get(to + suffix), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            else
+                Files.deleteIfExists(Paths.get(to + suffix));
+        }
+    }
+}
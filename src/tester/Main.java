@@ -1,6 +1,10 @@
 package tester;
 
 import util.registry.Registry;
+import util.registry.RegistryClient;
+import util.registry.RegistryServer;
+import util.registry.RegistrySession;
+import util.registry.RegistryStore;
 import util.registry.CorruptRegistryDataException;
 import static util.registry.Registry.getInValidKeyOrValueFormat;
 
@@ -8,7 +12,14 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CountDownLatch;
 
 
 /**
@@ -25,10 +36,23 @@ public class Main {
     
     private static boolean  verboseModeEnabled, resetDb, repairDb,
                             mergeDb, isExternalDb, entryMode, forceEntry,
-                            queryMode, interactiveModeEnabled = true;
+                            queryMode, deleteMode, compactDb, indexDb, convertDb, serveMode,
+                            bulkEntryMode, queryBatchMode, nullDelimited, noGroupCommit, scanMode, sortDb, globMode, verifyDb, showStats, offHeap, bloomDb, shardDb, sessionMode, watchQuery,
+                            interactiveModeEnabled = true;
     private static String   operationMode = null;
+    private static BufferedReader stdinReader; /* see stdinReader() */
     private static String[] keyValPair = null;
-    private static String   queryKey, mergeToDbFromFileName,
+    private static List<String> queryKeys = new ArrayList<>();
+    private static int      loaderThreads = 0; /* 0: Registry default */
+    private static long     lockTimeout = -1; /* -1: Registry default */
+    private static long     mergeBufferSize = 0; /* 0: Registry default */
+    private static double   bloomFalsePositiveRate = 0;
+    private static int      shardCount = 0;
+    private static int      flushEvery = 0; /* 0: on flush command and at the end of the session only */
+    private static int      globOffset = 0, globLimit = Integer.MAX_VALUE;
+    private static String   queryKey, deleteKey, mergeToDbFromFileName, convertToFormat,
+                            serveSocketFileName, connectSocketFileName, bulkEntryFileName,
+                            keysFileName, scanPrefix, rangeFromKey, rangeToKey, globPattern, sessionScriptFileName,
                             dbFileName =
                                 System.getProperty("java.io.tmpdir") +
                                         File.separator +
@@ -40,6 +64,7 @@ public class Main {
         try {
             try {
                 setOptions(args);
+                Registry.setLogger(Main::verbose);
                 switch(operationMode) {
                     case "reset-db": /* For db reset */
                         registry = Registry.forDbReset(dbFileName);
@@ -61,6 +86,63 @@ public class Main {
                         registry = Registry.forDbQuery(queryKey, dbFileName, isExternalDb);
                         break;
                         
+                    case "delete": /* For db key deletion */
+                        registry = Registry.forDbDelete(deleteKey, dbFileName, isExternalDb);
+                        break;
+                        
+                    case "compact-db": /* For db log compaction */
+                        registry = Registry.forDbCompact(dbFileName, isExternalDb);
+                        break;
+                        
+                    case "index-db": /* For db index building */
+                        registry = Registry.forDbIndex(dbFileName, isExternalDb);
+                        break;
+                        
+                    case "convert-db": /* For db format conversion */
+                        registry = Registry.forDbConvert(convertToFormat, dbFileName, isExternalDb);
+                        break;
+                        
+                    case "bloom-db": /* For db Bloom filter building */
+                        registry = Registry.forDbBloom(bloomFalsePositiveRate, dbFileName, isExternalDb);
+                        break;
+                        
+                    case "shard-db": /* For db sharding or resharding */
+                        registry = Registry.forDbShard(shardCount, dbFileName, isExternalDb);
+                        break;
+                        
+                    case "scan": /* For db prefix or range scan */
+                        registry = scanPrefix != null ?
+                                        Registry.forDbPrefixScan(scanPrefix, nullDelimited, System.out, dbFileName, isExternalDb) :
+                                        Registry.forDbRangeScan(rangeFromKey, rangeToKey, nullDelimited, System.out, dbFileName, isExternalDb);
+                        break;
+                        
+                    case "glob": /* For db wildcard key query */
+                        registry = Registry.forDbGlob(globPattern, globOffset, globLimit, nullDelimited, System.out, dbFileName, isExternalDb);
+                        break;
+                        
+                    case "sort-db": /* For db sorting */
+                        registry = Registry.forDbSort(dbFileName, isExternalDb);
+                        break;
+                        
+                    case "verify-db": /* For db verification */
+                        registry = Registry.forDbVerify(dbFileName, isExternalDb);
+                        break;
+                        
+                    case "query-batch": /* For db batch query */
+                        registry = Registry.forDbBatchQuery(queryKeys.isEmpty() ? null : queryKeys.toArray(new String[0]),
+                                                            keysFileName, nullDelimited, System.out, dbFileName, isExternalDb);
+                        break;
+                        
+                    case "bulk-entry": /* For db bulk entry */
+                        registry = Registry.forDbBulkEntry(forceEntry, bulkEntryFileName, dbFileName, isExternalDb);
+                        break;
+                        
+                    case "serve": /* For resident server, no Registry object required */
+                        break;
+                        
+                    case "session": /* For command session, no Registry object required */
+                        break;
+                        
                     default:
                         throw new AssertionError("Should not get here: " +
                                                     "Invalid operationMode value=" + operationMode);
@@ -70,18 +152,55 @@ public class Main {
                 System.exit( StandardExitCodes.ERROR );
             }
             
+            if(loaderThreads > 0)
+                registry.withLoaderThreads(loaderThreads);
+            if(lockTimeout >= 0)
+                registry.withLockTimeout(lockTimeout);
+            if(mergeBufferSize > 0)
+                registry.withMergeBufferSize(mergeBufferSize);
+            if(showStats)
+                registry.withStats(true);
+            if(offHeap)
+                registry.withOffHeapStorage(true);
             $diagnoseOptionsAndArguments(); /* for developer diagnostics only */
-            String response = registry.process();
+            if(serveMode) {
+                RegistryServer server = new RegistryServer(serveSocketFileName, dbFileName, isExternalDb).withGroupCommit(!noGroupCommit);
+                if(lockTimeout >= 0)
+                    server.withLockTimeout(lockTimeout);
+                server.serve();
+                return;
+            }
+            if(sessionMode) {
+                RegistrySession session = new RegistrySession(dbFileName, isExternalDb).withFlushEvery(flushEvery);
+                if(lockTimeout >= 0)
+                    session.withLockTimeout(lockTimeout);
+                boolean fromStdin = sessionScriptFileName.equals("-");
+                int failures;
+                try(BufferedReader script = fromStdin ? stdinReader() : Files.newBufferedReader(Paths.get(sessionScriptFileName))) {
+                    failures = session.run(script, System.out, fromStdin && System.console() != null ? "registry> " : null);
+                }
+                if(failures > 0)
+                    System.exit( StandardExitCodes.ERROR );
+                return;
+            }
+            if(watchQuery) {
+                watchQuery();
+                return;
+            }
+            String response = connectSocketFileName == null ? registry.process() : forwardToServer();
             if(response != null)
                 System.out.println(response);
+            showStats(registry);
             
         } catch(IOException e) {
+            showStats(registry);
             showError(e, "I/O Error: ");
             System.exit( StandardExitCodes.FILE );
         } catch(IllegalArgumentException e) {
             showError(e, "Error: Invalid argument: ");
             System.exit( StandardExitCodes.ERROR );
         } catch(CorruptRegistryDataException e) {
+            showStats(registry);
             showError(e, "Error: Registry data corrupted! \n");
             System.err.println("Suggestion: Either repair or reset registry database to avoid future errors");
             System.exit(StandardExitCodes.FILE);
@@ -99,6 +218,89 @@ public class Main {
         }
     }
     
+    /**
+     * Prints the pair of the queried key, then again on every change of it
+     * made by other processes, as the registry database is refreshed from
+     * the appended records (see {@link RegistryStore#watch(Runnable)}), till interrupted.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption.
+     * @throws InterruptedException If interrupted while watching.
+     */
+    private static void watchQuery() throws IOException, CorruptRegistryDataException, InterruptedException {
+        try(RegistryStore store = RegistryStore.open(Paths.get(dbFileName), isExternalDb, 0, lockTimeout)) {
+            final String[] printedValue = { null };
+            final boolean[] printed = { false };
+            final Runnable print = () -> {
+                String value = store.get(queryKey);
+                synchronized(printedValue) {
+                    if(printed[0] && Objects.equals(value, printedValue[0]))
+                        return; /* other keys changed */
+                    printed[0] = true;
+                    printedValue[0] = value;
+                    System.out.println((value == null ? "-\t" : "+\t") + queryKey + "\t" + (value == null ? "" : value));
+                }
+            };
+            print.run();
+            store.watch(print);
+            new CountDownLatch(1).await(); /* till interrupted */
+        }
+    }
+    
+    /**
+     * Forwards the requested operation to the resident server.
+     * @return Response of the server, if any, else null.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption detected by the server.
+     */
+    private static String forwardToServer() throws IOException, CorruptRegistryDataException {
+        RegistryClient client = new RegistryClient(connectSocketFileName);
+        switch(operationMode) {
+            case "query":       return client.process(operationMode, queryKey);
+            case "entry":       return client.process(operationMode, String.valueOf(forceEntry), keyValPair[0], keyValPair[1]);
+            case "delete":      return client.process(operationMode, deleteKey);
+            case "merge-to-db": return client.process(operationMode, Paths.get(mergeToDbFromFileName).toAbsolutePath().toString());
+            case "convert-db":  return client.process(operationMode, convertToFormat);
+            case "bloom-db":    return client.process(operationMode, String.valueOf(bloomFalsePositiveRate));
+            case "query-batch":
+                List<String> request = new ArrayList<>();
+                request.add(String.valueOf(nullDelimited));
+                if(!queryKeys.isEmpty()) {
+                    request.addAll(queryKeys);
+                } else if(keysFileName.equals("-")) {
+                    readLines(stdinReader(), request); /* left open, as the standard input */
+                } else {
+                    try(BufferedReader reader = Files.newBufferedReader(Paths.get(keysFileName))) {
+                        readLines(reader, request);
+                    }
+                }
+                System.out.print(client.process(operationMode, request.toArray(new String[0])));
+                System.out.flush();
+                return null; /* results already printed */
+            case "scan":
+                System.out.print(scanPrefix != null ?
+                        client.process(operationMode, String.valueOf(nullDelimited), "prefix", scanPrefix) :
+                        client.process(operationMode, String.valueOf(nullDelimited), "range", rangeFromKey, rangeToKey));
+                System.out.flush();
+                return null; /* pairs already printed */
+            case "glob":
+                System.out.print(client.process(operationMode, String.valueOf(nullDelimited), globPattern,
+                                                String.valueOf(globOffset), String.valueOf(globLimit)));
+                System.out.flush();
+                return null; /* pairs already printed */
+            case "bulk-entry":
+                if(bulkEntryFileName.equals("-"))
+                    throw new IllegalArgumentException("Bulk entry from standard input can not be forwarded to server");
+                return client.process(operationMode, String.valueOf(forceEntry), Paths.get(bulkEntryFileName).toAbsolutePath().toString());
+            default:            return client.process(operationMode); /* reset, repair, compact, index, sort */
+        }
+    }
+    
+    /* prints the phases of the processed operation, if requested */
+    private static void showStats(final Registry registry) {
+        if(showStats && registry != null && registry.getStats() != null)
+            System.err.println(registry.getStats());
+    }
+    
     private static void showError(final Throwable error, final String headerMessage) {
         if(error == null)
             throw new AssertionError("Should not get here: " + "Thrown error is null");
@@ -145,6 +347,136 @@ public class Main {
                         isExternalDb = true;
                         break;
                         
+                    case "--threads": /* get loader thread count */
+                        try {
+                            loaderThreads = Integer.parseInt(arg);
+                        } catch(NumberFormatException e) {
+                            loaderThreads = 0;
+                        }
+                        if(loaderThreads < 1)
+                            throw new IllegalArgumentException("Invalid thread count: " + arg);
+                        break;
+                        
+                    case "--lock-timeout": /* get lock wait upper bound */
+                        try {
+                            lockTimeout = Long.parseLong(arg);
+                        } catch(NumberFormatException e) {
+                            lockTimeout = -1;
+                        }
+                        if(lockTimeout < 0)
+                            throw new IllegalArgumentException("Invalid lock timeout: " + arg);
+                        break;
+                        
+                    case "--flush-every": /* get count of session changes written back together */
+                        try {
+                            flushEvery = Integer.parseInt(arg);
+                        } catch(NumberFormatException e) {
+                            flushEvery = 0;
+                        }
+                        if(flushEvery <= 0)
+                            throw new IllegalArgumentException("Invalid flush change count: " + arg);
+                        break;
+                        
+                    case "--merge-buffer": /* get merge buffer size in MiB */
+                        try {
+                            mergeBufferSize = Math.multiplyExact(Long.parseLong(arg), 1024 * 1024);
+                        } catch(NumberFormatException | ArithmeticException e) {
+                            mergeBufferSize = 0;
+                        }
+                        if(mergeBufferSize <= 0)
+                            throw new IllegalArgumentException("Invalid merge buffer size: " + arg);
+                        if(mergeBufferSize > Runtime.getRuntime().maxMemory()) /* the buffered pairs are held on the heap */
+                            throw new IllegalArgumentException("Merge buffer size (" + arg + " MiB) exceeds the maximum heap size ("
+                                                                + Runtime.getRuntime().maxMemory() / (1024 * 1024) + " MiB)");
+                        break;
+                        
+                    case "--bloom-db": /* get false positive rate of Bloom filter */
+                        try {
+                            bloomFalsePositiveRate = Double.parseDouble(arg);
+                        } catch(NumberFormatException e) {
+                            bloomFalsePositiveRate = 0;
+                        }
+                        if(!(bloomFalsePositiveRate > 0 && bloomFalsePositiveRate < 1))
+                            throw new IllegalArgumentException("Invalid false positive rate (between 0 and 1): " + arg);
+                        break;
+                        
+                    case "--shard-db": /* get count of shards */
+                        try {
+                            shardCount = Integer.parseInt(arg);
+                        } catch(NumberFormatException e) {
+                            shardCount = 0;
+                        }
+                        if(shardCount < 1 || shardCount > Registry.MAX_SHARD_COUNT)
+                            throw new IllegalArgumentException("Invalid shard count (1-" + Registry.MAX_SHARD_COUNT + "): " + arg);
+                        break;
+                        
+                    case "--prefix": /* get key prefix to scan, empty for all keys */
+                        scanPrefix = arg.trim();
+                        break;
+                        
+                    case "--range": /* get first key of range to scan */
+                        rangeFromKey = getInValidKeyOrValueFormat(arg);
+                        if(rangeFromKey == null)
+                            throw new IllegalArgumentException("Invalid first key format of range: " + arg);
+                        requireArgumentForOption = "--range-to";
+                        continue; /* skip to avoid resetting the value of requireArgumentForOption, last key follows */
+                        
+                    case "--range-to": /* get last key of range to scan */
+                        rangeToKey = getInValidKeyOrValueFormat(arg);
+                        if(rangeToKey == null)
+                            throw new IllegalArgumentException("Invalid last key format of range: " + arg);
+                        break;
+                        
+                    case "--glob": /* get key pattern */
+                        globPattern = getInValidKeyOrValueFormat(arg);
+                        if(globPattern == null)
+                            throw new IllegalArgumentException("Invalid key pattern format: " + arg);
+                        break;
+                        
+                    case "--offset": /* get count of matching pairs to skip */
+                        try {
+                            globOffset = Integer.parseInt(arg);
+                        } catch(NumberFormatException e) {
+                            globOffset = -1;
+                        }
+                        if(globOffset < 0)
+                            throw new IllegalArgumentException("Invalid offset: " + arg);
+                        break;
+                        
+                    case "--limit": /* get upper bound of count of matching pairs */
+                        try {
+                            globLimit = Integer.parseInt(arg);
+                        } catch(NumberFormatException e) {
+                            globLimit = 0;
+                        }
+                        if(globLimit < 1)
+                            throw new IllegalArgumentException("Invalid limit: " + arg);
+                        break;
+                        
+                    case "--keys-file": /* get file name to read query keys from */
+                        if(arg == null || arg.trim().length() == 0 || (arg.startsWith("-") && !arg.equals("-")))
+                            throw new IllegalArgumentException("Invalid keys file name: " + arg);
+                        keysFileName = arg;
+                        break;
+                        
+                    case "--serve": /* get socket file name to listen on */
+                        if(arg == null || arg.trim().length() == 0 || arg.startsWith("-"))
+                            throw new IllegalArgumentException("Invalid server socket file name: " + arg);
+                        serveSocketFileName = arg;
+                        break;
+                        
+                    case "--connect": /* get socket file name of the server */
+                        if(arg == null || arg.trim().length() == 0 || arg.startsWith("-"))
+                            throw new IllegalArgumentException("Invalid server socket file name: " + arg);
+                        connectSocketFileName = arg;
+                        break;
+                        
+                    case "--convert-db": /* get format name */
+                        if(!arg.equals("text") && !arg.equals("binary") && !arg.equals("framed") && !arg.equals("dictionary") && !arg.equals("compressed"))
+                            throw new IllegalArgumentException("Invalid registry database format (text|binary|framed|dictionary|compressed): " + arg);
+                        convertToFormat = arg;
+                        break;
+                        
 //					case 'q':
 //						if(arg.startsWith("-"))
 //							throw new IllegalArgumentException("Wrong key name (should not start with a hyphen (-))");
@@ -168,6 +500,123 @@ public class Main {
                         interactiveModeEnabled = false;
                         break;
                         
+                    case "-S":
+                    case "--serve":
+                        serveMode = true;
+                        requireArgumentForOption = "--serve";
+                        break;
+                        
+                    case "-k":
+                    case "--connect":
+                        requireArgumentForOption = "--connect";
+                        break;
+                        
+                    case "-G":
+                    case "--no-group-commit":
+                        noGroupCommit = true;
+                        break;
+                        
+                    case "-T":
+                    case "--stats":
+                        showStats = true;
+                        break;
+                        
+                    case "-H":
+                    case "--off-heap":
+                        offHeap = true;
+                        break;
+                        
+                    case "-Q":
+                    case "--query-batch":
+                        queryBatchMode = true;
+                        requireOptionalArgumentForOption = "--query-batch";
+                        break;
+                        
+                    case "-p":
+                    case "--prefix":
+                        scanMode = true;
+                        requireArgumentForOption = "--prefix";
+                        break;
+                        
+                    case "-g":
+                    case "--range":
+                        scanMode = true;
+                        requireArgumentForOption = "--range";
+                        break;
+                        
+                    case "-l":
+                    case "--glob":
+                        globMode = true;
+                        requireArgumentForOption = "--glob";
+                        break;
+                        
+                    case "-O":
+                    case "--offset":
+                        requireArgumentForOption = "--offset";
+                        break;
+                        
+                    case "-L":
+                    case "--limit":
+                        requireArgumentForOption = "--limit";
+                        break;
+                        
+                    case "-s":
+                    case "--sort-db":
+                        sortDb = true;
+                        break;
+                        
+                    case "-V":
+                    case "--verify":
+                        verifyDb = true;
+                        break;
+                        
+                    case "-F":
+                    case "--keys-file":
+                        requireArgumentForOption = "--keys-file";
+                        break;
+                        
+                    case "-0":
+                    case "--null":
+                        nullDelimited = true;
+                        break;
+                        
+                    case "-b":
+                    case "--bulk-entry":
+                        bulkEntryMode = true;
+                        requireOptionalArgumentForOption = "--bulk-entry";
+                        break;
+                        
+                    case "-I":
+                    case "--session":
+                        sessionMode = true;
+                        requireOptionalArgumentForOption = "--session";
+                        break;
+                        
+                    case "-U":
+                    case "--flush-every":
+                        requireArgumentForOption = "--flush-every";
+                        break;
+                        
+                    case "-W":
+                    case "--watch":
+                        watchQuery = true;
+                        break;
+                        
+                    case "-t":
+                    case "--threads":
+                        requireArgumentForOption = "--threads";
+                        break;
+                        
+                    case "-M":
+                    case "--merge-buffer":
+                        requireArgumentForOption = "--merge-buffer";
+                        break;
+                        
+                    case "-w":
+                    case "--lock-timeout":
+                        requireArgumentForOption = "--lock-timeout";
+                        break;
+                        
                     case "-R":
                     case "--reset-db":
                         resetDb = true;
@@ -208,6 +657,40 @@ public class Main {
                         requireOptionalArgumentForOption = "--query";
                         break;
                             
+                    case "-x":
+                    case "--delete":
+                        deleteMode = true;
+                        requireOptionalArgumentForOption = "--delete";
+                        break;
+                        
+                    case "-c":
+                    case "--compact-db":
+                        compactDb = true;
+                        break;
+                        
+                    case "-i":
+                    case "--index-db":
+                        indexDb = true;
+                        break;
+                        
+                    case "-B":
+                    case "--bloom-db":
+                        bloomDb = true;
+                        requireArgumentForOption = "--bloom-db";
+                        break;
+                        
+                    case "-N":
+                    case "--shard-db":
+                        shardDb = true;
+                        requireArgumentForOption = "--shard-db";
+                        break;
+                        
+                    case "-C":
+                    case "--convert-db":
+                        convertDb = true;
+                        requireArgumentForOption = "--convert-db";
+                        break;
+                            
                     case "-h":
                     case "--help":
                         showHelpAndExit();
@@ -231,6 +714,35 @@ public class Main {
                                     throw new IllegalArgumentException("Query key already provided: " + queryKey);
                                 break;
                                 
+                            case "--delete":
+                                if(deleteKey == null) {
+                                    deleteKey = getInValidKeyOrValueFormat(arg);
+                                    if(deleteKey == null)
+                                        throw new IllegalArgumentException("Invalid delete key format: " + arg);
+                                }
+                                else
+                                    throw new IllegalArgumentException("Delete key already provided: " + deleteKey);
+                                break;
+                                
+                            case "--query-batch":
+                                String batchKey = getInValidKeyOrValueFormat(arg);
+                                if(batchKey == null)
+                                    throw new IllegalArgumentException("Invalid query key format: " + arg);
+                                queryKeys.add(batchKey);
+                                continue; /* skip to avoid resetting the value of requireOptionalArgumentForOption, more keys may follow */
+                                
+                            case "--session":
+                                if(sessionScriptFileName != null)
+                                    throw new IllegalArgumentException("Session script already provided: " + sessionScriptFileName);
+                                sessionScriptFileName = arg;
+                                break;
+                                
+                            case "--bulk-entry":
+                                if(bulkEntryFileName != null)
+                                    throw new IllegalArgumentException("Bulk entry source already provided: " + bulkEntryFileName);
+                                bulkEntryFileName = arg;
+                                break;
+                                
                             case "--entry":
                             case "--force-entry":
                                 if(keyValPair == null) {
@@ -304,21 +816,65 @@ public class Main {
                 }
                 break;
                 
+            case "delete":
+                if(deleteKey == null) {
+                    deleteKey = readUserInput("KEY: ");
+                }
+                break;
+                
+            case "bulk-entry":
+                if(bulkEntryFileName == null) {
+                    bulkEntryFileName = "-"; /* standard input */
+                }
+                break;
+                
+            case "session":
+                if(sessionScriptFileName == null) {
+                    sessionScriptFileName = "-"; /* standard input */
+                }
+                break;
+                
+            case "query-batch":
+                if(!queryKeys.isEmpty() && keysFileName != null)
+                    throw new IllegalArgumentException("Query keys provided as arguments and as file: " + keysFileName);
+                if(queryKeys.isEmpty() && keysFileName == null) {
+                    keysFileName = "-"; /* standard input */
+                }
+                break;
+                
             default:
-                if(!operationMode.equals("repair-db")) { /* db resetting requires no user input */
+                if(!operationMode.equals("repair-db") && !operationMode.equals("compact-db")
+                        && !operationMode.equals("index-db") && !operationMode.equals("convert-db")
+                        && !operationMode.equals("sort-db") && !operationMode.equals("scan") && !operationMode.equals("glob")
+                        && !operationMode.equals("verify-db") && !operationMode.equals("bloom-db")
+                        && !operationMode.equals("shard-db") && !operationMode.equals("serve")) { /* db repairing, compaction, indexing, sorting, conversion, scanning, globbing, verification, sharding and serving require no user input */
                     throw new AssertionError("Should not get here: " +
                                             "Invalid operationMode value=" + operationMode);
                 }
         }
     }
 
+    /* one reader of the standard input for the whole run, a reader per prompt would lose the input it buffered ahead */
+    private static BufferedReader stdinReader() {
+        if(stdinReader == null)
+            stdinReader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        return stdinReader;
+    }
+
+    /* adds every line left to read */
+    private static void readLines(final BufferedReader reader, final List<String> lines) throws IOException {
+        String line;
+        while((line = reader.readLine()) != null)
+            lines.add(line);
+    }
+    
     /**
      * @throws IOException  For any I/O related error.
      */	
     private static String readUserInput(final String msg) throws IOException {
         BufferedReader reader;
         try {
-            reader = new BufferedReader(new InputStreamReader( System.in ));
+            reader = stdinReader();
             System.out.print(msg);
             String input;
             while( (input = reader.readLine()) == null || input.trim().length() == 0 ) { // check in case of null or blank input
@@ -339,17 +895,63 @@ public class Main {
          * Only permit these combinations for the following operations:
          *        - verboseModeEnabled: (ignore)
          *        - interactiveModeEnabled: (ignored)
+         *        - loaderThreads: (ignored)
+         *        - lockTimeout: (ignored)
+         *        - showStats: any operation except serve and connect
+         *        - offHeap: any operation except serve and connect
+         *        - connectSocketFileName: any operation except serve
          *        - db reset:     {resetDb}
          *        - db repair:    {repairDb}, [dbFileName]
-         *        - db merge:     {mergeDb}, dbFileName
-         *        - db query:     {queryMode}, queryKey, [dbFileName]
+         *        - db merge:     {mergeDb}, dbFileName, [mergeBufferSize]
+         *        - db query:     {queryMode}, queryKey, [watchQuery], [dbFileName]
+         *        - db batch query: {queryBatchMode}, [queryKeys | keysFileName], [nullDelimited], [dbFileName]
+         *        - db scan:      {scanMode}, scanPrefix | rangeFromKey rangeToKey, [nullDelimited], [dbFileName]
+         *        - db glob:      {globMode}, globPattern, [globOffset], [globLimit], [nullDelimited], [dbFileName]
          *        - db entry:     {entryMode}, [forceEntry], [keyValPair]
+         *        - db bulk entry: {bulkEntryMode}, [forceEntry], [bulkEntryFileName]
+         *        - db delete:    {deleteMode}, deleteKey, [dbFileName]
+         *        - db compact:   {compactDb}, [dbFileName]
+         *        - db index:     {indexDb}, [dbFileName]
+         *        - db Bloom filter: {bloomDb}, bloomFalsePositiveRate, [dbFileName]
+         *        - db shard:     {shardDb}, shardCount, [dbFileName]
+         *        - db sort:      {sortDb}, [dbFileName]
+         *        - db verify:    {verifyDb}, [dbFileName]
+         *        - db convert:   {convertDb}, convertToFormat, [dbFileName]
+         *        - db serve:     {serveMode}, serveSocketFileName, [noGroupCommit], [dbFileName]
+         *        - db session:   {sessionMode}, [sessionScriptFileName], [flushEvery], [dbFileName]
          */
         
+        if((globOffset > 0 || globLimit < Integer.MAX_VALUE) && !globMode)
+            throw new IllegalArgumentException("Options --offset and --limit are only valid with --glob");
+        
+        if(noGroupCommit && !serveMode)
+            throw new IllegalArgumentException("Option --no-group-commit is only valid with --serve");
+        
+        if(shardDb && connectSocketFileName != null)
+            throw new IllegalArgumentException("Option --shard-db is not valid with --connect");
+        
+        if(flushEvery > 0 && !sessionMode)
+            throw new IllegalArgumentException("Option --flush-every is only valid with --session");
+        
+        if(watchQuery && !queryMode)
+            throw new IllegalArgumentException("Option --watch is only valid with --query");
+        
+        if(watchQuery && (connectSocketFileName != null || showStats || offHeap || loaderThreads > 0))
+            throw new IllegalArgumentException("Options --connect, --stats, --off-heap and --threads are not valid with --watch");
+        
+        if(sessionMode && (connectSocketFileName != null || showStats || offHeap || loaderThreads > 0 || mergeBufferSize > 0))
+            throw new IllegalArgumentException("Options --connect, --stats, --off-heap, --threads and --merge-buffer are not valid with --session");
+        
+        if(showStats && (serveMode || connectSocketFileName != null))
+            throw new IllegalArgumentException("Option --stats is not valid with --serve or --connect");
+        
+        if(offHeap && (serveMode || connectSocketFileName != null))
+            throw new IllegalArgumentException("Option --off-heap is not valid with --serve or --connect");
+        
         if(resetDb) {
             operationMode = "reset-db";
 //			System.out.println("  [in "+operationMode+"]");
-            if(repairDb || mergeDb || isExternalDb || entryMode || forceEntry || queryMode)
+            if(repairDb || mergeDb || isExternalDb || entryMode || forceEntry || queryMode || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
                 throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
             return;
         }
@@ -357,7 +959,7 @@ public class Main {
         if(repairDb) {
             operationMode = "repair-db";
 //			System.out.println("  [in "+operationMode+"]");
-            if(resetDb || mergeDb || entryMode || forceEntry || queryMode)
+            if(resetDb || mergeDb || entryMode || forceEntry || queryMode || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
                 throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
             return;
         }
@@ -365,15 +967,49 @@ public class Main {
         if(mergeDb) {
             operationMode = "merge-to-db";
 //			System.out.println("  [in "+operationMode+"]");
-            if(resetDb || repairDb || isExternalDb || entryMode || forceEntry || queryMode)
+            if(resetDb || repairDb || isExternalDb || entryMode || forceEntry || queryMode || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
                 throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
             return;
         }
         
+        if(queryBatchMode) {
+            operationMode = "query-batch";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode
+                    || convertDb || serveMode || bulkEntryMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(globMode) {
+            operationMode = "glob";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode
+                    || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(scanMode) {
+            operationMode = "scan";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode
+                    || convertDb || serveMode || bulkEntryMode || queryBatchMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            if(scanPrefix != null && rangeFromKey != null)
+                throw new IllegalArgumentException("Wrong option combinations: --prefix, --range");
+            return;
+        }
+        
         if(queryMode) {
             operationMode = "query";
 //			System.out.println("  [in "+operationMode+"]");
-            if(resetDb || repairDb || mergeDb || entryMode || forceEntry)
+            if(resetDb || repairDb || mergeDb || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(bulkEntryMode) { /* before entry, as force entry option also sets entry mode */
+            operationMode = "bulk-entry";
+            if(resetDb || repairDb || mergeDb || queryMode || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode
+                    || keyValPair != null || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
                 throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
             return;
         }
@@ -381,7 +1017,78 @@ public class Main {
         if(entryMode) {
             operationMode = "entry";
 //			System.out.println("  [in "+operationMode+"]");
-            if(resetDb || repairDb || mergeDb || queryMode)
+            if(resetDb || repairDb || mergeDb || queryMode || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(deleteMode) {
+            operationMode = "delete";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(compactDb) {
+            operationMode = "compact-db";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(indexDb) {
+            operationMode = "index-db";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(bloomDb) {
+            operationMode = "bloom-db";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(shardDb) {
+            operationMode = "shard-db";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(sortDb) {
+            operationMode = "sort-db";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(verifyDb) {
+            operationMode = "verify-db";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(convertDb) {
+            operationMode = "convert-db";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(serveMode) {
+            operationMode = "serve";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || shardDb || sessionMode || convertDb
+                    || connectSocketFileName != null || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
+                throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
+            return;
+        }
+        
+        if(sessionMode) {
+            operationMode = "session";
+            if(resetDb || repairDb || mergeDb || queryMode || entryMode || forceEntry || deleteMode || compactDb || indexDb || bloomDb || shardDb || convertDb || serveMode || bulkEntryMode || queryBatchMode || scanMode || sortDb || globMode || verifyDb)
                 throw new IllegalArgumentException("Wrong option combinations: " + getInvalidOptionCombinations());
             return;
         }
@@ -417,6 +1124,13 @@ public class Main {
             optionCounter++;
         }
         
+        if(bulkEntryMode) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--bulk-entry");
+            optionCounter++;
+        }
+        
         if(forceEntry) {
             if(optionCounter > 0)
                 sbOptionCombinations.append(", ");
@@ -424,6 +1138,27 @@ public class Main {
             optionCounter++;
         }
         
+        if(queryBatchMode) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--query-batch");
+            optionCounter++;
+        }
+        
+        if(globMode) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--glob");
+            optionCounter++;
+        }
+        
+        if(scanMode) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append(scanPrefix != null ? "--prefix" : "--range");
+            optionCounter++;
+        }
+        
         if(queryMode) {
             if(optionCounter > 0)
                 sbOptionCombinations.append(", ");
@@ -431,6 +1166,83 @@ public class Main {
             optionCounter++;
         }
         
+        if(deleteMode) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--delete");
+            optionCounter++;
+        }
+        
+        if(compactDb) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--compact-db");
+            optionCounter++;
+        }
+        
+        if(indexDb) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--index-db");
+            optionCounter++;
+        }
+        
+        if(bloomDb) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--bloom-db");
+            optionCounter++;
+        }
+        
+        if(shardDb) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--shard-db");
+            optionCounter++;
+        }
+        
+        if(sessionMode) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--session");
+            optionCounter++;
+        }
+        
+        if(sortDb) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--sort-db");
+            optionCounter++;
+        }
+        
+        if(verifyDb) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--verify");
+            optionCounter++;
+        }
+        
+        if(convertDb) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--convert-db");
+            optionCounter++;
+        }
+        
+        if(serveMode) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--serve");
+            optionCounter++;
+        }
+        
+        if(connectSocketFileName != null) {
+            if(optionCounter > 0)
+                sbOptionCombinations.append(", ");
+            sbOptionCombinations.append("--connect");
+            optionCounter++;
+        }
+        
         if(isExternalDb) {
             if(optionCounter > 0)
                 sbOptionCombinations.append(", ");
@@ -455,12 +1267,51 @@ public class Main {
             System.out.println("entryMode=" + entryMode);
             System.out.println("forceEntry=" + forceEntry);
             System.out.println("queryMode=" + queryMode);
+            System.out.println("deleteMode=" + deleteMode);
+            System.out.println("compactDb=" + compactDb);
+            System.out.println("indexDb=" + indexDb);
+            System.out.println("bloomDb=" + bloomDb);
+            System.out.println("shardDb=" + shardDb);
+            System.out.println("sessionMode=" + sessionMode);
+            System.out.println("watchQuery=" + watchQuery);
+            System.out.println("sortDb=" + sortDb);
+            System.out.println("verifyDb=" + verifyDb);
+            System.out.println("convertDb=" + convertDb);
+            System.out.println("serveMode=" + serveMode);
+            System.out.println("noGroupCommit=" + noGroupCommit);
+            System.out.println("showStats=" + showStats);
+            System.out.println("offHeap=" + offHeap);
+            System.out.println("bulkEntryMode=" + bulkEntryMode);
+            System.out.println("queryBatchMode=" + queryBatchMode);
+            System.out.println("scanMode=" + scanMode);
+            System.out.println("globMode=" + globMode);
+            System.out.println("nullDelimited=" + nullDelimited);
             System.out.println("interactiveModeEnabled=" + interactiveModeEnabled);
             System.out.println("operationMode=" + operationMode);
             System.out.println("keyValPair=" + Arrays.toString(keyValPair));
             System.out.println("queryKey=" + queryKey);
+            System.out.println("deleteKey=" + deleteKey);
             System.out.println("mergeToDbFromFileName=" + mergeToDbFromFileName);
+            System.out.println("convertToFormat=" + convertToFormat);
+            System.out.println("serveSocketFileName=" + serveSocketFileName);
+            System.out.println("connectSocketFileName=" + connectSocketFileName);
+            System.out.println("bulkEntryFileName=" + bulkEntryFileName);
+            System.out.println("queryKeys=" + queryKeys);
+            System.out.println("keysFileName=" + keysFileName);
+            System.out.println("scanPrefix=" + scanPrefix);
+            System.out.println("rangeFromKey=" + rangeFromKey);
+            System.out.println("rangeToKey=" + rangeToKey);
+            System.out.println("globPattern=" + globPattern);
+            System.out.println("globOffset=" + globOffset);
+            System.out.println("globLimit=" + globLimit);
             System.out.println("dbFileName=" + dbFileName);
+            System.out.println("loaderThreads=" + loaderThreads);
+            System.out.println("lockTimeout=" + lockTimeout);
+            System.out.println("mergeBufferSize=" + mergeBufferSize);
+            System.out.println("bloomFalsePositiveRate=" + bloomFalsePositiveRate);
+            System.out.println("shardCount=" + shardCount);
+            System.out.println("flushEvery=" + flushEvery);
+            System.out.println("sessionScriptFileName=" + sessionScriptFileName);
             System.out.println("----------------------------");
         }
     }
@@ -477,13 +1328,41 @@ public class Main {
                         "Options: \n" +
                         "    --verbose, -v                  Enables verbose mode \n" +
                         "    --dnd, -n                      (Non-interactive mode) No prompts for confirmation in any critical operations \n" +
+                        "    --threads, -t <count>          Count of threads to load large registry database with (default: available processors) \n" +
+                        "    --lock-timeout, -w <millis>    Upper bound of the wait for the registry database lock held by another process (default: 10000) \n" +
+                        "    --stats, -T                    Prints timings and throughput of the operation phases as JSON on standard error \n" +
+                        "    --off-heap, -H                 Keeps the loaded registry database off the heap, for registries of millions of pairs \n" +
                         "    --reset-db, -R                 Reset whole registry database \n" +
                         "    --repair-db, -r                Delete only corrupted data from database \n" +
                         "    --merge-to-db, -m <file-name>  Includes file's contents into registry database \n" +
+                        "    --merge-buffer, -M <MiB>       Memory to sort the merged data in, larger data is sorted in runs on disk (default: 64) \n" +
                         "    --db, -d <file-name>           Selects file as registry database (overrides default database) \n" +
                         "    --entry, -e [<key>] [<value>]  Enter key-value pair as entry in registry database \n" +
                         "    --force-entry, -f              Force entry of key-value pair if already exists in registry database \n" +
+                        "    --bulk-entry, -b [<file-name>] Enter key-value pairs (key TAB value per line) from file or standard input \n" +
                         "    --query, -q <key>              Query key from registry database \n" +
+                        "    --watch, -W                    Query prints +|- TAB key TAB value, then again on every change of the key by other processes, till interrupted \n" +
+                        "    --query-batch, -Q [<key>...]   Query keys (or keys from file/standard input), prints: +|- TAB key TAB value \n" +
+                        "    --keys-file, -F <file-name>    Reads batch query keys from file, one per line (- for standard input) \n" +
+                        "    --prefix, -p <prefix>          List pairs whose keys start with prefix (ignoring case) in key order, prints: key TAB value \n" +
+                        "    --range, -g <from> <to>        List pairs with keys from first key (inclusive) to last key (exclusive) in key order \n" +
+                        "    --glob, -l <pattern>           List pairs whose keys match pattern (ignoring case, * any run, ? any character) in key order \n" +
+                        "    --offset, -O <count>           Skips the first matching pairs of glob (default: 0) \n" +
+                        "    --limit, -L <count>            Lists at most count matching pairs of glob (default: all) \n" +
+                        "    --null, -0                     Batch query, scan and glob results with NUL terminated fields \n" +
+                        "    --delete, -x <key>             Delete key and its value from registry database \n" +
+                        "    --compact-db, -c               Rewrite registry database with its log applied, deletes the log \n" +
+                        "    --index-db, -i                 Build hash index of registry database, kept up to date from then on \n" +
+                        "    --bloom-db, -B <rate>          Build Bloom filter of registry database keys at false positive rate (e.g. 0.01), kept up to date from then on \n" +
+                        "    --shard-db, -N <count>         Split registry database into count shard files by key hash (1-" + Registry.MAX_SHARD_COUNT + "), or reshard it online \n" +
+                        "    --sort-db, -s                  Sort registry database by key and build its sparse index, kept sorted from then on \n" +
+                        "    --verify, -V                   Report corrupt byte ranges of registry database without rewriting it (framed format: by record checksums) \n" +
+                        "    --convert-db, -C <format>      Convert registry database to text, binary, framed (binary with record checksums) dictionary (binary with repeated values stored once) or compressed (sorted Deflate blocks) format \n" +
+                        "    --serve, -S <socket-file>      Keep registry database loaded and serve requests on Unix domain socket \n" +
+                        "    --session, -I [<script-file>]  Load registry database once and run commands from script (default: standard input): get KEY, put KEY VALUE, put! KEY VALUE, del KEY, merge FILE, repair, flush, exit \n" +
+                        "    --flush-every, -U <count>      Session writes back every count changes (default: on flush and at exit only) \n" +
+                        "    --no-group-commit, -G          Server syncs the log for every request (default: one sync per group of waiting requests) \n" +
+                        "    --connect, -k <socket-file>    Forward the operation to the server on Unix domain socket \n" +
                         "    --help, -h                     Shows this help menu \n\n",
                         APP_VERSION, dbFileName);
         StandardExitCodes.showMessage();
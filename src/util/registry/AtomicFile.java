@@ -0,0 +1,126 @@
+package util.registry;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+
+/**
+ * Crash-safe replacement of a whole file.
+ * <p> The new contents are written to a temporary file in the same
+ * directory, forced to the disk, then moved over the target file in a
+ * single atomic rename and the directory entry is forced as well. A crash
+ * or a full disk at any point leaves either the old or the new file, never
+ * a truncated one; a left over temporary file is harmless. </p>
+ * */
+final class AtomicFile {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private AtomicFile() {}
+
+    /**
+     * Writer of the new file contents.
+     * */
+    interface Content {
+        /**
+         * @param out Stream to write the contents to, buffered; closing it only flushes it.
+         * @throws IOException For any I/O error.
+         * */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Fix-up of the written contents e.g. a header field only known at the end.
+     * */
+    interface Patch {
+        /**
+         * @param channel Channel of the temporary file, the contents written.
+         * @throws IOException For any I/O error.
+         * */
+        void apply(FileChannel channel) throws IOException;
+    }
+
+    /**
+     * Replaces the file with the contents written.
+     * @param file File to write, created if not present (a symbolic link is followed).
+     * @param content Writer of the contents.
+     * @throws IOException For any I/O error, the file is left untouched.
+     * */
+    static void write(final Path file, final Content content) throws IOException {
+        write(file, content, null);
+    }
+
+    /**
+     * Replaces the file with the contents written and patched.
+     * @param file File to write, created if not present (a symbolic link is followed).
+     * @param content Writer of the contents.
+     * @param patch Fix-up applied to the contents written, null if none.
+     * @throws IOException For any I/O error, the file is left untouched.
+     * */
+    static void write(final Path file, final Content content, final Patch patch) throws IOException {
+        final Path target = Files.exists(file) ? file.toRealPath() : file.toAbsolutePath();
+        final Path directory = target.getParent();
+        final Path tempFile = Files.createTempFile(directory, target.getFileName() + ".", ".tmp");
+        try {
+            try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                OutputStream buffered = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+                content.writeTo(new FilterOutputStream(buffered) {
+                    @Override
+                    public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+                        out.write(bytes, offset, length);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush(); /* the channel is still to be forced */
+                    }
+                });
+                buffered.flush();
+                if(patch != null)
+                    patch.apply(channel);
+                channel.force(true);
+            }
+            copyPermissions(target, tempFile);
+            try {
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch(AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch(IOException | RuntimeException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        forceDirectory(directory);
+    }
+
+    /**
+     * Forces the directory entries (e.g. a rename or a new file) to the disk.
+     * @param directory Directory to force.
+     * */
+    static void forceDirectory(final Path directory) {
+        try(FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch(IOException e) {
+            /* directories can not be opened on every platform (e.g. Windows), rename is durable there anyway */
+        }
+    }
+
+    /* temporary files are created owner-only, keeps the permissions of the replaced file */
+    private static void copyPermissions(final Path from, final Path to) throws IOException {
+        if(Files.notExists(from))
+            return;
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch(UnsupportedOperationException e) {
+            /* not a POSIX file system */
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package util.registry;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+
+/**
+ * Multi-key query against a loaded registry.
+ * <p> Keys are taken from the arguments, or one key per line from a file or
+ * standard input, and the results are streamed in input order, one result
+ * per key with three fields: status ("+" found, "-" missing), key and value
+ * (empty if missing). Fields are separated by a tab and results end with a
+ * new line, or, null-delimited, every field ends with a NUL character. </p>
+ * <p> Blank input lines are ignored. </p>
+ * */
+final class BatchQuery {
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024; /* results are flushed in batches */
+
+    private final String[]  keys;
+    private final String    keysFileName;
+    private final boolean   nullDelimited;
+
+    /**
+     * @param keys Keys to query, null to read the keys from keysFileName.
+     * @param keysFileName File to read the keys from, "-" for standard input.
+     * @param nullDelimited True for NUL terminated fields, else tab and new line separated.
+     * */
+    BatchQuery(final String[] keys, final String keysFileName, final boolean nullDelimited) {
+        if(keys == null && keysFileName == null)
+            throw new NullPointerException("keys or file to read keys from");
+        this.keys           = keys;
+        this.keysFileName   = keysFileName;
+        this.nullDelimited  = nullDelimited;
+    }
+
+    /**
+     * Queries every key from the map and streams the results.
+     * @param map Loaded registry.
+     * @param out Stream to write the results to, flushed but not closed.
+     * @return Counts of keys found and missing.
+     * @throws IOException For any I/O error.
+     * */
+    int[] run(final Map<Key,String> map, final OutputStream out) throws IOException {
+        final int[] counts = new int[2];
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), OUTPUT_BUFFER_SIZE);
+        if(keys != null) {
+            for(String key : keys)
+                query(map, key, writer, counts);
+        } else {
+            boolean fromStdin = keysFileName.equals("-");
+            try(BufferedReader reader = fromStdin ?
+                    new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) :
+                    Files.newBufferedReader(Paths.get(keysFileName))) {
+                String key;
+                while((key = reader.readLine()) != null)
+                    query(map, key, writer, counts);
+            } catch(IOException e) {
+                throw new IOException("While reading keys from: " + (fromStdin ? "standard input" : keysFileName), e);
+            }
+        }
+        writer.flush();
+        return counts;
+    }
+
+    /**
+     * Queries every key from the map and collects the pairs found instead
+     * of streaming the results, e.g. the results of a shard to merge with
+     * those of the other shards.
+     * @param map Loaded registry.
+     * @param results Map to put the pairs found into.
+     * @return Counts of keys found and missing.
+     * @throws IOException For any I/O error.
+     * */
+    int[] collect(final Map<Key,String> map, final Map<Key,String> results) throws IOException {
+        final int[] counts = new int[2];
+        for(String key : readKeys()) {
+            Key parsed = new Key(key);
+            String value = map.get(parsed);
+            counts[value == null ? 1 : 0]++;
+            if(value != null)
+                results.put(parsed, value);
+        }
+        return counts;
+    }
+
+    /**
+     * Reads all the keys of the batch, blank ones left out, e.g. to route
+     * them to the shards of a sharded registry database.
+     * @return Keys of the batch, trimmed, in input order.
+     * @throws IOException For any I/O error.
+     * */
+    String[] readKeys() throws IOException {
+        final List<String> batch = new ArrayList<>();
+        if(keys != null) {
+            for(String key : keys)
+                if(key.trim().length() > 0)
+                    batch.add(key.trim());
+            return batch.toArray(new String[0]);
+        }
+        boolean fromStdin = keysFileName.equals("-");
+        try(BufferedReader reader = fromStdin ?
+                new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) :
+                Files.newBufferedReader(Paths.get(keysFileName))) {
+            String key;
+            while((key = reader.readLine()) != null)
+                if(key.trim().length() > 0)
+                    batch.add(key.trim());
+        } catch(IOException e) {
+            throw new IOException("While reading keys from: " + (fromStdin ? "standard input" : keysFileName), e);
+        }
+        return batch.toArray(new String[0]);
+    }
+
+    /**
+     * @param keys Keys to query instead of the keys of this batch.
+     * @return Batch query of the keys, in the output format of this batch.
+     * */
+    BatchQuery forKeys(final String[] keys) {
+        return new BatchQuery(keys, null, nullDelimited);
+    }
+
+    /**
+     * Collects the keys of the batch which match, reading the keys file a
+     * first time if the keys are read from one.
+     * @param predicate Predicate to test every key with.
+     * @param limit Upper bound of the count of matching keys collected.
+     * @return Matching keys, null if more than limit keys match or if the
+     *          keys are read from standard input (which can not be read twice).
+     * @throws IOException For any I/O error.
+     * */
+    Set<Key> matching(final Predicate<Key> predicate, final int limit) throws IOException {
+        final Set<Key> matches = new HashSet<>();
+        if(keys != null) {
+            for(String key : keys)
+                if(!match(key, predicate, matches, limit))
+                    return null;
+            return matches;
+        }
+        if(keysFileName.equals("-"))
+            return null;
+        try(BufferedReader reader = Files.newBufferedReader(Paths.get(keysFileName))) {
+            String key;
+            while((key = reader.readLine()) != null)
+                if(!match(key, predicate, matches, limit))
+                    return null;
+            return matches;
+        } catch(IOException e) {
+            throw new IOException("While reading keys from: " + keysFileName, e);
+        }
+    }
+
+    /* false once more than limit keys match */
+    private static boolean match(final String rawKey, final Predicate<Key> predicate, final Set<Key> matches, final int limit) {
+        String key = rawKey.trim();
+        if(key.length() == 0)
+            return true;
+        Key parsed = new Key(key);
+        if(predicate.test(parsed))
+            matches.add(parsed);
+        return matches.size() <= limit;
+    }
+
+    private void query(final Map<Key,String> map, final String rawKey, final Writer writer, final int[] counts) throws IOException {
+        String key = rawKey.trim();
+        if(key.length() == 0)
+            return;
+        String value = map.get(new Key(key));
+        counts[value == null ? 1 : 0]++;
+        appendResult(writer, key, value, nullDelimited);
+    }
+
+    /**
+     * Appends a result in the batch query output format.
+     * @param out Output to append to.
+     * @param key Queried key.
+     * @param value Value of the key, null if missing.
+     * @param nullDelimited True for NUL terminated fields, else tab and new line separated.
+     * @throws IOException For any I/O error.
+     * */
+    static void appendResult(final Appendable out, final String key, final String value, final boolean nullDelimited) throws IOException {
+        char fieldEnd = nullDelimited ? '\0' : '\t';
+        out.append(value == null ? '-' : '+').append(fieldEnd)
+           .append(key).append(fieldEnd)
+           .append(value == null ? "" : value).append(nullDelimited ? '\0' : '\n');
+    }
+}
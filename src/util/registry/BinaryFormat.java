@@ -0,0 +1,622 @@
+package util.registry;
+
+import static util.registry.Log.verbose;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+
+/**
+ * Compact binary registry database format.
+ * <p> Layout (big-endian): </p>
+ * <p>    - header: magic "REGB" (int), version (int), record count (int) </p>
+ * <p>    - records: key length (varint), key UTF-8 bytes, value length (varint), value UTF-8 bytes </p>
+ * <p> Lengths are unsigned LEB128 varints, i.e. a single byte for fields
+ * shorter than 128 bytes. </p>
+ * <p> Saves the "K: "/"V: " prefixes and line separators on disk and the
+ * per line String allocations and trimming while loading. </p>
+ * <p> Framed variant (version 2): every record is preceded by a frame
+ * header, marker {@value #FRAME_MARKER} (int), record length (int) and
+ * CRC32C of the record (int). A corrupt record is detected by its checksum,
+ * and reading resynchronizes at the next marker, hence only the corrupt
+ * records are lost (see {@link RecordVerifier}). </p>
+ * <p> Dictionary variant (version 3): the header is followed by a
+ * dictionary of the repeated values (see {@link ValueDictionary}), value
+ * count (int) and values (length-prefixed as above), and every record
+ * holds its key followed by a value reference (varint): 0 for a value
+ * stored inline after it, else the id of the value in the dictionary plus 1.
+ * The most frequent values get the lowest ids, a single byte for the
+ * first 127 of them. </p>
+ * */
+final class BinaryFormat {
+    static final int MAGIC = 0x52454742; /* "REGB" */
+    static final int VERSION = 1;
+    static final int FRAMED_VERSION = 2;
+    static final int DICTIONARY_VERSION = 3;
+    static final int HEADER_SIZE = 4 + 4 + 4;
+    static final int RECORD_COUNT_OFFSET = 4 + 4;
+
+    /** Frame marker, its first two bytes never occur in UTF-8 text */
+    static final int FRAME_MARKER = 0xFEFF5246; /* 0xFE 0xFF "RF" */
+    static final int FRAME_HEADER_SIZE = 4 + 4 + 4;
+
+    /* upper bound of a key or value length, guards against corrupt lengths */
+    private static final int MAX_FIELD_LENGTH = 16 * 1024 * 1024;
+
+    /** Upper bound of a framed record length */
+    static final int MAX_RECORD_LENGTH = 2 * (MAX_FIELD_LENGTH + 5);
+
+    private BinaryFormat() {}
+
+    /**
+     * @param file File to check.
+     * @return True if the file starts with the binary format magic.
+     * @throws IOException For any I/O error.
+     * */
+    static boolean isBinary(final Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while(magic.hasRemaining() && channel.read(magic) >= 0);
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * @param file File to check.
+     * @return True if the file starts with the header of the framed binary format.
+     * @throws IOException For any I/O error.
+     * */
+    static boolean isFramed(final Path file) throws IOException {
+        return version(file) == FRAMED_VERSION;
+    }
+
+    /**
+     * @param file File to check.
+     * @return True if the file starts with the header of the dictionary binary format.
+     * @throws IOException For any I/O error.
+     * */
+    static boolean hasDictionary(final Path file) throws IOException {
+        return version(file) == DICTIONARY_VERSION;
+    }
+
+    /* version of the binary format header, -1 if not in binary format */
+    private static int version(final Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while(header.hasRemaining() && channel.read(header) >= 0);
+            return !header.hasRemaining() && header.getInt(0) == MAGIC ? header.getInt(4) : -1;
+        }
+    }
+
+    /**
+     * @param file File in binary format.
+     * @return Value dictionary stored in the header, null if the file is
+     *          not in the dictionary variant.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the header is corrupt.
+     * */
+    static ValueDictionary readDictionary(final Path file) throws IOException, CorruptRegistryDataException {
+        try(RecordReader reader = new RecordReader(file)) {
+            return reader.dictionary;
+        }
+    }
+
+    /**
+     * @param file File in binary format.
+     * @return Record count stored in the header.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the header is corrupt.
+     * */
+    static int recordCount(final Path file) throws IOException, CorruptRegistryDataException {
+        try(RecordReader reader = new RecordReader(file)) {
+            return reader.recordCount;
+        }
+    }
+
+    /**
+     * Loads all the records of the file into the map.
+     * @param file File in binary format.
+     * @param map Map to load pairs into, duplicate keys are not loaded.
+     * @param values Dictionary to intern the values through.
+     * @param raiseException True if required to throw exception in case of data corruption,
+     *                       else corrupt records are skipped (a truncated file is loaded up to the
+     *                       truncation, a framed file past every corrupt record).
+     * @return Count of the pairs loaded.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    static int read(final Path file, final Map<Key,String> map, final ValueDictionary values, final boolean raiseException)
+            throws IOException, CorruptRegistryDataException {
+        int pairsLoaded = 0;
+        try(RecordReader reader = new RecordReader(file)) {
+            for(int record = 0; reader.hasNext(record); record++) {
+                long offset = reader.offset;
+                String[] pair;
+                try {
+                    pair = reader.next(record);
+                } catch(CorruptRegistryDataException e) {
+                    if(raiseException)
+                        throw e;
+                    if(!reader.framed)
+                        break; /* lengths can not be trusted any more, rest of the file is lost */
+                    reader.resync(offset + 1); /* only the corrupt record is lost */
+                    verbose("Corrupt record at offset %d skipped (%s), resynchronized at offset %d",
+                            offset, e.getErrorDetail(), reader.offset);
+                    continue;
+                }
+                try {
+                    checkPair(pair, record, file);
+                    Key key = new Key(pair[0]);
+                    if(map.containsKey(key))
+                        throw new CorruptRegistryDataException("Duplicate key", pair[0], file);
+                    map.put(key, values.intern(pair[1]));
+                    pairsLoaded++;
+                } catch(CorruptRegistryDataException e) {
+                    if(raiseException)
+                        throw e;
+                }
+            }
+        }
+        return pairsLoaded;
+    }
+
+    /**
+     * Streams the records of the file till the key is found.
+     * @param file File in binary format.
+     * @param key Key to find.
+     * @return The corresponding value to the key specified (null if not found).
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected before the key is found.
+     * */
+    static String find(final Path file, final Key key) throws IOException, CorruptRegistryDataException {
+        try(RecordReader reader = new RecordReader(file)) {
+            for(int record = 0; reader.hasNext(record); record++) {
+                String[] pair = reader.next(record);
+                checkPair(pair, record, file);
+                if(new Key(pair[0]).equals(key))
+                    return pair[1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the file with the pairs, see {@link AtomicFile}.
+     * @param file File to write.
+     * @param pairs Pairs to write, in the order to write them.
+     * @param framed True for the framed variant.
+     * @param dictionary True for the dictionary variant, with the values
+     *                   repeated among the pairs in the dictionary.
+     * @return Count of the pairs written.
+     * @throws IOException For any I/O error.
+     * @throws IllegalArgumentException If both variants are requested.
+     * */
+    static int write(final Path file, final Collection<Map.Entry<Key,String>> pairs, final boolean framed, final boolean dictionary)
+            throws IOException, IllegalArgumentException {
+        final ValueDictionary values = dictionary ? ValueDictionary.select(() -> pairs.stream().map(Map.Entry::getValue).iterator()) : null;
+        AtomicFile.write(file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            writeHeader(out, pairs.size(), framed, values);
+            for(Map.Entry<Key,String> pair : pairs)
+                writeRecord(out, pair.getKey().toString(), pair.getValue(), framed, values);
+            out.flush();
+        });
+        return pairs.size();
+    }
+
+    /**
+     * Writes the header, for streamed writes; the record count may be
+     * patched at {@link #RECORD_COUNT_OFFSET} once known.
+     * @param out Stream to write to.
+     * @param recordCount Count of the records to follow.
+     * @param framed True for the framed variant.
+     * @param dictionary Value dictionary for the dictionary variant, else null.
+     * @throws IOException For any I/O error.
+     * @throws IllegalArgumentException If both variants are requested.
+     * */
+    static void writeHeader(final DataOutputStream out, final int recordCount, final boolean framed, final ValueDictionary dictionary)
+            throws IOException, IllegalArgumentException {
+        if(framed && dictionary != null)
+            throw new IllegalArgumentException("The framed binary format has no value dictionary");
+        out.writeInt(MAGIC);
+        out.writeInt(framed ? FRAMED_VERSION : dictionary != null ? DICTIONARY_VERSION : VERSION);
+        out.writeInt(recordCount);
+        if(dictionary != null) {
+            out.writeInt(dictionary.size());
+            for(int id = 0; id < dictionary.size(); id++)
+                writeField(out, dictionary.get(id));
+        }
+    }
+
+    /**
+     * Writes a record, for streamed writes.
+     * @param out Stream to write to.
+     * @param key Key of the record.
+     * @param value Value of the record.
+     * @param framed True for the framed variant.
+     * @param dictionary Value dictionary written in the header for the
+     *                   dictionary variant, else null.
+     * @throws IOException For any I/O error.
+     * */
+    static void writeRecord(final DataOutputStream out, final String key, final String value, final boolean framed,
+                            final ValueDictionary dictionary) throws IOException {
+        if(dictionary != null) {
+            writeField(out, key);
+            int id = dictionary.idOf(value);
+            writeVarint(out, id + 1);
+            if(id < 0)
+                writeField(out, value);
+            return;
+        }
+        if(!framed) {
+            writeField(out, key);
+            writeField(out, value);
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(key.length() + value.length() + 8);
+        DataOutputStream record = new DataOutputStream(bytes);
+        writeField(record, key);
+        writeField(record, value);
+        CRC32C checksum = new CRC32C();
+        checksum.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeInt(FRAME_MARKER);
+        out.writeInt(bytes.size());
+        out.writeInt((int)checksum.getValue());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Reads the record at the specified byte offset.
+     * @param channel Channel of a file in binary format.
+     * @param offset Offset of the record.
+     * @param framed True for the framed variant, the checksum is verified then.
+     * @param dictionary Value dictionary of the file for the dictionary variant
+     *                   (see {@link #readDictionary(Path)}), else null.
+     * @param file File of the channel, for error reporting.
+     * @return Key and value of the record.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the record is not in the recognizable format.
+     * */
+    static String[] readRecordAt(final FileChannel channel, final long offset, final boolean framed,
+                                 final ValueDictionary dictionary, final Path file)
+            throws IOException, CorruptRegistryDataException {
+        if(framed) {
+            ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header, offset + header.position()) > 0);
+            int length = header.getInt(4);
+            if(header.hasRemaining() || header.getInt(0) != FRAME_MARKER || length < 2 || length > MAX_RECORD_LENGTH)
+                throw new CorruptRegistryDataException("Invalid record frame", "offset " + offset, file);
+            ByteBuffer record = ByteBuffer.allocate(length);
+            while(record.hasRemaining() && channel.read(record, offset + FRAME_HEADER_SIZE + record.position()) > 0);
+            CRC32C checksum = new CRC32C();
+            checksum.update(record.array(), 0, record.position());
+            if(record.hasRemaining() || (int)checksum.getValue() != header.getInt(8))
+                throw new CorruptRegistryDataException("Checksum mismatch", "offset " + offset, file);
+            return parseRecord(record.array(), "offset " + offset, file);
+        }
+        long[] nextOffset = { offset };
+        String key = readFieldAt(channel, nextOffset, file);
+        if(dictionary == null)
+            return new String[] { key, readFieldAt(channel, nextOffset, file) };
+        long referenceOffset = nextOffset[0];
+        int reference = readLengthAt(channel, nextOffset, file);
+        if(reference == 0)
+            return new String[] { key, readFieldAt(channel, nextOffset, file) };
+        if(reference > dictionary.size())
+            throw new CorruptRegistryDataException("Invalid value reference: " + reference, "offset " + referenceOffset, file);
+        return new String[] { key, dictionary.get(reference - 1) };
+    }
+
+    /**
+     * Visits the byte offset and key of every record, to index the file.
+     * @param file File in binary format.
+     * @param visitor Called for every record.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    static void scan(final Path file, final RecordVisitor visitor) throws IOException, CorruptRegistryDataException {
+        try(RecordReader reader = new RecordReader(file)) {
+            for(int record = 0; reader.hasNext(record); record++) {
+                long offset = reader.offset;
+                String[] pair = reader.next(record);
+                checkPair(pair, record, file);
+                visitor.visit(offset, pair[0]);
+            }
+        }
+    }
+
+    interface RecordVisitor {
+        void visit(long offset, String key);
+    }
+
+    static void writeField(final DataOutputStream out, final String field) throws IOException {
+        byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeVarint(final DataOutputStream out, int value) throws IOException {
+        while(value >= 0x80) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /* reads the field at offset[0], advances offset[0] past the field */
+    private static String readFieldAt(final FileChannel channel, final long[] offset, final Path file)
+            throws IOException, CorruptRegistryDataException {
+        final long fieldOffset = offset[0];
+        final int length = readLengthAt(channel, offset, file);
+        if(length > MAX_FIELD_LENGTH)
+            throw new CorruptRegistryDataException("Invalid field length: " + length, "offset " + fieldOffset, file);
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while(bytes.hasRemaining() && channel.read(bytes, offset[0] + bytes.position()) > 0);
+        if(bytes.hasRemaining())
+            throw new CorruptRegistryDataException("Truncated field", "offset " + fieldOffset, file);
+        offset[0] += length;
+        return new String(bytes.array(), StandardCharsets.UTF_8);
+    }
+
+    /* reads the varint at offset[0], advances offset[0] past it */
+    private static int readLengthAt(final FileChannel channel, final long[] offset, final Path file)
+            throws IOException, CorruptRegistryDataException {
+        ByteBuffer header = ByteBuffer.allocate(5);
+        while(header.hasRemaining() && channel.read(header, offset[0] + header.position()) > 0);
+        int length = 0, lengthSize = 0;
+        for(int shift = 0; ; shift += 7) {
+            if(lengthSize == header.position() || shift > 28)
+                throw new CorruptRegistryDataException("Invalid field length", "offset " + offset[0], file);
+            int b = header.get(lengthSize++) & 0xFF;
+            length |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                break;
+        }
+        if(length < 0)
+            throw new CorruptRegistryDataException("Invalid field length: " + length, "offset " + offset[0], file);
+        offset[0] += lengthSize;
+        return length;
+    }
+
+    /**
+     * Parses the key and value of a framed record.
+     * @param record Record bytes, checksum verified.
+     * @param location Location of the record, for error reporting.
+     * @param file File of the record, for error reporting.
+     * @return Key and value of the record.
+     * @throws CorruptRegistryDataException If the field lengths do not add up to the record length.
+     * */
+    static String[] parseRecord(final byte[] record, final String location, final Path file) throws CorruptRegistryDataException {
+        int[] position = { 0 };
+        String key = parseField(record, position, location, file);
+        String value = parseField(record, position, location, file);
+        if(position[0] != record.length)
+            throw new CorruptRegistryDataException("Invalid record length", location, file);
+        return new String[] { key, value };
+    }
+
+    static String parseField(final byte[] record, final int[] position, final String location, final Path file)
+            throws CorruptRegistryDataException {
+        int length = 0;
+        for(int shift = 0; ; shift += 7) {
+            if(position[0] == record.length || shift > 28)
+                throw new CorruptRegistryDataException("Invalid field length", location, file);
+            int b = record[position[0]++] & 0xFF;
+            length |= (b & 0x7F) << shift;
+            if((b & 0x80) == 0)
+                break;
+        }
+        if(length < 0 || length > record.length - position[0])
+            throw new CorruptRegistryDataException("Invalid field length: " + length, location, file);
+        String field = new String(record, position[0], length, StandardCharsets.UTF_8);
+        position[0] += length;
+        return field;
+    }
+
+    /* same validation as the text format applies to the trimmed key and value */
+    static void checkPair(final String[] pair, final int record, final Path file) throws CorruptRegistryDataException {
+        if(Registry.getInValidKeyOrValueFormat(pair[0]) == null)
+            throw new CorruptRegistryDataException("Invalid key format", "record #" + record + " key: " + pair[0], file);
+        if(Registry.getInValidKeyOrValueFormat(pair[1]) == null)
+            throw new CorruptRegistryDataException("Invalid value format", "record #" + record + " value: " + pair[1], file);
+    }
+
+    /**
+     * Sequential record reader, reuses a single buffer for all the fields.
+     * */
+    static class RecordReader implements AutoCloseable {
+        private DataInputStream in;
+        private final Path file;
+        final int recordCount;
+        final boolean framed;
+        /** Value dictionary of the dictionary variant, else null */
+        final ValueDictionary dictionary;
+        private final long fileSize;
+        private final CRC32C checksum = new CRC32C();
+        private byte[] buffer = new byte[256];
+        private long offset;
+
+        RecordReader(final Path file) throws IOException, CorruptRegistryDataException {
+            this.file = file;
+            this.fileSize = Files.size(file);
+            this.in = open(file, 0);
+            try {
+                if(in.readInt() != MAGIC)
+                    throw new CorruptRegistryDataException("Invalid binary format magic", "header", file);
+                int version = in.readInt();
+                if(version != VERSION && version != FRAMED_VERSION && version != DICTIONARY_VERSION)
+                    throw new CorruptRegistryDataException("Unsupported binary format version: " + version, "header", file);
+                framed = version == FRAMED_VERSION;
+                recordCount = in.readInt();
+                offset = HEADER_SIZE;
+                dictionary = version == DICTIONARY_VERSION ? readDictionary() : null;
+            } catch(EOFException e) {
+                in.close();
+                throw new CorruptRegistryDataException("Truncated header", "header", file);
+            } catch(IOException | CorruptRegistryDataException | RuntimeException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        private ValueDictionary readDictionary() throws IOException, CorruptRegistryDataException {
+            int size = in.readInt();
+            offset += 4;
+            if(size < 0 || size > ValueDictionary.MAX_SIZE)
+                throw new CorruptRegistryDataException("Invalid value dictionary size: " + size, "header", file);
+            ValueDictionary values = new ValueDictionary();
+            for(int id = 0; id < size; id++) {
+                String value = nextField(-1);
+                if(values.idOf(value) >= 0)
+                    throw new CorruptRegistryDataException("Duplicate value in dictionary", "header value #" + id + ": " + value, file);
+                values.add(value);
+            }
+            return values;
+        }
+
+        long offset() { return offset; }
+
+        /**
+         * @param record Number of the next record.
+         * @return True if there is a next record: till the record count of
+         *          the header, or till the end of the file if framed.
+         * */
+        boolean hasNext(final int record) {
+            return framed ? offset < fileSize : record < recordCount;
+        }
+
+        /**
+         * Skips to the next frame marker at or after the offset, or to the
+         * end of the file, framed files only.
+         * @param from Offset to look for a marker from.
+         * @throws IOException For any I/O error.
+         * */
+        void resync(final long from) throws IOException {
+            in.close();
+            in = open(file, from);
+            offset = from;
+            int window = 0;
+            for(int b; (b = in.read()) >= 0; ) {
+                window = window << 8 | b;
+                if(++offset - from >= 4 && window == FRAME_MARKER) {
+                    offset -= 4;
+                    break;
+                }
+            }
+            if(offset < fileSize) {
+                in.close();
+                in = open(file, offset);
+            }
+        }
+
+        /**
+         * Skips the records till the specified offset.
+         * @param recordOffset Offset of a record, not before the current offset.
+         * @throws IOException For any I/O error, or if the file ends before the offset.
+         * */
+        void skipTo(final long recordOffset) throws IOException {
+            in.skipNBytes(recordOffset - offset);
+            offset = recordOffset;
+        }
+
+        String[] next(final int record) throws IOException, CorruptRegistryDataException {
+            if(dictionary != null) {
+                String key = nextField(record);
+                int reference = nextLength(record);
+                if(reference == 0)
+                    return new String[] { key, nextField(record) };
+                if(reference > dictionary.size())
+                    throw new CorruptRegistryDataException("Invalid value reference: " + reference, "record #" + record, file);
+                return new String[] { key, dictionary.get(reference - 1) };
+            }
+            if(!framed)
+                return new String[] { nextField(record), nextField(record) };
+            try {
+                String location = "record #" + record + " at offset " + offset;
+                if(in.readInt() != FRAME_MARKER)
+                    throw new CorruptRegistryDataException("Invalid record marker", location, file);
+                int length = in.readInt(), expectedChecksum = in.readInt();
+                if(length < 2 || length > MAX_RECORD_LENGTH)
+                    throw new CorruptRegistryDataException("Invalid record length: " + length, location, file);
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                checksum.reset();
+                checksum.update(bytes, 0, length);
+                if((int)checksum.getValue() != expectedChecksum)
+                    throw new CorruptRegistryDataException("Checksum mismatch", location, file);
+                offset += FRAME_HEADER_SIZE + length;
+                return parseRecord(bytes, location, file);
+            } catch(EOFException e) {
+                throw new CorruptRegistryDataException("Truncated record", "record #" + record + " at offset " + offset, file);
+            }
+        }
+
+        private static DataInputStream open(final Path file, final long offset) throws IOException {
+            InputStream stream = Files.newInputStream(file);
+            try {
+                stream.skipNBytes(offset);
+            } catch(IOException e) {
+                stream.close();
+                throw e;
+            }
+            return new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+        }
+
+        /* record -1 for the value dictionary of the header */
+        private String nextField(final int record) throws IOException, CorruptRegistryDataException {
+            int length = nextLength(record);
+            if(length > MAX_FIELD_LENGTH)
+                throw new CorruptRegistryDataException("Invalid field length: " + length, location(record), file);
+            if(length > buffer.length)
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            try {
+                in.readFully(buffer, 0, length);
+            } catch(EOFException e) {
+                throw new CorruptRegistryDataException("Truncated record", location(record), file);
+            }
+            offset += length;
+            return new String(buffer, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private int nextLength(final int record) throws IOException, CorruptRegistryDataException {
+            try {
+                int length = 0, lengthSize = 0, b;
+                do {
+                    if(lengthSize == 5)
+                        throw new CorruptRegistryDataException("Invalid field length", location(record), file);
+                    b = in.readUnsignedByte();
+                    length |= (b & 0x7F) << (7 * lengthSize++);
+                } while((b & 0x80) != 0);
+                if(length < 0)
+                    throw new CorruptRegistryDataException("Invalid field length: " + length, location(record), file);
+                offset += lengthSize;
+                return length;
+            } catch(EOFException e) {
+                throw new CorruptRegistryDataException("Truncated record", location(record), file);
+            }
+        }
+
+        private static String location(final int record) {
+            return record < 0 ? "header" : "record #" + record;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
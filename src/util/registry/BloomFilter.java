@@ -0,0 +1,249 @@
+package util.registry;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+
+/**
+ * Persistent Bloom filter of the case-folded keys of a registry database
+ * file, kept next to it.
+ * <p> A query of a key the filter rules out returns without reading the
+ * database file, a key it does not rule out is looked up as usual (at the
+ * configured false positive rate for absent keys). Bits are set and probed
+ * by double hashing of a 64-bit hash of the case-folded key, the filter is
+ * read through a {@link MappedByteBuffer} so that a probe touches a few
+ * pages only. </p>
+ * <p> File layout: </p>
+ * <p>    - header: magic (int), version (int), database file size (long),
+ *          database file last modified millis (long), false positive rate (double),
+ *          hash count (int), pair count (int), bit count (long) </p>
+ * <p>    - bits: words of 64 bits (long) </p>
+ * <p> The filter is stale if the database file size or last modified time
+ * differs from the header. </p>
+ * */
+class BloomFilter {
+    /** Filter file name suffix, appended to the database file name */
+    static final String FILE_SUFFIX = ".bloom";
+
+    /** False positive rate of a filter built without one specified */
+    static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int MAGIC = 0x52424C4D; /* "RBLM" */
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4 + 4 + 8;
+    private static final int MAX_HASH_COUNT = 30;
+    private static final long MAX_BIT_COUNT = (long)(Integer.MAX_VALUE - HEADER_SIZE) / 8 * 64; /* single mapped buffer */
+
+    private final Path filterFile, dbFile;
+
+    /**
+     * @param dbFile Registry database file the filter belongs to.
+     * @throws NullPointerException If dbFile is null.
+     * */
+    BloomFilter(final Path dbFile) {
+        this.dbFile     = Objects.requireNonNull(dbFile, "database file");
+        this.filterFile = Paths.get(dbFile + FILE_SUFFIX);
+    }
+
+    Path getFile() { return filterFile; }
+
+    /**
+     * @return True if the filter is enabled i.e. the filter file is present.
+     * */
+    boolean exists() {
+        return Files.exists(filterFile);
+    }
+
+    /**
+     * @return True if the filter file matches the current database file.
+     * @throws IOException For any I/O error.
+     * */
+    boolean isFresh() throws IOException {
+        ByteBuffer header = readHeader();
+        return header != null
+                && header.getLong(8) == Files.size(dbFile)
+                && header.getLong(16) == Files.getLastModifiedTime(dbFile).toMillis();
+    }
+
+    /**
+     * @return False positive rate the filter was built with, the default
+     *          one if the filter file is missing or not in the recognizable format.
+     * @throws IOException For any I/O error.
+     * */
+    double falsePositiveRate() throws IOException {
+        ByteBuffer header = readHeader();
+        return header == null ? DEFAULT_FALSE_POSITIVE_RATE : header.getDouble(24);
+    }
+
+    /**
+     * (Re)builds the filter from the keys of the database file, sized for
+     * the false positive rate: m = -n ln(p) / ln(2)^2 bits and
+     * k = m / n ln(2) hashes for n keys.
+     * @param falsePositiveRate Rate of absent keys not ruled out, between 0 and 1 (exclusive).
+     * @return Count of the pairs added.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the database file is not in the
+     *          recognizable format, the filter file is left untouched then.
+     * @throws IllegalArgumentException If the false positive rate is out of range.
+     * */
+    int build(final double falsePositiveRate) throws IOException, CorruptRegistryDataException, IllegalArgumentException {
+        if(!(falsePositiveRate > 0 && falsePositiveRate < 1))
+            throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+        final KeyHashes keys = new KeyHashes();
+        SparseIndex.read(dbFile, (key, value) -> {
+            keys.add(key);
+            return true;
+        });
+
+        final int pairs = keys.count;
+        final double ln2 = Math.log(2);
+        long bits = (long)Math.ceil(-Math.max(pairs, 1) * Math.log(falsePositiveRate) / (ln2 * ln2));
+        bits = Math.min((bits + 63) / 64 * 64, MAX_BIT_COUNT);
+        final int hashes = (int)Math.max(1, Math.min(MAX_HASH_COUNT, Math.round((double)bits / Math.max(pairs, 1) * ln2)));
+        final long[] words = new long[(int)(bits / 64)];
+        for(int i = 0; i < pairs; i++) {
+            long h1 = keys.hashes[i], h2 = secondHash(h1);
+            for(int j = 0; j < hashes; j++) {
+                long bit = Long.remainderUnsigned(h1 + j * h2, bits);
+                words[(int)(bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        final long filterBits = bits;
+        try {
+            AtomicFile.write(filterFile, stream -> { /* concurrent rebuilds (stale filter on query) replace each other */
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(Files.size(dbFile));
+                out.writeLong(Files.getLastModifiedTime(dbFile).toMillis());
+                out.writeDouble(falsePositiveRate);
+                out.writeInt(hashes);
+                out.writeInt(pairs);
+                out.writeLong(filterBits);
+                for(long word : words)
+                    out.writeLong(word);
+                out.flush();
+            });
+        } catch(IOException e) {
+            throw new IOException("While writing Bloom filter file (" + filterFile + ")", e);
+        }
+        return pairs;
+    }
+
+    /**
+     * Maps the filter to probe keys with. The filter must be fresh.
+     * @return Probe of the filter.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the filter file is not in the recognizable format.
+     * */
+    Probe open() throws IOException, CorruptRegistryDataException {
+        try(FileChannel channel = FileChannel.open(filterFile, StandardOpenOption.READ)) {
+            MappedByteBuffer filter = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(filter.capacity() < HEADER_SIZE || filter.getInt(0) != MAGIC || filter.getInt(4) != VERSION)
+                throw new CorruptRegistryDataException("Invalid Bloom filter header", filterFile.toString(), filterFile);
+            int hashes = filter.getInt(32);
+            long bits = filter.getLong(40);
+            if(hashes < 1 || hashes > MAX_HASH_COUNT || bits < 64 || bits % 64 != 0 || HEADER_SIZE + bits / 8 != filter.capacity())
+                throw new CorruptRegistryDataException("Invalid Bloom filter size", hashes + " hash(es), " + bits + " bit(s)", filterFile);
+            return new Probe(filter, hashes, bits);
+        } catch(IOException e) {
+            throw new IOException("While reading Bloom filter file: " + filterFile, e);
+        }
+    }
+
+    /**
+     * Deletes the filter, disables it.
+     * @throws IOException For any I/O error.
+     * */
+    void delete() throws IOException {
+        Files.deleteIfExists(filterFile);
+    }
+
+    /* header of the filter file, null if missing, truncated or of another format */
+    private ByteBuffer readHeader() throws IOException {
+        if(!exists())
+            return null;
+        try(FileChannel channel = FileChannel.open(filterFile, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE)
+                return null;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header) >= 0);
+            return header.getInt(0) == MAGIC && header.getInt(4) == VERSION ? header : null;
+        }
+    }
+
+    /* 64-bit FNV-1a of the case-folded key chars, finished as splitmix64 to spread the bits */
+    private static long hash(final String folded) {
+        long h = 0xCBF29CE484222325L;
+        for(int i = 0, len = folded.length(); i < len; i++) {
+            h ^= folded.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    /* odd, hence never a cycle shorter than the bit count of a power of 2 */
+    private static long secondHash(final long hash) {
+        return mix(hash + 0x9E3779B97F4A7C15L) | 1;
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    /**
+     * Mapped filter, probes keys without reading the database file.
+     * */
+    static final class Probe {
+        private final MappedByteBuffer filter;
+        private final int hashes;
+        private final long bits;
+
+        private Probe(final MappedByteBuffer filter, final int hashes, final long bits) {
+            this.filter = filter;
+            this.hashes = hashes;
+            this.bits   = bits;
+        }
+
+        /**
+         * @param key Key to probe.
+         * @return False if the key is definitely not in the database file,
+         *          true if it may be.
+         * */
+        boolean mightContain(final Key key) {
+            long h1 = hash(key.folded()), h2 = secondHash(h1);
+            for(int j = 0; j < hashes; j++) {
+                long bit = Long.remainderUnsigned(h1 + j * h2, bits);
+                if((filter.getLong(HEADER_SIZE + (int)(bit >>> 6) * 8) & 1L << bit) == 0)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Hashes of the case-folded keys collected while reading the database file.
+     * */
+    private static class KeyHashes {
+        private int count;
+        private long[] hashes = new long[1024];
+
+        void add(final String key) {
+            if(count == hashes.length)
+                hashes = Arrays.copyOf(hashes, count * 2);
+            hashes[count++] = hash(Key.fold(key));
+        }
+    }
+}
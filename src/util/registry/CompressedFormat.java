@@ -0,0 +1,562 @@
+package util.registry;
+
+import static util.registry.Log.verbose;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+
+/**
+ * Block-compressed registry database format, with random access by key.
+ * <p> The records are written in the order of their case-folded keys and
+ * grouped in blocks of about {@value #BLOCK_SIZE} bytes, every block
+ * compressed on its own (Deflate). A directory at the end of the file
+ * holds the first key of every block, hence a query decompresses the
+ * single block which may hold the key and a full load decompresses the
+ * blocks in parallel. </p>
+ * <p> Layout (big-endian): </p>
+ * <p>    - header: magic "REGZ" (int), version (int), directory offset (long),
+ *          block count (int), record count (int) </p>
+ * <p>    - blocks: Deflate data of the records, key and value fields as in {@link BinaryFormat} </p>
+ * <p>    - directory: for every block, offset (long), compressed length (int),
+ *          length (int), record count (int), CRC32C of the records (int),
+ *          case-folded first key length (int) and UTF-8 bytes </p>
+ * <p> A rewrite keeps the block boundaries of the previous file and copies
+ * the compressed bytes of every block whose records did not change, only
+ * the changed blocks are compressed again. A corrupt block is detected by
+ * its checksum and costs only its own records on repair. </p>
+ * */
+final class CompressedFormat {
+    static final int MAGIC = 0x5245475A; /* "REGZ" */
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+
+    /** Length of the records of a new block, in bytes */
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /* a block kept from the previous file is split past this length */
+    private static final int MAX_BLOCK_SIZE = 2 * BLOCK_SIZE;
+    /* guards against corrupt lengths */
+    private static final int MAX_STORED_BLOCK_SIZE = 64 * 1024 * 1024;
+    /* blocks decompressed ahead of the loading thread, per thread */
+    private static final int BLOCKS_AHEAD = 4;
+
+    private CompressedFormat() {}
+
+    /**
+     * @param file File to check.
+     * @return True if the file starts with the header of the compressed format.
+     * @throws IOException For any I/O error.
+     * */
+    static boolean isCompressed(final Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            while(magic.hasRemaining() && channel.read(magic) >= 0);
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * @param file File in compressed format.
+     * @return Record count stored in the header.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the header or the directory is corrupt.
+     * */
+    static int recordCount(final Path file) throws IOException, CorruptRegistryDataException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return Directory.read(channel, file).recordCount;
+        }
+    }
+
+    /**
+     * Loads all the records of the file into the map, the blocks are
+     * decompressed in parallel and loaded in file order.
+     * @param file File in compressed format.
+     * @param map Map to load pairs into, duplicate keys are not loaded.
+     * @param values Dictionary to intern the values through.
+     * @param raiseException True if required to throw exception in case of data corruption,
+     *                       else corrupt blocks and records are skipped.
+     * @param threads Count of threads to decompress with.
+     * @return Count of the pairs loaded.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected (the
+     *          directory always, a block if raiseException).
+     * */
+    static int read(final Path file, final Map<Key,String> map, final ValueDictionary values,
+                    final boolean raiseException, final int threads) throws IOException, CorruptRegistryDataException {
+        int pairsLoaded = 0;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final Directory directory = Directory.read(channel, file);
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads), task -> {
+                Thread thread = new Thread(task, "registry-block-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                final Queue<Future<String[][]>> blocks = new ArrayDeque<>();
+                int nextBlock = 0;
+                for(int block = 0; block < directory.blockCount; block++) {
+                    while(nextBlock < directory.blockCount && nextBlock < block + BLOCKS_AHEAD * Math.max(1, threads)) {
+                        final int blockToRead = nextBlock++;
+                        blocks.add(executor.submit(() -> readBlock(channel, directory, blockToRead, file)));
+                    }
+                    String[][] pairs;
+                    try {
+                        pairs = blocks.remove().get();
+                    } catch(ExecutionException e) {
+                        if(e.getCause() instanceof CorruptRegistryDataException) {
+                            if(raiseException)
+                                throw (CorruptRegistryDataException)e.getCause();
+                            verbose("Corrupt block #%d skipped (%s)", block, ((CorruptRegistryDataException)e.getCause()).getErrorDetail());
+                            continue;
+                        }
+                        if(e.getCause() instanceof IOException)
+                            throw (IOException)e.getCause();
+                        throw new IOException("While decompressing block #" + block, e.getCause());
+                    }
+                    for(int record = 0; record < pairs.length; record++) {
+                        try {
+                            BinaryFormat.checkPair(pairs[record], record, file);
+                            Key key = new Key(pairs[record][0]);
+                            if(map.containsKey(key))
+                                throw new CorruptRegistryDataException("Duplicate key", pairs[record][0], file);
+                            map.put(key, values.intern(pairs[record][1]));
+                            pairsLoaded++;
+                        } catch(CorruptRegistryDataException e) {
+                            if(raiseException)
+                                throw e;
+                        }
+                    }
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading data from file: " + file, e);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        return pairsLoaded;
+    }
+
+    /**
+     * Decompresses the single block which may hold the key.
+     * @param file File in compressed format.
+     * @param key Key to find.
+     * @return The corresponding value to the key specified (null if not found).
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the directory or the block is corrupt.
+     * */
+    static String find(final Path file, final Key key) throws IOException, CorruptRegistryDataException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Directory directory = Directory.read(channel, file);
+            int block = directory.blockOf(key.folded());
+            if(block < 0)
+                return null;
+            String[][] pairs = readBlock(channel, directory, block, file);
+            for(int record = 0; record < pairs.length; record++) {
+                BinaryFormat.checkPair(pairs[record], record, file);
+                if(Key.fold(pairs[record][0]).equals(key.folded()))
+                    return pairs[record][1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the pairs in key order from the block which may hold the key
+     * on, till the visitor stops.
+     * @param file File in compressed format.
+     * @param fromKey Case-folded key to start from, the block holding it is
+     *                read whole (hence including the keys ordering before it).
+     * @param visitor Called for every pair read.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    static void scan(final Path file, final String fromKey, final SparseIndex.PairVisitor visitor)
+            throws IOException, CorruptRegistryDataException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Directory directory = Directory.read(channel, file);
+            for(int block = Math.max(directory.blockOf(fromKey), 0); block < directory.blockCount; block++) {
+                String[][] pairs = readBlock(channel, directory, block, file);
+                for(int record = 0; record < pairs.length; record++) {
+                    BinaryFormat.checkPair(pairs[record], record, file);
+                    if(!visitor.visit(pairs[record][0], pairs[record][1]))
+                        return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the file with the pairs, see {@link AtomicFile}. If the file
+     * is in compressed format its unchanged blocks are copied, see {@link Writer}.
+     * @param file File to write.
+     * @param pairs Pairs to write, in the order of their case-folded keys.
+     * @return Count of the pairs written.
+     * @throws IOException For any I/O error.
+     * @throws IllegalArgumentException If the pairs are not in key order.
+     * */
+    static int write(final Path file, final Collection<Map.Entry<Key,String>> pairs) throws IOException, IllegalArgumentException {
+        try(Writer writer = new Writer(file)) {
+            AtomicFile.write(file, stream -> {
+                writer.start(stream);
+                for(Map.Entry<Key,String> pair : pairs)
+                    writer.add(pair.getKey().toString(), pair.getValue());
+                writer.finish();
+            }, writer::patchHeader);
+            verbose("%d block(s) written, %d of them copied unchanged", writer.blocks.size(), writer.blocksCopied);
+        }
+        return pairs.size();
+    }
+
+    /**
+     * Decompresses and parses the records of a block.
+     * @param channel Channel of the file.
+     * @param directory Directory of the file.
+     * @param block Number of the block.
+     * @param file File of the channel, for error reporting.
+     * @return Key and value of every record of the block.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the block is corrupt.
+     * */
+    static String[][] readBlock(final FileChannel channel, final Directory directory, final int block, final Path file)
+            throws IOException, CorruptRegistryDataException {
+        final BlockEntry entry = directory.blocks.get(block);
+        final String location = "block #" + block + " at offset " + entry.offset;
+        ByteBuffer compressed = ByteBuffer.allocate(entry.compressedLength);
+        while(compressed.hasRemaining() && channel.read(compressed, entry.offset + compressed.position()) > 0);
+        if(compressed.hasRemaining())
+            throw new CorruptRegistryDataException("Truncated block", location, file);
+        byte[] records = new byte[entry.length];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed.array());
+            int length = 0;
+            while(length < records.length && !inflater.finished()) {
+                int inflated = inflater.inflate(records, length, records.length - length);
+                if(inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += inflated;
+            }
+            if(length != records.length || !inflater.finished())
+                throw new CorruptRegistryDataException("Invalid block length", location, file);
+        } catch(DataFormatException e) {
+            throw new CorruptRegistryDataException("Invalid compressed data: " + e.getMessage(), location, file);
+        } finally {
+            inflater.end();
+        }
+        CRC32C checksum = new CRC32C();
+        checksum.update(records, 0, records.length);
+        if((int)checksum.getValue() != entry.checksum)
+            throw new CorruptRegistryDataException("Checksum mismatch", location, file);
+
+        String[][] pairs = new String[entry.recordCount][];
+        int[] position = { 0 };
+        for(int record = 0; record < pairs.length; record++) {
+            if(position[0] == records.length)
+                throw new CorruptRegistryDataException("Invalid block record count", location, file);
+            String key = BinaryFormat.parseField(records, position, location, file);
+            pairs[record] = new String[] { key, BinaryFormat.parseField(records, position, location, file) };
+        }
+        if(position[0] != records.length)
+            throw new CorruptRegistryDataException("Invalid block record count", location, file);
+        return pairs;
+    }
+
+    /**
+     * Directory of the blocks of a file.
+     * */
+    static final class Directory {
+        final List<BlockEntry> blocks;
+        final int blockCount, recordCount;
+
+        private Directory(final List<BlockEntry> blocks, final int recordCount) {
+            this.blocks      = blocks;
+            this.blockCount  = blocks.size();
+            this.recordCount = recordCount;
+        }
+
+        /**
+         * @param channel Channel of a file in compressed format.
+         * @param file File of the channel, for error reporting.
+         * @return Directory of the file.
+         * @throws IOException For any I/O error.
+         * @throws CorruptRegistryDataException If the header or the directory is corrupt.
+         * */
+        static Directory read(final FileChannel channel, final Path file) throws IOException, CorruptRegistryDataException {
+            final long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header, header.position()) > 0);
+            if(header.hasRemaining())
+                throw new CorruptRegistryDataException("Truncated header", "header", file);
+            if(header.getInt(0) != MAGIC)
+                throw new CorruptRegistryDataException("Invalid compressed format magic", "header", file);
+            if(header.getInt(4) != VERSION)
+                throw new CorruptRegistryDataException("Unsupported compressed format version: " + header.getInt(4), "header", file);
+            final long directoryOffset = header.getLong(8);
+            final int blockCount = header.getInt(16), recordCount = header.getInt(20);
+            if(directoryOffset < HEADER_SIZE || directoryOffset > size || size - directoryOffset > Integer.MAX_VALUE
+                    || blockCount < 0 || recordCount < 0)
+                throw new CorruptRegistryDataException("Invalid block directory", "header", file);
+
+            ByteBuffer bytes = ByteBuffer.allocate((int)(size - directoryOffset));
+            while(bytes.hasRemaining() && channel.read(bytes, directoryOffset + bytes.position()) > 0);
+            bytes.flip();
+            final List<BlockEntry> blocks = new ArrayList<>(Math.min(blockCount, 1 << 16));
+            long records = 0;
+            try {
+                for(int block = 0; block < blockCount; block++) {
+                    BlockEntry entry = new BlockEntry(bytes.getLong(), bytes.getInt(), bytes.getInt(), bytes.getInt(), bytes.getInt(), null);
+                    int keyLength = bytes.getInt();
+                    if(entry.offset < HEADER_SIZE || entry.compressedLength < 0 || entry.offset + entry.compressedLength > directoryOffset
+                            || entry.length < 0 || entry.length > MAX_STORED_BLOCK_SIZE || entry.recordCount < 0
+                            || keyLength < 0 || keyLength > bytes.remaining())
+                        throw new CorruptRegistryDataException("Invalid block directory entry", "directory entry #" + block, file);
+                    byte[] firstKey = new byte[keyLength];
+                    bytes.get(firstKey);
+                    blocks.add(entry.withFirstKey(new String(firstKey, StandardCharsets.UTF_8)));
+                    records += entry.recordCount;
+                }
+            } catch(BufferUnderflowException e) {
+                throw new CorruptRegistryDataException("Truncated block directory", "directory", file);
+            }
+            if(records != recordCount)
+                throw new CorruptRegistryDataException("Invalid block directory record count: " + records, "directory", file);
+            return new Directory(blocks, recordCount);
+        }
+
+        /**
+         * @param foldedKey Case-folded key.
+         * @return Number of the block which may hold the key i.e. the last
+         *          block whose first key does not order after it (the first
+         *          block if none), -1 if there is no block.
+         * */
+        int blockOf(final String foldedKey) {
+            int low = 0, high = blockCount - 1;
+            while(low <= high) {
+                int middle = (low + high) >>> 1;
+                if(blocks.get(middle).firstKey.compareTo(foldedKey) <= 0)
+                    low = middle + 1;
+                else
+                    high = middle - 1;
+            }
+            return blockCount == 0 ? -1 : Math.max(high, 0);
+        }
+    }
+
+    /**
+     * Directory entry of a block.
+     * */
+    static final class BlockEntry {
+        final long offset;
+        final int compressedLength, length, recordCount, checksum;
+        final String firstKey;
+
+        BlockEntry(final long offset, final int compressedLength, final int length, final int recordCount,
+                   final int checksum, final String firstKey) {
+            this.offset           = offset;
+            this.compressedLength = compressedLength;
+            this.length           = length;
+            this.recordCount      = recordCount;
+            this.checksum         = checksum;
+            this.firstKey         = firstKey;
+        }
+
+        BlockEntry withFirstKey(final String firstKey) {
+            return new BlockEntry(offset, compressedLength, length, recordCount, checksum, firstKey);
+        }
+    }
+
+    /**
+     * Streamed writer of a file in compressed format, for pairs coming in key order.
+     * <p> If the file being replaced is in compressed format, the blocks
+     * follow its block boundaries (a grown block is split past
+     * {@value #MAX_BLOCK_SIZE} bytes) and the compressed bytes of a block
+     * whose records are unchanged are copied from it. </p>
+     * <p> Usage: {@link #start(OutputStream)}, {@link #add(String, String)}
+     * for every pair, {@link #finish()}, then {@link #patchHeader(FileChannel)}
+     * on the written file. </p>
+     * */
+    static final class Writer implements AutoCloseable {
+        private final Path previousFile;
+        private final FileChannel previousChannel;
+        private final Directory previous;
+        private final Deflater deflater = new Deflater();
+        private final CRC32C checksum = new CRC32C();
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(MAX_BLOCK_SIZE + 1024);
+        private final DataOutputStream blockOut = new DataOutputStream(block);
+        private final List<BlockEntry> blocks = new ArrayList<>();
+        private DataOutputStream out;
+        private byte[] compressed = new byte[BLOCK_SIZE];
+        private long offset;
+        private int records, blockRecords, previousBlock = -1, blocksCopied;
+        private String blockFirstKey, lastKey;
+
+        /**
+         * @param file File to be replaced, its blocks are reused if it is in
+         *             compressed format and its directory is intact.
+         * @throws IOException For any I/O error.
+         * */
+        Writer(final Path file) throws IOException {
+            FileChannel channel = null;
+            Directory directory = null;
+            if(Files.exists(file) && isCompressed(file)) {
+                channel = FileChannel.open(file, StandardOpenOption.READ);
+                try {
+                    directory = Directory.read(channel, file);
+                } catch(CorruptRegistryDataException e) {
+                    verbose("Block directory of %s is corrupt (%s), all blocks get compressed", file, e.getErrorDetail());
+                    channel.close();
+                    channel = null;
+                } catch(IOException | RuntimeException e) {
+                    channel.close();
+                    throw e;
+                }
+            }
+            previousFile    = file;
+            previousChannel = channel;
+            previous        = directory;
+        }
+
+        /**
+         * Writes the header, the directory offset and the counts are patched
+         * by {@link #patchHeader(FileChannel)}.
+         * @param stream Stream to write to.
+         * @throws IOException For any I/O error.
+         * */
+        void start(final OutputStream stream) throws IOException {
+            out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(0);
+            out.writeInt(0);
+            out.writeInt(0);
+            offset = HEADER_SIZE;
+        }
+
+        /**
+         * @param key Key of the pair, ordering after the key of the previous pair.
+         * @param value Value of the pair.
+         * @throws IOException For any I/O error.
+         * @throws IllegalArgumentException If the key does not order after the previous one.
+         * */
+        void add(final String key, final String value) throws IOException, IllegalArgumentException {
+            final String folded = Key.fold(key);
+            if(lastKey != null && folded.compareTo(lastKey) <= 0)
+                throw new IllegalArgumentException("Pairs not in key order: " + key);
+            final int target = previous == null ? -1 : previous.blockOf(folded);
+            if(blockRecords > 0 && (target != previousBlock || block.size() >= (previousBlock < 0 ? BLOCK_SIZE : MAX_BLOCK_SIZE)))
+                flushBlock();
+            if(blockRecords == 0) {
+                blockFirstKey = folded;
+                previousBlock = target;
+            }
+            BinaryFormat.writeField(blockOut, key);
+            BinaryFormat.writeField(blockOut, value);
+            blockRecords++;
+            records++;
+            lastKey = folded;
+        }
+
+        /**
+         * Writes the last block and the directory.
+         * @throws IOException For any I/O error.
+         * */
+        void finish() throws IOException {
+            if(blockRecords > 0)
+                flushBlock();
+            for(BlockEntry entry : blocks) {
+                byte[] firstKey = entry.firstKey.getBytes(StandardCharsets.UTF_8);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.compressedLength);
+                out.writeInt(entry.length);
+                out.writeInt(entry.recordCount);
+                out.writeInt(entry.checksum);
+                out.writeInt(firstKey.length);
+                out.write(firstKey);
+            }
+            out.flush();
+        }
+
+        /**
+         * @param channel Channel of the written file.
+         * @throws IOException For any I/O error.
+         * */
+        void patchHeader(final FileChannel channel) throws IOException {
+            ByteBuffer fields = ByteBuffer.allocate(8 + 4 + 4).putLong(offset).putInt(blocks.size()).putInt(records);
+            fields.flip();
+            while(fields.hasRemaining())
+                channel.write(fields, 8 + fields.position());
+        }
+
+        /* compresses the block, or copies it if unchanged since the previous file */
+        private void flushBlock() throws IOException {
+            final byte[] bytes = block.toByteArray();
+            checksum.reset();
+            checksum.update(bytes, 0, bytes.length);
+            final int crc = (int)checksum.getValue();
+            final BlockEntry old = previousBlock < 0 ? null : previous.blocks.get(previousBlock);
+            int compressedLength;
+            if(old != null && old.length == bytes.length && old.recordCount == blockRecords
+                    && old.checksum == crc && old.firstKey.equals(blockFirstKey)) {
+                compressedLength = old.compressedLength;
+                ensureCapacity(compressedLength);
+                ByteBuffer copy = ByteBuffer.wrap(compressed, 0, compressedLength);
+                while(copy.hasRemaining() && previousChannel.read(copy, old.offset + copy.position()) > 0);
+                if(copy.hasRemaining())
+                    throw new IOException("Truncated block #" + previousBlock + " of file: " + previousFile);
+                blocksCopied++;
+            } else {
+                deflater.reset();
+                deflater.setInput(bytes);
+                deflater.finish();
+                compressedLength = 0;
+                while(!deflater.finished()) {
+                    ensureCapacity(compressedLength + 1);
+                    compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+                }
+            }
+            out.write(compressed, 0, compressedLength);
+            blocks.add(new BlockEntry(offset, compressedLength, bytes.length, blockRecords, crc, blockFirstKey));
+            offset += compressedLength;
+            block.reset();
+            blockRecords = 0;
+        }
+
+        private void ensureCapacity(final int length) {
+            if(length > compressed.length)
+                compressed = Arrays.copyOf(compressed, Math.max(length, compressed.length * 2));
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            if(previousChannel != null)
+                previousChannel.close();
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package util.registry;
+
+import static util.registry.Log.verbose;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.ToIntFunction;
+
+
+/**
+ * Out-of-core merge of a source file into the registry database.
+ * <p> The records of the registry database log, the registry database and
+ * the source file are tagged with their origin and sorted by case-folded
+ * key in runs of bounded size, spilled to temporary files next to the
+ * database whenever the buffer fills up. The runs are then merged in a
+ * single streaming pass straight into the new database file, in the format
+ * of the database. Memory use is bounded by the buffer size (plus the log,
+ * kept small by compaction) instead of the size of the data. </p>
+ * <p> Same rules as loading both files into memory: </p>
+ * <p>    - the log overrides the database, a tombstoned key may be merged again </p>
+ * <p>    - keys already present are kept, the source pair is rejected as duplicate </p>
+ * <p>    - the first pair of a key in the source file wins, later ones are rejected </p>
+ * <p>    - corruption of the database raises an exception, corrupt rows of the source are rejected </p>
+ * <p> Rejected rows are reported in the rejects file next to the database
+ * ({database file}.rejects), one per line: error detail, tab, row. </p>
+ * */
+final class ExternalMerge {
+    /** Rejects file name suffix, appended to the database file name */
+    static final String FILE_SUFFIX = ".rejects";
+
+    /** Default upper bound of the buffered records, in bytes */
+    static final long   DEFAULT_BUFFER_SIZE = Math.min(64L * 1024 * 1024, Runtime.getRuntime().maxMemory() / 4);
+
+    private static final byte   ORIGIN_LOG = 0, ORIGIN_DB = 1, ORIGIN_SOURCE = 2; /* also the precedence */
+    private static final int    RECORD_OVERHEAD = 96; /* estimated heap bytes of a buffered record besides its chars */
+    private static final int    MIN_RUN_BUFFER_SIZE = 8 * 1024, MAX_RUN_BUFFER_SIZE = 1024 * 1024;
+
+    private final Path          dbFile, sourceFile, rejectsFile;
+    private final boolean       binaryDb, framedDb, dictionaryDb, compressedDb;
+    private final long          bufferSize;
+    private final WriteAheadLog writeAheadLog;
+
+    private final List<Record>  buffer = new ArrayList<>();
+    private final List<Path>    runFiles = new ArrayList<>();
+    private long                bufferedBytes, sequence;
+    private Path                runDirectory;
+    private Writer              rejects;
+    private int                 pairsWritten, newPairs, rejectedRows;
+    private Writer[]            parts;      /* set while partitioning the source, see partition() */
+    private ToIntFunction<Key>  partOf;
+
+    /**
+     * @param dbFile Registry database file, rewritten by the merge.
+     * @param sourceFile File to merge from, in text or binary format.
+     * @param binaryDb True to write the database in binary format, else in text format.
+     * @param framedDb True to write the binary format framed (see {@link BinaryFormat}).
+     * @param dictionaryDb True to write the binary format with the value
+     *                     dictionary of the current database file, values
+     *                     missing from it are written inline.
+     * @param compressedDb True to write the database in compressed format
+     *                     (see {@link CompressedFormat}), if not binary.
+     * @param bufferSize Upper bound of the buffered records, in bytes.
+     * @throws NullPointerException If any of the files is null.
+     * @throws IllegalArgumentException If bufferSize is not positive.
+     * */
+    ExternalMerge(final Path dbFile, final Path sourceFile, final boolean binaryDb, final boolean framedDb,
+                  final boolean dictionaryDb, final boolean compressedDb, final long bufferSize) {
+        if(bufferSize <= 0)
+            throw new IllegalArgumentException("Invalid merge buffer size: " + bufferSize);
+        this.dbFile         = Objects.requireNonNull(dbFile, "database file");
+        this.sourceFile     = Objects.requireNonNull(sourceFile, "source file");
+        this.rejectsFile    = Paths.get(dbFile + FILE_SUFFIX);
+        this.binaryDb       = binaryDb;
+        this.framedDb       = binaryDb && framedDb;
+        this.dictionaryDb   = binaryDb && !this.framedDb && dictionaryDb;
+        this.compressedDb   = !binaryDb && compressedDb;
+        this.bufferSize     = bufferSize;
+        this.writeAheadLog  = new WriteAheadLog(dbFile);
+    }
+
+    Path getRejectsFile() { return rejectsFile; }
+
+    /**
+     * Merges the source file into the database, the database log is folded in
+     * (but not deleted).
+     * @return Counts of the pairs written, the new pairs merged and the source rows rejected.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected in the database or its log.
+     * */
+    int[] run() throws IOException, CorruptRegistryDataException {
+        Files.deleteIfExists(rejectsFile); /* of a previous merge */
+        try {
+            for(Map.Entry<Key,String> record : writeAheadLog.readRecords(true).entrySet())
+                add(record.getKey().toString(), record.getValue(), ORIGIN_LOG);
+            read(dbFile, ORIGIN_DB);
+            read(sourceFile, ORIGIN_SOURCE);
+            Collections.sort(buffer); /* the last run is merged from memory */
+            verbose("%d sorted run(s) spilled to disk", runFiles.size());
+            write();
+        } finally {
+            if(rejects != null)
+                rejects.close();
+            for(Path runFile : runFiles)
+                Files.deleteIfExists(runFile);
+            if(runDirectory != null)
+                Files.deleteIfExists(runDirectory);
+        }
+        return new int[] { pairsWritten, newPairs, rejectedRows };
+    }
+
+    /**
+     * Partitions the source file instead of merging it, for a sharded
+     * registry database (see {@link ShardManifest}): every pair of the
+     * source is written, in text format, to the part file of the shard
+     * owning its key, to be merged into that shard. Corrupt rows are
+     * rejected, duplicate keys are left to the merge of their shard.
+     * @param partFiles Files to write the parts to, one per shard.
+     * @param partOf Shard owning a key.
+     * @return Count of the source rows rejected.
+     * @throws IOException For any I/O error.
+     * */
+    int partition(final Path[] partFiles, final ToIntFunction<Key> partOf) throws IOException {
+        Files.deleteIfExists(rejectsFile); /* of a previous merge */
+        this.parts  = new Writer[partFiles.length];
+        this.partOf = partOf;
+        try {
+            for(int part = 0; part < partFiles.length; part++)
+                parts[part] = Files.newBufferedWriter(partFiles[part], StandardCharsets.UTF_8);
+            read(sourceFile, ORIGIN_SOURCE);
+        } catch(CorruptRegistryDataException e) {
+            throw new AssertionError("Should not get here: corruption of the source is rejected", e);
+        } finally {
+            for(Writer part : parts)
+                if(part != null)
+                    part.close();
+            if(rejects != null)
+                rejects.close();
+        }
+        return rejectedRows;
+    }
+
+    /* Reading and sorting */
+
+    private void read(final Path file, final byte origin) throws IOException, CorruptRegistryDataException {
+        try {
+            if(BinaryFormat.isBinary(file))
+                readBinary(file, origin);
+            else if(CompressedFormat.isCompressed(file))
+                readCompressed(file, origin);
+            else
+                readText(file, origin);
+        } catch(IOException e) {
+            throw new IOException("While loading data from file: " + file, e);
+        }
+    }
+
+    /* same row rules as the sequential text loader of Registry */
+    private void readText(final Path file, final byte origin) throws IOException, CorruptRegistryDataException {
+        try(BufferedReader reader = Files.newBufferedReader(file)) {
+            String line, key = null, loadedLine = null;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith("K: ")) {
+                    if(key != null) {
+                        key = null;
+                        corrupt("Expecting a VALUE line", line, file, origin);
+                        continue;
+                    }
+                    loadedLine = line;
+                    key = Registry.getInValidKeyOrValueFormat(line.substring(3));
+                    if(key == null)
+                        corrupt("Invalid key format", line, file, origin);
+                } else if(line.startsWith("V: ")) {
+                    if(key == null) {
+                        corrupt("Expecting a KEY line", line, file, origin);
+                        continue;
+                    }
+                    String value = Registry.getInValidKeyOrValueFormat(line.substring(3));
+                    if(value == null)
+                        corrupt("Invalid value format", line, file, origin);
+                    else
+                        add(key, value, origin);
+                    key = null;
+                } else {
+                    key = null;
+                    corrupt("Invalid line format", line, file, origin);
+                }
+            }
+            if(key != null)
+                corrupt("Couldn't find corresponsing value of key='" + key + "'", loadedLine, file, origin);
+        }
+    }
+
+    private void readBinary(final Path file, final byte origin) throws IOException, CorruptRegistryDataException {
+        try(BinaryFormat.RecordReader reader = new BinaryFormat.RecordReader(file)) {
+            for(int record = 0; reader.hasNext(record); record++) {
+                long offset = reader.offset();
+                String[] pair;
+                try {
+                    pair = reader.next(record);
+                } catch(CorruptRegistryDataException e) {
+                    corrupt(e.getErrorDetail(), e.getCorruptRow(), file, origin);
+                    if(!reader.framed)
+                        break; /* lengths can not be trusted any more, rest of the file is lost */
+                    reader.resync(offset + 1); /* only the corrupt record is lost */
+                    continue;
+                }
+                try {
+                    BinaryFormat.checkPair(pair, record, file);
+                } catch(CorruptRegistryDataException e) {
+                    corrupt(e.getErrorDetail(), e.getCorruptRow(), file, origin);
+                    continue;
+                }
+                add(pair[0], pair[1], origin);
+            }
+        }
+    }
+
+    private void readCompressed(final Path file, final byte origin) throws IOException, CorruptRegistryDataException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            CompressedFormat.Directory directory = CompressedFormat.Directory.read(channel, file);
+            for(int block = 0; block < directory.blockCount; block++) {
+                String[][] pairs;
+                try {
+                    pairs = CompressedFormat.readBlock(channel, directory, block, file);
+                } catch(CorruptRegistryDataException e) {
+                    corrupt(e.getErrorDetail(), e.getCorruptRow(), file, origin);
+                    continue; /* only the corrupt block is lost */
+                }
+                for(int record = 0; record < pairs.length; record++) {
+                    try {
+                        BinaryFormat.checkPair(pairs[record], record, file);
+                    } catch(CorruptRegistryDataException e) {
+                        corrupt(e.getErrorDetail(), e.getCorruptRow(), file, origin);
+                        continue;
+                    }
+                    add(pairs[record][0], pairs[record][1], origin);
+                }
+            }
+        }
+    }
+
+    /* corruption of the database raises, of the source gets rejected */
+    private void corrupt(final String errorDetail, final String row, final Path file, final byte origin)
+            throws IOException, CorruptRegistryDataException {
+        if(origin != ORIGIN_SOURCE)
+            throw new CorruptRegistryDataException(errorDetail, row, file);
+        reject(errorDetail, row);
+    }
+
+    private void reject(final String errorDetail, final String row) throws IOException {
+        if(rejects == null)
+            rejects = Files.newBufferedWriter(rejectsFile);
+        rejects.write(errorDetail + "\t" + row);
+        rejects.write('\n');
+        rejectedRows++;
+    }
+
+    private void add(final String key, final String value, final byte origin) throws IOException {
+        if(parts != null) {
+            Writer part = parts[partOf.applyAsInt(new Key(key))];
+            part.write("K: " + key + "\n");
+            part.write("V: " + value + "\n");
+            return;
+        }
+        Record record = new Record(key, value, origin, sequence++);
+        buffer.add(record);
+        bufferedBytes += record.size();
+        if(bufferedBytes >= bufferSize)
+            spill();
+    }
+
+    /* sorts the buffered records and writes them as a run */
+    private void spill() throws IOException {
+        Collections.sort(buffer);
+        if(runDirectory == null)
+            runDirectory = Files.createTempDirectory(dbFile.toAbsolutePath().getParent(), dbFile.getFileName() + ".merge-");
+        Path runFile = runDirectory.resolve("run-" + runFiles.size());
+        runFiles.add(runFile);
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runFile), 64 * 1024))) {
+            for(Record record : buffer)
+                record.writeTo(out);
+        } catch(IOException e) {
+            throw new IOException("While writing merge run file: " + runFile, e);
+        }
+        verbose("Sorted run of %d record(s) spilled (%s)", buffer.size(), runFile);
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    /* Merging */
+
+    private void write() throws IOException, CorruptRegistryDataException {
+        final List<Cursor> cursors = new ArrayList<>();
+        final CompressedFormat.Writer compressedOut = compressedDb ? new CompressedFormat.Writer(dbFile) : null; /* records come in key order */
+        try {
+            int runBufferSize = (int) Math.max(MIN_RUN_BUFFER_SIZE, Math.min(MAX_RUN_BUFFER_SIZE, bufferSize / (runFiles.size() + 1)));
+            for(Path runFile : runFiles)
+                cursors.add(new RunCursor(runFile, runBufferSize));
+            cursors.add(new MemoryCursor(buffer.iterator()));
+
+            final PriorityQueue<Cursor> queue = new PriorityQueue<>((a, b) -> a.head.compareTo(b.head));
+            for(Cursor cursor : cursors)
+                if(cursor.advance())
+                    queue.add(cursor);
+
+            final ValueDictionary dictionary = dictionaryDb ? BinaryFormat.readDictionary(dbFile) : null;
+            AtomicFile.Content content = stream -> {
+                DataOutputStream binaryOut = binaryDb ? new DataOutputStream(stream) : null;
+                BufferedWriter textOut = binaryDb || compressedDb ? null : new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+                if(binaryDb)
+                    BinaryFormat.writeHeader(binaryOut, 0, framedDb, dictionary); /* record count patched once known */
+                else if(compressedDb)
+                    compressedOut.start(stream);
+                final List<Record> group = new ArrayList<>();
+                while(!queue.isEmpty()) {
+                    group.clear();
+                    Cursor cursor = queue.poll();
+                    group.add(cursor.head);
+                    if(cursor.advance())
+                        queue.add(cursor);
+                    while(!queue.isEmpty() && queue.peek().head.folded.equals(group.get(0).folded)) {
+                        cursor = queue.poll();
+                        group.add(cursor.head);
+                        if(cursor.advance())
+                            queue.add(cursor);
+                    }
+                    Record winner = merge(group);
+                    if(winner == null)
+                        continue;
+                    if(binaryDb) {
+                        BinaryFormat.writeRecord(binaryOut, winner.key, winner.value, framedDb, dictionary);
+                    } else if(compressedDb) {
+                        compressedOut.add(winner.key, winner.value);
+                    } else {
+                        textOut.write("K: " + winner.key); textOut.newLine();
+                        textOut.write("V: " + winner.value); textOut.newLine();
+                    }
+                    pairsWritten++;
+                }
+                if(binaryDb)
+                    binaryOut.flush();
+                else if(compressedDb)
+                    compressedOut.finish();
+                else
+                    textOut.flush();
+            };
+            AtomicFile.Patch patch = binaryDb ?
+                    channel -> channel.write(ByteBuffer.allocate(4).putInt(0, pairsWritten), BinaryFormat.RECORD_COUNT_OFFSET) :
+                    compressedDb ? compressedOut::patchHeader : null;
+            try {
+                AtomicFile.write(dbFile, content, patch);
+            } catch(CorruptionInMerge e) {
+                throw e.corruption;
+            }
+        } finally {
+            for(Cursor cursor : cursors)
+                cursor.close();
+            if(compressedOut != null)
+                compressedOut.close();
+        }
+    }
+
+    /* applies the merge rules to the records of a key in precedence order, returns the record to write */
+    private Record merge(final List<Record> group) throws IOException {
+        Record winner = null;
+        boolean tombstoned = false, inDb = false;
+        for(Record record : group) {
+            switch(record.origin) {
+                case ORIGIN_LOG:
+                    if(record.value == null)
+                        tombstoned = true;
+                    else
+                        winner = record;
+                    break;
+
+                case ORIGIN_DB:
+                    if(inDb)
+                        throw new CorruptionInMerge(new CorruptRegistryDataException("Duplicate key", record.key, dbFile));
+                    inDb = true;
+                    if(winner == null && !tombstoned)
+                        winner = record;
+                    break;
+
+                default: /* source */
+                    if(winner == null) {
+                        winner = record;
+                        newPairs++;
+                    } else {
+                        reject("Duplicate key", record.key + "\t" + record.value);
+                    }
+            }
+        }
+        return winner;
+    }
+
+    /* carries the corruption detected while writing through AtomicFile, which only passes I/O errors */
+    private static class CorruptionInMerge extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final CorruptRegistryDataException corruption;
+
+        CorruptionInMerge(final CorruptRegistryDataException corruption) {
+            super(corruption.getErrorDetail());
+            this.corruption = corruption;
+        }
+    }
+
+    /**
+     * A record tagged with its origin, ordered by case-folded key then origin then position.
+     * */
+    private static class Record implements Comparable<Record> {
+        private final String key, folded, value; /* value null for a tombstone */
+        private final byte origin;
+        private final long sequence;
+
+        Record(final String key, final String value, final byte origin, final long sequence) {
+            this.key      = key;
+            this.folded   = Key.fold(key);
+            this.value    = value;
+            this.origin   = origin;
+            this.sequence = sequence;
+        }
+
+        long size() {
+            return RECORD_OVERHEAD + 2L * (key.length() + (folded == key ? 0 : folded.length()) + (value == null ? 0 : value.length()));
+        }
+
+        void writeTo(final DataOutputStream out) throws IOException {
+            writeField(out, key);
+            writeField(out, value);
+            out.writeByte(origin);
+            out.writeLong(sequence);
+        }
+
+        static Record readFrom(final DataInputStream in) throws IOException {
+            String key;
+            try {
+                key = readField(in);
+            } catch(EOFException e) {
+                return null; /* end of run */
+            }
+            String value = readField(in);
+            byte origin = in.readByte();
+            return new Record(key, value, origin, in.readLong());
+        }
+
+        @Override
+        public int compareTo(final Record other) {
+            int order = folded.compareTo(other.folded);
+            if(order == 0)
+                order = Byte.compare(origin, other.origin);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+
+        private static void writeField(final DataOutputStream out, final String field) throws IOException {
+            if(field == null) {
+                out.writeInt(-1);
+                return;
+            }
+            byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readField(final DataInputStream in) throws IOException {
+            int length = in.readInt();
+            if(length < 0)
+                return null;
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Position in a sorted run.
+     * */
+    private abstract static class Cursor implements AutoCloseable {
+        Record head;
+
+        /* moves to the next record, false at the end of the run */
+        abstract boolean advance() throws IOException;
+
+        @Override
+        public void close() throws IOException {}
+    }
+
+    private static class RunCursor extends Cursor {
+        private final DataInputStream in;
+        private final Path runFile;
+
+        RunCursor(final Path runFile, final int bufferSize) throws IOException {
+            this.runFile = runFile;
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile), bufferSize));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            try {
+                head = Record.readFrom(in);
+            } catch(IOException e) {
+                throw new IOException("While reading merge run file: " + runFile, e);
+            }
+            return head != null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static class MemoryCursor extends Cursor {
+        private final Iterator<Record> records;
+
+        MemoryCursor(final Iterator<Record> records) { this.records = records; }
+
+        @Override
+        boolean advance() {
+            head = records.hasNext() ? records.next() : null;
+            return head != null;
+        }
+    }
+}
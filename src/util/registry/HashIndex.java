@@ -0,0 +1,281 @@
+package util.registry;
+
+import java.io.BufferedInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+
+/**
+ * Persistent hash index of a registry database file, kept next to it.
+ * <p> Open-addressing (linear probing) table of case-folded key hash to
+ * the byte offset of its key-value record in the database file (text or
+ * binary format), read
+ * through a {@link MappedByteBuffer} so that a query touches a few pages
+ * of the index and a single record of the database file. </p>
+ * <p> File layout: </p>
+ * <p>    - header: magic (int), version (int), database file size (long),
+ *          database file last modified millis (long), slot count (int), pair count (int) </p>
+ * <p>    - slots: key hash (int), record offset + 1 (long), 0 for empty slot </p>
+ * <p> The index is stale if the database file size or last modified time
+ * differs from the header. </p>
+ * */
+class HashIndex {
+    /** Index file name suffix, appended to the database file name */
+    static final String FILE_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x52494458; /* "RIDX" */
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int SLOT_SIZE = 4 + 8;
+
+    private final Path indexFile, dbFile;
+
+    /**
+     * @param dbFile Registry database file the index belongs to.
+     * @throws NullPointerException If dbFile is null.
+     * */
+    HashIndex(final Path dbFile) {
+        this.dbFile    = Objects.requireNonNull(dbFile, "database file");
+        this.indexFile = Paths.get(dbFile + FILE_SUFFIX);
+    }
+
+    Path getFile() { return indexFile; }
+
+    /**
+     * @return True if the index is enabled i.e. the index file is present.
+     * */
+    boolean exists() {
+        return Files.exists(indexFile);
+    }
+
+    /**
+     * @return True if the index file matches the current database file.
+     * @throws IOException For any I/O error.
+     * */
+    boolean isFresh() throws IOException {
+        try(FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE)
+                return false;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            return header.getInt() == MAGIC
+                    && header.getInt() == VERSION
+                    && header.getLong() == Files.size(dbFile)
+                    && header.getLong() == Files.getLastModifiedTime(dbFile).toMillis();
+        }
+    }
+
+    /**
+     * (Re)builds the index by scanning the record offsets of the database file.
+     * @return Count of the pairs indexed.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the database file is not in the
+     *          recognizable format, the index file is left untouched then.
+     * */
+    int build() throws IOException, CorruptRegistryDataException {
+        final RecordOffsets records = new RecordOffsets();
+        if(BinaryFormat.isBinary(dbFile))
+            BinaryFormat.scan(dbFile, records::add);
+        else
+            scanText(dbFile, records::add);
+
+        final int pairs = records.count;
+        int slotCount = 16;
+        while(slotCount < pairs * 2) /* load factor at most 0.5 */
+            slotCount <<= 1;
+        int[] slotHashes = new int[slotCount];
+        long[] slotOffsets = new long[slotCount];
+        for(int i = 0; i < pairs; i++) {
+            int slot = slotOf(records.hashes[i], slotCount);
+            while(slotOffsets[slot] != 0)
+                slot = (slot + 1) & (slotCount - 1);
+            slotHashes[slot]  = records.hashes[i];
+            slotOffsets[slot] = records.offsets[i] + 1;
+        }
+
+        final int indexedSlotCount = slotCount;
+        try {
+            AtomicFile.write(indexFile, stream -> { /* concurrent rebuilds (stale index on query) replace each other */
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(Files.size(dbFile));
+                out.writeLong(Files.getLastModifiedTime(dbFile).toMillis());
+                out.writeInt(indexedSlotCount);
+                out.writeInt(pairs);
+                for(int slot = 0; slot < indexedSlotCount; slot++) {
+                    out.writeInt(slotHashes[slot]);
+                    out.writeLong(slotOffsets[slot]);
+                }
+                out.flush();
+            });
+        } catch(IOException e) {
+            throw new IOException("While writing index file (" + indexFile + ")", e);
+        }
+        return pairs;
+    }
+
+    /**
+     * Visits the byte offset of the "K: " line and key of every record of a
+     * text format database file, to index the file.
+     * @param dbFile File in text format.
+     * @param visitor Called for every record.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    static void scanText(final Path dbFile, final BinaryFormat.RecordVisitor visitor) throws IOException, CorruptRegistryDataException {
+        try(InputStream in = new BufferedInputStream(Files.newInputStream(dbFile))) {
+            LineReader reader = new LineReader(in);
+            String line, key = null;
+            long lineOffset, keyOffset = 0;
+            while((lineOffset = reader.offset()) >= 0 && (line = reader.readLine()) != null) {
+                if(line.startsWith("K: ")) {
+                    if(key != null)
+                        throw new CorruptRegistryDataException("Expecting a VALUE line", line, dbFile);
+                    key = Registry.getInValidKeyOrValueFormat(line.substring(3));
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Invalid key format", line, dbFile);
+                    keyOffset = lineOffset;
+                } else if(line.startsWith("V: ")) {
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Expecting a KEY line", line, dbFile);
+                    visitor.visit(keyOffset, key);
+                    key = null;
+                } else {
+                    throw new CorruptRegistryDataException("Invalid line format", line, dbFile);
+                }
+            }
+            if(key != null)
+                throw new CorruptRegistryDataException("Couldn't find corresponsing value of key='" + key + "'", key, dbFile);
+        }
+    }
+
+    /**
+     * Looks up the key through the index, reading only the records whose
+     * key hash matches. The index must be fresh.
+     * @param key Key to look up.
+     * @return The corresponding value to the key specified (null if not found).
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If an indexed record is not in the recognizable format.
+     * */
+    String lookup(final Key key) throws IOException, CorruptRegistryDataException {
+        try(FileChannel indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ);
+            FileChannel dbChannel = FileChannel.open(dbFile, StandardOpenOption.READ)) {
+            final boolean binary = BinaryFormat.isBinary(dbFile), framed = binary && BinaryFormat.isFramed(dbFile);
+            final ValueDictionary dictionary = binary ? BinaryFormat.readDictionary(dbFile) : null;
+            MappedByteBuffer index = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, indexChannel.size());
+            int slotCount = index.getInt(HEADER_SIZE - 8);
+            int hash = key.hashCode();
+            for(int slot = slotOf(hash, slotCount); ; slot = (slot + 1) & (slotCount - 1)) {
+                int position = HEADER_SIZE + slot * SLOT_SIZE;
+                long offset = index.getLong(position + 4);
+                if(offset == 0)
+                    return null; /* empty slot, end of probe sequence */
+                if(index.getInt(position) != hash)
+                    continue;
+                String[] pair = binary ?
+                                    BinaryFormat.readRecordAt(dbChannel, offset - 1, framed, dictionary, dbFile) :
+                                    readRecord(dbChannel, offset - 1);
+                if(new Key(pair[0]).equals(key))
+                    return pair[1];
+            }
+        } catch(IOException e) {
+            throw new IOException("While querying index file: " + indexFile, e);
+        }
+    }
+
+    /**
+     * Deletes the index, disables it.
+     * @throws IOException For any I/O error.
+     * */
+    void delete() throws IOException {
+        Files.deleteIfExists(indexFile);
+    }
+
+    /* reads the key and value lines starting at the specified offset */
+    private String[] readRecord(final FileChannel channel, final long offset) throws IOException, CorruptRegistryDataException {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        while(true) {
+            buffer.clear();
+            int read = 0, n;
+            while(buffer.hasRemaining() && (n = channel.read(buffer, offset + read)) > 0)
+                read += n;
+            String[] lines = new String(buffer.array(), 0, read, StandardCharsets.UTF_8).split("\r?\n", 3);
+            if(lines.length >= 3 || (lines.length == 2 && read < buffer.capacity())) {
+                if(!lines[0].startsWith("K: ") || !lines[1].startsWith("V: "))
+                    throw new CorruptRegistryDataException("Indexed record not found", lines[0], dbFile);
+                return new String[] {   Registry.getInValidKeyOrValueFormat(lines[0].substring(3)),
+                                        Registry.getInValidKeyOrValueFormat(lines[1].substring(3)) };
+            }
+            if(read < buffer.capacity())
+                throw new CorruptRegistryDataException("Indexed record not found", lines[0], dbFile);
+            buffer = ByteBuffer.allocate(buffer.capacity() * 2); /* record larger than buffer */
+        }
+    }
+
+    private static int slotOf(final int hash, final int slotCount) {
+        int h = hash * 0x9E3779B9; /* spreads the low bits of poor hashes */
+        return (h ^ (h >>> 16)) & (slotCount - 1);
+    }
+
+    /**
+     * Key hashes and record offsets collected while scanning the database file.
+     * */
+    private static class RecordOffsets {
+        private int count;
+        private int[] hashes = new int[1024];
+        private long[] offsets = new long[1024];
+
+        void add(final long offset, final String key) {
+            if(count == hashes.length) {
+                hashes  = Arrays.copyOf(hashes, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            hashes[count]  = new Key(key).hashCode();
+            offsets[count] = offset;
+            count++;
+        }
+    }
+
+    /**
+     * Reads UTF-8 lines from a stream keeping track of the byte offset.
+     * */
+    private static class LineReader {
+        private final InputStream in;
+        private long offset;
+        private byte[] line = new byte[256];
+
+        LineReader(final InputStream in) { this.in = in; }
+
+        long offset() { return offset; }
+
+        String readLine() throws IOException {
+            int length = 0, b;
+            while((b = in.read()) >= 0) {
+                offset++;
+                if(b == '\n')
+                    break;
+                if(length == line.length)
+                    line = Arrays.copyOf(line, length * 2);
+                line[length++] = (byte)b;
+            }
+            if(b < 0 && length == 0)
+                return null;
+            if(length > 0 && line[length - 1] == '\r')
+                length--;
+            return new String(line, 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
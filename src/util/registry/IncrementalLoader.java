@@ -0,0 +1,226 @@
+package util.registry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+
+/**
+ * Loader of a registry database and its log for long-lived consumers
+ * ({@link RegistryStore}, hence the resident server), which refreshes the
+ * loaded pairs by reading only the bytes appended since the last load.
+ * <p> Loading remembers, for the database file and for its log, the offset
+ * of the bytes consumed so far and a fingerprint of the file: its size,
+ * last modified time and a hash of its first {@value #HEAD_SIZE} bytes. A
+ * refresh then reads: </p>
+ * <p>    - nothing, if neither file changed </p>
+ * <p>    - the log records appended past the consumed offset, if the log
+ *          grew and still starts with the bytes it was consumed from </p>
+ * <p>    - the pairs appended to a text database file past the consumed
+ *          offset, likewise, if it has no log </p>
+ * <p> Anything else (a file truncated, rewritten by a compaction, merge or
+ * conversion, or converted to another format, the log deleted) requires
+ * a full reload, as does a corrupt appended record. An incomplete record
+ * at the end (the writer is mid-append) is left for the next refresh. A
+ * refresh costs in proportion to the appended bytes, not to the size of
+ * the database. </p>
+ * <p> Not thread-safe, the caller serializes the loads and refreshes and
+ * holds the registry database lock meanwhile. </p>
+ * */
+final class IncrementalLoader {
+    /* bytes hashed to tell a rewritten file from an appended one */
+    private static final int HEAD_SIZE = 4096;
+
+    private final Path          dbFile;
+    private final boolean       isExternalDb;
+    private final WriteAheadLog writeAheadLog;
+    private FileState           dbState, logState; /* as consumed, null if a full load is required */
+    private boolean             textDb;
+
+    /**
+     * @param dbFile Registry database file.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, the default one is created if not present
+     * @throws NullPointerException If dbFile is null.
+     * */
+    IncrementalLoader(final Path dbFile, final boolean isExternalDb) {
+        this.dbFile         = Objects.requireNonNull(dbFile, "database file");
+        this.isExternalDb   = isExternalDb;
+        this.writeAheadLog  = new WriteAheadLog(dbFile);
+    }
+
+    /**
+     * Loads the registry database along with its log and remembers the
+     * consumed offsets and fingerprints of both files.
+     * @return Loaded pairs.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption.
+     * */
+    ConcurrentHashMap<Key,String> load() throws IOException, CorruptRegistryDataException {
+        dbState = logState = null;
+        ConcurrentHashMap<Key,String> loadedMap = Registry.forServing(dbFile.toString(), isExternalDb).loadForServing();
+        Map<Key,String> records = new LinkedHashMap<>();
+        long logOffset = writeAheadLog.readRecords(0, records, true);
+        for(Map.Entry<Key,String> record : records.entrySet())
+            apply(loadedMap, record.getKey(), record.getValue());
+        textDb = !BinaryFormat.isBinary(dbFile) && !CompressedFormat.isCompressed(dbFile);
+        FileState db = FileState.of(dbFile);
+        dbState = db.consumedTo(db.size);
+        logState = FileState.of(writeAheadLog.getFile()).consumedTo(logOffset);
+        return loadedMap;
+    }
+
+    /**
+     * Applies the pairs and records appended to the files since the last
+     * load or refresh.
+     * @param map Pairs as loaded and refreshed so far.
+     * @param pending Keys with changes not yet written back by the caller,
+     *                left as they are (the caller writes them back later).
+     * @return Keys whose pairs changed, null if a full reload is required
+     *          (nothing applied then).
+     * @throws IOException For any I/O error.
+     * */
+    Set<Key> refresh(final Map<Key,String> map, final Predicate<Key> pending) throws IOException {
+        if(dbState == null)
+            return null;
+        FileState db = FileState.of(dbFile), log = FileState.of(writeAheadLog.getFile());
+        final Map<Key,String> records = new LinkedHashMap<>();
+        try {
+            if(!db.equals(dbState)) {
+                /* only a text database without a log is ever appended to, by hand or by a script */
+                if(!textDb || log.size > 0 || !db.isAppendedTo(dbState, dbFile))
+                    return null;
+                db = db.consumedTo(WriteAheadLog.readRecords(dbFile, dbState.offset, records, true));
+                for(Map.Entry<Key,String> record : records.entrySet())
+                    if(record.getValue() == null || map.containsKey(record.getKey()) && !pending.test(record.getKey()))
+                        return null; /* tombstone or duplicate key, reported by the full reload */
+            }
+            if(!log.equals(logState)) {
+                if(!log.isAppendedTo(logState, writeAheadLog.getFile()))
+                    return null;
+                log = log.consumedTo(writeAheadLog.readRecords(logState.offset, records, true));
+            }
+        } catch(CorruptRegistryDataException e) {
+            return null;
+        }
+
+        final Set<Key> changedKeys = new HashSet<>();
+        for(Map.Entry<Key,String> record : records.entrySet())
+            if(!pending.test(record.getKey()) && apply(map, record.getKey(), record.getValue()))
+                changedKeys.add(record.getKey());
+        dbState = db;
+        logState = log;
+        return changedKeys;
+    }
+
+    /**
+     * Takes the files as they are now as consumed, to be called once the
+     * caller has written them from pairs it holds, e.g. by rewriting the database.
+     * @throws IOException For any I/O error.
+     * */
+    void consumed() throws IOException {
+        FileState db = FileState.of(dbFile), log = FileState.of(writeAheadLog.getFile());
+        textDb = !BinaryFormat.isBinary(dbFile) && !CompressedFormat.isCompressed(dbFile);
+        dbState = db.consumedTo(db.size);
+        logState = log.consumedTo(log.size);
+    }
+
+    /**
+     * Takes the records the caller appended to the log as consumed, so that
+     * the next refresh does not read them back, provided nothing else was
+     * left to consume before them. To be called holding the exclusive lock.
+     * @param logSizeBefore Size of the log before the append.
+     * @throws IOException For any I/O error.
+     * */
+    void appended(final long logSizeBefore) throws IOException {
+        if(logState == null || logState.size != logSizeBefore || logState.offset != logSizeBefore)
+            return; /* records of others appended before, or a partial record, left to the next refresh */
+        FileState db = FileState.of(dbFile), log = FileState.of(writeAheadLog.getFile());
+        if(db.equals(dbState) && log.isAppendedTo(logState, writeAheadLog.getFile()))
+            logState = log.consumedTo(log.size);
+    }
+
+    /** Forces a full load by the next refresh. */
+    void invalidate() { dbState = logState = null; }
+
+    /* puts the pair, or removes the key for a null value; true if changed */
+    private static boolean apply(final Map<Key,String> map, final Key key, final String value) {
+        return !Objects.equals(value == null ? map.remove(key) : map.put(key, value), value);
+    }
+
+    /**
+     * Fingerprint of a file along with the offset consumed up to.
+     * */
+    private static final class FileState {
+        final long  size, modified, offset;  /* size 0 if not present */
+        final int   headLength;
+        final long  headHash;
+
+        private FileState(final long size, final long modified, final int headLength, final long headHash, final long offset) {
+            this.size       = size;
+            this.modified   = modified;
+            this.headLength = headLength;
+            this.headHash   = headHash;
+            this.offset     = offset;
+        }
+
+        static FileState of(final Path file) throws IOException {
+            try {
+                long size = Files.size(file);
+                long modified = Files.getLastModifiedTime(file).toMillis();
+                int headLength = (int)Math.min(HEAD_SIZE, size);
+                return new FileState(size, modified, headLength, headHash(file, headLength), 0);
+            } catch(NoSuchFileException e) {
+                return new FileState(0, 0, 0, 0, 0);
+            }
+        }
+
+        FileState consumedTo(final long offset) {
+            return new FileState(size, modified, headLength, headHash, offset);
+        }
+
+        /* true if the file grew past the consumed offset of the earlier state and still starts with the same bytes
+           (an incomplete record past the offset may have been cut off meanwhile, hence may be smaller) */
+        boolean isAppendedTo(final FileState earlier, final Path file) throws IOException {
+            return size > earlier.offset
+                    && (earlier.headLength == headLength ? earlier.headHash == headHash
+                                                         : earlier.headHash == headHash(file, earlier.headLength));
+        }
+
+        /* same size, last modified time and head, the offset aside */
+        @Override
+        public boolean equals(final Object other) {
+            if(!(other instanceof FileState))
+                return false;
+            FileState state = (FileState)other;
+            return size == state.size && modified == state.modified && headLength == state.headLength && headHash == state.headHash;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(headHash);
+        }
+
+        private static long headHash(final Path file, final int length) throws IOException {
+            ByteBuffer head = ByteBuffer.allocate(length);
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                while(head.hasRemaining() && channel.read(head) >= 0);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(head.array(), 0, head.position());
+            return crc.getValue();
+        }
+    }
+}
@@ -5,29 +5,61 @@ import java.util.Objects;
 
 class Key {
     private final String keyValue;
-    
+    private final String foldedValue; /* case-folded canonical form */
+    private final int    hash;        /* cached, derived from foldedValue */
+
     Key(final String keyValue) {
-        this.keyValue = Objects.requireNonNull(keyValue, "key value");
+        this.keyValue    = Objects.requireNonNull(keyValue, "key value");
+        this.foldedValue = fold(keyValue);
+        this.hash        = foldedValue.hashCode();
+    }
+
+    /**
+     * Case-folds the specified string the same way
+     * {@link String#equalsIgnoreCase(String)} compares characters
+     * (upper-casing then lower-casing every character), so that two
+     * strings are equal ignoring case iff their folded forms are equal.
+     * @param value String to fold.
+     * @return Case-folded canonical form.
+     * */
+    static String fold(final String value) {
+        char[] chars = null;
+        for(int i = 0, len = value.length(); i < len; i++) {
+            char c = value.charAt(i);
+            char folded = Character.toLowerCase(Character.toUpperCase(c));
+            if(folded != c) {
+                if(chars == null)
+                    chars = value.toCharArray();
+                chars[i] = folded;
+            }
+        }
+        return chars == null ? value : new String(chars);
+    }
+
+    /**
+     * @return Case-folded canonical form of this key.
+     * */
+    String folded() {
+        return foldedValue;
     }
-    
+
     @Override
     public String toString() {
         return keyValue;
     }
-    
+
     @Override
     public int hashCode() {
-        /* Ditching first hashCode() match implemented by Map.containsKey(Object)
-         * 		to force keyValue (String) content match */
-        return 0;
+        return hash;
     }
-    
+
     @Override
     public boolean equals(Object obj) {
         if(obj == this)
-            return true;        
+            return true;
         if(! (obj instanceof Key) )
-            return false;        
-        return ((Key)obj).keyValue.equalsIgnoreCase(this.keyValue);
+            return false;
+        Key other = (Key)obj;
+        return other.hash == this.hash && other.foldedValue.equals(this.foldedValue);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,71 @@
+package util.registry;
+
+import java.util.Objects;
+
+
+/**
+ * Range of keys of a scan, on the case-folded keys (see {@link Key#fold(String)})
+ * in their natural order, hence ignoring case as {@link Key#equals(Object)} does.
+ * <p> Either all the keys starting with a prefix, or the keys from a key
+ * (inclusive) to another key (exclusive). </p>
+ * */
+final class KeyRange {
+    private final String from, to; /* case-folded, to is null for a prefix */
+
+    private KeyRange(final String from, final String to) {
+        this.from = from;
+        this.to   = to;
+    }
+
+    /**
+     * @param prefix Prefix of the keys, empty for all the keys.
+     * @return Range of the keys starting with the prefix.
+     * @throws NullPointerException If prefix is null.
+     * */
+    static KeyRange prefix(final String prefix) throws NullPointerException {
+        return new KeyRange(Key.fold(Objects.requireNonNull(prefix, "prefix")), null);
+    }
+
+    /**
+     * @param from First key of the range, inclusive.
+     * @param to Last key of the range, exclusive.
+     * @return Range of the keys from the first key till the last one.
+     * @throws NullPointerException If any of the keys is null.
+     * @throws IllegalArgumentException If the first key orders after the last one.
+     * */
+    static KeyRange between(final String from, final String to) throws NullPointerException, IllegalArgumentException {
+        String foldedFrom = Key.fold(Objects.requireNonNull(from, "first key"));
+        String foldedTo   = Key.fold(Objects.requireNonNull(to, "last key"));
+        if(foldedFrom.compareTo(foldedTo) > 0)
+            throw new IllegalArgumentException("First key of range orders after the last key: " + from + " > " + to);
+        return new KeyRange(foldedFrom, foldedTo);
+    }
+
+    /**
+     * @return Case-folded key, no key of the range orders before it.
+     * */
+    String start() {
+        return from;
+    }
+
+    /**
+     * @param folded Case-folded key.
+     * @return True if the key is in the range.
+     * */
+    boolean contains(final String folded) {
+        return to == null ? folded.startsWith(from) : folded.compareTo(from) >= 0 && folded.compareTo(to) < 0;
+    }
+
+    /**
+     * @param folded Case-folded key.
+     * @return True if the key, and hence every key ordering after it, is past the range.
+     * */
+    boolean isPast(final String folded) {
+        return to == null ? folded.compareTo(from) > 0 && !folded.startsWith(from) : folded.compareTo(to) >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return to == null ? "with prefix '" + from + "'" : "from '" + from + "' to '" + to + "'";
+    }
+}
@@ -0,0 +1,315 @@
+package util.registry;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+
+/**
+ * Radix tree of the case-folded keys of a loaded registry (see
+ * {@link Key#fold(String)}), for prefix and wildcard key queries.
+ * <p> Every edge is labelled with a run of characters and the children of
+ * a node are kept sorted by their first character, so the keys are visited
+ * in the order of their case-folded forms. A query walks only the branches
+ * the pattern can still match, its cost grows with the count of matches
+ * and the length of the pattern, not with the count of keys. </p>
+ * <p> Patterns are matched ignoring case: '*' matches any run of characters
+ * (including none), '?' matches exactly one character, every other
+ * character matches itself. A prefix query is the prefix followed by '*'. </p>
+ * <p> Not thread-safe. </p>
+ * */
+final class KeyTrie {
+    /* object size model of a 64-bit JVM with compressed references */
+    private static final int OBJECT_HEADER = 12, ARRAY_HEADER = 16, REFERENCE = 4, ALIGNMENT = 8;
+
+    private final Node root = new Node("");
+    private int keyCount, nodeCount = 1;
+
+    /**
+     * Edge label and the node it leads to.
+     * */
+    private static final class Node {
+        private String label; /* case-folded characters of the edge into this node */
+        private Node[] children;
+        private int childCount;
+        private Key key; /* key ending at this node, null if none */
+
+        Node(final String label) { this.label = label; }
+    }
+
+    /**
+     * Visitor of the matching keys.
+     * */
+    interface KeyVisitor {
+        /**
+         * @param key Matching key.
+         * @return True to go on, false to stop the query.
+         * */
+        boolean visit(Key key);
+    }
+
+    /**
+     * @param keys Keys to add.
+     * @return Trie of the keys.
+     * */
+    static KeyTrie of(final Iterable<Key> keys) {
+        KeyTrie trie = new KeyTrie();
+        for(Key key : keys)
+            trie.add(key);
+        return trie;
+    }
+
+    /**
+     * Adds the key, replaces the key equal to it if present.
+     * @param key Key to add.
+     * */
+    void add(final Key key) {
+        final String folded = key.folded();
+        Node node = root;
+        int position = 0;
+        while(position < folded.length()) {
+            int index = childIndex(node, folded.charAt(position));
+            if(index < 0) {
+                Node leaf = new Node(folded.substring(position));
+                leaf.key = key;
+                insertChild(node, -index - 1, leaf);
+                nodeCount++;
+                keyCount++;
+                return;
+            }
+            Node child = node.children[index];
+            int common = commonLength(child.label, folded, position);
+            if(common < child.label.length()) { /* splits the edge */
+                Node middle = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                insertChild(middle, 0, child);
+                node.children[index] = middle;
+                nodeCount++;
+                child = middle;
+            }
+            node = child;
+            position += common;
+        }
+        if(node.key == null)
+            keyCount++;
+        node.key = key;
+    }
+
+    /**
+     * Removes the key.
+     * @param key Key to remove.
+     * @return True if the key was present.
+     * */
+    boolean remove(final Key key) {
+        final String folded = key.folded();
+        Node parent = null, node = root;
+        int position = 0;
+        while(position < folded.length()) {
+            int index = childIndex(node, folded.charAt(position));
+            if(index < 0 || !folded.startsWith(node.children[index].label, position))
+                return false;
+            parent = node;
+            node = node.children[index];
+            position += node.label.length();
+        }
+        if(node.key == null)
+            return false;
+        node.key = null;
+        keyCount--;
+
+        /* keeps the tree compressed: no empty leaf, no key-less node with a single child */
+        if(node != root && node.childCount == 0) {
+            removeChild(parent, node);
+            nodeCount--;
+            if(parent != root && parent.key == null && parent.childCount == 1)
+                mergeWithChild(parent);
+        } else if(node != root && node.childCount == 1) {
+            mergeWithChild(node);
+        }
+        return true;
+    }
+
+    /**
+     * @return Count of the keys.
+     * */
+    int size() {
+        return keyCount;
+    }
+
+    /**
+     * @return Count of the nodes, including the root.
+     * */
+    int nodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Visits the keys matching the pattern in the order of their case-folded forms.
+     * @param pattern Pattern, see {@link KeyTrie}.
+     * @param offset Count of the first matching keys to skip.
+     * @param limit Upper bound of the count of keys to visit.
+     * @param visitor Called for every matching key after the offset.
+     * @return Count of the keys visited.
+     * @throws IllegalArgumentException If offset is negative or limit is not positive.
+     * */
+    int match(final String pattern, final int offset, final int limit, final KeyVisitor visitor) throws IllegalArgumentException {
+        if(offset < 0)
+            throw new IllegalArgumentException("Invalid offset: " + offset);
+        if(limit < 1)
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        Query query = new Query(Key.fold(pattern), offset, limit, visitor);
+        BitSet states = new BitSet();
+        states.set(0);
+        query.closure(states);
+        query.walk(root, states);
+        return query.visited;
+    }
+
+    /**
+     * Estimates the heap used by the tree, not counting the keys shared
+     * with the registry map: nodes, child arrays and edge labels.
+     * @return Estimated count of bytes.
+     * */
+    long estimateBytes() {
+        long bytes = 0;
+        Node[] stack = new Node[64];
+        int depth = 0;
+        stack[depth++] = root;
+        while(depth > 0) {
+            Node node = stack[--depth];
+            bytes += align(OBJECT_HEADER + 4 * REFERENCE);   /* label, children, key, childCount */
+            bytes += align(OBJECT_HEADER + REFERENCE + 8)     /* label String: value, hash, coder */
+                   + align(ARRAY_HEADER + labelBytes(node.label));
+            if(node.children != null)
+                bytes += align(ARRAY_HEADER + (long)REFERENCE * node.children.length);
+            for(int i = 0; i < node.childCount; i++) {
+                if(depth == stack.length)
+                    stack = Arrays.copyOf(stack, depth * 2);
+                stack[depth++] = node.children[i];
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Walk of a pattern query, the pattern positions reached so far are
+     * tracked as a set of states (a glob is a simple NFA).
+     * */
+    private static final class Query {
+        private final String pattern;
+        private final KeyVisitor visitor;
+        private final int limit;
+        private int toSkip, visited;
+
+        Query(final String pattern, final int offset, final int limit, final KeyVisitor visitor) {
+            this.pattern = pattern;
+            this.toSkip  = offset;
+            this.limit   = limit;
+            this.visitor = visitor;
+        }
+
+        /* returns false once the query is complete */
+        boolean walk(final Node node, final BitSet states) {
+            if(node.key != null && states.get(pattern.length())) {
+                if(toSkip > 0) {
+                    toSkip--;
+                } else {
+                    visited++;
+                    if(!visitor.visit(node.key) || visited == limit)
+                        return false;
+                }
+            }
+            for(int i = 0; i < node.childCount; i++) {
+                Node child = node.children[i];
+                BitSet childStates = states;
+                for(int c = 0; c < child.label.length() && !childStates.isEmpty(); c++)
+                    childStates = step(childStates, child.label.charAt(c));
+                if(!childStates.isEmpty() && !walk(child, childStates))
+                    return false;
+            }
+            return true;
+        }
+
+        /* pattern positions reached from the states by the character */
+        private BitSet step(final BitSet states, final char c) {
+            BitSet next = new BitSet();
+            for(int state = states.nextSetBit(0); state >= 0 && state < pattern.length(); state = states.nextSetBit(state + 1)) {
+                char p = pattern.charAt(state);
+                if(p == '*')
+                    next.set(state);
+                else if(p == '?' || p == c)
+                    next.set(state + 1);
+            }
+            closure(next);
+            return next;
+        }
+
+        /* a '*' also matches no character */
+        void closure(final BitSet states) {
+            for(int state = states.nextSetBit(0); state >= 0 && state < pattern.length(); state = states.nextSetBit(state + 1))
+                if(pattern.charAt(state) == '*')
+                    states.set(state + 1);
+        }
+    }
+
+    /* index of the child whose label starts with the character, or -(insertion point) - 1 */
+    private static int childIndex(final Node node, final char c) {
+        int low = 0, high = node.childCount - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            char first = node.children[middle].label.charAt(0);
+            if(first < c)
+                low = middle + 1;
+            else if(first > c)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -low - 1;
+    }
+
+    private static void insertChild(final Node node, final int index, final Node child) {
+        if(node.children == null)
+            node.children = new Node[2];
+        else if(node.childCount == node.children.length)
+            node.children = Arrays.copyOf(node.children, node.childCount * 2);
+        System.arraycopy(node.children, index, node.children, index + 1, node.childCount - index);
+        node.children[index] = child;
+        node.childCount++;
+    }
+
+    private static void removeChild(final Node node, final Node child) {
+        int index = childIndex(node, child.label.charAt(0));
+        System.arraycopy(node.children, index + 1, node.children, index, node.childCount - index - 1);
+        node.children[--node.childCount] = null;
+        if(node.childCount == 0)
+            node.children = null;
+    }
+
+    /* absorbs the single child of a key-less node into it */
+    private void mergeWithChild(final Node node) {
+        Node child = node.children[0];
+        node.label      = node.label + child.label;
+        node.key        = child.key;
+        node.children   = child.children;
+        node.childCount = child.childCount;
+        nodeCount--;
+    }
+
+    private static int commonLength(final String label, final String key, final int position) {
+        int length = 0, max = Math.min(label.length(), key.length() - position);
+        while(length < max && label.charAt(length) == key.charAt(position + length))
+            length++;
+        return length;
+    }
+
+    private static long labelBytes(final String label) {
+        for(int i = 0; i < label.length(); i++)
+            if(label.charAt(i) > 0xFF)
+                return 2L * label.length(); /* UTF-16 coded */
+        return label.length();                 /* Latin-1 coded */
+    }
+
+    private static long align(final long bytes) {
+        return (bytes + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,24 @@
+package util.registry;
+
+
+/**
+ * Holder of the installed {@link RegistryLogger}.
+ * */
+final class Log {
+    private static volatile RegistryLogger logger = null;
+
+    private Log() {}
+
+    static void setLogger(final RegistryLogger logger) { Log.logger = logger; }
+
+    /**
+     * Logs the progress message to the installed logger, if any.
+     * @param format Message format.
+     * @param args Message format arguments.
+     * */
+    static void verbose(final String format, final Object... args) {
+        RegistryLogger logger = Log.logger;
+        if(logger != null)
+            logger.log(format, args);
+    }
+}
@@ -0,0 +1,296 @@
+package util.registry;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * Map of the registry pairs kept off the heap, for huge registries.
+ * <p> Keys and values are stored as UTF-8 bytes in an arena of direct
+ * buffers ({@value #CHUNK_SIZE} bytes each, a larger record gets a buffer
+ * of its own), one record per put: key hash (int), key length (int), value
+ * length (int), key bytes, value bytes. The records are indexed by a
+ * single {@code long[]} open-addressing table with linear probing, every
+ * slot holding a tag of the key hash (upper {@value #TAG_BITS} bits) and the
+ * address of the record (chunk and offset, lower bits), 0 for an empty
+ * slot. Removal shifts the following slots back, hence no tombstones. </p>
+ * <p> The heap holds the table only, about 8 to 16 bytes per pair, and the
+ * garbage collector never traces the pairs. Keys and values are decoded
+ * on every access, a replaced or removed record is left in the arena as
+ * garbage (the map lives as long as a single operation). </p>
+ * <p> Direct buffers count against -XX:MaxDirectMemorySize, which defaults
+ * to the maximum heap size. </p>
+ * <p> Not thread-safe. Entries are iterated in table order, {@link Map.Entry#setValue(Object)}
+ * and removal through the views are not supported. </p>
+ * */
+final class OffHeapMap extends AbstractMap<Key,String> {
+    /** Size of an arena buffer */
+    static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final int TAG_BITS = 24, ADDRESS_BITS = 64 - TAG_BITS, OFFSET_BITS = 32;
+    private static final long ADDRESS_MASK = (1L << ADDRESS_BITS) - 1;
+    private static final int MAX_CHUNKS = 1 << (ADDRESS_BITS - OFFSET_BITS);
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 4;
+    private static final double MAX_LOAD = 0.6;
+
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int chunkCount;
+    private long[] slots = new long[1024];
+    private int size;
+    private long usedBytes, garbageBytes, allocatedBytes;
+    private Set<Map.Entry<Key,String>> entrySet;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        return key instanceof Key && find((Key)key) >= 0;
+    }
+
+    @Override
+    public String get(final Object key) {
+        if(!(key instanceof Key))
+            return null;
+        int slot = find((Key)key);
+        return slot < 0 ? null : value(address(slots[slot]));
+    }
+
+    @Override
+    public String put(final Key key, final String value) {
+        final byte[] keyBytes   = key.toString().getBytes(StandardCharsets.UTF_8);
+        final byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        final int hash = key.hashCode();
+        int slot = find(key);
+        String previous = null;
+        if(slot >= 0) {
+            long address = address(slots[slot]);
+            previous = value(address);
+            garbageBytes += recordSize(address);
+        } else {
+            if(size + 1 > slots.length * MAX_LOAD) {
+                resize(slots.length * 2);
+                slot = find(key); /* probes the resized table */
+            }
+            slot = -slot - 1;
+            size++;
+        }
+        slots[slot] = slot(hash, append(hash, keyBytes, valueBytes));
+        return previous;
+    }
+
+    @Override
+    public String remove(final Object key) {
+        if(!(key instanceof Key))
+            return null;
+        int slot = find((Key)key);
+        if(slot < 0)
+            return null;
+        long address = address(slots[slot]);
+        String previous = value(address);
+        garbageBytes += recordSize(address);
+        size--;
+
+        /* shifts back the following slots of the run whose home is not between the hole and them */
+        final int mask = slots.length - 1;
+        int hole = slot;
+        for(int next = (hole + 1) & mask; slots[next] != 0; next = (next + 1) & mask) {
+            int home = home(hashAt(address(slots[next])), mask);
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                slots[hole] = slots[next];
+                hole = next;
+            }
+        }
+        slots[hole] = 0;
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        chunks = new ByteBuffer[4];
+        chunkCount = 0;
+        slots = new long[1024];
+        size = 0;
+        usedBytes = garbageBytes = allocatedBytes = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<Key,String>> entrySet() {
+        if(entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<Key,String>>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Key,String>> iterator() {
+                    return new Iterator<Map.Entry<Key,String>>() {
+                        private final long[] table = slots; /* the map must not change while iterating */
+                        private int slot = advance(0);
+
+                        private int advance(int from) {
+                            while(from < table.length && table[from] == 0)
+                                from++;
+                            return from;
+                        }
+
+                        @Override
+                        public boolean hasNext() {
+                            return slot < table.length;
+                        }
+
+                        @Override
+                        public Map.Entry<Key,String> next() {
+                            if(slot >= table.length)
+                                throw new NoSuchElementException();
+                            long address = address(table[slot]);
+                            slot = advance(slot + 1);
+                            return new AbstractMap.SimpleImmutableEntry<>(new Key(key(address)), value(address));
+                        }
+                    };
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    /**
+     * @return Bytes of the arena holding live records.
+     * */
+    long usedBytes() {
+        return usedBytes - garbageBytes;
+    }
+
+    /**
+     * @return Bytes of the live records and of the index table, the
+     *          memory taken by the pairs.
+     * */
+    long estimateBytes() {
+        return usedBytes() + 8L * slots.length;
+    }
+
+    /**
+     * @return Bytes of the arena buffers allocated off the heap, used or not.
+     * */
+    long allocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /* slot of the key, or -(empty slot to insert it at) - 1 */
+    private int find(final Key key) {
+        final int hash = key.hashCode(), mask = slots.length - 1;
+        final long tag = tag(hash);
+        for(int slot = home(hash, mask); ; slot = (slot + 1) & mask) {
+            long entry = slots[slot];
+            if(entry == 0)
+                return -slot - 1;
+            if((entry & ~ADDRESS_MASK) == tag) {
+                long address = address(entry);
+                if(hashAt(address) == hash && Key.fold(key(address)).equals(key.folded()))
+                    return slot;
+            }
+        }
+    }
+
+    private void resize(final int capacity) {
+        long[] old = slots;
+        slots = new long[capacity];
+        final int mask = capacity - 1;
+        for(long entry : old) {
+            if(entry == 0)
+                continue;
+            int slot = home(hashAt(address(entry)), mask);
+            while(slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = entry;
+        }
+    }
+
+    /* appends the record to the arena, returns its address */
+    private long append(final int hash, final byte[] key, final byte[] value) {
+        final int recordSize = RECORD_HEADER_SIZE + key.length + value.length;
+        ByteBuffer chunk = chunkCount == 0 ? null : chunks[chunkCount - 1];
+        if(chunk == null || chunk.remaining() < recordSize) {
+            if(chunkCount == MAX_CHUNKS)
+                throw new IllegalStateException("Off-heap arena is full: " + chunkCount + " buffers");
+            if(chunkCount == chunks.length)
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            chunk = ByteBuffer.allocateDirect(Math.max(CHUNK_SIZE, recordSize));
+            chunks[chunkCount++] = chunk;
+            allocatedBytes += chunk.capacity();
+        }
+        long address = (long)(chunkCount - 1) << OFFSET_BITS | chunk.position();
+        chunk.putInt(hash).putInt(key.length).putInt(value.length).put(key).put(value);
+        usedBytes += recordSize;
+        return address;
+    }
+
+    private int hashAt(final long address) {
+        return chunk(address).getInt(offset(address));
+    }
+
+    private String key(final long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address);
+        return string(chunk, offset + RECORD_HEADER_SIZE, chunk.getInt(offset + 4));
+    }
+
+    private String value(final long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address), keyLength = chunk.getInt(offset + 4);
+        return string(chunk, offset + RECORD_HEADER_SIZE + keyLength, chunk.getInt(offset + 8));
+    }
+
+    private int recordSize(final long address) {
+        ByteBuffer chunk = chunk(address);
+        int offset = offset(address);
+        return RECORD_HEADER_SIZE + chunk.getInt(offset + 4) + chunk.getInt(offset + 8);
+    }
+
+    private static String string(final ByteBuffer chunk, final int offset, final int length) {
+        byte[] bytes = new byte[length];
+        chunk.get(offset, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer chunk(final long address) {
+        return chunks[(int)(address >>> OFFSET_BITS)];
+    }
+
+    private static int offset(final long address) {
+        return (int)address;
+    }
+
+    private static long address(final long slot) {
+        return slot & ADDRESS_MASK;
+    }
+
+    /* never 0, the top bit of the tag is always set */
+    private static long slot(final int hash, final long address) {
+        return tag(hash) | address;
+    }
+
+    private static long tag(final int hash) {
+        return ((long)((mix(hash) >>> (32 - TAG_BITS)) | 1 << (TAG_BITS - 1))) << ADDRESS_BITS;
+    }
+
+    private static int home(final int hash, final int mask) {
+        return mix(hash) & mask;
+    }
+
+    /* spreads the bits of String hash codes, which cluster for similar keys */
+    private static int mix(final int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,188 @@
+package util.registry;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * Timings and throughput of the phases of a registry operation (lock wait,
+ * load, query, entry, merge, update...).
+ * <p> Every phase is timed with {@link System#nanoTime()} and carries the
+ * count of records it handled, the bytes of the files it read whole and
+ * wrote, and the heap allocated by the calling thread meanwhile (helper
+ * threads, e.g. of the parallel loader, are not counted). Phases are
+ * collected if requested, for {@link #toJson()}, and emitted as JFR events
+ * ({@value #EVENT_NAME}) whenever the flight recorder is in use. </p>
+ * <p> When neither is the case a phase is a shared no-op object: no clock,
+ * no allocation counter and no event is read. </p>
+ * <p> Not thread-safe, phases begin and end on the thread of the operation. </p>
+ * */
+final class OperationStats {
+    /** Name of the JFR event of a phase */
+    static final String EVENT_NAME = "util.registry.Phase";
+
+    private static final Phase NONE = new Phase(null, null);
+    private static final com.sun.management.ThreadMXBean THREADS =
+            ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean ?
+                (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean() : null;
+
+    private final String operation;
+    private final boolean collect;
+    private final List<Phase> phases = new ArrayList<>();
+    private final long start = System.nanoTime();
+
+    /**
+     * @param operation Operation mode, see {@link Registry}.
+     * @param collect True to collect the phases for {@link #toJson()}.
+     * */
+    OperationStats(final String operation, final boolean collect) {
+        this.operation = operation;
+        this.collect   = collect;
+    }
+
+    /**
+     * Begins a phase, to be ended by {@link Phase#end()}.
+     * @param name Name of the phase.
+     * @return Phase, a no-op if neither collected nor recorded.
+     * */
+    Phase begin(final String name) {
+        if(!collect && !FlightRecorder.isInitialized())
+            return NONE;
+        return new Phase(this, name);
+    }
+
+    /**
+     * @return Phases collected so far as a JSON object: operation, total
+     *          time and the phases in order.
+     * */
+    String toJson() {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"operation\":\"").append(operation)
+            .append("\",\"totalNanos\":").append(System.nanoTime() - start)
+            .append(",\"phases\":[");
+        for(int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            if(i > 0)
+                json.append(',');
+            json.append(String.format(Locale.ROOT,
+                    "{\"phase\":\"%s\",\"nanos\":%d,\"records\":%d,\"recordsPerSecond\":%.1f,"
+                    + "\"bytesRead\":%d,\"bytesWritten\":%d,\"allocatedBytes\":%d}",
+                    phase.name, phase.nanos, phase.records, phase.nanos > 0 ? phase.records * 1e9 / phase.nanos : 0.0,
+                    phase.bytesRead, phase.bytesWritten, phase.allocatedBytes));
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * A timed phase of the operation.
+     * */
+    static final class Phase {
+        private final OperationStats owner; /* null for the no-op phase */
+        private final String name;
+        private final PhaseEvent event;
+        private final long start, allocatedAtStart;
+        private long nanos, records, bytesRead, bytesWritten, allocatedBytes;
+
+        private Phase(final OperationStats owner, final String name) {
+            this.owner = owner;
+            this.name  = name;
+            if(owner == null) {
+                event = null;
+                start = allocatedAtStart = 0;
+                return;
+            }
+            event = new PhaseEvent();
+            event.begin();
+            allocatedAtStart = allocatedBytes();
+            start = System.nanoTime();
+        }
+
+        /** @return This phase, having handled the count of records more. */
+        Phase records(final long count) {
+            records += count;
+            return this;
+        }
+
+        /** @return This phase, having read the count of bytes more. */
+        Phase bytesRead(final long count) {
+            bytesRead += count;
+            return this;
+        }
+
+        /** @return This phase, having written the count of bytes more. */
+        Phase bytesWritten(final long count) {
+            bytesWritten += count;
+            return this;
+        }
+
+        /**
+         * @return True if the phase is neither collected nor recorded, its
+         *          figures need not be computed.
+         * */
+        boolean isNoOp() {
+            return owner == null;
+        }
+
+        /**
+         * Ends the phase: collects it and commits its event if recording.
+         * */
+        void end() {
+            if(owner == null)
+                return;
+            nanos = System.nanoTime() - start;
+            allocatedBytes = Math.max(0, allocatedBytes() - allocatedAtStart);
+            if(owner.collect)
+                owner.phases.add(this);
+            if(event.shouldCommit()) {
+                event.operation      = owner.operation;
+                event.phase          = name;
+                event.records        = records;
+                event.bytesRead      = bytesRead;
+                event.bytesWritten   = bytesWritten;
+                event.allocatedBytes = allocatedBytes;
+                event.commit();
+            }
+        }
+
+        private static long allocatedBytes() {
+            return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+
+    @Name(EVENT_NAME)
+    @Label("Registry Phase")
+    @Category("Registry")
+    @Description("Phase of a registry operation")
+    static final class PhaseEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Records")
+        long records;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Allocated Bytes")
+        @DataAmount
+        long allocatedBytes;
+    }
+}
@@ -0,0 +1,206 @@
+package util.registry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+/**
+ * Loads a text format registry database file on several threads.
+ * <p> The file is split into chunks aligned on "K: " record boundaries,
+ * every chunk is memory-mapped and parsed on a fork-join pool into its own
+ * map, then the chunk maps are combined in file order. </p>
+ * <p> Corruption is reported for the first corrupt row in file order, and
+ * keys are checked for duplicates across chunks while combining. Only strict
+ * loads are supported, repair keeps using the sequential loader as its
+ * best effort recovery depends on the state of the preceding rows. </p>
+ * */
+class ParallelTextLoader {
+    /** Files smaller than this are loaded sequentially */
+    static final long   MIN_FILE_SIZE = 8 * 1024 * 1024;
+
+    private static final int    MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final byte[] KEY_PREFIX = { '\n', 'K', ':', ' ' };
+
+    private final Path  file;
+    private final int   threads;
+
+    /**
+     * @param file Text format file to load.
+     * @param threads Count of threads to parse with.
+     * @throws NullPointerException If file is null.
+     * @throws IllegalArgumentException If threads is less than 1.
+     * */
+    ParallelTextLoader(final Path file, final int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        this.file    = Objects.requireNonNull(file, "file");
+        this.threads = threads;
+    }
+
+    /**
+     * Loads all the pairs of the file into the map.
+     * @param map Map to load pairs into.
+     * @param values Dictionary to intern the values through, while combining the chunks.
+     * @return Count of the pairs loaded.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    int load(final Map<Key,String> map, final ValueDictionary values) throws IOException, CorruptRegistryDataException {
+        final List<Chunk> chunks = new ArrayList<>();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            for(long[] bounds : split(channel))
+                chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, bounds[0], bounds[1] - bounds[0])));
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Future<Chunk>> parsed = pool.invokeAll(chunks);
+            int pairsLoaded = 0;
+            for(Future<Chunk> future : parsed) { /* in file order */
+                Chunk chunk = future.get();
+                if(chunk.error != null)
+                    throw chunk.error;
+                for(Map.Entry<Key,String> pair : chunk.pairs.entrySet()) {
+                    if(map.containsKey(pair.getKey()))
+                        throw new CorruptRegistryDataException("Duplicate key", pair.getKey().toString(), file);
+                    map.put(pair.getKey(), values.intern(pair.getValue()));
+                    pairsLoaded++;
+                }
+                chunk.pairs = null; /* release early */
+            }
+            return pairsLoaded;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading data from file: " + file, e);
+        } catch(ExecutionException e) {
+            throw new IOException("While loading data from file: " + file, e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* splits the file into chunks starting at the beginning of a "K: " line */
+    private List<long[]> split(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final long chunkSize = Math.min(Integer.MAX_VALUE, Math.max(MIN_CHUNK_SIZE, size / (threads * 4L)));
+        final List<long[]> bounds = new ArrayList<>();
+        long start = 0;
+        while(start < size) {
+            long end = start + chunkSize >= size ? size : nextRecordStart(channel, start + chunkSize, size);
+            if(end - start > Integer.MAX_VALUE)
+                throw new IOException("Record too large to load in parallel near offset " + start);
+            bounds.add(new long[] { start, end });
+            start = end;
+        }
+        return bounds;
+    }
+
+    /* offset of the first "K: " line at or after the position, else size */
+    private static long nextRecordStart(final FileChannel channel, final long position, final long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long offset = position - 1; /* the preceding new line */
+        while(offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if(read <= 0)
+                break;
+            for(int i = 0; i + KEY_PREFIX.length <= read; i++) {
+                int j = 0;
+                while(j < KEY_PREFIX.length && buffer.get(i + j) == KEY_PREFIX[j])
+                    j++;
+                if(j == KEY_PREFIX.length)
+                    return offset + i + 1;
+            }
+            if(read < KEY_PREFIX.length)
+                break;
+            offset += read - (KEY_PREFIX.length - 1); /* prefix may span the buffers */
+        }
+        return size;
+    }
+
+    /**
+     * A chunk of the file, parsed with the same rules as the sequential loader.
+     * */
+    private class Chunk implements Callable<Chunk> {
+        private final MappedByteBuffer bytes;
+        private Map<Key,String> pairs;
+        private CorruptRegistryDataException error;
+
+        Chunk(final MappedByteBuffer bytes) { this.bytes = bytes; }
+
+        @Override
+        public Chunk call() {
+            pairs = new HashMap<>();
+            try {
+                parse();
+            } catch(CorruptRegistryDataException e) {
+                error = e;
+                pairs = null;
+            }
+            return this;
+        }
+
+        private void parse() throws CorruptRegistryDataException {
+            byte[] line = new byte[256];
+            String key = null, loadedLine = null;
+            final int limit = bytes.limit();
+            int position = 0;
+            while(position < limit) {
+                int length = 0;
+                while(position < limit) {
+                    byte b = bytes.get(position++);
+                    if(b == '\n')
+                        break;
+                    if(length == line.length)
+                        line = Arrays.copyOf(line, length * 2);
+                    line[length++] = b;
+                }
+                if(length > 0 && line[length - 1] == '\r')
+                    length--;
+
+                if(length >= 3 && line[0] == 'K' && line[1] == ':' && line[2] == ' ') {
+                    if(key != null)
+                        throw new CorruptRegistryDataException("Expecting a VALUE line", decode(line, 0, length), file);
+                    loadedLine = decode(line, 0, length);
+                    key = Registry.getInValidKeyOrValueFormat(loadedLine.substring(3));
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Invalid key format", loadedLine, file);
+                } else if(length >= 3 && line[0] == 'V' && line[1] == ':' && line[2] == ' ') {
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Expecting a KEY line", decode(line, 0, length), file);
+                    Key mapKey = new Key(key);
+                    if(pairs.containsKey(mapKey))
+                        throw new CorruptRegistryDataException("Duplicate key", key, file);
+                    String value = Registry.getInValidKeyOrValueFormat(decode(line, 3, length - 3));
+                    if(value == null)
+                        throw new CorruptRegistryDataException("Invalid value format", decode(line, 0, length), file);
+                    pairs.put(mapKey, value);
+                    key = null;
+                } else {
+                    throw new CorruptRegistryDataException("Invalid line format", decode(line, 0, length), file);
+                }
+            }
+            if(key != null)
+                throw new CorruptRegistryDataException("Couldn't find corresponsing value of key='" + key + "'", loadedLine, file);
+        }
+
+        private String decode(final byte[] line, final int offset, final int length) {
+            return new String(line, offset, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package util.registry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+
+/**
+ * Prefix or range scan of a registry database, streams the pairs of a
+ * {@link KeyRange} in key order.
+ * <p> With a fresh {@link SparseIndex}, or through the block directory of
+ * a compressed file (see {@link CompressedFormat}), the database file is
+ * read from the block holding the first key of the range and reading
+ * stops past the last key. Otherwise the whole file is read and the pairs of the range
+ * are sorted in memory. Either way the log records of the range are
+ * merged in key order, overriding the database file. </p>
+ * <p> The pairs go to a {@link PairSink}, e.g. one appending them in the
+ * output format (see {@link #appendPair(Appendable, String, String, boolean)}):
+ * key and value separated by a tab and ended by a new line, or every
+ * field NUL terminated. </p>
+ * */
+final class RangeScan {
+    private final KeyRange range;
+    private final TreeMap<String,String[]> logPairs = new TreeMap<>(); /* case-folded key to key and value (null if tombstoned) */
+    private final PairSink sink;
+    private int pairsWritten;
+
+    /**
+     * Consumer of the pairs listed, in key order.
+     * */
+    interface PairSink {
+        /**
+         * @param key Key of the pair.
+         * @param value Value of the pair.
+         * @throws IOException For any I/O error.
+         * */
+        void accept(String key, String value) throws IOException;
+    }
+
+    /**
+     * @param range Key range to scan.
+     * @param logRecords Records of the database log, null value for a tombstone.
+     * @param sink Consumer of the pairs.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    RangeScan(final KeyRange range, final Map<Key,String> logRecords, final PairSink sink) {
+        this.range = Objects.requireNonNull(range, "key range");
+        for(Map.Entry<Key,String> record : logRecords.entrySet())
+            if(range.contains(record.getKey().folded()))
+                logPairs.put(record.getKey().folded(), new String[] { record.getKey().toString(), record.getValue() });
+        this.sink = Objects.requireNonNull(sink, "pair sink");
+    }
+
+    /**
+     * Scans the database file.
+     * @param dbFile Registry database file.
+     * @param index Fresh sparse index of the database file, null if the file is not sorted.
+     * @param compressed True if the database file is in compressed format, read through its block directory.
+     * @return Count of the pairs listed.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected in the scanned part of the file.
+     * */
+    int run(final Path dbFile, final SparseIndex index, final boolean compressed) throws IOException, CorruptRegistryDataException {
+        try {
+            if(index != null || compressed) {
+                final String[] lastKey = { null };
+                SparseIndex.PairVisitor visitor = (key, value) -> {
+                    String folded = Key.fold(key);
+                    if(range.isPast(folded))
+                        return false; /* rest of the file is never read */
+                    if(folded.equals(lastKey[0]))
+                        throw new CorruptRegistryDataException("Duplicate key", key, dbFile);
+                    lastKey[0] = folded;
+                    if(range.contains(folded)) /* the first block may start before the range */
+                        write(key, folded, value);
+                    return true;
+                };
+                if(compressed)
+                    CompressedFormat.scan(dbFile, range.start(), visitor);
+                else
+                    index.scan(range, visitor);
+            } else {
+                final TreeMap<String,String[]> pairs = new TreeMap<>();
+                SparseIndex.read(dbFile, (key, value) -> {
+                    String folded = Key.fold(key);
+                    if(range.contains(folded) && pairs.put(folded, new String[] { key, value }) != null)
+                        throw new CorruptRegistryDataException("Duplicate key", key, dbFile);
+                    return true;
+                });
+                for(Map.Entry<String,String[]> pair : pairs.entrySet())
+                    write(pair.getValue()[0], pair.getKey(), pair.getValue()[1]);
+            }
+            for(String[] pair : logPairs.values()) /* ordering after the last pair of the file */
+                write(pair[0], pair[1]);
+        } catch(IOException e) {
+            throw new IOException("While scanning registry database file (" + dbFile + ")", e);
+        }
+        return pairsWritten;
+    }
+
+    /**
+     * Appends a pair in the scan output format.
+     * @param out Output to append to.
+     * @param key Key of the pair.
+     * @param value Value of the pair.
+     * @param nullDelimited True for NUL terminated fields, else tab and new line separated.
+     * @throws IOException For any I/O error.
+     * */
+    static void appendPair(final Appendable out, final String key, final String value, final boolean nullDelimited) throws IOException {
+        out.append(key).append(nullDelimited ? '\0' : '\t')
+           .append(value).append(nullDelimited ? '\0' : '\n');
+    }
+
+    /* writes the log pairs ordering before the pair of the file, then the pair unless the log overrides it */
+    private void write(String key, final String folded, String value) throws IOException {
+        while(!logPairs.isEmpty() && logPairs.firstKey().compareTo(folded) <= 0) {
+            Map.Entry<String,String[]> logPair = logPairs.pollFirstEntry();
+            if(logPair.getKey().equals(folded)) {
+                key   = logPair.getValue()[0];
+                value = logPair.getValue()[1];
+            } else {
+                write(logPair.getValue()[0], logPair.getValue()[1]);
+            }
+        }
+        write(key, value);
+    }
+
+    private void write(final String key, final String value) throws IOException {
+        if(value == null)
+            return; /* tombstoned */
+        sink.accept(key, value);
+        pairsWritten++;
+    }
+}
@@ -0,0 +1,204 @@
+package util.registry;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+
+/**
+ * Checksum verification of a framed binary registry database file (see
+ * {@link BinaryFormat}), reads but never writes the file.
+ * <p> The file is split into chunks verified in parallel. Every chunk
+ * starts at the first intact frame (marker, length and checksum matching)
+ * at or after its start and walks the frames till the first intact frame
+ * at or after its end, where the next chunk starts. A frame that does not
+ * verify starts a corrupt region, which ends at the next intact frame. </p>
+ * <p> Only the framing and the checksums are verified, not the keys and
+ * values themselves (e.g. duplicate keys); a full load verifies those. </p>
+ * */
+final class RecordVerifier {
+    private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+    private static final int WINDOW_SIZE = 256 * 1024;
+
+    private final Path file;
+    private final int threads;
+
+    /**
+     * @param file File in framed binary format.
+     * @param threads Count of threads to verify with.
+     * @throws NullPointerException If file is null.
+     * @throws IllegalArgumentException If threads is less than 1.
+     * */
+    RecordVerifier(final Path file, final int threads) {
+        if(threads < 1)
+            throw new IllegalArgumentException("Invalid thread count: " + threads);
+        this.file    = Objects.requireNonNull(file, "file");
+        this.threads = threads;
+    }
+
+    /**
+     * Result of a verification.
+     * */
+    static final class Result {
+        /** Count of the intact records */
+        final long records;
+        /** Corrupt regions in file order: start offset (inclusive), end offset (exclusive) */
+        final List<long[]> corruptRegions;
+
+        private Result(final long records, final List<long[]> corruptRegions) {
+            this.records = records;
+            this.corruptRegions = corruptRegions;
+        }
+    }
+
+    /**
+     * @return Result of the verification.
+     * @throws IOException For any I/O error.
+     * */
+    Result run() throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final int chunks = (int)Math.max(1, Math.min(threads, size / MIN_CHUNK_SIZE));
+            final long chunkSize = size / chunks;
+            ExecutorService executor = Executors.newFixedThreadPool(chunks, task -> {
+                Thread thread = new Thread(task, "registry-verifier");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                List<Future<Result>> results = new ArrayList<>();
+                for(int chunk = 0; chunk < chunks; chunk++) {
+                    final long start = chunk * chunkSize, end = chunk == chunks - 1 ? size : start + chunkSize;
+                    results.add(executor.submit(() -> new Window(channel, size).verify(start, end)));
+                }
+                long records = 0;
+                List<long[]> corruptRegions = new ArrayList<>();
+                for(Future<Result> result : results) {
+                    records += result.get().records;
+                    corruptRegions.addAll(result.get().corruptRegions);
+                }
+                return new Result(records, corruptRegions);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while verifying file: " + file, e);
+            } catch(ExecutionException e) {
+                if(e.getCause() instanceof IOException)
+                    throw (IOException)e.getCause();
+                throw new IOException("While verifying file: " + file, e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Positional reads of the file through a buffer, one per chunk.
+     * */
+    private static final class Window {
+        private final FileChannel channel;
+        private final long size;
+        private final ByteBuffer buffer = ByteBuffer.allocate(WINDOW_SIZE);
+        private final CRC32C checksum = new CRC32C();
+        private long bufferStart = -1;
+
+        Window(final FileChannel channel, final long size) {
+            this.channel = channel;
+            this.size    = size;
+        }
+
+        Result verify(final long start, final long end) throws IOException {
+            long records = 0;
+            List<long[]> corruptRegions = new ArrayList<>();
+            long position;
+            if(start == 0) {
+                position = BinaryFormat.HEADER_SIZE;
+                if(size < position || getInt(0) != BinaryFormat.MAGIC || getInt(4) != BinaryFormat.FRAMED_VERSION) {
+                    position = nextFrame(0);
+                    corruptRegions.add(new long[] { 0, position });
+                }
+            } else {
+                position = nextFrame(start);
+            }
+            while(position < size) {
+                int length = frameLength(position);
+                if(length >= 0) {
+                    if(position >= end)
+                        break; /* the next chunk starts here */
+                    records++;
+                    position += BinaryFormat.FRAME_HEADER_SIZE + length;
+                } else {
+                    long next = nextFrame(position + 1);
+                    corruptRegions.add(new long[] { position, next });
+                    position = next;
+                }
+            }
+            return new Result(records, corruptRegions);
+        }
+
+        /* offset of the first intact frame at or after the offset, or the file size */
+        private long nextFrame(long position) throws IOException {
+            for(int window = 0, read = 0; position < size; position++) {
+                window = window << 8 | (get(position) & 0xFF);
+                if(++read >= 4 && window == BinaryFormat.FRAME_MARKER && frameLength(position - 3) >= 0)
+                    return position - 3;
+            }
+            return size;
+        }
+
+        /* record length of the intact frame at the offset, -1 if it does not verify */
+        private int frameLength(final long position) throws IOException {
+            if(position + BinaryFormat.FRAME_HEADER_SIZE > size || getInt(position) != BinaryFormat.FRAME_MARKER)
+                return -1;
+            int length = getInt(position + 4);
+            if(length < 2 || length > BinaryFormat.MAX_RECORD_LENGTH || position + BinaryFormat.FRAME_HEADER_SIZE + length > size)
+                return -1;
+            byte[] record = new byte[length];
+            read(position + BinaryFormat.FRAME_HEADER_SIZE, record);
+            checksum.reset();
+            checksum.update(record, 0, length);
+            if((int)checksum.getValue() != getInt(position + 8))
+                return -1;
+            try {
+                BinaryFormat.parseRecord(record, "offset " + position, Path.of("")); /* field lengths add up */
+            } catch(CorruptRegistryDataException e) {
+                return -1;
+            }
+            return length;
+        }
+
+        private byte get(final long position) throws IOException {
+            if(bufferStart < 0 || position < bufferStart || position >= bufferStart + buffer.limit()) {
+                buffer.clear();
+                bufferStart = position;
+                while(buffer.hasRemaining() && channel.read(buffer, bufferStart + buffer.position()) > 0);
+                buffer.flip();
+            }
+            return buffer.get((int)(position - bufferStart));
+        }
+
+        private int getInt(final long position) throws IOException {
+            return (get(position) & 0xFF) << 24 | (get(position + 1) & 0xFF) << 16
+                    | (get(position + 2) & 0xFF) << 8 | (get(position + 3) & 0xFF);
+        }
+
+        private void read(final long position, final byte[] bytes) throws IOException {
+            if(bytes.length <= WINDOW_SIZE) {
+                for(int i = 0; i < bytes.length; i++) /* mostly within the buffer */
+                    bytes[i] = get(position + i);
+                return;
+            }
+            ByteBuffer target = ByteBuffer.wrap(bytes);
+            while(target.hasRemaining() && channel.read(target, position + target.position()) > 0);
+        }
+    }
+}
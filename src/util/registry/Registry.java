@@ -1,27 +1,77 @@
 package util.registry;
 
-import static tester.Main.verbose;
+import static util.registry.Log.verbose;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Hashtable;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 public class Registry {
-    private final Map<Key,String>   registryMap = new Hashtable<>();
+    /** Upper bound of the count of shards of a sharded database, see {@link #forDbShard(int, String, boolean)} */
+    public static final int         MAX_SHARD_COUNT = ShardManifest.MAX_SHARDS;
+    
+    /* keys of a batch not ruled out by the Bloom filter looked up one by one rather than loading the database */
+    private static final int        MAX_STREAMED_BATCH_LOOKUPS = 2, MAX_INDEXED_BATCH_LOOKUPS = 64;
+    
+    private Map<Key,String>         registryMap = new ConcurrentHashMap<>(); /* off-heap if requested, see withOffHeapStorage() */
     private final String            operationMode;
     private boolean                 mapHasUpdated;
     private final boolean           resetDb, repairDb, mergeDb, isExternalDb,
-                                    entryMode, forceEntry, queryMode;
+                                    entryMode, forceEntry, queryMode, deleteMode, indexDb;
+    private boolean                 compactDb, binaryDb, framedDb, dictionaryDb, compressedDb;
+    private final String            convertToFormat, bulkEntryFileName;
+    private final BatchQuery        batchQuery;
+    private OutputStream            batchQueryOutput;
     private final String[]          keyValPair;
     private final Key               queryKey;
     private Path                    dbFile, mergeSrcFile;
+    private final WriteAheadLog     writeAheadLog;
+    private final HashIndex         hashIndex;
+    private final SparseIndex       sparseIndex;
+    private final BloomFilter       bloomFilter;
+    private boolean                 sortDb, bloomDb, scanNullDelimited;
+    private double                  bloomFalsePositiveRate = BloomFilter.DEFAULT_FALSE_POSITIVE_RATE;
+    private int                     shardCount; /* 0: no (re)sharding requested */
+    private int[]                   responseCounts; /* counts the response states, see describe() */
+    private Map<Key,String>         batchQueryResults; /* collects the batch query results instead of streaming them */
+    private RangeScan.PairSink      scanPairs; /* collects the scanned or matched pairs instead of streaming them */
+    private KeyRange                scanRange;
+    private String                  globPattern;
+    private int                     globOffset, globLimit;
+    private OutputStream            scanOutput;
+    private int                     loaderThreads = Runtime.getRuntime().availableProcessors();
+    private long                    lockTimeout = RegistryLock.DEFAULT_TIMEOUT;
+    private long                    mergeBufferSize = ExternalMerge.DEFAULT_BUFFER_SIZE;
+    private boolean                 collectStats;
+    private OperationStats          stats;
     
     /**
      * Sole private constructor.
@@ -38,7 +88,13 @@ public class Registry {
                         final boolean   forceEntry,
                         final String[]  keyValPair,
                         final boolean   queryMode,
-                        final String    queryKey) {
+                        final String    queryKey,
+                        final boolean   deleteMode,
+                        final boolean   compactDb,
+                        final boolean   indexDb,
+                        final String    convertToFormat,
+                        final String    bulkEntryFileName,
+                        final BatchQuery batchQuery) {
         /* Sets internal object properties */
         this.operationMode  = operationMode;
         this.resetDb        = resetDb;
@@ -52,6 +108,16 @@ public class Registry {
         this.keyValPair     = keyValPair;
         this.queryMode      = queryMode;
         this.queryKey       = queryKey == null ? null : new Key(queryKey);
+        this.deleteMode     = deleteMode;
+        this.compactDb      = compactDb;
+        this.indexDb        = indexDb;
+        this.convertToFormat = convertToFormat;
+        this.bulkEntryFileName = bulkEntryFileName;
+        this.batchQuery     = batchQuery;
+        this.writeAheadLog  = new WriteAheadLog(this.dbFile);
+        this.hashIndex      = new HashIndex(this.dbFile);
+        this.sparseIndex    = new SparseIndex(this.dbFile);
+        this.bloomFilter    = new BloomFilter(this.dbFile);
     }
     
     
@@ -74,7 +140,8 @@ public class Registry {
                                 false, true, false, null,
                                 Objects.requireNonNull(dbFileName, "database file name"),
                                 isExternalDb,
-                                false, false, null, false, null);
+                                false, false, null, false, null,
+                                false, false, false, null, null, null);
     }
     
     /**
@@ -90,7 +157,8 @@ public class Registry {
                                 true,
                                 false, false, null,
                                 Objects.requireNonNull(dbFileName, "database file name"), 
-                                false, false, false, null, false, null);
+                                false, false, false, null, false, null,
+                                false, false, false, null, null, null);
     }
     
     /**
@@ -109,7 +177,8 @@ public class Registry {
                                 false, false, true, 
                                 Objects.requireNonNull(mergeToDbFromFileName, "source file to merge from"),
                                 Objects.requireNonNull(dbFileName, "database file name"), 
-                                false, false, false, null, false, null);
+                                false, false, false, null, false, null,
+                                false, false, false, null, null, null);
     }
     
     /**
@@ -132,7 +201,8 @@ public class Registry {
                                 Objects.requireNonNull(dbFileName, "database file name"),
                                 isExternalDb,
                                 false, false, null, true, 
-                                Objects.requireNonNull(queryKey, "query key"));
+                                Objects.requireNonNull(queryKey, "query key"),
+                                false, false, false, null, null, null);
     }
     
     /**
@@ -161,7 +231,516 @@ public class Registry {
                                 true, 
                                 forceEntry, 
                                 Objects.requireNonNull(keyValuePair, "entry key-value pair"), 
-                                false, null);
+                                false, null,
+                                false, false, false, null, null, null);
+    }
+    
+    /**
+     * To get Registry object to delete a key from registry database.
+     * <p> Delete operation appends a tombstone of the key to the
+     * registry database log, fails if the key is not present. </p>
+     * @param deleteKey Key to delete along with its value.
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the delete operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    public static Registry forDbDelete( String deleteKey,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        return new Registry(    "delete",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false,
+                                Objects.requireNonNull(deleteKey, "delete key"),
+                                true, false, false, null, null, null);
+    }
+    
+    /**
+     * To get Registry object to compact registry database.
+     * <p> Compact operation rewrites the registry database file with
+     * its live key-value pairs, i.e. with all the records of its log
+     * applied, and deletes the log. </p>
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the compact operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    public static Registry forDbCompact( String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        return new Registry(    "compact-db",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, true, false, null, null, null);
+    }
+
+    /**
+     * To get Registry object to build the hash index of registry database.
+     * <p> Index operation (re)builds the index file next to the registry
+     * database, which enables it: queries then read the database file
+     * only at the offset of the queried key. Once enabled the index is
+     * kept up to date with every write to the database file. </p>
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the index operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    public static Registry forDbIndex( String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        return new Registry(    "index-db",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, true, null, null, null);
+    }
+
+    /**
+     * To get Registry object to convert registry database to another format.
+     * <p> Convert operation rewrites the registry database, with its log
+     * applied, in the specified format: "text" (hand editable "K: "/"V: "
+     * lines), "binary" (length-prefixed records, faster to load and
+     * smaller on disk), "framed" (binary records each framed with a
+     * marker and a CRC32C checksum, see {@link #forDbVerify(String, boolean)};
+     * a damaged record costs only itself on repair), "dictionary" (binary
+     * with the repeated values stored once and referenced by id) or
+     * "compressed" (sorted records in Deflate blocks with a block directory,
+     * see {@link CompressedFormat}). The format is auto-detected on every
+     * load and kept by every later rewrite. </p>
+     * @param formatName Name of the format to convert to, "text", "binary", "framed", "dictionary" or "compressed".
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the convert operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * @throws IllegalArgumentException In case of unknown format name.
+     * */
+    public static Registry forDbConvert( String formatName,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException, IllegalArgumentException {
+        Objects.requireNonNull(formatName, "format name");
+        if(!formatName.equals("text") && !formatName.equals("binary") && !formatName.equals("framed") && !formatName.equals("dictionary")
+                && !formatName.equals("compressed"))
+            throw new IllegalArgumentException("Unknown registry database format: " + formatName);
+        return new Registry(    "convert-db",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, false, formatName, null, null);
+    }
+
+    /**
+     * To get Registry object to query many keys from registry database.
+     * <p> Batch query operation loads the registry database once and
+     * streams a result per key to the output, in input order and flushed
+     * in batches: status ("+" found, "-" missing), key and value, separated
+     * by tabs and ended by a new line, or every field NUL terminated. </p>
+     * @param queryKeys Keys to query, null to read them one per line from keysFileName.
+     * @param keysFileName File to read the keys from, "-" for standard input (ignored if queryKeys is specified).
+     * @param nullDelimited True for NUL terminated fields.
+     * @param output Stream to write the results to.
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the batch query operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    public static Registry forDbBatchQuery( String[] queryKeys,
+                                String keysFileName,
+                                boolean nullDelimited,
+                                OutputStream output,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        Registry registry = new Registry(   "query-batch",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, false, null, null,
+                                new BatchQuery(queryKeys, keysFileName, nullDelimited));
+        registry.batchQueryOutput = Objects.requireNonNull(output, "output");
+        return registry;
+    }
+
+    /**
+     * To get Registry object to enter many key-value pairs into registry database.
+     * <p> Bulk entry operation streams key-value pairs, one pair per
+     * line with the key and value separated by a tab, from the source file
+     * or standard input. Each pair is validated and the force entry option
+     * is applied per pair: without it present keys are skipped. The
+     * registry database is loaded once and written once at the end,
+     * nothing is written if any line is invalid. </p>
+     * @param forceEntry Forces replacement of the value if the key is
+     *                      already present in the registry database.
+     * @param sourceFileName File to read the pairs from, "-" for standard input.
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the bulk entry operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    public static Registry forDbBulkEntry( boolean forceEntry,
+                                String sourceFileName,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        return new Registry(    "bulk-entry",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, forceEntry, null, false, null,
+                                false, false, false, null,
+                                Objects.requireNonNull(sourceFileName, "source file to read pairs from"),
+                                null);
+    }
+
+    /**
+     * To get Registry object to sort registry database by key.
+     * <p> Sort operation rewrites the registry database, with its log
+     * applied, in the order of the keys ignoring case and builds its sparse
+     * index ({database file}.sidx), which enables the sorted layout: every
+     * later rewrite of the database keeps it sorted and prefix and range
+     * scans read only the blocks of the file holding the scanned keys. </p>
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the sort operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    public static Registry forDbSort( String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        Registry registry = new Registry(   "sort-db",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, false, null, null, null);
+        registry.sortDb = true;
+        return registry;
+    }
+
+    /**
+     * To get Registry object to build the Bloom filter of registry database.
+     * <p> Bloom filter operation (re)builds the filter file of the keys
+     * next to the registry database, which enables it: queries of keys
+     * the filter rules out then return without reading the database file.
+     * Once enabled the filter is kept up to date with every write to the
+     * database file, at the false positive rate it was built with. </p>
+     * @param falsePositiveRate Rate of absent keys not ruled out by the filter, between 0 and 1 (exclusive).
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the Bloom filter operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * @throws IllegalArgumentException If the false positive rate is out of range.
+     * */
+    public static Registry forDbBloom( double falsePositiveRate,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException, IllegalArgumentException {
+        if(!(falsePositiveRate > 0 && falsePositiveRate < 1))
+            throw new IllegalArgumentException("Invalid false positive rate: " + falsePositiveRate);
+        Registry registry = new Registry(   "bloom-db",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, false, null, null, null);
+        registry.bloomDb = true;
+        registry.bloomFalsePositiveRate = falsePositiveRate;
+        return registry;
+    }
+
+    /**
+     * To get Registry object to shard registry database, or to reshard it.
+     * <p> Shard operation turns a registry database file into a directory
+     * at the same path holding a manifest and the specified count of shard
+     * files, the pairs partitioned by the hash of their case-folded keys
+     * (see {@link ShardManifest}). An entry, deletion or query then reads
+     * and writes only the shard owning the key, so its cost follows the
+     * size of a shard; every other operation is carried out on all the
+     * shards in parallel. The format, indexes and Bloom filter of the
+     * database are kept by every shard. </p>
+     * <p> On a sharded database, the operation reshards it to the count of
+     * shards: the next generation of shard files is written while the
+     * database stays readable and writable, and swapped in by replacing the
+     * manifest, briefly locking the database out. </p>
+     * @param shardCount Count of shards, from 1 to {@value #MAX_SHARD_COUNT}.
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the shard operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * @throws IllegalArgumentException If the count of shards is out of range.
+     * */
+    public static Registry forDbShard( int shardCount,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException, IllegalArgumentException {
+        if(shardCount < 1 || shardCount > MAX_SHARD_COUNT)
+            throw new IllegalArgumentException("Invalid shard count (1-" + MAX_SHARD_COUNT + "): " + shardCount);
+        Registry registry = new Registry(   "shard-db",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, false, null, null, null);
+        registry.shardCount = shardCount;
+        return registry;
+    }
+
+    /**
+     * To get Registry object to list the pairs whose keys start with a prefix.
+     * <p> Prefix scan operation streams the pairs, with the log applied,
+     * in the order of the keys ignoring case to the output: key and value
+     * separated by a tab and ended by a new line, or every field NUL
+     * terminated. The prefix is matched ignoring case. If the registry
+     * database is sorted (see {@link #forDbSort(String, boolean)}) only the
+     * blocks of the file holding the matching keys are read, else the whole
+     * file is read. </p>
+     * @param prefix Prefix of the keys to list, empty for all the keys.
+     * @param nullDelimited True for NUL terminated fields.
+     * @param output Stream to write the pairs to.
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the scan operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    public static Registry forDbPrefixScan( String prefix,
+                                boolean nullDelimited,
+                                OutputStream output,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        return forDbScan(KeyRange.prefix(prefix), nullDelimited, output, dbFileName, isExternalDb);
+    }
+
+    /**
+     * To get Registry object to list the pairs whose keys are in a range.
+     * <p> Range scan operation streams the pairs from the first key
+     * (inclusive) to the last key (exclusive), compared ignoring case, the
+     * same way as the prefix scan (see {@link #forDbPrefixScan(String, boolean, OutputStream, String, boolean)}). </p>
+     * @param fromKey First key of the range, inclusive.
+     * @param toKey Last key of the range, exclusive.
+     * @param nullDelimited True for NUL terminated fields.
+     * @param output Stream to write the pairs to.
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the scan operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * @throws IllegalArgumentException If the first key orders after the last key.
+     * */
+    public static Registry forDbRangeScan( String fromKey,
+                                String toKey,
+                                boolean nullDelimited,
+                                OutputStream output,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException, IllegalArgumentException {
+        return forDbScan(KeyRange.between(fromKey, toKey), nullDelimited, output, dbFileName, isExternalDb);
+    }
+
+    /**
+     * To get Registry object to list the pairs whose keys match a wildcard pattern.
+     * <p> Glob operation loads the registry database, builds the radix
+     * tree of its keys (see {@link KeyTrie}) and streams the matching
+     * pairs, one page of them, in the order of the keys ignoring case,
+     * formatted as the prefix scan does (see {@link #forDbPrefixScan(String, boolean, OutputStream, String, boolean)}).
+     * The pattern is matched ignoring case, '*' matches any run of
+     * characters and '?' any single character: "svc.*.timeout", or "svc.d*"
+     * to complete a prefix. </p>
+     * @param pattern Pattern of the keys to list.
+     * @param offset Count of the first matching pairs to skip.
+     * @param limit Upper bound of the count of pairs to list.
+     * @param nullDelimited True for NUL terminated fields.
+     * @param output Stream to write the pairs to.
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the glob operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * @throws IllegalArgumentException If the pattern is blank, offset is negative or limit is not positive.
+     * */
+    public static Registry forDbGlob( String pattern,
+                                int offset,
+                                int limit,
+                                boolean nullDelimited,
+                                OutputStream output,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException, IllegalArgumentException {
+        if(getInValidKeyOrValueFormat(Objects.requireNonNull(pattern, "pattern")) == null)
+            throw new IllegalArgumentException("Invalid key pattern format: " + pattern);
+        if(offset < 0)
+            throw new IllegalArgumentException("Invalid offset: " + offset);
+        if(limit < 1)
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        Registry registry = new Registry(   "glob",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, false, null, null, null);
+        registry.globPattern = getInValidKeyOrValueFormat(pattern);
+        registry.globOffset = offset;
+        registry.globLimit = limit;
+        registry.scanNullDelimited = nullDelimited;
+        registry.scanOutput = Objects.requireNonNull(output, "output");
+        return registry;
+    }
+
+    /**
+     * To get Registry object to verify registry database without rewriting it.
+     * <p> Verify operation reports the corrupt parts of the registry
+     * database file. A framed binary file (see {@link #forDbConvert(String, String, boolean)})
+     * is verified by its record checksums only, in parallel chunks (see
+     * {@link #withLoaderThreads(int)}), and every corrupt byte range is
+     * reported, each costing only the records it overlaps on repair. Any
+     * other file is loaded strictly and the first corrupt row is reported.
+     * The log is not verified. </p>
+     * @param dbFileName Name of registry database to verify.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the verify operation.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    public static Registry forDbVerify( String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        return new Registry(    "verify-db",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, false, null, null, null);
+    }
+
+    private static Registry forDbScan(  KeyRange range,
+                                boolean nullDelimited,
+                                OutputStream output,
+                                String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        Registry registry = new Registry(   "scan",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, false, null, null, null);
+        registry.scanRange = range;
+        registry.scanNullDelimited = nullDelimited;
+        registry.scanOutput = Objects.requireNonNull(output, "output");
+        return registry;
+    }
+
+    /**
+     * To get Registry object to load registry database for {@link RegistryStore}.
+     * @param dbFileName Name of registry database to load data from.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @return Registry object to carry out the load operation, see {@link #loadForServing()}.
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    static Registry forServing( String dbFileName,
+                                boolean isExternalDb) throws NullPointerException {
+        return new Registry(    "serve",
+                                false, false, false, null,
+                                Objects.requireNonNull(dbFileName, "database file name"),
+                                isExternalDb,
+                                false, false, null, false, null,
+                                false, false, false, null, null, null);
+    }
+
+    /**
+     * Sets the count of threads to load large text format registry
+     * database files with, defaults to the count of available processors.
+     * @param threads Count of loader threads, 1 to always load sequentially.
+     * @return This Registry object.
+     * @throws IllegalArgumentException If threads is less than 1.
+     * */
+    public Registry withLoaderThreads(final int threads) throws IllegalArgumentException {
+        if(threads < 1)
+            throw new IllegalArgumentException("Invalid loader thread count: " + threads);
+        this.loaderThreads = threads;
+        return this;
+    }
+
+    /**
+     * @param bytes Upper bound in bytes of the records buffered in memory by
+     *              the merge operation, larger inputs are sorted in runs on disk.
+     * @return This registry.
+     * @throws IllegalArgumentException If bytes is not positive.
+     * */
+    public Registry withMergeBufferSize(final long bytes) throws IllegalArgumentException {
+        if(bytes <= 0)
+            throw new IllegalArgumentException("Invalid merge buffer size: " + bytes);
+        this.mergeBufferSize = bytes;
+        return this;
+    }
+
+    /**
+     * <p> Selects the storage of the loaded pairs: off the heap, keys and
+     * values as UTF-8 bytes in direct buffers indexed by a primitive hash
+     * table (see {@link OffHeapMap}), or a map of objects on the heap
+     * (default). Off-heap storage takes a fraction of the memory per pair
+     * and keeps the garbage collector away from the pairs, for registries
+     * of millions of pairs, at the cost of decoding every pair accessed.
+     * The operations are the same either way. </p>
+     * @param offHeap True to keep the loaded pairs off the heap.
+     * @return This registry.
+     * */
+    public Registry withOffHeapStorage(final boolean offHeap) {
+        this.registryMap = offHeap ? new OffHeapMap() : new ConcurrentHashMap<>();
+        return this;
+    }
+
+    /**
+     * @param collect True to collect the timings and figures of the phases
+     *                of the operation, see {@link #getStats()}.
+     * @return This registry.
+     * */
+    public Registry withStats(final boolean collect) {
+        this.collectStats = collect;
+        return this;
+    }
+
+    /**
+     * <p> Timings and figures of the phases (lock, file check, load, query,
+     * entry, merge, update...) of the last processed operation, as a JSON
+     * object: operation, total time in nanoseconds and the phases in order,
+     * each with its time, count of records handled and per second, bytes
+     * of the files read whole and written, and heap allocated by the
+     * operation thread. A failed operation lists the phases it completed. </p>
+     * <p> The phases are also emitted as JFR events ("util.registry.Phase")
+     * whenever the flight recorder is in use, collected or not. </p>
+     * @return Phases as JSON, null if not collected (see {@link #withStats(boolean)})
+     *          or no operation processed yet.
+     * */
+    public String getStats() {
+        return collectStats && stats != null ? stats.toJson() : null;
+    }
+
+    /**
+     * Installs the logger of the progress messages of all the registry
+     * operations (including {@link RegistryStore}) of the process.
+     * @param logger Logger, null to log nothing (default).
+     * */
+    public static void setLogger(final RegistryLogger logger) {
+        Log.setLogger(logger);
+    }
+
+    /**
+     * @param timeout Upper bound in milliseconds of the wait for the registry
+     *                database lock held by another process (see {@link RegistryLock}).
+     * @return This registry.
+     * @throws IllegalArgumentException If timeout is negative.
+     * */
+    public Registry withLockTimeout(final long timeout) throws IllegalArgumentException {
+        if(timeout < 0)
+            throw new IllegalArgumentException("Invalid lock timeout: " + timeout);
+        this.lockTimeout = timeout;
+        return this;
     }
 
     /**
@@ -169,99 +748,1031 @@ public class Registry {
      * <p> External operations: </p>
      * <p>    - resetDb -> updateDb() </p>
      * <p>    - repairDb -> updateDb() </p>
-     * <p>    - copAsDb -> updateDb() </p>
+     * <p>    - copAsDb -> ExternalMerge </p>
      * <p>    - loadAsDb -> loadDb() </p>
-     * <p>    - entryInDb(boolean force) -> updateDb() </p>
+     * <p>    - entryInDb(boolean force) -> log append </p>
+     * <p>    - bulkEntryInDb(boolean force) -> bulkEntryInMap() -> log append or updateDb() </p>
+     * <p>    - deleteFromDb -> log append </p>
+     * <p>    - compactDb -> updateDb() </p>
+     * <p>    - indexDb -> buildIndex() </p>
+     * <p>    - sortDb -> updateDb() -> buildSparseIndex() </p>
+     * <p>    - bloomDb -> buildBloomFilter() </p>
+     * <p>    - shardDb -> splitDb() or reshardDb() </p>
+     * <p>    - any operation on a sharded db -> processSharded(): the owning shard, else every shard in parallel </p>
+     * <p>    - scanFromDb -> scanDb() </p>
+     * <p>    - verifyDb -> verifyDb() </p>
+     * <p>    - globFromDb -> loadDb() -> KeyTrie </p>
+     * <p>    - convertDb -> updateDb() </p>
      * <p>    - queryFromDb -> queryDb() </p>
+     * <p>    - batchQueryFromDb -> loadDb() -> BatchQuery, or queryDb() per key if the Bloom filter rules out nearly every key </p>
      * <p> </p>
      * <p> Internal operations: </p>
-     * <p>    - updateDb(): reset, repair, merge, entry/update </p>
+     * <p>    - updateDb(): reset, repair, compaction, conversion </p>
      * <p>    - loadDb(): loads data from designated file </p>
-     * <p>    - queryDb(): queries from loaded data and returns </p>
+     * <p>    - queryDb(): probes the Bloom filter if enabled, looks up the index if enabled, else streams designated file till the key is found and returns </p>
+     * <p>    - buildIndex(): (re)builds the hash index of the designated file </p>
+     * <p>    - buildSparseIndex(): (re)builds the sparse index of the designated file, if sorted </p>
+     * <p>    - buildBloomFilter(): (re)builds the Bloom filter of the keys of the designated file </p>
+     * <p>    - scanDb(): streams the pairs of a key range in key order, reads only its blocks if the file is sorted </p>
+     * <p>    - verifyDb(): checks the record checksums of a framed file in parallel, else loads the file strictly </p>
      * <p> </p>
      * <p> Performs operations as required: </p>
      * <p>   Checks the presence of default and/or external db files, creates for default db if reqd </p>
      * <p>    queryDb(): prints value if found else prints no line </p>
-     * <p>     updateDb(): if key-value pair provided then enter directly (check for force entry option) else prompts for key and value </p>
-     * <p>     loadDb(): checks file's presence, loads data, checks for corruption, updates internal hashtable </p>
+     * <p>     entryInDb(): if key-value pair provided then enter directly (check for force entry option) else prompts for key and value </p>
+     * <p>     loadDb(): checks file's presence, detects text or binary format, loads data, checks for corruption, updates internal hashtable </p>
+     * <p>     compaction: automatic once the log outgrows the database file (see WriteAheadLog) </p>
+     * <p> The whole operation holds the registry database lock, shared for
+     * queries and exclusive for the rest, hence writers always read the
+     * database as left by the previous writer. </p>
      *
-     * @throws IOException For any I/O error.
+     * @throws IOException For any I/O error, or if the lock wait times out.
      * @throws CorruptRegistryDataException For data corruption.
      * @return Response, if necessary, else null.
      * */
+    @SuppressWarnings("try") /* lock held for the block */
     public String process() throws  IOException, CorruptRegistryDataException {
-        String response = null;
-        boolean requireDbLoad = !operationMode.equals("reset-db"); // db reset requires no load operation;
-        
         verbose("Requested operation: %s", operationMode);
-        // resolve file's presence
+        stats = new OperationStats(operationMode, collectStats);
+        ShardManifest.recoverSplit(dbFile, lockTimeout);
         if(Files.notExists(dbFile)) {
-            verbose("Database file (%s) not found!", dbFile);
             if(isExternalDb)
                 throw new IllegalArgumentException("External database not found: " + dbFile);
-            else { // create only default database file
-                requireDbLoad = false; // disable db load operation
-                verbose("Creating database file (%s)...", dbFile);
-                // create parent dirs if required
-                Path parentDirs = dbFile.getParent();
-                if(parentDirs != null)
-                    Files.createDirectories(parentDirs);
-                Files.createFile( dbFile );
+            Path parentDirs = dbFile.getParent(); /* the lock file lives next to the database file */
+            if(parentDirs != null)
+                Files.createDirectories(parentDirs);
+        }
+        
+        if(shardCount > 0 || ShardManifest.isSharded(dbFile))
+            return processSharded(); /* locks the directory and the shards on its own */
+        
+        boolean shared = operationMode.equals("query") || operationMode.equals("query-batch")
+                            || operationMode.equals("scan") || operationMode.equals("glob")
+                            || operationMode.equals("verify-db");
+        verbose("Acquiring %s lock of registry database...", shared ? "shared" : "exclusive");
+        OperationStats.Phase phase = stats.begin("lock");
+        try(RegistryLock lock = RegistryLock.acquire(dbFile, shared, lockTimeout)) {
+            phase.end();
+            verbose("  -- Done");
+            return processLocked();
+        }
+    }
+    
+    private String processLocked() throws  IOException, CorruptRegistryDataException {
+        String response = null;
+        boolean requireDbLoad = !operationMode.equals("reset-db"); // db reset requires no load operation;
+        
+        // resolve file's presence
+        OperationStats.Phase phase = stats.begin("file-check");
+        if(!resolveDbFile())
+            requireDbLoad = false; // disable db load operation
+        phase.end();
+        
+        // for db query operation, streams the file and stops at the first matching key
+        if(operationMode.equals("query") && requireDbLoad) {
+            verbose("Querying registry database (%s)...", dbFile);
+            phase = stats.begin("query");
+            response = queryDb(dbFile, queryKey);
+            phase.records(response != null ? 1 : 0).end();
+            verbose("Query returned value: %b", response != null);
+            verbose("  -- Done");
+            return response; // no other work, simply return the result
+        }
+        
+        // for db verification, reads the file without writing anything, no other work
+        if(operationMode.equals("verify-db")) {
+            verbose("Verifying registry database (%s)...", dbFile);
+            phase = stats.begin("verify");
+            responseCounts = new int[] { requireDbLoad ? verifyDb() : 0 };
+            response = describe(responseCounts);
+            phase.bytesRead(sizeOf(phase, dbFile)).end();
+            verbose("  -- Done");
+            return response;
+        }
+        
+        // for db prefix or range scan, streams the pairs of the range in key order, no other work
+        if(scanRange != null) {
+            verbose("Scanning registry database (%s) for keys %s...", dbFile, scanRange);
+            phase = stats.begin("scan");
+            int pairsListed = requireDbLoad ? scanDb() : 0;
+            phase.records(pairsListed).end();
+            verbose("%d pair(s) listed", pairsListed);
+            verbose("  -- Done");
+            return null;
+        }
+        
+        // for db entry or deletion, only appended to the log
+        if(entryMode || deleteMode) {
+            Key key = entryMode ? new Key(keyValPair[0]) : queryKey;
+            phase = stats.begin("query");
+            String presentValue = requireDbLoad ? queryDb(dbFile, key) : null;
+            phase.records(presentValue != null ? 1 : 0).end();
+            verbose("Appending record to registry database log (%s)...", writeAheadLog.getFile());
+            phase = stats.begin(entryMode ? "entry" : "delete");
+            long logSize = sizeOf(phase, writeAheadLog.getFile());
+            if(entryMode)
+                entryInDb(presentValue);
+            else
+                deleteFromDb(presentValue);
+            phase.records(1).bytesWritten(sizeOf(phase, writeAheadLog.getFile()) - logSize).end();
+            verbose("  -- Done");
+            
+            compactDb = requireDbLoad && writeAheadLog.requiresCompaction();
+            verbose("Log compaction required: %b", compactDb);
+        }
+        
+        // for db batch query of keys nearly all ruled out by the Bloom filter, the others looked up one by one, no other work
+        if(batchQuery != null && requireDbLoad && bloomFilter.exists()) {
+            phase = stats.begin("bloom-probe");
+            BloomFilter.Probe probe = openBloomFilter();
+            int lookupLimit = hashIndex.exists() || compressedDb ? MAX_INDEXED_BATCH_LOOKUPS : MAX_STREAMED_BATCH_LOOKUPS;
+            Set<Key> candidates = batchQuery.matching(probe::mightContain, lookupLimit);
+            phase.end();
+            verbose("Keys of the batch not ruled out by Bloom filter: %s", candidates == null ? "more than " + lookupLimit : candidates.size());
+            if(candidates != null) {
+                phase = stats.begin("query-batch");
+                Map<Key,String> results = new HashMap<>(writeAheadLog.readRecords(true));
+                for(Key key : candidates)
+                    results.put(key, queryDb(dbFile, key)); /* log records first, as by a load */
+                int[] counts = runBatchQuery(results);
+                phase.records(counts[0] + counts[1]).end();
+                verbose("%d key(s) found, %d key(s) missing", counts[0], counts[1]);
                 verbose("  -- Done");
+                return null;
             }
         }
         
         // for db load operation
-        if(requireDbLoad) {
+        if(requireDbLoad && (!(entryMode || deleteMode || indexDb || mergeDb || bloomDb) || compactDb)) {
             verbose("Loading registry database (%s)...", dbFile);
+            phase = stats.begin("load");
             int pairsLoaded = loadDb(dbFile, !repairDb);
+            phase.records(pairsLoaded).bytesRead(sizeOf(phase, dbFile)).end();
             verbose("%d pair(s) loaded", pairsLoaded);
-            verbose("  -- Done");
-            
-            if(operationMode.equals("merge-to-db")) {
-                // load src file also into internal hashtable
-                verbose("Loading external source file to merge from (%s)...", mergeSrcFile);
-                pairsLoaded = loadDb(mergeSrcFile, false);
-                mapHasUpdated = pairsLoaded > 0;
-                verbose("%d new pair(s) loaded, file writing required: %b", pairsLoaded, mapHasUpdated);
-                verbose("  -- Done");
-                response = pairsLoaded + " new " + (pairsLoaded > 1 ? "entries" : "entry") + " merged";
+            phase = stats.begin("log-replay");
+            int recordsReplayed = writeAheadLog.replay(registryMap, !repairDb);
+            phase.records(recordsReplayed).bytesRead(sizeOf(phase, writeAheadLog.getFile())).end();
+            if(registryMap instanceof OffHeapMap) {
+                OffHeapMap map = (OffHeapMap)registryMap;
+                verbose("Off-heap storage: %d pair(s), %d byte(s) of records, %d byte(s) allocated, ~%d byte(s) per pair",
+                        map.size(), map.usedBytes(), map.allocatedBytes(), map.estimateBytes() / Math.max(map.size(), 1));
             }
+            if(writeAheadLog.size() > 0)
+                mapHasUpdated = true; /* log gets folded into the database file */
+            verbose("%d log record(s) replayed", recordsReplayed);
+            verbose("  -- Done");
         }
         
-        if(repairDb) {
-            verbose("Db audit complete, require file writing: " + mapHasUpdated);
+        // for db merge, sorted on disk and streamed into the database file, never loaded as a whole
+        boolean dbMerged = false;
+        if(mergeDb) {
+            verbose("Merging external source file (%s) into registry database...", mergeSrcFile);
+            phase = stats.begin("merge");
+            phase.bytesRead(sizeOf(phase, dbFile) + sizeOf(phase, writeAheadLog.getFile()) + sizeOf(phase, mergeSrcFile));
+            ExternalMerge merge = new ExternalMerge(dbFile, mergeSrcFile, binaryDb, framedDb, dictionaryDb, compressedDb, mergeBufferSize);
+            int[] counts = merge.run();
+            writeAheadLog.delete(); /* its records are part of the database file now */
+            phase.records(counts[0]).bytesWritten(sizeOf(phase, dbFile)).end();
+            dbMerged = true;
+            verbose("%d pair(s) written, %d new pair(s) merged, %d row(s) rejected", counts[0], counts[1], counts[2]);
+            verbose("  -- Done");
+            responseCounts = counts;
+            response = describe(counts);
         }
         
-        // for db query operation
-        if(operationMode.equals("query") && requireDbLoad) {
-            verbose("Querying registry database (%s)...", dbFile);
-            response = queryDb();
-            verbose("Query returned value: %b", response != null);
+        // for db batch query, streams the results, no other work
+        if(batchQuery != null) {
+            verbose("Querying registry database for the batch of keys...");
+            phase = stats.begin("query-batch");
+            int[] counts = runBatchQuery(registryMap);
+            phase.records(counts[0] + counts[1]).end();
+            verbose("%d key(s) found, %d key(s) missing", counts[0], counts[1]);
             verbose("  -- Done");
-            // no other work, simply return the result
+            return null;
         }
         
-        // for db entry
-        if(entryMode) {
-            verbose("Inserting key-value pair in internal map...");
-            entryInMap();
+        // for db glob query, matched through the radix tree of the loaded keys, no other work
+        if(globPattern != null) {
+            verbose("Building key trie...");
+            phase = stats.begin("trie-build");
+            KeyTrie trie = KeyTrie.of(registryMap.keySet());
+            phase.records(trie.size()).end();
+            long trieBytes = trie.estimateBytes();
+            verbose("%d key(s), %d node(s), ~%d byte(s), ~%d byte(s) per key",
+                    trie.size(), trie.nodeCount(), trieBytes, trieBytes / Math.max(trie.size(), 1));
+            verbose("  -- Done");
+            verbose("Matching keys with pattern '%s'...", globPattern);
+            phase = stats.begin("glob");
+            int pairsListed = globDb(trie);
+            phase.records(pairsListed).end();
+            verbose("%d pair(s) listed", pairsListed);
             verbose("  -- Done");
+            return null;
+        }
+        
+        if(repairDb) {
+            verbose("Db audit complete, require file writing: " + mapHasUpdated);
+        }
+        
+        // for db bulk entry, written once: appended to the log or, if it outgrows the database, rewritten
+        if(bulkEntryFileName != null) {
+            verbose("Inserting key-value pairs from (%s) in internal map...", bulkEntryFileName);
+            Map<Key,String> changedPairs = new LinkedHashMap<>();
+            phase = stats.begin("bulk-entry");
+            int[] counts = bulkEntryInMap(changedPairs);
+            phase.records(counts[0] + counts[1] + counts[2]).end();
+            verbose("  -- Done");
+            if(!changedPairs.isEmpty()) {
+                long bytesToAppend = 0;
+                for(Map.Entry<Key,String> pair : changedPairs.entrySet())
+                    bytesToAppend += pair.getKey().toString().length() + pair.getValue().length() + 8;
+                if(mapHasUpdated || writeAheadLog.requiresCompaction(bytesToAppend)) {
+                    mapHasUpdated = true; /* rewrite the database once */
+                } else {
+                    verbose("Appending %d record(s) to registry database log (%s)...", changedPairs.size(), writeAheadLog.getFile());
+                    phase = stats.begin("log-append");
+                    long logSize = sizeOf(phase, writeAheadLog.getFile());
+                    writeAheadLog.appendRecords(changedPairs);
+                    phase.records(changedPairs.size()).bytesWritten(sizeOf(phase, writeAheadLog.getFile()) - logSize).end();
+                    verbose("  -- Done");
+                }
+            }
+            responseCounts = counts;
+            response = describe(counts);
+        }
+        
+        // for db sort, rewritten in key order by updateDb() as the sparse index gets built
+        if(sortDb) {
+            mapHasUpdated = true;
+            responseCounts = new int[] { registryMap.size() };
+            response = describe(responseCounts);
+        }
+        
+        // for db format conversion
+        if(convertToFormat != null) {
+            compressedDb = convertToFormat.equals("compressed");
+            binaryDb = !convertToFormat.equals("text") && !compressedDb;
+            framedDb = convertToFormat.equals("framed");
+            dictionaryDb = convertToFormat.equals("dictionary");
+            mapHasUpdated = true;
+            responseCounts = new int[] { registryMap.size() };
+            response = describe(responseCounts);
         }
         
         // for db update operation
-        if(mapHasUpdated || resetDb) { // at all cost avoid fs I/O to speedy app performance
+        boolean dbUpdated = mapHasUpdated || resetDb;
+        if(dbUpdated) { // at all cost avoid fs I/O to speedy app performance
             verbose("Updating registry database (%s)...", dbFile);
+            phase = stats.begin("update");
             int pairsWritten = updateDb();
+            phase.records(pairsWritten).bytesWritten(sizeOf(phase, dbFile)).end();
             verbose("%d pair(s) written in registry database file (%s)", pairsWritten, dbFile);
             verbose("  -- Done");
         }
+        dbUpdated |= dbMerged;
+        
+        // for db index operation, and to keep an enabled index up to date
+        if(indexDb || (hashIndex.exists() && (dbUpdated || repairDb))) {
+            verbose("Building registry database index (%s)...", hashIndex.getFile());
+            phase = stats.begin("index");
+            int pairsIndexed = buildIndex();
+            phase.records(pairsIndexed).bytesRead(sizeOf(phase, dbFile)).bytesWritten(sizeOf(phase, hashIndex.getFile())).end();
+            verbose("%d pair(s) indexed", pairsIndexed);
+            verbose("  -- Done");
+            if(indexDb) {
+                responseCounts = new int[] { pairsIndexed };
+                response = describe(responseCounts);
+            }
+        }
+        
+        // for db sort operation, and to keep the sorted layout up to date
+        if(sortDb || (sparseIndex.exists() && (dbUpdated || repairDb))) {
+            verbose("Building registry database sparse index (%s)...", sparseIndex.getFile());
+            phase = stats.begin("sparse-index");
+            int pairsIndexed = buildSparseIndex();
+            phase.records(Math.max(pairsIndexed, 0)).bytesRead(sizeOf(phase, dbFile)).bytesWritten(sizeOf(phase, sparseIndex.getFile())).end();
+            if(pairsIndexed < 0)
+                verbose("Registry database file is not sorted, sparse index left stale");
+            else
+                verbose("%d pair(s) indexed", pairsIndexed);
+            verbose("  -- Done");
+        }
+        
+        // for db Bloom filter operation, and to keep an enabled filter up to date
+        if(bloomDb || (bloomFilter.exists() && (dbUpdated || repairDb))) {
+            verbose("Building registry database Bloom filter (%s)...", bloomFilter.getFile());
+            phase = stats.begin("bloom-filter");
+            int pairsAdded = buildBloomFilter();
+            phase.records(pairsAdded).bytesRead(sizeOf(phase, dbFile)).bytesWritten(sizeOf(phase, bloomFilter.getFile())).end();
+            verbose("%d pair(s) added", pairsAdded);
+            verbose("  -- Done");
+            if(bloomDb) {
+                responseCounts = new int[] { pairsAdded };
+                response = describe(responseCounts);
+            }
+        }
         
         return response;
     }
 
+    /**
+     * <p> Words the response of the operation from its counts, the same
+     * for a registry database file as for the counts summed up over the
+     * shards of a sharded one </p>
+     * @param counts Counts of the operation, see responseCounts
+     * @return Response, null if the operation states no counts
+     * */
+    private String describe(final int[] counts) {
+        if(counts == null)
+            return null;
+        if(bloomDb)
+            return entries(counts[0]) + " added to Bloom filter";
+        if(indexDb)
+            return entries(counts[0]) + " indexed";
+        if(convertToFormat != null)
+            return entries(counts[0]) + " converted to " + convertToFormat + " format";
+        if(sortDb)
+            return entries(counts[0]) + " sorted";
+        if(bulkEntryFileName != null)
+            return String.format("%d inserted, %d overwritten, %d skipped", counts[0], counts[1], counts[2]);
+        if(mergeDb) {
+            String response = counts[1] + " new " + (counts[1] > 1 ? "entries" : "entry") + " merged";
+            if(counts[2] > 0)
+                response += ", " + counts[2] + " row(s) rejected (see " + Paths.get(dbFile + ExternalMerge.FILE_SUFFIX) + ")";
+            return response;
+        }
+        if(operationMode.equals("verify-db"))
+            return counts[0] + " record(s) verified, no corruption found";
+        return null;
+    }
+
+    private static String entries(final int count) {
+        return count + " " + (count > 1 ? "entries" : "entry");
+    }
+
+    /* streams the results of the batch query, or collects them into batchQueryResults if set */
+    private int[] runBatchQuery(final Map<Key,String> map) throws IOException {
+        return batchQueryResults != null ? batchQuery.collect(map, batchQueryResults) : batchQuery.run(map, batchQueryOutput);
+    }
+
+    // Sharded registry database -- see ShardManifest
+
+    /**
+     * <p> Carries out the operation on a sharded registry database holding
+     * the shared lock of its directory, every shard being locked and
+     * processed as a registry database of its own: an entry, deletion or
+     * query on the shard owning the key only, every other operation on all
+     * the shards in parallel, their results combined. </p>
+     * @return Response, if necessary, else null
+     * @throws IOException For any I/O error, or if a lock wait times out
+     * @throws CorruptRegistryDataException For data corruption
+     * */
+    @SuppressWarnings("try") /* lock held for the block */
+    private String processSharded() throws IOException, CorruptRegistryDataException {
+        if(shardCount > 0)
+            return ShardManifest.isSharded(dbFile) ? reshardDb() : splitDb();
+
+        verbose("Acquiring shared lock of sharded registry database...");
+        OperationStats.Phase phase = stats.begin("lock");
+        try(RegistryLock lock = RegistryLock.acquire(dbFile, true, lockTimeout)) {
+            phase.end();
+            verbose("  -- Done");
+            ShardManifest manifest = ShardManifest.read(dbFile);
+            verbose("Sharded registry database: %d shard(s), generation %d", manifest.shardCount(), manifest.generation());
+
+            // for db entry, deletion or query, only the shard owning the key
+            if(entryMode || queryKey != null) {
+                int shard = manifest.shardOf(entryMode ? new Key(keyValPair[0]) : queryKey);
+                verbose("Key owned by shard %d (%s)", shard, manifest.shardFile(shard));
+                phase = stats.begin("shard");
+                String response = forShard(manifest.shardFile(shard), bulkEntryFileName, batchQuery).process();
+                phase.records(1).end();
+                return response;
+            }
+            if(batchQuery != null)
+                return batchQueryShards(manifest);
+            if(scanRange != null || globPattern != null)
+                return scanShards(manifest);
+            if(mergeDb)
+                return mergeShards(manifest);
+            if(bulkEntryFileName != null)
+                return bulkEntryShards(manifest);
+
+            // for db reset, repair, compaction, indexing, sorting, verification, conversion and Bloom filter, every shard on its own
+            verbose("Processing %d shard(s)...", manifest.shardCount());
+            phase = stats.begin("shards");
+            List<int[]> counts = forEachShard(manifest, (shard, file) -> {
+                Registry registry = forShard(file, bulkEntryFileName, batchQuery);
+                registry.process();
+                return registry.responseCounts;
+            });
+            phase.records(manifest.shardCount()).end();
+            verbose("  -- Done");
+            responseCounts = sum(counts);
+            return describe(responseCounts);
+        }
+    }
+
+    /* copy of this registry carrying out the operation on a shard file, as an external database */
+    private Registry forShard(final Path shardFile, final String shardBulkEntryFileName, final BatchQuery shardBatchQuery) {
+        Registry shard = new Registry(  operationMode, resetDb, repairDb, mergeDb,
+                                        mergeSrcFile == null ? null : mergeSrcFile.toString(),
+                                        shardFile.toString(), true,
+                                        entryMode, forceEntry, keyValPair, queryMode,
+                                        queryKey == null ? null : queryKey.toString(),
+                                        deleteMode, compactDb, indexDb, convertToFormat,
+                                        shardBulkEntryFileName, shardBatchQuery);
+        shard.registryMap = registryMap instanceof OffHeapMap ? new OffHeapMap() : new ConcurrentHashMap<>();
+        shard.batchQueryOutput = batchQueryOutput;
+        shard.sortDb = sortDb;
+        shard.bloomDb = bloomDb;
+        shard.bloomFalsePositiveRate = bloomFalsePositiveRate;
+        shard.scanRange = scanRange;
+        shard.scanNullDelimited = scanNullDelimited;
+        shard.globPattern = globPattern;
+        shard.globOffset = globOffset;
+        shard.globLimit = globLimit;
+        shard.scanOutput = scanOutput;
+        shard.loaderThreads = loaderThreads;
+        shard.lockTimeout = lockTimeout;
+        shard.mergeBufferSize = mergeBufferSize;
+        return shard;
+    }
+
+    /**
+     * Task carried out on a shard of a sharded registry database.
+     * */
+    private interface ShardTask<T> {
+        T run(int shard, Path shardFile) throws IOException, CorruptRegistryDataException;
+    }
+
+    /**
+     * <p> Carries out the task on every shard, by as many threads as the
+     * loader threads (at most one per shard). </p>
+     * @param manifest Manifest of the shards
+     * @param task Task to carry out
+     * @return Results of the task, in shard order
+     * @throws IOException For any I/O error of a task, raised once all the tasks ended
+     * @throws CorruptRegistryDataException For data corruption found by a task
+     * */
+    private <T> List<T> forEachShard(final ShardManifest manifest, final ShardTask<T> task) throws IOException, CorruptRegistryDataException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(loaderThreads, manifest.shardCount())));
+        try {
+            List<Future<T>> futures = new ArrayList<>(manifest.shardCount());
+            for(int shard = 0; shard < manifest.shardCount(); shard++) {
+                final int s = shard;
+                futures.add(pool.submit(() -> task.run(s, manifest.shardFile(s))));
+            }
+            List<T> results = new ArrayList<>(futures.size());
+            Throwable failure = null;
+            for(Future<T> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch(ExecutionException e) {
+                    if(failure == null)
+                        failure = e.getCause();
+                    results.add(null);
+                }
+            }
+            if(failure instanceof IOException)
+                throw (IOException)failure;
+            if(failure instanceof CorruptRegistryDataException)
+                throw (CorruptRegistryDataException)failure;
+            if(failure instanceof RuntimeException)
+                throw (RuntimeException)failure;
+            if(failure instanceof Error)
+                throw (Error)failure;
+            return results;
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing the shards of: " + dbFile, e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * <p> Routes the keys of the batch to their shards, queried in parallel,
+     * and streams the results in the order of the keys. </p>
+     * @param manifest Manifest of the shards
+     * @return null, the results are streamed
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException For data corruption
+     * */
+    private String batchQueryShards(final ShardManifest manifest) throws IOException, CorruptRegistryDataException {
+        OperationStats.Phase phase = stats.begin("query-batch");
+        final String[] keys = batchQuery.readKeys();
+        final List<List<String>> keysOfShards = new ArrayList<>(manifest.shardCount());
+        for(int shard = 0; shard < manifest.shardCount(); shard++)
+            keysOfShards.add(new ArrayList<>());
+        for(String key : keys)
+            keysOfShards.get(manifest.shardOf(new Key(key))).add(key);
+        verbose("Querying %d shard(s) for the batch of %d key(s)...", manifest.shardCount(), keys.length);
+
+        List<Map<Key,String>> resultsOfShards = forEachShard(manifest, (shard, file) -> {
+            Map<Key,String> found = new HashMap<>();
+            List<String> keysOfShard = keysOfShards.get(shard);
+            if(keysOfShard.isEmpty())
+                return found;
+            Registry registry = forShard(file, null, batchQuery.forKeys(keysOfShard.toArray(new String[0])));
+            registry.batchQueryResults = found;
+            registry.process();
+            return found;
+        });
+        Map<Key,String> results = new HashMap<>();
+        for(Map<Key,String> found : resultsOfShards)
+            results.putAll(found);
+        int[] counts = batchQuery.forKeys(keys).run(results, batchQueryOutput);
+        phase.records(counts[0] + counts[1]).end();
+        verbose("%d key(s) found, %d key(s) missing", counts[0], counts[1]);
+        verbose("  -- Done");
+        return null;
+    }
+
+    /**
+     * <p> Scans the key range, or matches the glob pattern, on every shard
+     * in parallel, and streams the pairs merged in key order (the page of
+     * a glob query taken from the merged pairs). </p>
+     * @param manifest Manifest of the shards
+     * @return null, the pairs are streamed
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException For data corruption
+     * */
+    private String scanShards(final ShardManifest manifest) throws IOException, CorruptRegistryDataException {
+        OperationStats.Phase phase = stats.begin(scanRange != null ? "scan" : "glob");
+        final int pageEnd = (int)Math.min((long)globOffset + globLimit, Integer.MAX_VALUE);
+        verbose("Scanning %d shard(s)...", manifest.shardCount());
+        List<List<String[]>> pairsOfShards = forEachShard(manifest, (shard, file) -> {
+            List<String[]> listed = new ArrayList<>();
+            Registry registry = forShard(file, null, null);
+            registry.scanPairs = (key, value) -> listed.add(new String[] { key, value });
+            registry.globOffset = 0; /* every shard lists its pairs up to the end of the page */
+            registry.globLimit = pageEnd;
+            registry.process();
+            return listed;
+        });
+        TreeMap<String,String[]> pairs = new TreeMap<>(); /* in the order of the case-folded keys */
+        for(List<String[]> listed : pairsOfShards)
+            for(String[] pair : listed)
+                pairs.put(Key.fold(pair[0]), pair);
+
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(scanOutput, StandardCharsets.UTF_8));
+        int pairsListed = 0, pairsSkipped = 0;
+        for(String[] pair : pairs.values()) {
+            if(globPattern != null && pairsSkipped++ < globOffset)
+                continue;
+            if(globPattern != null && pairsListed == globLimit)
+                break;
+            RangeScan.appendPair(writer, pair[0], pair[1], scanNullDelimited);
+            pairsListed++;
+        }
+        writer.flush();
+        phase.records(pairsListed).end();
+        verbose("%d pair(s) listed", pairsListed);
+        verbose("  -- Done");
+        return null;
+    }
+
+    /**
+     * <p> Partitions the external source file by shard, then merges every
+     * part into its shard in parallel, the merge buffer shared among the
+     * threads. Rows rejected by the shards are gathered in the rejects file
+     * of the sharded database. </p>
+     * @param manifest Manifest of the shards
+     * @return Response stating the count of the new pairs and rejected rows
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException For data corruption
+     * */
+    private String mergeShards(final ShardManifest manifest) throws IOException, CorruptRegistryDataException {
+        verbose("Partitioning external source file (%s) by shard...", mergeSrcFile);
+        OperationStats.Phase phase = stats.begin("partition");
+        final Path[] parts = new Path[manifest.shardCount()];
+        for(int shard = 0; shard < parts.length; shard++)
+            parts[shard] = Paths.get(manifest.shardFile(shard) + ".merge");
+        final Path rejectsFile = Paths.get(dbFile + ExternalMerge.FILE_SUFFIX);
+        try {
+            ExternalMerge partition = new ExternalMerge(dbFile, mergeSrcFile, false, false, false, false, mergeBufferSize);
+            int rowsRejected = partition.partition(parts, manifest::shardOf);
+            phase.bytesRead(sizeOf(phase, mergeSrcFile)).end();
+            verbose("  -- Done");
+
+            verbose("Merging the parts into %d shard(s)...", manifest.shardCount());
+            phase = stats.begin("merge");
+            final long bufferSize = Math.max(1, mergeBufferSize / Math.max(1, Math.min(loaderThreads, manifest.shardCount())));
+            List<int[]> countsOfShards = forEachShard(manifest, (shard, file) -> {
+                Registry registry = forShard(file, null, null);
+                registry.mergeSrcFile = parts[shard];
+                registry.mergeBufferSize = bufferSize;
+                registry.process();
+                return registry.responseCounts;
+            });
+            int[] counts = Objects.requireNonNullElse(sum(countsOfShards), new int[3]);
+            counts[2] += rowsRejected;
+            for(int shard = 0; shard < parts.length; shard++) {
+                Path shardRejects = Paths.get(manifest.shardFile(shard) + ExternalMerge.FILE_SUFFIX);
+                if(Files.exists(shardRejects)) {
+                    Files.write(rejectsFile, Files.readAllBytes(shardRejects), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                    Files.delete(shardRejects);
+                }
+            }
+            phase.records(counts[0]).end();
+            verbose("%d pair(s) written, %d new pair(s) merged, %d row(s) rejected", counts[0], counts[1], counts[2]);
+            verbose("  -- Done");
+            responseCounts = counts;
+            return describe(counts);
+        } finally {
+            for(Path part : parts)
+                Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * <p> Partitions the key-value pairs to enter by shard, checking them
+     * all first, then enters every part into its shard in parallel. </p>
+     * @param manifest Manifest of the shards
+     * @return Response stating the counts of the pairs inserted, overwritten and skipped
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException For data corruption
+     * @throws IllegalArgumentException If a line is not a valid key-value pair
+     * */
+    private String bulkEntryShards(final ShardManifest manifest) throws IOException, CorruptRegistryDataException {
+        verbose("Partitioning key-value pairs from (%s) by shard...", bulkEntryFileName);
+        OperationStats.Phase phase = stats.begin("partition");
+        final Path[] parts = new Path[manifest.shardCount()];
+        for(int shard = 0; shard < parts.length; shard++)
+            parts[shard] = Paths.get(manifest.shardFile(shard) + ".bulk");
+        final Writer[] writers = new Writer[parts.length];
+        try {
+            int lineNumber = 0;
+            boolean fromStdin = bulkEntryFileName.equals("-");
+            try(BufferedReader reader = fromStdin ?
+                    new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) :
+                    Files.newBufferedReader(Paths.get(bulkEntryFileName))) {
+                for(int shard = 0; shard < parts.length; shard++)
+                    writers[shard] = Files.newBufferedWriter(parts[shard], StandardCharsets.UTF_8);
+                String line;
+                while((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if(line.trim().length() == 0)
+                        continue;
+                    int separator = line.indexOf('\t');
+                    String key = separator < 0 ? null : getInValidKeyOrValueFormat(line.substring(0, separator));
+                    if(key == null)
+                        throw new IllegalArgumentException("Invalid key format at line " + lineNumber + ": " + line);
+                    if(getInValidKeyOrValueFormat(line.substring(separator + 1)) == null)
+                        throw new IllegalArgumentException("Invalid value format at line " + lineNumber + ": " + line);
+                    Writer part = writers[manifest.shardOf(new Key(key))];
+                    part.write(line);
+                    part.write('\n');
+                }
+            } catch(IOException e) {
+                throw new IOException("While reading key-value pairs from: " + (fromStdin ? "standard input" : bulkEntryFileName), e);
+            } finally {
+                for(Writer writer : writers)
+                    if(writer != null)
+                        writer.close();
+            }
+            phase.records(lineNumber).end();
+            verbose("  -- Done");
+
+            verbose("Entering the parts into %d shard(s)...", manifest.shardCount());
+            phase = stats.begin("bulk-entry");
+            List<int[]> countsOfShards = forEachShard(manifest, (shard, file) -> {
+                if(Files.size(parts[shard]) == 0)
+                    return null;
+                Registry registry = forShard(file, parts[shard].toString(), null);
+                registry.process();
+                return registry.responseCounts;
+            });
+            phase.end();
+            verbose("  -- Done");
+            responseCounts = Objects.requireNonNullElse(sum(countsOfShards), new int[3]);
+            return describe(responseCounts);
+        } finally {
+            for(Path part : parts)
+                Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * <p> Sums up the counts of the shards </p>
+     * @param counts Counts of the shards, null ones left out
+     * @return Counts summed up, null if no shard counted
+     * */
+    private static int[] sum(final List<int[]> counts) {
+        int[] sums = null;
+        for(int[] shardCounts : counts) {
+            if(shardCounts == null)
+                continue;
+            if(sums == null)
+                sums = new int[shardCounts.length];
+            for(int i = 0; i < sums.length; i++)
+                sums[i] += shardCounts[i];
+        }
+        return sums;
+    }
+
+    /**
+     * <p> Turns the registry database file into a sharded registry database
+     * at the same path, holding its exclusive lock: the pairs, with the log
+     * applied, are partitioned into shard files written in a new directory,
+     * which then takes the place of the file. The format, hash index, sorted
+     * layout and Bloom filter of the file are kept by every shard. </p>
+     * @return Response stating the count of the pairs and shards
+     * @throws IOException For any I/O error, or if the lock wait times out
+     * @throws CorruptRegistryDataException For data corruption
+     * */
+    @SuppressWarnings("try") /* lock held for the block */
+    private String splitDb() throws IOException, CorruptRegistryDataException {
+        verbose("Acquiring exclusive lock of registry database...");
+        OperationStats.Phase phase = stats.begin("lock");
+        try(RegistryLock lock = RegistryLock.acquire(dbFile, false, lockTimeout)) {
+            phase.end();
+            verbose("  -- Done");
+            if(ShardManifest.isSharded(dbFile))
+                throw new IOException("Registry database sharded meanwhile by another process: " + dbFile);
+
+            if(resolveDbFile()) {
+                verbose("Loading registry database (%s)...", dbFile);
+                phase = stats.begin("load");
+                int pairsLoaded = loadDb(dbFile, true);
+                phase.records(pairsLoaded).bytesRead(sizeOf(phase, dbFile)).end();
+                phase = stats.begin("log-replay");
+                int recordsReplayed = writeAheadLog.replay(registryMap, true);
+                phase.records(recordsReplayed).bytesRead(sizeOf(phase, writeAheadLog.getFile())).end();
+                verbose("%d pair(s) loaded, %d log record(s) replayed", pairsLoaded, recordsReplayed);
+                verbose("  -- Done");
+            }
+
+            Path staging = Paths.get(dbFile + ShardManifest.STAGING_SUFFIX);
+            if(Files.exists(staging)) /* left over by a failed split */
+                new ShardManifest(staging, ShardManifest.MAX_SHARDS, 0).deleteShards();
+            Files.deleteIfExists(staging.resolve(ShardManifest.FILE_NAME));
+            Files.createDirectories(staging);
+            ShardManifest manifest = new ShardManifest(staging, shardCount, 0);
+            verbose("Writing %d shard(s) (%s)...", shardCount, staging);
+            phase = stats.begin("shard");
+            int pairsWritten = writeShards(manifest, registryMap, hashIndex.exists(), sparseIndex.exists(),
+                                           bloomFilter.exists() ? bloomFilter.falsePositiveRate() : 0);
+            manifest.write();
+            phase.records(pairsWritten).end();
+            verbose("  -- Done");
+
+            /* the file steps aside for the directory, then gets deleted along with its log and indexes;
+               a crash in between is completed or rolled back by the next process, see ShardManifest.recoverSplit */
+            verbose("Swapping in sharded registry database (%s)...", dbFile);
+            Path unsharded = Paths.get(dbFile + ShardManifest.UNSHARDED_SUFFIX);
+            Files.move(dbFile, unsharded, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(staging, dbFile);
+            } catch(IOException | RuntimeException e) {
+                Files.move(unsharded, dbFile); /* rolled back */
+                throw e;
+            }
+            AtomicFile.forceDirectory(dbFile.toAbsolutePath().getParent());
+            ShardManifest.deleteSplit(dbFile);
+            verbose("  -- Done");
+            return pairsWritten + " " + (pairsWritten > 1 ? "entries" : "entry") + " sharded into " + shardCount + " shard(s)";
+        }
+    }
+
+    /**
+     * <p> Reshards a sharded registry database to the requested count of
+     * shards, online: the next generation of shard files is written holding
+     * the shared lock of the directory, while other processes keep reading
+     * and writing the current shards, then the exclusive lock is taken only
+     * to swap it in by replacing the manifest. Should a current shard have
+     * changed meanwhile, the next generation is written again holding the
+     * exclusive lock. </p>
+     * @return Response stating the count of the pairs and shards
+     * @throws IOException For any I/O error, if a lock wait times out, or if
+     *          the database got resharded meanwhile by another process
+     * @throws CorruptRegistryDataException For data corruption
+     * */
+    @SuppressWarnings("try") /* lock held for the block */
+    private String reshardDb() throws IOException, CorruptRegistryDataException {
+        final ShardManifest current, next;
+        final Map<Path,String> snapshot;
+        int pairsWritten;
+        verbose("Acquiring shared lock of sharded registry database...");
+        OperationStats.Phase phase = stats.begin("lock");
+        try(RegistryLock lock = RegistryLock.acquire(dbFile, true, lockTimeout)) {
+            phase.end();
+            verbose("  -- Done");
+            current = ShardManifest.read(dbFile);
+            if(current.shardCount() == shardCount)
+                return "Registry database already sharded into " + shardCount + " shard(s)";
+            next = current.next(shardCount);
+            snapshot = shardStates(current);
+            pairsWritten = reshard(current, next, true);
+        }
+
+        verbose("Acquiring exclusive lock of sharded registry database...");
+        phase = stats.begin("lock");
+        try(RegistryLock lock = RegistryLock.acquire(dbFile, false, lockTimeout)) {
+            phase.end();
+            verbose("  -- Done");
+            ShardManifest latest = ShardManifest.read(dbFile);
+            if(latest.generation() != current.generation()) {
+                if(latest.generation() != next.generation())
+                    next.deleteShards();
+                throw new IOException("Registry database resharded meanwhile by another process: " + dbFile);
+            }
+            if(!shardStates(current).equals(snapshot)) {
+                verbose("Shards changed while resharding, resharding again holding the exclusive lock...");
+                pairsWritten = reshard(current, next, false);
+            }
+            verbose("Swapping in generation %d of the shards...", next.generation());
+            next.write();
+            current.deleteShards();
+            verbose("  -- Done");
+        }
+        return pairsWritten + " " + (pairsWritten > 1 ? "entries" : "entry") + " resharded into " + shardCount + " shard(s)";
+    }
+
+    /* size and last modified time of every shard file and its log, to detect writes while resharding */
+    private static Map<Path,String> shardStates(final ShardManifest manifest) throws IOException {
+        Map<Path,String> states = new HashMap<>();
+        for(Path shardFile : manifest.shardFiles())
+            for(Path file : new Path[] { shardFile, Paths.get(shardFile + WriteAheadLog.FILE_SUFFIX) })
+                states.put(file, Files.exists(file) ? Files.size(file) + "@" + Files.getLastModifiedTime(file).toMillis() : "-");
+        return states;
+    }
+
+    /**
+     * <p> Loads the current shards in parallel, along with their logs, and
+     * writes their pairs in the shards of the next generation, in the format
+     * and with the indexes of the current shards. </p>
+     * @param current Manifest of the current shards
+     * @param next Manifest of the next shards
+     * @param lockShards True to hold the shared lock of every shard while loading it
+     * @return Count of the pairs written
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException For data corruption
+     * */
+    @SuppressWarnings("try") /* lock held for the block */
+    private int reshard(final ShardManifest current, final ShardManifest next, final boolean lockShards)
+            throws IOException, CorruptRegistryDataException {
+        verbose("Loading %d shard(s)...", current.shardCount());
+        OperationStats.Phase phase = stats.begin("load");
+        final Map<Key,String> pairs = new ConcurrentHashMap<>(); /* the keys of the shards are disjoint */
+        List<Registry> shards = forEachShard(current, (shard, file) -> {
+            Registry registry = forShard(file, null, null);
+            registry.registryMap = pairs;
+            try(RegistryLock lock = lockShards ? RegistryLock.acquire(file, true, lockTimeout) : null) {
+                registry.resolveDbFile();
+                registry.loadDb(file, true);
+                registry.writeAheadLog.replay(pairs, true);
+            }
+            return registry;
+        });
+        phase.records(pairs.size()).end();
+        verbose("%d pair(s) loaded", pairs.size());
+        verbose("  -- Done");
+
+        Registry first = shards.get(0);
+        binaryDb = first.binaryDb;
+        framedDb = first.framedDb;
+        dictionaryDb = first.dictionaryDb;
+        compressedDb = first.compressedDb;
+        verbose("Writing %d shard(s) of generation %d...", next.shardCount(), next.generation());
+        phase = stats.begin("shard");
+        int pairsWritten = writeShards(next, pairs, first.hashIndex.exists(), first.sparseIndex.exists(),
+                                       first.bloomFilter.exists() ? first.bloomFilter.falsePositiveRate() : 0);
+        phase.records(pairsWritten).end();
+        verbose("  -- Done");
+        return pairsWritten;
+    }
+
+    /**
+     * <p> Writes the pairs, partitioned by shard, in the shard files of the
+     * manifest in parallel, in the format of this registry. </p>
+     * @param manifest Manifest of the shards to write
+     * @param pairs Pairs to write
+     * @param indexed True to build the hash index of every shard
+     * @param sorted True to write every shard in key order, with its sparse index
+     * @param bloomFalsePositiveRate False positive rate of the Bloom filter of every shard, 0 for none
+     * @return Count of the pairs written
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException For data corruption
+     * */
+    private int writeShards(final ShardManifest manifest, final Map<Key,String> pairs, final boolean indexed, final boolean sorted,
+                            final double bloomFalsePositiveRate) throws IOException, CorruptRegistryDataException {
+        final List<Map<Key,String>> partitions = new ArrayList<>(manifest.shardCount());
+        for(int shard = 0; shard < manifest.shardCount(); shard++)
+            partitions.add(new HashMap<>());
+        for(Map.Entry<Key,String> pair : pairs.entrySet())
+            partitions.get(manifest.shardOf(pair.getKey())).put(pair.getKey(), pair.getValue());
+
+        List<Integer> counts = forEachShard(manifest, (shard, file) -> {
+            Registry registry = forShard(file, null, null);
+            registry.registryMap = partitions.get(shard);
+            registry.binaryDb = binaryDb;
+            registry.framedDb = framedDb;
+            registry.dictionaryDb = dictionaryDb;
+            registry.compressedDb = compressedDb;
+            registry.sortDb = sorted;
+            int pairsWritten = registry.updateDb();
+            if(indexed)
+                registry.buildIndex();
+            if(sorted)
+                registry.buildSparseIndex();
+            if(bloomFalsePositiveRate > 0)
+                registry.bloomFilter.build(bloomFalsePositiveRate);
+            return pairsWritten;
+        });
+        int pairsWritten = 0;
+        for(int count : counts)
+            pairsWritten += count;
+        return pairsWritten;
+    }
+
+    /**
+     * Loads the registry database for {@link RegistryStore}, creates the
+     * default database file if required. The log is left to the caller to
+     * replay, see {@link IncrementalLoader}.
+     * @return Internal map holding the loaded pairs.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption.
+     * */
+    ConcurrentHashMap<Key,String> loadForServing() throws IOException, CorruptRegistryDataException {
+        if(ShardManifest.isSharded(dbFile))
+            throw new IllegalArgumentException("Sharded registry database can not be served: " + dbFile);
+        ConcurrentHashMap<Key,String> servedMap = new ConcurrentHashMap<>(); /* handed to RegistryStore as is */
+        registryMap = servedMap;
+        if(resolveDbFile())
+            loadDb(dbFile, true);
+        return servedMap;
+    }
+
+    /**
+     * Rewrites the registry database file, in its format, with the pairs of
+     * a {@link RegistryStore}, deletes the log and keeps the enabled indexes
+     * and Bloom filter up to date. To be called holding the exclusive lock,
+     * the pairs being the loaded database and log with the changes to write
+     * back applied.
+     * @param pairs Pairs of the registry.
+     * @return Count of the pairs written.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption detected while indexing.
+     * */
+    int writeForServing(final Map<Key,String> pairs) throws IOException, CorruptRegistryDataException {
+        resolveDbFile();
+        registryMap = pairs;
+        int pairsWritten = updateDb();
+        if(hashIndex.exists())
+            buildIndex();
+        if(sparseIndex.exists())
+            buildSparseIndex();
+        if(bloomFilter.exists())
+            buildBloomFilter();
+        return pairsWritten;
+    }
+    
     // Internal worker methods -- all private
     
+    /**
+     * <p> Checks the presence of the database file, creates the default
+     * database file if not present and detects the database format. </p>
+     * @return True if the database file was already present
+     * @throws IOException For any I/O error
+     * @throws IllegalArgumentException If the external database file is not present
+     * */
+    private boolean resolveDbFile() throws IOException, IllegalArgumentException {
+        boolean dbFilePresent = true;
+        if(Files.notExists(dbFile)) {
+            verbose("Database file (%s) not found!", dbFile);
+            if(isExternalDb)
+                throw new IllegalArgumentException("External database not found: " + dbFile);
+            else { // create only default database file
+                dbFilePresent = false;
+                verbose("Creating database file (%s)...", dbFile);
+                // create parent dirs if required
+                Path parentDirs = dbFile.getParent();
+                if(parentDirs != null)
+                    Files.createDirectories(parentDirs);
+                try {
+                    Files.createFile( dbFile );
+                } catch(FileAlreadyExistsException e) {
+                    /* created meanwhile by a concurrent reader */
+                }
+                verbose("  -- Done");
+            }
+        }
+        binaryDb = BinaryFormat.isBinary(dbFile);
+        framedDb = binaryDb && BinaryFormat.isFramed(dbFile);
+        dictionaryDb = binaryDb && BinaryFormat.hasDictionary(dbFile);
+        compressedDb = !binaryDb && CompressedFormat.isCompressed(dbFile);
+        verbose("Database format: %s", framedDb ? "framed binary" : dictionaryDb ? "dictionary binary" : binaryDb ? "binary"
+                                        : compressedDb ? "block-compressed" : "text");
+        return dbFilePresent;
+    }
+    
+    /* size of the file for the figures of the phase, 0 if absent, not looked up for a no-op phase */
+    private static long sizeOf(final OperationStats.Phase phase, final Path file) throws IOException {
+        return phase.isNoOp() || Files.notExists(file) ? 0 : Files.size(file);
+    }
+    
     /**
      * <p> Load key-value pairs from db into internal hashtable </p>
      * @param file File to load registry data from
@@ -272,6 +1783,44 @@ public class Registry {
      */
     private int loadDb( final Path file, 
                         final boolean raiseException) throws  IOException, CorruptRegistryDataException {
+        /* identical short values share a single instance, see ValueDictionary */
+        final ValueDictionary values = new ValueDictionary();
+        int pairsLoaded = loadDb(file, raiseException, values);
+        verbose("%d duplicate value(s) shared, %d distinct value(s) interned", values.hits(), values.size());
+        return pairsLoaded;
+    }
+    
+    private int loadDb( final Path file, 
+                        final boolean raiseException,
+                        final ValueDictionary values) throws  IOException, CorruptRegistryDataException {
+        if(CompressedFormat.isCompressed(file)) {
+            try {
+                verbose("Decompressing blocks using %d thread(s)", loaderThreads);
+                int pairsLoaded = CompressedFormat.read(file, registryMap, values, raiseException, loaderThreads);
+                if(pairsLoaded < CompressedFormat.recordCount(file))
+                    mapHasUpdated = true; /* corrupt or duplicate records skipped */
+                return pairsLoaded;
+            } catch(IOException e) {
+                throw new IOException("While loading data from file: " + file, e);
+            }
+        }
+        
+        if(BinaryFormat.isBinary(file)) {
+            try {
+                int pairsLoaded = BinaryFormat.read(file, registryMap, values, raiseException);
+                if(pairsLoaded < BinaryFormat.recordCount(file))
+                    mapHasUpdated = true; /* corrupt or duplicate records skipped */
+                return pairsLoaded;
+            } catch(IOException e) {
+                throw new IOException("While loading data from file: " + file, e);
+            }
+        }
+        
+        if(raiseException && loaderThreads > 1 && Files.size(file) >= ParallelTextLoader.MIN_FILE_SIZE) {
+            verbose("Loading in parallel using %d thread(s)", loaderThreads);
+            return new ParallelTextLoader(file, loaderThreads).load(registryMap, values);
+        }
+        
         int pairsLoaded = 0;
         try {
             String key = null, loadedLine = null;
@@ -289,12 +1838,13 @@ public class Registry {
                     } else if(line.startsWith("V: ")) {
                         if(key != null) {
                             loadedLine = line;
-                            if(registryMap.containsKey(key))
+                            Key mapKey = new Key(key);
+                            if(registryMap.containsKey(mapKey))
                                 throw new CorruptRegistryDataException("Duplicate key", key, file);
                             String value = getInValidKeyOrValueFormat(loadedLine.substring(3));
                             if(value == null)
                                 throw new CorruptRegistryDataException("Invalid value format", loadedLine, file);
-                            registryMap.put(new Key(key), value);
+                            registryMap.put(mapKey, values.intern(value));
                             
                             key = null; /* prepare for next key */
                             pairsLoaded++; /* one pair completed loading */
@@ -332,29 +1882,88 @@ public class Registry {
     }
     
     /**
-     * Updates internal hash table with the provided
-     * key-value pair, checks force entry option
-     * for replacement with new value, if any. Marks
-     * for map update if modified.
+     * Appends the provided key-value pair to the registry
+     * database log, checks force entry option for
+     * replacement with new value, if any.
+     * @param presentValue Value currently stored for the key, null if absent.
      * @throws IllegalArgumentException If force entry option
      *          is disabled and a value with duplicate key
-     *          is attempted to insert into internal hash table.
+     *          is attempted to insert into registry database.
+     * @throws IOException In case of any I/O error while log writing
      * */
-    private void entryInMap() throws  IllegalArgumentException {
+    private void entryInDb(final String presentValue) throws  IllegalArgumentException, IOException {
         Key keyToInsert = new Key(keyValPair[0]);
         String valueToInsert = keyValPair[1];
         
-        if(registryMap.containsKey(keyToInsert)) {
+        if(presentValue != null) {
             verbose("Key already present, enforcing entry");
             if(!forceEntry)
                 throw new IllegalArgumentException("Key already present: " + keyToInsert);
-            if(registryMap.get(keyToInsert).equals(valueToInsert)) {
+            if(presentValue.equals(valueToInsert)) {
                 verbose("Same value already present, file writing aborted");
                 return;
             }
         }
-        registryMap.put(keyToInsert, valueToInsert);
-        mapHasUpdated = true;
+        writeAheadLog.appendPut(keyToInsert, valueToInsert);
+    }
+    
+    /**
+     * Streams key-value pairs, one "key TAB value" pair per line, from the
+     * bulk entry source into internal hash table, checks force entry option
+     * for replacement with new value per pair. Blank lines are ignored.
+     * @param changedPairs Collects the inserted and overwritten pairs.
+     * @return Counts of the pairs inserted, overwritten and skipped.
+     * @throws IllegalArgumentException If a line is not a valid pair.
+     * @throws IOException For any I/O error while reading the source.
+     * */
+    private int[] bulkEntryInMap(final Map<Key,String> changedPairs) throws IllegalArgumentException, IOException {
+        int inserted = 0, overwritten = 0, skipped = 0, lineNumber = 0;
+        boolean fromStdin = bulkEntryFileName.equals("-");
+        try(BufferedReader reader = fromStdin ?
+                new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) :
+                Files.newBufferedReader(Paths.get(bulkEntryFileName))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                lineNumber++;
+                if(line.trim().length() == 0)
+                    continue;
+                int separator = line.indexOf('\t');
+                String key = separator < 0 ? null : getInValidKeyOrValueFormat(line.substring(0, separator));
+                if(key == null)
+                    throw new IllegalArgumentException("Invalid key format at line " + lineNumber + ": " + line);
+                String value = getInValidKeyOrValueFormat(line.substring(separator + 1));
+                if(value == null)
+                    throw new IllegalArgumentException("Invalid value format at line " + lineNumber + ": " + line);
+                
+                Key keyToInsert = new Key(key);
+                String presentValue = registryMap.get(keyToInsert);
+                if(presentValue != null && (!forceEntry || presentValue.equals(value))) {
+                    skipped++;
+                    continue;
+                }
+                registryMap.put(keyToInsert, value);
+                changedPairs.put(keyToInsert, value);
+                if(presentValue == null)
+                    inserted++;
+                else
+                    overwritten++;
+            }
+        } catch(IOException e) {
+            throw new IOException("While reading key-value pairs from: " + (fromStdin ? "standard input" : bulkEntryFileName), e);
+        }
+        return new int[] { inserted, overwritten, skipped };
+    }
+    
+    /**
+     * Appends a tombstone of the key to the registry database log.
+     * @param presentValue Value currently stored for the key, null if absent.
+     * @throws IllegalArgumentException If the key is not present.
+     * @throws IOException In case of any I/O error while log writing
+     * */
+    private void deleteFromDb(final String presentValue) throws  IllegalArgumentException, IOException {
+        if(presentValue == null)
+            throw new IllegalArgumentException("Key not present: " + queryKey);
+        writeAheadLog.appendTombstone(queryKey);
     }
     
     /**
@@ -364,25 +1973,37 @@ public class Registry {
      * */
     private int updateDb() throws IOException {
         int pairsWritten = 0;
+        /* sorted layout enabled: written in key order, see SparseIndex */
+        final Collection<Map.Entry<Key,String>> pairs = sortDb || sparseIndex.exists() || compressedDb ? sortedPairs() : registryMap.entrySet();
         
         try {
+            /* Written to a temporary file and swapped in, the database is never left truncated */
             if(resetDb) {
-                /* Simply write in TRUNCATE_EXISTING mode */
-                Files.write(dbFile, new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+                if(binaryDb)
+                    BinaryFormat.write(dbFile, Collections.emptyList(), framedDb, dictionaryDb);
+                else if(compressedDb)
+                    CompressedFormat.write(dbFile, Collections.emptyList());
+                else
+                    AtomicFile.write(dbFile, out -> {});
+            } else if(binaryDb) {
+                /* For: db repair | merge | compaction | conversion, in binary format */
+                pairsWritten = BinaryFormat.write(dbFile, pairs, framedDb, dictionaryDb);
+            } else if(compressedDb) {
+                /* For: db repair | merge | compaction | conversion, in compressed format, unchanged blocks copied */
+                pairsWritten = CompressedFormat.write(dbFile, pairs);
             } else {
-                /* For: db repair | merge | entry */
-                /* Simply truncate existing file and write internal table */
-                try (BufferedWriter writer =
-                             Files.newBufferedWriter(dbFile,
-                                     StandardOpenOption.TRUNCATE_EXISTING,
-                                     StandardOpenOption.WRITE)) {
-                    for(Map.Entry<Key,String> pair : registryMap.entrySet()) {
-                        writer.write("K: " + pair.getKey()); writer.newLine();
-                        writer.write("V: " + pair.getValue()); writer.newLine();
-                        pairsWritten++;
+                /* For: db repair | merge | compaction | conversion */
+                AtomicFile.write(dbFile, out -> {
+                    try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+                        for(Map.Entry<Key,String> pair : pairs) {
+                            writer.write("K: " + pair.getKey()); writer.newLine();
+                            writer.write("V: " + pair.getValue()); writer.newLine();
+                        }
                     }
-                }
+                });
+                pairsWritten = pairs.size();
             }
+            writeAheadLog.delete(); /* its records are part of the database file now */
         } catch(IOException e) {
             throw new IOException("While writing to registry database file (" + dbFile + ")", e);
         }
@@ -392,10 +2013,250 @@ public class Registry {
     }
     
     /**
-     * <p> Queries internal hash table using key
-     * @return The corresponding value to the key specified (null if not found) </p>
+     * <p> (Re)builds the hash index of the registry database file </p>
+     * @return Count of the pairs indexed
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException If data corruption detected
+     * */
+    private int buildIndex() throws IOException, CorruptRegistryDataException {
+        if(compressedDb) { /* its block directory locates the keys */
+            verbose("Compressed registry database is looked up through its block directory, hash index deleted");
+            hashIndex.delete();
+            return CompressedFormat.recordCount(dbFile);
+        }
+        try {
+            return hashIndex.build();
+        } catch(IOException e) {
+            throw new IOException("While building index of registry database file (" + dbFile + ")", e);
+        }
+    }
+    
+    /**
+     * <p> (Re)builds the Bloom filter of the registry database file, at the
+     * requested false positive rate or else at the one it was built with </p>
+     * @return Count of the pairs added
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException If data corruption detected
+     * */
+    private int buildBloomFilter() throws IOException, CorruptRegistryDataException {
+        double falsePositiveRate = bloomDb ? bloomFalsePositiveRate : bloomFilter.falsePositiveRate();
+        try {
+            return bloomFilter.build(falsePositiveRate);
+        } catch(IOException e) {
+            throw new IOException("While building Bloom filter of registry database file (" + dbFile + ")", e);
+        }
+    }
+    
+    /**
+     * <p> Maps the Bloom filter of the registry database file, rebuilds it first if stale </p>
+     * @return Probe of the filter
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException If data corruption detected
+     * */
+    private BloomFilter.Probe openBloomFilter() throws IOException, CorruptRegistryDataException {
+        if(!bloomFilter.isFresh()) {
+            verbose("Bloom filter (%s) is stale, rebuilding...", bloomFilter.getFile());
+            buildBloomFilter();
+        }
+        return bloomFilter.open();
+    }
+    
+    /**
+     * <p> Pairs of the internal hashtable in the order of the case-folded keys </p>
+     * @return Sorted pairs
+     * */
+    private List<Map.Entry<Key,String>> sortedPairs() {
+        List<Map.Entry<Key,String>> pairs = new ArrayList<>(registryMap.entrySet());
+        pairs.sort((a, b) -> a.getKey().folded().compareTo(b.getKey().folded()));
+        return pairs;
+    }
+    
+    /**
+     * <p> (Re)builds the sparse index of the registry database file </p>
+     * @return Count of the pairs indexed, -1 if the file is not sorted
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException If data corruption detected
+     * */
+    private int buildSparseIndex() throws IOException, CorruptRegistryDataException {
+        if(compressedDb) { /* always sorted, its block directory serves as the sparse index */
+            verbose("Compressed registry database is scanned through its block directory, sparse index deleted");
+            sparseIndex.delete();
+            return CompressedFormat.recordCount(dbFile);
+        }
+        try {
+            return sparseIndex.build();
+        } catch(IOException e) {
+            throw new IOException("While building sparse index of registry database file (" + dbFile + ")", e);
+        }
+    }
+    
+    /**
+     * <p> Streams the pairs of the scan range, with the log applied, in key
+     * order. A stale sparse index is rebuilt first; if the file is not
+     * sorted (or the sorted layout is not enabled) it is read whole. </p>
+     * @return Count of the pairs listed
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException If data corruption detected
+     * */
+    private int scanDb() throws IOException, CorruptRegistryDataException {
+        boolean sorted = compressedDb; /* read through the block directory */
+        if(!compressedDb && sparseIndex.exists()) {
+            sorted = sparseIndex.isFresh();
+            if(!sorted) {
+                verbose("Sparse index (%s) is stale, rebuilding...", sparseIndex.getFile());
+                sorted = buildSparseIndex() >= 0;
+            }
+        }
+        verbose("Reading %s", sorted ? "blocks of the range only" : "whole registry database file");
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(scanOutput, StandardCharsets.UTF_8));
+        RangeScan scan = new RangeScan(scanRange, writeAheadLog.readRecords(true), scanSink(writer));
+        int pairsListed = scan.run(dbFile, sorted && !compressedDb ? sparseIndex : null, compressedDb);
+        writer.flush();
+        return pairsListed;
+    }
+    
+    /**
+     * <p> Verifies the registry database file, never writes it </p>
+     * @return Count of the records verified
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException If data corruption detected, with
+     *          every corrupt byte range of a framed file
+     * */
+    private int verifyDb() throws IOException, CorruptRegistryDataException {
+        if(!framedDb) {
+            verbose("Registry database file is not framed, loading it strictly");
+            return loadDb(dbFile, true);
+        }
+        verbose("Verifying record checksums using %d thread(s)", loaderThreads);
+        RecordVerifier.Result result = new RecordVerifier(dbFile, loaderThreads).run();
+        verbose("%d record(s) verified, %d corrupt region(s)", result.records, result.corruptRegions.size());
+        if(result.corruptRegions.isEmpty())
+            return (int)Math.min(result.records, Integer.MAX_VALUE); /* more never fit in a loaded registry anyway */
+        StringBuilder regions = new StringBuilder("bytes ");
+        for(long[] region : result.corruptRegions) {
+            if(regions.length() > 6)
+                regions.append(", ");
+            regions.append('[').append(region[0]).append(", ").append(region[1]).append(')');
+        }
+        throw new CorruptRegistryDataException(result.corruptRegions.size() + " corrupt region(s), "
+                + result.records + " intact record(s) verified", regions.toString(), dbFile);
+    }
+    
+    /**
+     * <p> Streams a page of the pairs whose keys match the glob pattern, in key order </p>
+     * @param trie Radix tree of the loaded keys
+     * @return Count of the pairs listed
+     * @throws IOException For any I/O error
+     * */
+    private int globDb(final KeyTrie trie) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(scanOutput, StandardCharsets.UTF_8));
+        final RangeScan.PairSink sink = scanSink(writer);
+        final IOException[] error = { null };
+        int pairsListed = trie.match(globPattern, globOffset, globLimit, key -> {
+            try {
+                sink.accept(key.toString(), registryMap.get(key));
+                return true;
+            } catch(IOException e) {
+                error[0] = e;
+                return false;
+            }
+        });
+        if(error[0] != null)
+            throw error[0];
+        writer.flush();
+        return pairsListed;
+    }
+    
+    /* the pairs listed go to scanPairs if set, else are streamed through the writer */
+    private RangeScan.PairSink scanSink(final Writer writer) {
+        return scanPairs != null ? scanPairs : (key, value) -> RangeScan.appendPair(writer, key, value, scanNullDelimited);
+    }
+    
+    /**
+     * <p> Queries the registry database log first, as its records
+     * override the database file, then the registry database file by
+     * streaming its key-value pairs, stops reading at the first pair
+     * with matching key. If the index is enabled only the record at
+     * the indexed offset is read instead. If the Bloom filter is enabled
+     * a key it rules out is not looked up in the database file at all. </p>
+     * <p> The internal hash table is not populated, only the keys read so far
+     * are remembered to detect duplicates, hence both time and memory
+     * depend on the position of the key in the file and not on its size. </p>
+     * @param file File to query registry data from
+     * @param queryKey Key to query
+     * @throws IOException For any I/O error
+     * @throws CorruptRegistryDataException If data corruption detected before the key is found
+     * @return The corresponding value to the key specified (null if not found)
      */
-    private String queryDb() {
-        return registryMap.get(queryKey);
+    private String queryDb(final Path file, final Key queryKey) throws IOException, CorruptRegistryDataException {
+        Map<Key,String> logRecords = writeAheadLog.readRecords(true);
+        if(logRecords.containsKey(queryKey))
+            return logRecords.get(queryKey); /* null if tombstoned */
+        
+        if(bloomFilter.exists() && !openBloomFilter().mightContain(queryKey)) {
+            verbose("Key ruled out by Bloom filter");
+            return null;
+        }
+        
+        if(compressedDb) {
+            try {
+                return CompressedFormat.find(file, queryKey);
+            } catch(IOException e) {
+                throw new IOException("While querying data from file: " + file, e);
+            }
+        }
+        
+        if(hashIndex.exists()) {
+            if(!hashIndex.isFresh()) {
+                verbose("Index (%s) is stale, rebuilding...", hashIndex.getFile());
+                buildIndex();
+            }
+            return hashIndex.lookup(queryKey);
+        }
+        
+        if(binaryDb) {
+            try {
+                return BinaryFormat.find(file, queryKey);
+            } catch(IOException e) {
+                throw new IOException("While querying data from file: " + file, e);
+            }
+        }
+        
+        final Set<Key> keysRead = new HashSet<>();
+        try(BufferedReader reader = Files.newBufferedReader(file)) {
+            String line, key = null, loadedLine = null;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith("K: ")) { /* key line found */
+                    if(key != null)
+                        throw new CorruptRegistryDataException("Expecting a VALUE line", line, file);
+                    loadedLine = line;
+                    key = getInValidKeyOrValueFormat(loadedLine.substring(3));
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Invalid key format", loadedLine, file);
+                } else if(line.startsWith("V: ")) {
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Expecting a KEY line", line, file);
+                    loadedLine = line;
+                    Key readKey = new Key(key);
+                    if(!keysRead.add(readKey))
+                        throw new CorruptRegistryDataException("Duplicate key", key, file);
+                    String value = getInValidKeyOrValueFormat(loadedLine.substring(3));
+                    if(value == null)
+                        throw new CorruptRegistryDataException("Invalid value format", loadedLine, file);
+                    if(readKey.equals(queryKey))
+                        return value; /* early exit, rest of the file is never read */
+                    key = null; /* prepare for next key */
+                } else {
+                    throw new CorruptRegistryDataException("Invalid line format", line, file);
+                }
+            }
+            
+            if(key != null)
+                throw new CorruptRegistryDataException("Couldn't find corresponsing value of key='" + key + "'", loadedLine, file);
+        } catch(IOException e) {
+            throw new IOException("While querying data from file: " + file, e);
+        }
+        
+        return null;
     }
 }
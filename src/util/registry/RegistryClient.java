@@ -0,0 +1,81 @@
+package util.registry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+
+/**
+ * Thin client of {@link RegistryServer}.
+ * <p> Forwards an operation to the resident server and reports its
+ * response, or rethrows its error, as {@link Registry#process()} would. </p>
+ * */
+public class RegistryClient {
+    private final UnixDomainSocketAddress serverAddress;
+
+    /**
+     * @param socketFileName Unix domain socket file the server listens on.
+     * @throws NullPointerException If socketFileName is null.
+     * */
+    public RegistryClient(final String socketFileName) throws NullPointerException {
+        this.serverAddress = UnixDomainSocketAddress.of(Paths.get(Objects.requireNonNull(socketFileName, "socket file name")));
+    }
+
+    /**
+     * Sends the operation to the server.
+     * @param operationMode Operation mode, as of {@link Registry}: query, query-batch, scan, glob, entry,
+     *                      delete, bulk-entry, merge-to-db, repair-db, reset-db, compact-db, index-db,
+     *                      sort-db, verify-db, convert-db or bloom-db.
+     * @param arguments Operation arguments: key for query and delete; null delimited
+     *                  flag and keys for batch query; null delimited flag, "prefix" and
+     *                  prefix or "range", first and last key for scan; null delimited
+     *                  flag, pattern, offset and limit for glob; force flag, key and
+     *                  value for entry; force flag and source file for bulk entry;
+     *                  source file for merge; format name for convert; false
+     *                  positive rate for Bloom filter.
+     * @return Response, if any, else null.
+     * @throws IOException For any I/O error, on either side.
+     * @throws CorruptRegistryDataException For data corruption detected by the server.
+     * @throws IllegalArgumentException For an invalid argument detected by the server.
+     * */
+    public String process(final String operationMode, final String... arguments)
+            throws IOException, CorruptRegistryDataException, IllegalArgumentException {
+        String[] request = new String[arguments.length + 1];
+        request[0] = Objects.requireNonNull(operationMode, "operation mode");
+        System.arraycopy(arguments, 0, request, 1, arguments.length);
+
+        byte status;
+        String[] response;
+        try(SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.connect(serverAddress);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            RegistryServer.writeFields(out, request);
+            out.flush();
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            status = in.readByte();
+            response = RegistryServer.readFields(in);
+        } catch(IOException e) {
+            throw new IOException("While communicating with registry server (" + serverAddress + ")", e);
+        }
+
+        switch(status) {
+            case RegistryServer.STATUS_OK:
+                return response.length > 0 ? response[0] : null;
+            case RegistryServer.STATUS_INVALID_ARGUMENT:
+                throw new IllegalArgumentException(response[0]);
+            case RegistryServer.STATUS_CORRUPT_DATA:
+                throw new CorruptRegistryDataException(response[0], response[1], Paths.get(response[2]));
+            case RegistryServer.STATUS_IO_ERROR:
+                throw new IOException("Registry server: " + response[0]);
+            default:
+                throw new IOException("Invalid registry server response status: " + status);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package util.registry;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Inter-process lock of a registry database.
+ * <p> Held on a lock file next to the registry database file ({database
+ * file}.lock), shared by the readers and exclusive for the writers, for the
+ * whole operation i.e. from loading the database and its log till the
+ * database is rewritten. The lock file is never deleted, as deleting it
+ * would let two processes lock different files. </p>
+ * <p> File locks are held per process, hence the threads of a process
+ * (e.g. an embedded {@link RegistryStore} and one-shot {@link Registry}
+ * operations) first take a read-write lock of the database within the
+ * process, shared or exclusive alike, and share a single file lock: the
+ * first reader in takes the shared file lock, the last reader out releases
+ * it. </p>
+ * <p> Waits are bounded: the lock within the process is waited for, the
+ * file lock polled with a growing back-off, till the timeout. A thread must
+ * not lock the same database twice. </p>
+ * */
+final class RegistryLock implements AutoCloseable {
+    /** Lock file name suffix, appended to the database file name */
+    static final String FILE_SUFFIX = ".lock";
+
+    /** Default upper bound of a lock wait in milliseconds */
+    static final long   DEFAULT_TIMEOUT = 10_000;
+
+    private static final long MAX_POLL_INTERVAL = 50;
+
+    /* by absolute lock file path, never removed: one per database used by the process */
+    private static final ConcurrentHashMap<Path,Holder> HOLDERS = new ConcurrentHashMap<>();
+
+    private final Holder    holder;
+    private final Lock      processLock;
+    private final boolean   shared;
+
+    private RegistryLock(final Holder holder, final Lock processLock, final boolean shared) {
+        this.holder      = holder;
+        this.processLock = processLock;
+        this.shared      = shared;
+    }
+
+    /**
+     * Locks of a database within the process, and the file lock they share.
+     * */
+    private static final class Holder {
+        final ReentrantReadWriteLock processLock = new ReentrantReadWriteLock();
+        FileChannel channel;    /* guarded by this, held by the readers or the writer of the process */
+        FileLock    lock;
+        int         readers;
+    }
+
+    /**
+     * Acquires the lock of the database, waits while another thread or process holds it.
+     * @param dbFile Registry database file to lock.
+     * @param shared True for a reader (shared) lock, false for a writer (exclusive) lock.
+     * @param timeout Upper bound of the wait in milliseconds.
+     * @return Lock, to be closed to release it.
+     * @throws IOException For any I/O error, or if the lock is not acquired within the timeout.
+     * */
+    static RegistryLock acquire(final Path dbFile, final boolean shared, final long timeout) throws IOException {
+        final Path lockFile = Paths.get(dbFile + FILE_SUFFIX);
+        final String lockName = shared ? "shared" : "exclusive";
+        final long deadline = System.nanoTime() + timeout * 1_000_000;
+        final Holder holder = HOLDERS.computeIfAbsent(lockFile.toAbsolutePath().normalize(), path -> new Holder());
+        final Lock processLock = shared ? holder.processLock.readLock() : holder.processLock.writeLock();
+        try {
+            if(!processLock.tryLock(Math.max(0, timeout), TimeUnit.MILLISECONDS))
+                throw new IOException("Timed out after " + timeout + " ms waiting for the " + lockName
+                        + " lock of registry database (" + dbFile + "), held by another thread");
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the " + lockName + " lock of registry database (" + dbFile + ")", e);
+        }
+        try {
+            synchronized(holder) {
+                if(!shared || holder.readers == 0)
+                    lockFile(holder, dbFile, lockFile, shared, deadline, timeout);
+                if(shared)
+                    holder.readers++;
+            }
+            return new RegistryLock(holder, processLock, shared);
+        } catch(IOException | RuntimeException e) {
+            processLock.unlock();
+            throw e;
+        }
+    }
+
+    /* takes the file lock for the process, waits while another process holds it */
+    private static void lockFile(final Holder holder, final Path dbFile, final Path lockFile, final boolean shared,
+                                 final long deadline, final long timeout) throws IOException {
+        final String lockName = shared ? "shared" : "exclusive";
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+            long interval = 1, remaining;
+            do {
+                FileLock lock;
+                try {
+                    lock = channel.tryLock(0, Long.MAX_VALUE, shared);
+                } catch(OverlappingFileLockException e) {
+                    lock = null; /* held within the process, not through this class */
+                }
+                if(lock != null) {
+                    holder.channel = channel;
+                    holder.lock    = lock;
+                    return;
+                }
+                remaining = (deadline - System.nanoTime()) / 1_000_000;
+                if(remaining > 0)
+                    Thread.sleep(Math.min(interval, remaining));
+                interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+            } while(remaining > 0);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close(channel);
+            throw new IOException("Interrupted while waiting for the " + lockName + " lock of registry database (" + dbFile + ")", e);
+        } catch(IOException e) {
+            close(channel);
+            throw new IOException("While locking registry database (" + dbFile + ") with lock file: " + lockFile, e);
+        } catch(RuntimeException e) {
+            close(channel);
+            throw e;
+        }
+        close(channel);
+        throw new IOException("Timed out after " + timeout + " ms waiting for the " + lockName
+                + " lock of registry database (" + dbFile + "), held by another process");
+    }
+
+    /**
+     * Releases the lock.
+     * @throws IOException For any I/O error.
+     * */
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized(holder) {
+                if(shared && --holder.readers > 0)
+                    return; /* released by the last reader of the process */
+                FileChannel channel = holder.channel;
+                FileLock lock = holder.lock;
+                holder.channel = null;
+                holder.lock    = null;
+                try {
+                    lock.release();
+                } finally {
+                    channel.close();
+                }
+            }
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    private static void close(final FileChannel channel) {
+        try {
+            if(channel != null)
+                channel.close();
+        } catch(IOException e) { /* already failing */ }
+    }
+}
@@ -0,0 +1,16 @@
+package util.registry;
+
+
+/**
+ * Receiver of the progress messages of the registry operations.
+ * <p> Installed process wide using {@link Registry#setLogger(RegistryLogger)},
+ * nothing is logged by default. </p>
+ * */
+@FunctionalInterface
+public interface RegistryLogger {
+    /**
+     * @param format Message format, as of {@link String#format(String, Object...)}.
+     * @param args Message format arguments.
+     * */
+    void log(String format, Object... args);
+}
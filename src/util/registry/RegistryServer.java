@@ -0,0 +1,459 @@
+package util.registry;
+
+import static util.registry.Log.verbose;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Resident registry server.
+ * <p> Keeps the registry database loaded in memory and serves the requests
+ * of {@link RegistryClient} over a Unix domain socket, one request per
+ * connection, so that repeated operations skip the JVM startup and the
+ * database load. </p>
+ * <p> Queries, batch queries, scans, globs, entries and deletions are served by a
+ * {@link RegistryStore}, entries and deletions are written back to the
+ * registry database log before replying. The
+ * other operations (bulk entry, merge, repair, reset, compact, index, sort, convert) are
+ * delegated to a one-shot {@link Registry} object and the database is
+ * reloaded afterwards. Changes made to the database or its log by other
+ * processes are picked up before serving the next request, reading only
+ * the appended records unless the database was rewritten (see
+ * {@link IncrementalLoader}). Every request
+ * holds the registry database lock (see {@link RegistryLock}) while it is
+ * served, as a one-shot {@link Registry} operation does. </p>
+ * <p> Connections are accepted by a thread of their own and handed to a
+ * pool of client threads, which read the requests and send the responses,
+ * so that a client slow to send its request or to take its response never
+ * holds up the others; a client which takes longer than
+ * {@value #CLIENT_TIMEOUT} ms is disconnected. Requests are executed one
+ * at a time, in the order they were read. </p>
+ * <p> Group commit (enabled by default): the log appends of the requests
+ * already read and waiting are forced to the disk together with a single
+ * sync, and their responses are sent only after it. </p>
+ * <p> Request: field count (int) followed by the fields, the first field
+ * being the operation mode. Response: status (byte) followed by the
+ * response or error fields. Every field is a length (int) prefixed UTF-8
+ * string, length -1 for null. </p>
+ * */
+public class RegistryServer {
+    static final byte STATUS_OK = 0, STATUS_INVALID_ARGUMENT = 1, STATUS_IO_ERROR = 2, STATUS_CORRUPT_DATA = 3;
+    static final int  MAX_FIELD_COUNT = 16 * 1024 * 1024; /* guards against corrupt requests */
+
+    /** Upper bound of the requests sharing a single log sync */
+    static final int  MAX_GROUP_SIZE = 256;
+
+    /** Upper bound in milliseconds of the time a client takes to send its request, or to take its response */
+    static final long CLIENT_TIMEOUT = 10_000;
+
+    /* threads reading the requests and sending the responses */
+    private static final int CLIENT_THREADS = 16;
+
+    private final Path              socketFile, dbFile;
+    private final String            dbFileName;
+    private final boolean           isExternalDb;
+    private RegistryStore           store;
+    private boolean                 groupCommit = true;
+    private long                    lockTimeout = RegistryLock.DEFAULT_TIMEOUT;
+
+    /**
+     * @param socketFileName Unix domain socket file to listen on.
+     * @param dbFileName Name of registry database to serve.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @throws NullPointerException In case any of the object parameter is null.
+     * */
+    public RegistryServer(  final String    socketFileName,
+                            final String    dbFileName,
+                            final boolean   isExternalDb) throws NullPointerException {
+        this.socketFile     = Paths.get(Objects.requireNonNull(socketFileName, "socket file name"));
+        this.dbFileName     = Objects.requireNonNull(dbFileName, "database file name");
+        this.dbFile         = Paths.get(dbFileName);
+        this.isExternalDb   = isExternalDb;
+    }
+
+    /**
+     * @param groupCommit True to share a single log sync among the waiting
+     *                    requests, false to sync every request on its own.
+     * @return This server.
+     * */
+    public RegistryServer withGroupCommit(final boolean groupCommit) {
+        this.groupCommit = groupCommit;
+        return this;
+    }
+
+    /**
+     * @param timeout Upper bound in milliseconds of the wait for the registry
+     *                database lock held by another process (see {@link RegistryLock}).
+     * @return This server.
+     * @throws IllegalArgumentException If timeout is negative.
+     * */
+    public RegistryServer withLockTimeout(final long timeout) throws IllegalArgumentException {
+        if(timeout < 0)
+            throw new IllegalArgumentException("Invalid lock timeout: " + timeout);
+        this.lockTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * Loads the registry database and serves requests till the process is terminated.
+     * @throws IOException For any I/O error on the socket.
+     * @throws CorruptRegistryDataException For data corruption while loading the database initially.
+     * */
+    public void serve() throws IOException, CorruptRegistryDataException {
+        store = RegistryStore.open(dbFile, isExternalDb, 0, lockTimeout);
+        WriteAheadLog writeAheadLog = store.getWriteAheadLog();
+        Files.deleteIfExists(socketFile); /* left over by a terminated server */
+        try(ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(socketFile));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(socketFile);
+                } catch(IOException e) { /* nothing to do while shutting down */ }
+            }));
+            verbose("Serving registry database (%s) on socket (%s)%s", dbFile, socketFile, groupCommit ? " with group commit" : "");
+
+            writeAheadLog.setSyncDeferred(groupCommit);
+            final ExecutorService clients = Executors.newFixedThreadPool(CLIENT_THREADS, daemon("registry-client"));
+            final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(daemon("registry-client-deadline"));
+            final BlockingQueue<Reply> requests = new LinkedBlockingQueue<>();
+            final IOException[] acceptFailure = { null };
+            Thread acceptor = daemon("registry-acceptor").newThread(() -> {
+                try {
+                    while(true) {
+                        final Reply reply = new Reply(server.accept());
+                        clients.execute(() -> {
+                            if(reply.read(deadlines))
+                                requests.add(reply);
+                        });
+                    }
+                } catch(IOException e) {
+                    acceptFailure[0] = e;
+                    requests.add(new Reply(null)); /* ends the serving loop */
+                }
+            });
+            acceptor.start();
+
+            final List<Reply> group = new ArrayList<>();
+            try {
+                while(true) {
+                    Reply next = requests.take();
+                    do {
+                        if(next.client == null)
+                            throw new IOException("While accepting connections on socket (" + socketFile + ")", acceptFailure[0]);
+                        group.add(execute(next));
+                    } while(groupCommit && group.size() < MAX_GROUP_SIZE && (next = requests.poll()) != null);
+                    if(groupCommit) {
+                        try {
+                            writeAheadLog.sync();
+                        } catch(IOException e) {
+                            for(Reply reply : group)
+                                if(reply.status == STATUS_OK && reply.logged)
+                                    reply.setError(STATUS_IO_ERROR, e.getMessage());
+                            store.invalidate(); /* memory is ahead of the disk, reload on next request */
+                        }
+                    }
+                    for(Reply reply : group)
+                        clients.execute(() -> reply.send(deadlines));
+                    if(group.size() > 1)
+                        verbose("Group of %d request(s) committed", group.size());
+                    group.clear();
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while serving on socket (" + socketFile + ")", e);
+            } finally {
+                clients.shutdownNow();
+                deadlines.shutdownNow();
+            }
+        }
+    }
+
+    /* executes the request read from the client, the reply is sent later */
+    private Reply execute(final Reply reply) {
+        final String[] request = reply.request;
+        reply.operationMode = request.length > 0 ? request[0] : "?";
+        try {
+            long logSize = store.getWriteAheadLog().size();
+            reply.setResponse(handle(request));
+            reply.logged = store.getWriteAheadLog().size() != logSize;
+        } catch(IllegalArgumentException e) {
+            reply.setError(STATUS_INVALID_ARGUMENT, e.getMessage());
+        } catch(CorruptRegistryDataException e) {
+            reply.setError(STATUS_CORRUPT_DATA, e.getErrorDetail(), e.getCorruptRow(), e.getFileLoadedFrom());
+            store.invalidate(); /* reload on next request */
+        } catch(IOException e) {
+            reply.setError(STATUS_IO_ERROR, e.getMessage());
+            store.invalidate();
+        }
+        return reply;
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return task -> {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Request of a client and its response, held back till the log appends are synced.
+     * */
+    private static class Reply {
+        private final SocketChannel client;
+        private final long startTime = System.nanoTime();
+        private String[] request;
+        private String operationMode = "?";
+        private byte status;
+        private String[] fields;
+        private boolean logged; /* appended to the log, hence waits for the sync */
+
+        Reply(final SocketChannel client) { this.client = client; }
+
+        /* reads the request, true if read in time; else the connection is closed */
+        boolean read(final ScheduledExecutorService deadlines) {
+            ScheduledFuture<?> deadline = deadlines.schedule(this::close, CLIENT_TIMEOUT, TimeUnit.MILLISECONDS);
+            try {
+                request = readFields(new DataInputStream(Channels.newInputStream(client)));
+                return true;
+            } catch(AsynchronousCloseException e) {
+                verbose("Client disconnected, no request within %d ms", CLIENT_TIMEOUT);
+                return false;
+            } catch(IOException e) {
+                verbose("Client connection failed: %s", e.getMessage());
+                close();
+                return false;
+            } finally {
+                deadline.cancel(false);
+            }
+        }
+
+        void setResponse(final String response) {
+            status = STATUS_OK;
+            fields = new String[] { response };
+        }
+
+        void setError(final byte status, final String... fields) {
+            this.status = status;
+            this.fields = fields;
+        }
+
+        /* sends the response, the connection is closed once sent or at the deadline */
+        void send(final ScheduledExecutorService deadlines) {
+            ScheduledFuture<?> deadline = deadlines.schedule(this::close, CLIENT_TIMEOUT, TimeUnit.MILLISECONDS);
+            try(SocketChannel channel = client) {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+                out.writeByte(status);
+                writeFields(out, fields);
+                out.flush();
+                verbose("Served %s in %d us", operationMode, (System.nanoTime() - startTime) / 1000);
+            } catch(AsynchronousCloseException e) {
+                verbose("Client disconnected, response not taken within %d ms", CLIENT_TIMEOUT);
+            } catch(IOException e) {
+                verbose("Client connection failed: %s", e.getMessage());
+            } finally {
+                deadline.cancel(false);
+            }
+        }
+
+        private void close() {
+            try {
+                client.close();
+            } catch(IOException e) {
+                /* nothing more to do with the client */
+            }
+        }
+    }
+
+    /* executes the request, returns the response (null if none) */
+    @SuppressWarnings("try") /* lock held for the block */
+    private String handle(final String[] request) throws IOException, CorruptRegistryDataException {
+        if(request.length == 0)
+            throw new IllegalArgumentException("Empty request");
+
+        String operationMode = request[0];
+        switch(operationMode) {
+            case "query":
+            case "query-batch":
+            case "scan":
+            case "glob":
+            case "entry":
+            case "delete": {
+                String response;
+                try(RegistryLock lock = lock(!operationMode.equals("entry") && !operationMode.equals("delete"))) {
+                    if(store.reloadIfChanged())
+                        verbose("Registry database changed, reloaded");
+                    response = handleInMemory(operationMode, request);
+                }
+                store.compactIfRequired(); /* as the one-shot entry does */
+                return response;
+            }
+
+            default: {
+                Registry registry;
+                switch(operationMode) {
+                    case "merge-to-db": registry = Registry.forDbMerge(dbFileName, argument(request, 1)); break;
+                    case "repair-db":   registry = Registry.forDbRepair(dbFileName, isExternalDb); break;
+                    case "reset-db":    registry = Registry.forDbReset(dbFileName); break;
+                    case "compact-db":  registry = Registry.forDbCompact(dbFileName, isExternalDb); break;
+                    case "index-db":    registry = Registry.forDbIndex(dbFileName, isExternalDb); break;
+                    case "sort-db":     registry = Registry.forDbSort(dbFileName, isExternalDb); break;
+                    case "verify-db":   registry = Registry.forDbVerify(dbFileName, isExternalDb); break;
+                    case "convert-db":  registry = Registry.forDbConvert(argument(request, 1), dbFileName, isExternalDb); break;
+                    case "bloom-db":    registry = Registry.forDbBloom(Double.parseDouble(argument(request, 1)), dbFileName, isExternalDb); break;
+                    case "bulk-entry":  registry = Registry.forDbBulkEntry(Boolean.parseBoolean(argument(request, 1)),
+                                                                        argument(request, 2), dbFileName, isExternalDb); break;
+                    default:
+                        throw new IllegalArgumentException("Unsupported operation: " + operationMode);
+                }
+                String response = registry.withLockTimeout(lockTimeout).process(); /* locks on its own */
+                if(operationMode.equals("verify-db"))
+                    return response; /* database file left as is */
+                try(RegistryLock lock = lock(true)) {
+                    store.reloadIfChanged(); /* a bulk entry only appended to the log, read alone */
+                }
+                return response;
+            }
+        }
+    }
+
+    /* executes a query, scan, glob, entry or deletion on the loaded registry, to be called holding the lock */
+    private String handleInMemory(final String operationMode, final String[] request) throws IOException {
+        switch(operationMode) {
+            case "query":
+                return store.get(argument(request, 1));
+
+            case "query-batch": {
+                boolean nullDelimited = Boolean.parseBoolean(argument(request, 1));
+                StringBuilder results = new StringBuilder();
+                for(int i = 2; i < request.length; i++) {
+                    String key = argument(request, i).trim();
+                    if(key.length() > 0)
+                        BatchQuery.appendResult(results, key, store.get(key), nullDelimited);
+                }
+                return results.toString();
+            }
+
+            case "scan": {
+                boolean nullDelimited = Boolean.parseBoolean(argument(request, 1));
+                KeyRange range = argument(request, 2).equals("prefix") ?
+                                    KeyRange.prefix(argument(request, 3)) :
+                                    KeyRange.between(argument(request, 3), argument(request, 4));
+                StringBuilder pairs = new StringBuilder();
+                store.scan(range, pairs, nullDelimited);
+                return pairs.toString();
+            }
+
+            case "glob": {
+                boolean nullDelimited = Boolean.parseBoolean(argument(request, 1));
+                StringBuilder pairs = new StringBuilder();
+                try {
+                    for(Map.Entry<String,String> pair : store.glob(argument(request, 2),
+                                                                    Integer.parseInt(argument(request, 3)),
+                                                                    Integer.parseInt(argument(request, 4))).entrySet())
+                        RangeScan.appendPair(pairs, pair.getKey(), pair.getValue(), nullDelimited);
+                } catch(NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid offset or limit: " + e.getMessage());
+                }
+                return pairs.toString();
+            }
+
+            case "entry": {
+                boolean forceEntry = Boolean.parseBoolean(argument(request, 1));
+                String key = validArgument(request, 2, "key");
+                String value = validArgument(request, 3, "value");
+                if(forceEntry)
+                    store.put(key, value);
+                else if(store.putIfAbsent(key, value) != null)
+                    throw new IllegalArgumentException("Key already present: " + key);
+                store.flushLocked();
+                return null;
+            }
+
+            case "delete": {
+                String key = validArgument(request, 1, "key");
+                if(store.remove(key) == null)
+                    throw new IllegalArgumentException("Key not present: " + key);
+                store.flushLocked();
+                return null;
+            }
+
+            default:
+                throw new IllegalArgumentException("Unsupported operation: " + operationMode);
+        }
+    }
+
+    private RegistryLock lock(final boolean shared) throws IOException {
+        return RegistryLock.acquire(dbFile, shared, lockTimeout);
+    }
+
+    private static String argument(final String[] request, final int index) {
+        if(index >= request.length || request[index] == null)
+            throw new IllegalArgumentException("Missing argument #" + index + " for operation: " + request[0]);
+        return request[index];
+    }
+
+    private static String validArgument(final String[] request, final int index, final String name) {
+        String argument = Registry.getInValidKeyOrValueFormat(argument(request, index));
+        if(argument == null)
+            throw new IllegalArgumentException("Invalid " + name + " format: " + request[index]);
+        return argument;
+    }
+
+    static void writeFields(final DataOutputStream out, final String... fields) throws IOException {
+        out.writeInt(fields.length);
+        for(String field : fields) {
+            if(field == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] bytes = field.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    static String[] readFields(final DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0 || count > MAX_FIELD_COUNT)
+            throw new IOException("Invalid field count: " + count);
+        String[] fields = new String[count];
+        for(int i = 0; i < count; i++) {
+            int length = in.readInt();
+            if(length < -1)
+                throw new IOException("Invalid field length: " + length);
+            if(length >= 0) {
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                fields[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return fields;
+    }
+}
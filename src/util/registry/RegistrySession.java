@@ -0,0 +1,227 @@
+package util.registry;
+
+import static util.registry.Log.verbose;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Objects;
+
+
+/**
+ * Session of registry commands carried out in a single process.
+ * <p> The registry database is loaded once into a {@link RegistryStore},
+ * then the commands are read one per line, from a script file or the
+ * standard input, and carried out on the loaded pairs. Changes are kept in
+ * memory and written back on the flush command, every configured count of
+ * changes, and at the end of the session, as records appended to the
+ * registry database log or, if the log would outgrow the database, by
+ * rewriting the database from memory (see {@link RegistryStore#flush()}):
+ * a provisioning script of thousands of entries costs a single load and a
+ * single write. </p>
+ * <p> Commands, one per line, the command name followed by a blank; the key
+ * and the value are separated by a tab if the line holds one, else by the
+ * first blank, the value being the rest of the line. Blank lines and lines
+ * starting with '#' are ignored: </p>
+ * <p>    - get KEY: prints the value, nothing if the key is not present </p>
+ * <p>    - put KEY VALUE: inserts the pair, fails if the key is present </p>
+ * <p>    - put! KEY VALUE: inserts or overwrites the pair </p>
+ * <p>    - del KEY: deletes the key, fails if the key is not present </p>
+ * <p>    - merge FILE: writes back the changes, merges the file into the
+ *          registry database (see {@link Registry#forDbMerge(String, String)}) and reloads it </p>
+ * <p>    - repair: writes back the changes, repairs the registry database and reloads it </p>
+ * <p>    - flush: writes back the changes </p>
+ * <p>    - exit, quit: ends the session, as does the end of the input </p>
+ * <p> A failing command prints an error line ("Error: " message) and the
+ * session goes on with the next command. As with {@link RegistryStore},
+ * changes made by other processes during the session are not reloaded
+ * (but by merge and repair), on write-back the last writer of a key wins. </p>
+ * */
+public class RegistrySession {
+    private final Path      dbFile;
+    private final boolean   isExternalDb;
+    private int             flushEvery; /* 0: on flush command and at the end only */
+    private long            lockTimeout = RegistryLock.DEFAULT_TIMEOUT;
+    private RegistryStore   store;
+    private int             pendingChanges, commands, failures, writeBacks;
+
+    /**
+     * @param dbFileName Name of registry database to load.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, ignores the default registry database
+     * @throws NullPointerException If dbFileName is null.
+     * */
+    public RegistrySession(final String dbFileName, final boolean isExternalDb) throws NullPointerException {
+        this.dbFile         = Paths.get(Objects.requireNonNull(dbFileName, "database file name"));
+        this.isExternalDb   = isExternalDb;
+    }
+
+    /**
+     * Sets the count of changes written back together while the session
+     * runs, instead of on the flush command and at the end only.
+     * @param changes Count of changes, 0 to write back on the flush command and at the end only.
+     * @return This session.
+     * @throws IllegalArgumentException If changes is negative.
+     * */
+    public RegistrySession withFlushEvery(final int changes) throws IllegalArgumentException {
+        if(changes < 0)
+            throw new IllegalArgumentException("Invalid flush change count: " + changes);
+        this.flushEvery = changes;
+        return this;
+    }
+
+    /**
+     * Sets the time to wait for the registry database lock, see {@link Registry#withLockTimeout(long)}.
+     * @param timeout Timeout in milliseconds, 0 to fail at once.
+     * @return This session.
+     * @throws IllegalArgumentException If timeout is negative.
+     * */
+    public RegistrySession withLockTimeout(final long timeout) throws IllegalArgumentException {
+        if(timeout < 0)
+            throw new IllegalArgumentException("Invalid lock timeout: " + timeout);
+        this.lockTimeout = timeout;
+        return this;
+    }
+
+    /**
+     * Loads the registry database, carries out the commands till the end
+     * of the input or an exit command, then writes back the changes.
+     * @param in Commands, one per line.
+     * @param out Stream to print the values, responses and errors to.
+     * @param prompt Prompt printed before reading every command, null for none.
+     * @return Count of the failed commands.
+     * @throws IOException For any I/O error while loading, reading the commands or writing back.
+     * @throws CorruptRegistryDataException For data corruption.
+     * */
+    public int run(final BufferedReader in, final PrintStream out, final String prompt) throws IOException, CorruptRegistryDataException {
+        verbose("Loading registry database (%s)...", dbFile);
+        store = RegistryStore.open(dbFile, isExternalDb, 0, lockTimeout);
+        verbose("  -- Done");
+        try {
+            String line;
+            while(true) {
+                if(prompt != null) {
+                    out.print(prompt);
+                    out.flush();
+                }
+                if((line = in.readLine()) == null)
+                    break;
+                String command = line.trim();
+                if(command.length() == 0 || command.startsWith("#"))
+                    continue;
+                if(command.equals("exit") || command.equals("quit"))
+                    break;
+                commands++;
+                try {
+                    String response = execute(command);
+                    if(response != null)
+                        out.println(response);
+                } catch(IllegalArgumentException e) {
+                    failures++;
+                    out.println("Error: " + e.getMessage());
+                }
+                if(flushEvery > 0 && pendingChanges >= flushEvery)
+                    flush();
+            }
+        } catch(IOException e) {
+            throw new IOException("While reading session commands", e);
+        } finally {
+            flush(); /* changes so far are kept even if the session fails */
+        }
+        verbose("%d command(s), %d failed, %d write-back(s)", commands, failures, writeBacks);
+        return failures;
+    }
+
+    /* carries out a command, returns the line to print, null if none */
+    private String execute(final String command) throws IllegalArgumentException, IOException {
+        final String[] fields = split(command, false);
+        switch(fields[0]) {
+            case "get":
+                return store.get(argument(fields, command));
+
+            case "put":
+            case "put!": {
+                final String[] pair = split(argument(fields, command), command.indexOf('\t') >= 0);
+                final String key = pair[0], value = argument(pair, command);
+                if(fields[0].equals("put")) {
+                    if(store.putIfAbsent(key, value) != null)
+                        throw new IllegalArgumentException("Key already present: " + key);
+                    pendingChanges++;
+                } else if(!value.equals(store.put(key, value))) {
+                    pendingChanges++;
+                }
+                return null;
+            }
+
+            case "del":
+                if(store.remove(argument(fields, command)) == null)
+                    throw new IllegalArgumentException("Key not present: " + fields[1]);
+                pendingChanges++;
+                return null;
+
+            case "merge":
+                flush();
+                return reloadAfter(Registry.forDbMerge(dbFile.toString(), argument(fields, command)));
+
+            case "repair":
+                flush();
+                return reloadAfter(Registry.forDbRepair(dbFile.toString(), isExternalDb));
+
+            case "flush":
+                return flush() + " change(s) written back";
+
+            default:
+                throw new IllegalArgumentException("Unknown command: " + fields[0]);
+        }
+    }
+
+    /* carries out the one-shot operation on the registry database file and reloads the session from it */
+    @SuppressWarnings("try") /* lock held for the block */
+    private String reloadAfter(final Registry registry) throws IOException {
+        try {
+            String response = registry.withLockTimeout(lockTimeout).process(); /* locks on its own */
+            try(RegistryLock lock = RegistryLock.acquire(dbFile, true, lockTimeout)) {
+                store.reload();
+            }
+            verbose("%d pair(s) reloaded", store.size());
+            return response;
+        } catch(CorruptRegistryDataException e) {
+            throw new IllegalArgumentException(e.getErrorDetail() + " (" + e.getFileLoadedFrom() + ")", e);
+        }
+    }
+
+    /* writes back the pending changes, returns their count */
+    private int flush() throws IOException {
+        if(pendingChanges == 0)
+            return 0;
+        int changes = pendingChanges;
+        try {
+            store.flush();
+        } catch(CorruptRegistryDataException e) {
+            throw new IOException("While compacting registry database log (" + dbFile + "): " + e.getErrorDetail(), e);
+        }
+        pendingChanges = 0;
+        writeBacks++;
+        verbose("%d change(s) written back", changes);
+        return changes;
+    }
+
+    /* first field and the rest of the line (trimmed, empty if none), split at the first tab if requested and any, else at the first blank */
+    private static String[] split(final String line, final boolean atTab) {
+        int separator = atTab ? line.indexOf('\t') : -1;
+        if(separator < 0)
+            for(separator = 0; separator < line.length() && !Character.isWhitespace(line.charAt(separator)); separator++);
+        return separator < line.length() ?
+                    new String[] { line.substring(0, separator).trim(), line.substring(separator + 1).trim() } :
+                    new String[] { line.trim(), "" };
+    }
+
+    /* rest of the line of the split fields */
+    private static String argument(final String[] fields, final String command) throws IllegalArgumentException {
+        if(fields[1].length() == 0)
+            throw new IllegalArgumentException("Missing argument of command: " + command);
+        return fields[1];
+    }
+}
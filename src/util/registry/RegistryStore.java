@@ -0,0 +1,672 @@
+package util.registry;
+
+import static util.registry.Log.verbose;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+
+/**
+ * Embeddable, thread-safe registry.
+ * <p> The registry database and its log are loaded once into a concurrent
+ * map: reads never block, writes only update the map and remember the
+ * changed key. The changes are written back, as records appended to the
+ * registry database log, on {@link #flush()}, on a timer if a flush interval
+ * is specified, and on {@link #close()}. The log is compacted into the
+ * database once it outgrows it, as with the one-shot {@link Registry}
+ * operations. </p>
+ * <p> Keys and values are trimmed and must not be blank; keys are case
+ * insensitive. Changes made by other processes after opening are not
+ * reloaded, unless the registry is watched (see {@link #watch(Runnable)})
+ * or refreshed (see {@link #refresh()}); on write-back the last writer of
+ * a key wins. </p>
+ * */
+public final class RegistryStore implements AutoCloseable {
+    private final Path                  dbFile;
+    private final boolean               isExternalDb;
+    private final long                  lockTimeout;
+    private final WriteAheadLog         writeAheadLog;
+    private final IncrementalLoader     loader;
+    private volatile ConcurrentHashMap<Key,String> registryMap;
+    private Set<Key>                    changedKeys = ConcurrentHashMap.newKeySet();
+    /* shared by the writers recording a change, exclusive to take the changed keys for write-back */
+    private final ReentrantReadWriteLock changeLock = new ReentrantReadWriteLock();
+    private final Object                flushMonitor = new Object();
+    private KeyTrie                     keyTrie; /* built on the first glob query, guarded by trieMonitor */
+    private final Object                trieMonitor = new Object();
+    private final ScheduledExecutorService flusher;
+    private volatile boolean            closed;
+    private long[]                      fingerprint;
+    private WatchService                watchService; /* guarded by flushMonitor */
+
+    private RegistryStore(  final Path      dbFile,
+                            final boolean   isExternalDb,
+                            final long      flushInterval,
+                            final long      lockTimeout) {
+        this.dbFile         = Objects.requireNonNull(dbFile, "database file");
+        this.isExternalDb   = isExternalDb;
+        this.lockTimeout    = lockTimeout;
+        this.writeAheadLog  = new WriteAheadLog(dbFile);
+        this.loader         = new IncrementalLoader(dbFile, isExternalDb);
+        if(flushInterval > 0) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "registry-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.flusher.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    /**
+     * Opens the registry database, creates it if not present; changes are
+     * written back on {@link #flush()} and {@link #close()} only.
+     * @param dbFile Registry database file.
+     * @return Opened registry.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption.
+     * */
+    public static RegistryStore open(final Path dbFile) throws IOException, CorruptRegistryDataException {
+        return open(dbFile, 0);
+    }
+
+    /**
+     * Opens the registry database, creates it if not present.
+     * @param dbFile Registry database file.
+     * @param flushInterval Interval in milliseconds to write back the changes
+     *                      on a background thread, 0 to write back on
+     *                      {@link #flush()} and {@link #close()} only.
+     * @return Opened registry.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption.
+     * @throws IllegalArgumentException If flushInterval is negative.
+     * */
+    public static RegistryStore open(final Path dbFile, final long flushInterval)
+            throws IOException, CorruptRegistryDataException, IllegalArgumentException {
+        return open(dbFile, false, flushInterval, RegistryLock.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Opens the registry database.
+     * @param dbFile Registry database file.
+     * @param isExternalDb States if an external registry database is
+     *                       specified, which is not created if not present
+     * @param flushInterval Interval in milliseconds to write back the changes
+     *                      on a background thread, 0 to write back on
+     *                      {@link #flush()} and {@link #close()} only.
+     * @param lockTimeout Upper bound in milliseconds of the wait for the
+     *                      registry database lock, negative for the default.
+     * @return Opened registry.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption.
+     * @throws IllegalArgumentException If flushInterval is negative, or the
+     *                      external database is not present.
+     * */
+    @SuppressWarnings("try") /* lock held for the block */
+    public static RegistryStore open(   final Path      dbFile,
+                                        final boolean   isExternalDb,
+                                        final long      flushInterval,
+                                        final long      lockTimeout)
+            throws IOException, CorruptRegistryDataException, IllegalArgumentException {
+        if(flushInterval < 0)
+            throw new IllegalArgumentException("Invalid flush interval: " + flushInterval);
+        Path parentDirs = dbFile.toAbsolutePath().getParent(); /* the lock file lives next to the database file */
+        if(!isExternalDb && parentDirs != null)
+            Files.createDirectories(parentDirs);
+        final long timeout = lockTimeout < 0 ? RegistryLock.DEFAULT_TIMEOUT : lockTimeout;
+        ShardManifest.recoverSplit(dbFile, timeout);
+        RegistryStore store = new RegistryStore(dbFile, isExternalDb, flushInterval, timeout);
+        try(RegistryLock lock = RegistryLock.acquire(dbFile, true, timeout)) {
+            store.reload();
+        } catch(IOException | CorruptRegistryDataException | RuntimeException e) {
+            store.closeFlusher();
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * @param key Key to query.
+     * @return The corresponding value to the key specified (null if not present).
+     * @throws IllegalArgumentException If the key is blank.
+     * @throws IllegalStateException If the registry is closed.
+     * */
+    public String get(final String key) throws IllegalArgumentException, IllegalStateException {
+        ensureOpen();
+        return registryMap.get(toKey(key));
+    }
+
+    /**
+     * Inserts or overwrites the pair.
+     * @param key Key to put.
+     * @param value Value to put.
+     * @return The previous value of the key (null if not present).
+     * @throws IllegalArgumentException If the key or the value is blank.
+     * @throws IllegalStateException If the registry is closed.
+     * */
+    public String put(final String key, final String value) throws IllegalArgumentException, IllegalStateException {
+        final Key mapKey = toKey(key);
+        final String mapValue = toValue(value);
+        final Lock lock = lockForChange();
+        try {
+            String presentValue = registryMap.put(mapKey, mapValue);
+            if(!mapValue.equals(presentValue))
+                changedKeys.add(mapKey);
+            if(presentValue == null)
+                updateTrie(mapKey);
+            return presentValue;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Inserts the pair if the key is not present.
+     * @param key Key to put.
+     * @param value Value to put.
+     * @return The present value of the key, null if the pair is inserted.
+     * @throws IllegalArgumentException If the key or the value is blank.
+     * @throws IllegalStateException If the registry is closed.
+     * */
+    public String putIfAbsent(final String key, final String value) throws IllegalArgumentException, IllegalStateException {
+        final Key mapKey = toKey(key);
+        final String mapValue = toValue(value);
+        final Lock lock = lockForChange();
+        try {
+            String presentValue = registryMap.putIfAbsent(mapKey, mapValue);
+            if(presentValue == null) {
+                changedKeys.add(mapKey);
+                updateTrie(mapKey);
+            }
+            return presentValue;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the key.
+     * @param key Key to remove.
+     * @return The removed value of the key (null if not present).
+     * @throws IllegalArgumentException If the key is blank.
+     * @throws IllegalStateException If the registry is closed.
+     * */
+    public String remove(final String key) throws IllegalArgumentException, IllegalStateException {
+        final Key mapKey = toKey(key);
+        final Lock lock = lockForChange();
+        try {
+            String presentValue = registryMap.remove(mapKey);
+            if(presentValue != null) {
+                changedKeys.add(mapKey);
+                updateTrie(mapKey);
+            }
+            return presentValue;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lists the pairs whose keys match a wildcard pattern, through a radix
+     * tree of the keys (see {@link KeyTrie}) built on the first call and
+     * kept up to date by the changes from then on.
+     * @param pattern Pattern of the keys, ignoring case: '*' matches any run
+     *                of characters and '?' any single character, e.g. "svc.*.timeout".
+     * @param offset Count of the first matching pairs to skip.
+     * @param limit Upper bound of the count of pairs to list.
+     * @return Matching pairs in the order of the keys ignoring case.
+     * @throws IllegalArgumentException If the pattern is blank, offset is negative or limit is not positive.
+     * @throws IllegalStateException If the registry is closed.
+     * */
+    public Map<String,String> glob(final String pattern, final int offset, final int limit)
+            throws IllegalArgumentException, IllegalStateException {
+        ensureOpen();
+        final String trimmedPattern = toKey(pattern).toString();
+        final List<Key> keys = new ArrayList<>();
+        synchronized(trieMonitor) {
+            if(keyTrie == null) {
+                keyTrie = KeyTrie.of(registryMap.keySet());
+                long trieBytes = keyTrie.estimateBytes();
+                verbose("Key trie built: %d key(s), %d node(s), ~%d byte(s), ~%d byte(s) per key",
+                        keyTrie.size(), keyTrie.nodeCount(), trieBytes, trieBytes / Math.max(keyTrie.size(), 1));
+            }
+            keyTrie.match(trimmedPattern, offset, limit, keys::add);
+        }
+        Map<String,String> pairs = new LinkedHashMap<>();
+        for(Key key : keys) {
+            String value = registryMap.get(key);
+            if(value != null) /* removed meanwhile */
+                pairs.put(key.toString(), value);
+        }
+        return pairs;
+    }
+
+    /**
+     * Appends the pairs of the key range in key order, see {@link RangeScan}.
+     * @param range Key range.
+     * @param out Output to append to.
+     * @param nullDelimited True for NUL terminated fields.
+     * @return Count of the pairs appended.
+     * @throws IOException For any I/O error.
+     * @throws IllegalStateException If the registry is closed.
+     * */
+    int scan(final KeyRange range, final Appendable out, final boolean nullDelimited) throws IOException, IllegalStateException {
+        ensureOpen();
+        TreeMap<String,Map.Entry<Key,String>> pairs = new TreeMap<>();
+        for(Map.Entry<Key,String> pair : registryMap.entrySet())
+            if(range.contains(pair.getKey().folded()))
+                pairs.put(pair.getKey().folded(), pair);
+        for(Map.Entry<Key,String> pair : pairs.values())
+            RangeScan.appendPair(out, pair.getKey().toString(), pair.getValue(), nullDelimited);
+        return pairs.size();
+    }
+
+    /**
+     * @return Count of the pairs.
+     * @throws IllegalStateException If the registry is closed.
+     * */
+    public int size() throws IllegalStateException {
+        ensureOpen();
+        return registryMap.size();
+    }
+
+    /**
+     * Writes back the changes made since the last write-back, compacts the
+     * log if it has outgrown the database. If the changes would make the log
+     * outgrow the database, and the database was not changed by another
+     * process, the database is rewritten from memory instead of loaded
+     * again to be compacted.
+     * @throws IOException For any I/O error, or if the lock wait times out;
+     *                      the changes are kept for the next write-back.
+     * @throws CorruptRegistryDataException For data corruption detected while compacting.
+     * */
+    @SuppressWarnings("try") /* lock held for the block */
+    public void flush() throws IOException, CorruptRegistryDataException {
+        synchronized(flushMonitor) {
+            try(RegistryLock lock = RegistryLock.acquire(dbFile, false, lockTimeout)) {
+                if(!rewriteIfLogOutgrows())
+                    flushLocked();
+            }
+            compactIfRequired();
+        }
+    }
+
+    /**
+     * Picks up the changes made to the database or its log by other
+     * processes, reading only the records appended since the last load or
+     * refresh if possible, see {@link IncrementalLoader}; the database is
+     * reloaded as a whole only if it was rewritten (e.g. compacted or
+     * converted). Changes not yet written back are kept over the refreshed pairs.
+     * @return True if the registry changed.
+     * @throws IOException For any I/O error, or if the lock wait times out.
+     * @throws CorruptRegistryDataException For data corruption.
+     * @throws IllegalStateException If the registry is closed.
+     * */
+    @SuppressWarnings("try") /* lock held for the block */
+    public boolean refresh() throws IOException, CorruptRegistryDataException, IllegalStateException {
+        ensureOpen();
+        synchronized(flushMonitor) {
+            try(RegistryLock lock = RegistryLock.acquire(dbFile, true, lockTimeout)) {
+                return reloadIfChanged(true);
+            }
+        }
+    }
+
+    /**
+     * Starts refreshing the registry (see {@link #refresh()}) whenever the
+     * file system reports a change of the database or its log, through a
+     * {@link WatchService} of their directory polled on a background thread,
+     * until the registry is closed. Unlike polling on a timer, an unchanged
+     * registry costs nothing, and a change costs in proportion to the
+     * appended bytes.
+     * @param onRefresh Called on the watching thread after every refresh that
+     *                  changed the registry, null for none.
+     * @return This registry.
+     * @throws IOException For any I/O error while registering the directory.
+     * @throws IllegalStateException If the registry is closed or already watched.
+     * */
+    public RegistryStore watch(final Runnable onRefresh) throws IOException, IllegalStateException {
+        ensureOpen();
+        final Path directory = dbFile.toAbsolutePath().getParent();
+        final Path dbName = dbFile.getFileName(), logName = writeAheadLog.getFile().getFileName();
+        synchronized(flushMonitor) {
+            if(watchService != null)
+                throw new IllegalStateException("Registry already watched: " + dbFile);
+            watchService = directory.getFileSystem().newWatchService();
+            try {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                                 StandardWatchEventKinds.ENTRY_MODIFY,
+                                                 StandardWatchEventKinds.ENTRY_DELETE);
+            } catch(IOException e) {
+                watchService.close();
+                watchService = null;
+                throw new IOException("While watching registry database directory (" + directory + ")", e);
+            }
+            final WatchService service = watchService;
+            Thread watcher = new Thread(() -> {
+                try {
+                    while(true) {
+                        WatchKey key = service.take();
+                        boolean changed = false;
+                        for(WatchEvent<?> event : key.pollEvents())
+                            changed |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                                        || dbName.equals(event.context()) || logName.equals(event.context());
+                        if(!key.reset())
+                            break; /* directory gone */
+                        if(changed && refreshQuietly() && onRefresh != null)
+                            onRefresh.run();
+                    }
+                } catch(InterruptedException | ClosedWatchServiceException e) {
+                    /* closed */
+                }
+            }, "registry-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        return this;
+    }
+
+    /**
+     * Stops the timer, if any, and writes back the changes.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption detected while compacting.
+     * */
+    @Override
+    public void close() throws IOException, CorruptRegistryDataException {
+        if(closed)
+            return;
+        closeFlusher();
+        closeWatcher();
+        flush();
+        closed = true;
+    }
+
+    /* Internal operations of the resident server, which holds the lock while serving */
+
+    WriteAheadLog getWriteAheadLog() { return writeAheadLog; }
+
+    /**
+     * Appends the changed pairs to the log, to be called holding the exclusive lock.
+     * @return Count of the records appended.
+     * @throws IOException For any I/O error, the changes are kept for the next write-back.
+     * */
+    int flushLocked() throws IOException {
+        final Set<Key> keys;
+        final Lock lock = changeLock.writeLock();
+        lock.lock();
+        try {
+            keys = changedKeys;
+            if(keys.isEmpty())
+                return 0;
+            changedKeys = ConcurrentHashMap.newKeySet();
+        } finally {
+            lock.unlock();
+        }
+
+        /* current values, a key changed meanwhile is in the new set too and gets appended again */
+        Map<Key,String> records = new LinkedHashMap<>();
+        for(Key key : keys)
+            records.put(key, registryMap.get(key)); /* null: removed */
+        final long logSize = writeAheadLog.size();
+        try {
+            writeAheadLog.appendRecords(records);
+        } catch(IOException e) {
+            Lock retryLock = lockForChange();
+            try {
+                changedKeys.addAll(keys);
+            } finally {
+                retryLock.unlock();
+            }
+            throw e;
+        }
+        loader.appended(logSize); /* not read back by the next refresh */
+        fingerprint = fingerprint(); /* own change, no reload required */
+        verbose("%d record(s) written back to registry database log (%s)", records.size(), writeAheadLog.getFile());
+        return records.size();
+    }
+
+    /**
+     * Rewrites the database from memory instead of appending the changes to
+     * the log, if the log would outgrow the database with them and the
+     * database and log are still as loaded or last written back by this
+     * registry. To be called holding the exclusive lock.
+     * @return True if rewritten, false if the changes are left to append to the log.
+     * @throws IOException For any I/O error, the changes are kept for the next write-back.
+     * @throws CorruptRegistryDataException For data corruption detected while indexing.
+     * */
+    private boolean rewriteIfLogOutgrows() throws IOException, CorruptRegistryDataException {
+        if(fingerprint == null || !Arrays.equals(fingerprint, fingerprint()))
+            return false; /* changes of other processes to fold in, by a compaction */
+        final Lock lock = changeLock.writeLock();
+        lock.lock(); /* no change while the pairs get written */
+        try {
+            if(changedKeys.isEmpty())
+                return false;
+            long bytesToAppend = 0;
+            for(Key key : changedKeys) {
+                String value = registryMap.get(key);
+                bytesToAppend += key.toString().length() + (value == null ? 0 : value.length()) + 8;
+            }
+            if(!writeAheadLog.requiresCompaction(bytesToAppend))
+                return false;
+            int pairsWritten = Registry.forServing(dbFile.toString(), isExternalDb).writeForServing(registryMap);
+            verbose("%d change(s) written back by rewriting registry database (%s) with %d pair(s)", changedKeys.size(), dbFile, pairsWritten);
+            changedKeys.clear();
+            loader.consumed(); /* the files hold the pairs in memory now */
+            fingerprint = fingerprint(); /* own change, no reload required */
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Compacts the log into the database once it outgrows the database, to
+     * be called not holding the lock.
+     * @return True if compacted.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption.
+     * */
+    boolean compactIfRequired() throws IOException, CorruptRegistryDataException {
+        if(!writeAheadLog.requiresCompaction())
+            return false;
+        verbose("Compacting registry database log...");
+        Registry.forDbCompact(dbFile.toString(), isExternalDb).withLockTimeout(lockTimeout).process();
+        fingerprint = null; /* changes of other processes may have been folded in too */
+        return true;
+    }
+
+    /**
+     * Reloads the registry if its files were changed by another process, to
+     * be called holding the lock with no changes pending. Only the records
+     * appended since the last load are read if possible, see {@link IncrementalLoader}.
+     * @return True if reloaded, or if refreshed pairs changed.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption.
+     * */
+    boolean reloadIfChanged() throws IOException, CorruptRegistryDataException {
+        return reloadIfChanged(false);
+    }
+
+    /* keepChanges: changes not yet written back are kept over the reloaded pairs, else discarded */
+    private boolean reloadIfChanged(final boolean keepChanges) throws IOException, CorruptRegistryDataException {
+        if(Arrays.equals(fingerprint, fingerprint()))
+            return false;
+        final Set<Key> refreshedKeys;
+        final Lock lock = changeLock.writeLock();
+        lock.lock(); /* no change while the appended records get applied */
+        try {
+            final Set<Key> pendingKeys = changedKeys;
+            refreshedKeys = loader.refresh(registryMap, keepChanges ? pendingKeys::contains : key -> false);
+        } finally {
+            lock.unlock();
+        }
+        if(refreshedKeys == null) {
+            reload(keepChanges);
+            return true;
+        }
+        for(Key key : refreshedKeys)
+            updateTrie(key);
+        fingerprint = fingerprint();
+        verbose("%d pair(s) refreshed from appended records", refreshedKeys.size());
+        return !refreshedKeys.isEmpty();
+    }
+
+    /**
+     * Reloads the registry, to be called holding the lock with no changes pending.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException For data corruption.
+     * */
+    void reload() throws IOException, CorruptRegistryDataException {
+        reload(false);
+    }
+
+    private void reload(final boolean keepChanges) throws IOException, CorruptRegistryDataException {
+        fingerprint = null;
+        ConcurrentHashMap<Key,String> loadedMap = loader.load();
+        final Lock lock = changeLock.writeLock();
+        lock.lock();
+        try {
+            if(keepChanges) {
+                for(Key key : changedKeys) {
+                    String value = registryMap.get(key);
+                    if(value == null)
+                        loadedMap.remove(key);
+                    else
+                        loadedMap.put(key, value);
+                }
+            } else {
+                changedKeys.clear();
+            }
+            registryMap = loadedMap;
+            synchronized(trieMonitor) {
+                keyTrie = null; /* rebuilt on the next glob query */
+            }
+        } finally {
+            lock.unlock();
+        }
+        fingerprint = fingerprint();
+        verbose("%d pair(s) loaded", loadedMap.size());
+    }
+
+    /** Forces a reload by {@link #reloadIfChanged()} e.g. after a failure. */
+    void invalidate() {
+        fingerprint = null;
+        loader.invalidate();
+    }
+
+    /* adds or removes the key as the map holds it now, the last of concurrent changes of the key wins */
+    private void updateTrie(final Key key) {
+        synchronized(trieMonitor) {
+            if(keyTrie == null)
+                return;
+            if(registryMap.containsKey(key))
+                keyTrie.add(key);
+            else
+                keyTrie.remove(key);
+        }
+    }
+
+    /* size and last modified time of the database file and its log */
+    private long[] fingerprint() throws IOException {
+        long[] fingerprint = new long[4];
+        if(Files.exists(dbFile)) {
+            fingerprint[0] = Files.size(dbFile);
+            fingerprint[1] = Files.getLastModifiedTime(dbFile).toMillis();
+        }
+        Path logFile = writeAheadLog.getFile();
+        if(Files.exists(logFile)) {
+            fingerprint[2] = Files.size(logFile);
+            fingerprint[3] = Files.getLastModifiedTime(logFile).toMillis();
+        }
+        return fingerprint;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch(IOException | CorruptRegistryDataException | RuntimeException e) {
+            verbose("Registry write-back failed, retrying on next flush: %s", e.getMessage());
+        }
+    }
+
+    /* true if the registry changed */
+    private boolean refreshQuietly() {
+        try {
+            return refresh();
+        } catch(IOException | CorruptRegistryDataException | RuntimeException e) {
+            verbose("Registry refresh failed, retrying on next change: %s", e.getMessage());
+            return false;
+        }
+    }
+
+    private void closeWatcher() throws IOException {
+        synchronized(flushMonitor) {
+            if(watchService == null)
+                return;
+            watchService.close(); /* ends the watching thread */
+            watchService = null;
+        }
+    }
+
+    private void closeFlusher() throws IOException {
+        if(flusher == null)
+            return;
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(lockTimeout + 1000, TimeUnit.MILLISECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while stopping the write-back of registry database (" + dbFile + ")", e);
+        }
+    }
+
+    /* shared lock to record a change, released by the caller */
+    private Lock lockForChange() {
+        ensureOpen();
+        Lock lock = changeLock.readLock();
+        lock.lock();
+        return lock;
+    }
+
+    private void ensureOpen() {
+        if(closed)
+            throw new IllegalStateException("Registry closed: " + dbFile);
+    }
+
+    private static Key toKey(final String key) {
+        String validKey = Registry.getInValidKeyOrValueFormat(Objects.requireNonNull(key, "key"));
+        if(validKey == null)
+            throw new IllegalArgumentException("Invalid key format: " + key);
+        return new Key(validKey);
+    }
+
+    private static String toValue(final String value) {
+        String validValue = Registry.getInValidKeyOrValueFormat(Objects.requireNonNull(value, "value"));
+        if(validValue == null)
+            throw new IllegalArgumentException("Invalid value format: " + value);
+        return validValue;
+    }
+}
@@ -0,0 +1,249 @@
+package util.registry;
+
+import static util.registry.Log.verbose;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * Manifest of a sharded registry database: a directory holding the
+ * manifest file and the shard files, each an ordinary registry database
+ * file (any format, with its own log, lock and indexes).
+ * <p> Every pair lives in the shard selected by the hash of its
+ * case-folded key modulo the shard count, hence an entry, deletion or query
+ * reads and writes a single shard. </p>
+ * <p> Manifest file ({@value #FILE_NAME}), text lines: </p>
+ * <p>    - "version=1" </p>
+ * <p>    - "shards=" count of shards </p>
+ * <p>    - "generation=" generation of the shard files, raised by every resharding </p>
+ * <p> Shard files are named "shard-{generation}-{shard}", so that the
+ * shards of the next generation are written next to the current ones
+ * and swapped in by replacing the manifest (see {@link AtomicFile}). </p>
+ * <p> A registry database file is split into a directory staged next to
+ * it ({@value #STAGING_SUFFIX}), manifest included, then the file is
+ * renamed aside ({@value #UNSHARDED_SUFFIX}) and the staged directory
+ * renamed to its path. A file renamed aside is the mark of a split cut
+ * short, see {@link #recoverSplit(Path, long)}. </p>
+ * */
+final class ShardManifest {
+    /** Name of the manifest file in the directory of the sharded database */
+    static final String FILE_NAME = "manifest";
+
+    /** Upper bound of the count of shards */
+    static final int MAX_SHARDS = 1024;
+
+    /** Suffix of the directory a registry database file is split into, appended to the database file name */
+    static final String STAGING_SUFFIX = ".sharding";
+
+    /** Suffix of the registry database file renamed aside for the split directory, appended to the database file name */
+    static final String UNSHARDED_SUFFIX = ".unsharded";
+
+    private static final int VERSION = 1;
+
+    /* suffixes of the files kept next to a registry database file, deleted once it is split */
+    private static final String[] SPLIT_SUFFIXES = {
+        WriteAheadLog.FILE_SUFFIX, HashIndex.FILE_SUFFIX, SparseIndex.FILE_SUFFIX, BloomFilter.FILE_SUFFIX
+    };
+
+    /* suffixes of the files kept next to a shard file */
+    private static final String[] SIDECAR_SUFFIXES = {
+        WriteAheadLog.FILE_SUFFIX, HashIndex.FILE_SUFFIX, SparseIndex.FILE_SUFFIX, BloomFilter.FILE_SUFFIX,
+        ExternalMerge.FILE_SUFFIX, RegistryLock.FILE_SUFFIX
+    };
+
+    private final Path directory;
+    private final int shardCount;
+    private final long generation;
+
+    /**
+     * @param directory Directory of the sharded database.
+     * @param shardCount Count of shards.
+     * @param generation Generation of the shard files.
+     * @throws NullPointerException If directory is null.
+     * @throws IllegalArgumentException If the shard count is out of range.
+     * */
+    ShardManifest(final Path directory, final int shardCount, final long generation) {
+        if(shardCount < 1 || shardCount > MAX_SHARDS)
+            throw new IllegalArgumentException("Invalid shard count (1-" + MAX_SHARDS + "): " + shardCount);
+        this.directory  = Objects.requireNonNull(directory, "directory");
+        this.shardCount = shardCount;
+        this.generation = generation;
+    }
+
+    /**
+     * @param dbFile Registry database path.
+     * @return True if the path is the directory of a sharded database.
+     * */
+    static boolean isSharded(final Path dbFile) {
+        return Files.isDirectory(dbFile) && Files.exists(dbFile.resolve(FILE_NAME));
+    }
+
+    /**
+     * Completes or rolls back a split of the registry database file cut
+     * short by a crash, holding its exclusive lock: if the file was renamed
+     * aside but the split directory not renamed to its path, the file is
+     * renamed back (the split is lost, its directory left to the next one);
+     * if the split directory took its path, the file renamed aside and the
+     * files kept next to it are deleted. Nothing to do otherwise.
+     * @param dbFile Registry database path.
+     * @param lockTimeout Upper bound in milliseconds of the wait for the lock.
+     * @throws IOException For any I/O error, or if the lock wait times out.
+     * */
+    @SuppressWarnings("try") /* lock held for the block */
+    static void recoverSplit(final Path dbFile, final long lockTimeout) throws IOException {
+        final Path unsharded = Paths.get(dbFile + UNSHARDED_SUFFIX);
+        if(Files.notExists(unsharded))
+            return;
+        try(RegistryLock lock = RegistryLock.acquire(dbFile, false, lockTimeout)) {
+            if(Files.notExists(unsharded))
+                return; /* recovered meanwhile by another process */
+            if(Files.notExists(dbFile)) {
+                verbose("Rolling back split of registry database cut short (%s)...", dbFile);
+                Files.move(unsharded, dbFile);
+                AtomicFile.forceDirectory(dbFile.toAbsolutePath().getParent());
+            } else if(isSharded(dbFile)) {
+                verbose("Completing split of registry database cut short (%s)...", dbFile);
+                deleteSplit(dbFile);
+            } else {
+                return; /* a database file took the path meanwhile, the one renamed aside is left as is */
+            }
+            verbose("  -- Done");
+        } catch(IOException e) {
+            throw new IOException("While recovering split of registry database (" + dbFile + ")", e);
+        }
+    }
+
+    /**
+     * Deletes the registry database file renamed aside by a split, along
+     * with the files kept next to it (log, indexes, Bloom filter), once
+     * the split directory took its path.
+     * @param dbFile Registry database path.
+     * @throws IOException For any I/O error.
+     * */
+    static void deleteSplit(final Path dbFile) throws IOException {
+        for(String suffix : SPLIT_SUFFIXES)
+            Files.deleteIfExists(Paths.get(dbFile + suffix));
+        Files.deleteIfExists(Paths.get(dbFile + UNSHARDED_SUFFIX));
+    }
+
+    /**
+     * Reads the manifest of a sharded database.
+     * @param directory Directory of the sharded database.
+     * @return The manifest.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the manifest is not in the recognizable format.
+     * */
+    static ShardManifest read(final Path directory) throws IOException, CorruptRegistryDataException {
+        final Path file = directory.resolve(FILE_NAME);
+        int version = -1, shardCount = -1;
+        long generation = -1;
+        for(String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            int separator = line.indexOf('=');
+            if(separator < 0)
+                throw new CorruptRegistryDataException("Invalid manifest line", line, file);
+            try {
+                String value = line.substring(separator + 1).trim();
+                switch(line.substring(0, separator).trim()) {
+                    case "version":     version = Integer.parseInt(value); break;
+                    case "shards":      shardCount = Integer.parseInt(value); break;
+                    case "generation":  generation = Long.parseLong(value); break;
+                    default:
+                        throw new CorruptRegistryDataException("Unknown manifest entry", line, file);
+                }
+            } catch(NumberFormatException e) {
+                throw new CorruptRegistryDataException("Invalid manifest number", line, file);
+            }
+        }
+        if(version != VERSION)
+            throw new CorruptRegistryDataException("Unsupported manifest version", String.valueOf(version), file);
+        if(shardCount < 1 || shardCount > MAX_SHARDS || generation < 0)
+            throw new CorruptRegistryDataException("Invalid shard count or generation", shardCount + ", " + generation, file);
+        return new ShardManifest(directory, shardCount, generation);
+    }
+
+    /**
+     * Writes the manifest, which swaps in its generation of shard files.
+     * @throws IOException For any I/O error.
+     * */
+    void write() throws IOException {
+        try {
+            AtomicFile.write(directory.resolve(FILE_NAME), stream -> {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+                writer.write("version=" + VERSION + "\n");
+                writer.write("shards=" + shardCount + "\n");
+                writer.write("generation=" + generation + "\n");
+                writer.flush();
+            });
+        } catch(IOException e) {
+            throw new IOException("While writing shard manifest (" + directory.resolve(FILE_NAME) + ")", e);
+        }
+    }
+
+    /**
+     * The next generation is numbered from the current time in milliseconds
+     * (at least one more than the current one), so that concurrent
+     * reshardings hardly ever write shard files of the same name.
+     * @param shardCount Count of shards of the next generation.
+     * @return Manifest of the next generation of shard files.
+     * @throws IllegalArgumentException If the shard count is out of range.
+     * */
+    ShardManifest next(final int shardCount) {
+        return new ShardManifest(directory, shardCount, Math.max(generation + 1, System.currentTimeMillis()));
+    }
+
+    Path getDirectory() { return directory; }
+
+    int shardCount() { return shardCount; }
+
+    long generation() { return generation; }
+
+    /**
+     * @param shard Shard number, from 0.
+     * @return File of the shard.
+     * */
+    Path shardFile(final int shard) {
+        return directory.resolve("shard-" + generation + "-" + shard);
+    }
+
+    /**
+     * @return Files of all the shards, in shard order.
+     * */
+    List<Path> shardFiles() {
+        List<Path> files = new ArrayList<>(shardCount);
+        for(int shard = 0; shard < shardCount; shard++)
+            files.add(shardFile(shard));
+        return files;
+    }
+
+    /**
+     * @param key Key of a pair.
+     * @return Shard owning the key.
+     * */
+    int shardOf(final Key key) {
+        int h = key.hashCode() * 0x9E3779B9; /* spreads the bits of String hash codes, which cluster for similar keys */
+        return Math.floorMod(h ^ (h >>> 16), shardCount);
+    }
+
+    /**
+     * Deletes the shard files of this generation along with the files kept
+     * next to them (log, indexes, Bloom filter, rejects, lock).
+     * @throws IOException For any I/O error.
+     * */
+    void deleteShards() throws IOException {
+        for(Path shardFile : shardFiles()) {
+            Files.deleteIfExists(shardFile);
+            for(String suffix : SIDECAR_SUFFIXES)
+                Files.deleteIfExists(shardFile.resolveSibling(shardFile.getFileName() + suffix));
+        }
+    }
+}
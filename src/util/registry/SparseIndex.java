@@ -0,0 +1,295 @@
+package util.registry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * Sparse block index of a sorted registry database file, kept next to it.
+ * <p> Sorted layout: the records of the database file (text or binary
+ * format) are written in the order of their case-folded keys, the order
+ * {@link Key#equals(Object)} agrees with, hence the keys of a prefix or of
+ * a range are adjacent in the file. The index holds the first key and the
+ * byte offset of every block of about {@value #BLOCK_SIZE} bytes of records,
+ * a scan binary searches it and reads the database file from the block
+ * holding the first key of the range on, till past the last key. </p>
+ * <p> File layout: </p>
+ * <p>    - header: magic (int), version (int), database file size (long),
+ *          database file last modified millis (long), block count (int), pair count (int) </p>
+ * <p>    - blocks: record offset (long), record number (int), case-folded
+ *          first key length (int) and UTF-8 bytes </p>
+ * <p> The sorted layout is enabled as long as the index file is present:
+ * every rewrite of the database file then writes it sorted. The index is
+ * stale if the database file size or last modified time differs from the
+ * header. </p>
+ * */
+final class SparseIndex {
+    /** Index file name suffix, appended to the database file name */
+    static final String FILE_SUFFIX = ".sidx";
+
+    /** Least count of bytes of records between two indexed keys */
+    static final int BLOCK_SIZE = 4096;
+
+    private static final int MAGIC = 0x52534958; /* "RSIX" */
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4;
+
+    private final Path indexFile, dbFile;
+
+    /**
+     * @param dbFile Registry database file the index belongs to.
+     * @throws NullPointerException If dbFile is null.
+     * */
+    SparseIndex(final Path dbFile) {
+        this.dbFile    = Objects.requireNonNull(dbFile, "database file");
+        this.indexFile = Paths.get(dbFile + FILE_SUFFIX);
+    }
+
+    Path getFile() { return indexFile; }
+
+    /**
+     * @return True if the sorted layout is enabled i.e. the index file is present.
+     * */
+    boolean exists() {
+        return Files.exists(indexFile);
+    }
+
+    /**
+     * @return True if the index file matches the current database file.
+     * @throws IOException For any I/O error.
+     * */
+    boolean isFresh() throws IOException {
+        try(FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if(channel.size() < HEADER_SIZE)
+                return false;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            return header.getInt() == MAGIC
+                    && header.getInt() == VERSION
+                    && header.getLong() == Files.size(dbFile)
+                    && header.getLong() == Files.getLastModifiedTime(dbFile).toMillis();
+        }
+    }
+
+    /**
+     * (Re)builds the index by scanning the record offsets of the database file.
+     * @return Count of the pairs indexed, -1 if the database file is not
+     *          sorted (the index file is left untouched then).
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If the database file is not in the
+     *          recognizable format or holds a duplicate key, the index file
+     *          is left untouched then.
+     * */
+    int build() throws IOException, CorruptRegistryDataException {
+        final Blocks blocks = new Blocks();
+        if(BinaryFormat.isBinary(dbFile))
+            BinaryFormat.scan(dbFile, blocks::add);
+        else
+            HashIndex.scanText(dbFile, blocks::add);
+        if(blocks.duplicateKey != null)
+            throw new CorruptRegistryDataException("Duplicate key", blocks.duplicateKey, dbFile);
+        if(!blocks.sorted)
+            return -1;
+
+        try {
+            AtomicFile.write(indexFile, stream -> { /* concurrent rebuilds (stale index on scan) replace each other */
+                DataOutputStream out = new DataOutputStream(stream);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(Files.size(dbFile));
+                out.writeLong(Files.getLastModifiedTime(dbFile).toMillis());
+                out.writeInt(blocks.firstKeys.size());
+                out.writeInt(blocks.pairs);
+                for(int block = 0; block < blocks.firstKeys.size(); block++) {
+                    byte[] firstKey = blocks.firstKeys.get(block).getBytes(StandardCharsets.UTF_8);
+                    out.writeLong(blocks.offsets.get(block));
+                    out.writeInt(blocks.records.get(block));
+                    out.writeInt(firstKey.length);
+                    out.write(firstKey);
+                }
+                out.flush();
+            });
+        } catch(IOException e) {
+            throw new IOException("While writing sparse index file (" + indexFile + ")", e);
+        }
+        return blocks.pairs;
+    }
+
+    /**
+     * Deletes the index, disables the sorted layout.
+     * @throws IOException For any I/O error.
+     * */
+    void delete() throws IOException {
+        Files.deleteIfExists(indexFile);
+    }
+
+    /**
+     * Reads the pairs of the database file in key order from the block
+     * holding the first key of the range on, till the visitor stops. The
+     * index must be fresh.
+     * @param range Key range, to find the block to start from.
+     * @param visitor Called for every pair read, starting from the block
+     *                  (hence including the keys of the block ordering before the range).
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    void scan(final KeyRange range, final PairVisitor visitor) throws IOException, CorruptRegistryDataException {
+        long offset = -1;
+        int record = 0;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            in.skipNBytes(HEADER_SIZE - 8);
+            int low = 0, high = in.readInt() - 1;
+            in.readInt(); /* pair count */
+            long[] offsets = new long[high + 1];
+            int[] records = new int[high + 1];
+            String[] firstKeys = new String[high + 1];
+            for(int block = 0; block <= high; block++) {
+                offsets[block] = in.readLong();
+                records[block] = in.readInt();
+                firstKeys[block] = new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+            }
+            /* last block whose first key orders before the start of the range */
+            while(low <= high) {
+                int middle = (low + high) >>> 1;
+                if(firstKeys[middle].compareTo(range.start()) < 0)
+                    low = middle + 1;
+                else
+                    high = middle - 1;
+            }
+            if(offsets.length > 0) {
+                offset = offsets[Math.max(high, 0)];
+                record = records[Math.max(high, 0)];
+            }
+        } catch(EOFException e) {
+            throw new IOException("Truncated sparse index file: " + indexFile, e);
+        }
+        if(offset >= 0)
+            read(dbFile, BinaryFormat.isBinary(dbFile), offset, record, visitor);
+    }
+
+    /**
+     * Reads all the pairs of the database file in file order, till the visitor stops.
+     * @param file Database file, text, binary or compressed format.
+     * @param visitor Called for every pair read.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    static void read(final Path file, final PairVisitor visitor) throws IOException, CorruptRegistryDataException {
+        if(CompressedFormat.isCompressed(file)) {
+            CompressedFormat.scan(file, "", visitor);
+            return;
+        }
+        boolean binary = BinaryFormat.isBinary(file);
+        read(file, binary, binary ? BinaryFormat.HEADER_SIZE : 0, 0, visitor);
+    }
+
+    /* reads the pairs from the record at the offset on */
+    private static void read(final Path file, final boolean binary, final long offset, final int firstRecord,
+                             final PairVisitor visitor) throws IOException, CorruptRegistryDataException {
+        if(binary) {
+            try(BinaryFormat.RecordReader reader = new BinaryFormat.RecordReader(file)) {
+                reader.skipTo(Math.max(offset, reader.offset())); /* records start past the value dictionary, if any */
+                for(int record = firstRecord; reader.hasNext(record); record++) {
+                    String[] pair = reader.next(record);
+                    BinaryFormat.checkPair(pair, record, file);
+                    if(!visitor.visit(pair[0], pair[1]))
+                        return;
+                }
+            }
+            return;
+        }
+
+        try(InputStream in = Files.newInputStream(file)) {
+            in.skipNBytes(offset);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            String line, key = null, keyLine = null;
+            while((line = reader.readLine()) != null) {
+                if(line.startsWith("K: ")) {
+                    if(key != null)
+                        throw new CorruptRegistryDataException("Expecting a VALUE line", line, file);
+                    keyLine = line;
+                    key = Registry.getInValidKeyOrValueFormat(line.substring(3));
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Invalid key format", line, file);
+                } else if(line.startsWith("V: ")) {
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Expecting a KEY line", line, file);
+                    String value = Registry.getInValidKeyOrValueFormat(line.substring(3));
+                    if(value == null)
+                        throw new CorruptRegistryDataException("Invalid value format", line, file);
+                    if(!visitor.visit(key, value))
+                        return;
+                    key = null;
+                } else {
+                    throw new CorruptRegistryDataException("Invalid line format", line, file);
+                }
+            }
+            if(key != null)
+                throw new CorruptRegistryDataException("Couldn't find corresponsing value of key='" + key + "'", keyLine, file);
+        }
+    }
+
+    /**
+     * Visitor of the pairs read from a database file.
+     * */
+    interface PairVisitor {
+        /**
+         * @param key Key of the pair.
+         * @param value Value of the pair.
+         * @return True to read on, false to stop reading.
+         * @throws IOException For any I/O error.
+         * @throws CorruptRegistryDataException If data corruption detected.
+         * */
+        boolean visit(String key, String value) throws IOException, CorruptRegistryDataException;
+    }
+
+    /**
+     * Block first keys and offsets collected while scanning the database file,
+     * checking the key order on the way.
+     * */
+    private static class Blocks {
+        private final List<String> firstKeys = new ArrayList<>();
+        private final List<Long> offsets = new ArrayList<>();
+        private final List<Integer> records = new ArrayList<>();
+        private int pairs;
+        private long blockOffset;
+        private String lastKey, duplicateKey;
+        private boolean sorted = true;
+
+        void add(final long offset, final String key) {
+            String folded = Key.fold(key);
+            if(lastKey != null) {
+                int order = folded.compareTo(lastKey);
+                if(order == 0 && duplicateKey == null)
+                    duplicateKey = key;
+                else if(order < 0)
+                    sorted = false;
+            }
+            if(firstKeys.isEmpty() || offset - blockOffset >= BLOCK_SIZE) {
+                firstKeys.add(folded);
+                offsets.add(offset);
+                records.add(pairs);
+                blockOffset = offset;
+            }
+            lastKey = folded;
+            pairs++;
+        }
+    }
+}
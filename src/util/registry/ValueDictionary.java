@@ -0,0 +1,129 @@
+package util.registry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Dictionary of the repeated values of a registry, values numbered by id
+ * from 0 on.
+ * <p> Registries of configuration data repeat a few values across many
+ * keys (flags, host names, sizes, timeouts...). While loading, every value
+ * is interned through a dictionary: identical values share a single String
+ * instead of one copy per pair. On disk, the dictionary binary format (see
+ * {@link BinaryFormat}) stores the values of the dictionary once in the
+ * header and the records refer to them by id. </p>
+ * <p> Only values of at most {@value #MAX_VALUE_LENGTH} characters are
+ * held, and at most {@value #MAX_SIZE} of them, long or unique values are
+ * kept as they are. </p>
+ * <p> Not thread-safe. </p>
+ * */
+final class ValueDictionary {
+    /** Longest value held, in characters */
+    static final int MAX_VALUE_LENGTH = 256;
+
+    /** Upper bound of the count of values held */
+    static final int MAX_SIZE = 64 * 1024;
+
+    /* distinct values counted while selecting, bounds the memory of a registry of unique values */
+    private static final int MAX_CANDIDATES = 4 * MAX_SIZE;
+
+    private final List<String> values = new ArrayList<>();
+    private final Map<String,Integer> ids = new HashMap<>();
+    private long hits;
+
+    /**
+     * Selects the values repeated among the specified values, the most
+     * frequent first (hence with the shortest ids). Values are counted as
+     * they come, once {@value #MAX_CANDIDATES} distinct values are counted
+     * new values are not counted any more.
+     * @param values Values of the pairs.
+     * @return Dictionary of the values occurring at least twice.
+     * */
+    static ValueDictionary select(final Iterable<String> values) {
+        final Map<String,int[]> counts = new HashMap<>();
+        for(String value : values) {
+            if(value.length() > MAX_VALUE_LENGTH)
+                continue;
+            int[] count = counts.get(value);
+            if(count != null)
+                count[0]++;
+            else if(counts.size() < MAX_CANDIDATES)
+                counts.put(value, new int[] { 1 });
+        }
+        List<Map.Entry<String,int[]>> repeated = new ArrayList<>();
+        for(Map.Entry<String,int[]> count : counts.entrySet())
+            if(count.getValue()[0] > 1)
+                repeated.add(count);
+        repeated.sort((a, b) -> Integer.compare(b.getValue()[0], a.getValue()[0]));
+
+        ValueDictionary dictionary = new ValueDictionary();
+        for(int i = 0; i < repeated.size() && i < MAX_SIZE; i++)
+            dictionary.add(repeated.get(i).getKey());
+        return dictionary;
+    }
+
+    /**
+     * @param value Value to intern.
+     * @return The instance of the dictionary equal to the value, else the
+     *          value itself, added to the dictionary if short enough and
+     *          there is room left.
+     * */
+    String intern(final String value) {
+        if(value.length() > MAX_VALUE_LENGTH)
+            return value;
+        Integer id = ids.get(value);
+        if(id != null) {
+            hits++;
+            return values.get(id);
+        }
+        if(values.size() < MAX_SIZE)
+            add(value);
+        return value;
+    }
+
+    /**
+     * Adds a value.
+     * @param value Value not held yet.
+     * @return Id of the value.
+     * @throws IllegalStateException If the value is already held or the dictionary is full.
+     * */
+    int add(final String value) {
+        if(values.size() == MAX_SIZE)
+            throw new IllegalStateException("Value dictionary is full: " + MAX_SIZE + " values");
+        if(ids.putIfAbsent(value, values.size()) != null)
+            throw new IllegalStateException("Value already in dictionary: " + value);
+        values.add(value);
+        return values.size() - 1;
+    }
+
+    /**
+     * @param value Value to look up.
+     * @return Id of the value, -1 if not held.
+     * */
+    int idOf(final String value) {
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param id Id of a value.
+     * @return The value.
+     * @throws IndexOutOfBoundsException If no value has the id.
+     * */
+    String get(final int id) {
+        return values.get(id);
+    }
+
+    /** @return Count of the values held. */
+    int size() {
+        return values.size();
+    }
+
+    /** @return Count of the values interned which were already held. */
+    long hits() {
+        return hits;
+    }
+}
@@ -0,0 +1,352 @@
+package util.registry;
+
+import static util.registry.Log.verbose;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Append-only log of registry mutations kept next to the registry database file.
+ * <p> Every entry is appended as a record instead of rewriting the whole
+ * database, the database file itself is only rewritten on compaction. </p>
+ * <p> Record formats (one field per line): </p>
+ * <p>    - put/overwrite: "K: key" followed by "V: value" </p>
+ * <p>    - tombstone: "D: key" </p>
+ * <p> Records are replayed over the loaded database in file order, hence
+ * the last record of a key wins. An incomplete record at the end of the
+ * log (the writer died mid-append) is ignored, and cut off by the next
+ * append so that the appended records start on a record boundary; a key
+ * line left without its value before another record is skipped. Records
+ * appended after a byte offset can be read on their own, see
+ * {@link IncrementalLoader}. </p>
+ * <p> Every append is forced to the disk before returning, unless sync is
+ * deferred (group commit): then appends only reach the operating system and
+ * a single {@link #sync()} makes all of them durable at once. </p>
+ * */
+class WriteAheadLog {
+    /** Log file name suffix, appended to the database file name */
+    static final String FILE_SUFFIX = ".log";
+
+    /** Log smaller than this size never triggers automatic compaction */
+    static final long   COMPACTION_MIN_SIZE = 64 * 1024;
+
+    private final Path  logFile, dbFile;
+    private boolean     syncDeferred, unsynced;
+
+    /**
+     * @param dbFile Registry database file the log belongs to.
+     * @throws NullPointerException If dbFile is null.
+     * */
+    WriteAheadLog(final Path dbFile) {
+        this.dbFile  = Objects.requireNonNull(dbFile, "database file");
+        this.logFile = Paths.get(dbFile + FILE_SUFFIX);
+    }
+
+    Path getFile() { return logFile; }
+
+    /**
+     * @param syncDeferred True to leave forcing the appends to the disk to {@link #sync()}.
+     * */
+    void setSyncDeferred(final boolean syncDeferred) { this.syncDeferred = syncDeferred; }
+
+    /**
+     * Forces the appends made since the last sync to the disk, if any.
+     * @throws IOException For any I/O error.
+     * */
+    void sync() throws IOException {
+        if(!unsynced)
+            return;
+        try(FileChannel channel = FileChannel.open(logFile, StandardOpenOption.WRITE)) {
+            channel.force(false);
+        } catch(NoSuchFileException e) {
+            /* compacted meanwhile, its records are in the (forced) database file */
+        } catch(IOException e) {
+            throw new IOException("While syncing log file (" + logFile + ")", e);
+        }
+        unsynced = false;
+    }
+
+    /**
+     * @return Size of the log file in bytes, 0 if not present.
+     * @throws IOException For any I/O error.
+     * */
+    long size() throws IOException {
+        return Files.exists(logFile) ? Files.size(logFile) : 0;
+    }
+
+    /**
+     * Reads all complete records of the log.
+     * @param raiseException True if required to throw exception in case of data corruption,
+     *                       else corrupt records are skipped.
+     * @return Records in log order, last record per key only; tombstoned keys map to null.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    Map<Key,String> readRecords(final boolean raiseException) throws IOException, CorruptRegistryDataException {
+        final Map<Key,String> records = new LinkedHashMap<>();
+        readRecords(0, records, raiseException);
+        return records;
+    }
+
+    /**
+     * Reads the complete records appended to the log from a byte offset on,
+     * see {@link #readRecords(Path, long, Map, boolean)}.
+     * @return Offset following the last complete record read.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    long readRecords(final long offset, final Map<Key,String> records, final boolean raiseException)
+            throws IOException, CorruptRegistryDataException {
+        return readRecords(logFile, offset, records, raiseException);
+    }
+
+    /**
+     * Reads the complete records of a file in log format from a byte offset
+     * on, the offset of a record boundary e.g. the one returned by the
+     * previous read. An incomplete record at the end (partially appended)
+     * is left for the next read.
+     * @param file File in log format, or a text database file (no tombstones then).
+     * @param offset Offset of the first byte to read.
+     * @param records Map to put the records read into, in file order, last
+     *                record per key only; tombstoned keys map to null.
+     * @param raiseException True if required to throw exception in case of data corruption,
+     *                       else corrupt records are skipped.
+     * @return Offset following the last complete record read, the offset
+     *          itself if none; where the next read resumes.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    static long readRecords(final Path file,
+                            final long offset,
+                            final Map<Key,String> records,
+                            final boolean raiseException) throws IOException, CorruptRegistryDataException {
+        if(Files.notExists(file))
+            return offset;
+        final byte[] bytes;
+        final int length;
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size <= offset)
+                return offset;
+            if(size - offset > Integer.MAX_VALUE - 8)
+                throw new IOException("Too many bytes to read at once: " + (size - offset));
+            ByteBuffer buffer = ByteBuffer.allocate((int)(size - offset));
+            while(buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) >= 0);
+            bytes = buffer.array();
+            length = buffer.position(); /* less if truncated meanwhile */
+        } catch(NoSuchFileException e) {
+            return offset; /* compacted meanwhile */
+        } catch(IOException e) {
+            throw new IOException("While loading data from file: " + file, e);
+        }
+
+        long consumed = offset;
+        String key = null, loadedLine = null;
+        for(int start = 0, end; (end = indexOfNewLine(bytes, start, length)) >= 0; start = end + 1) {
+            /* bytes past the last new line are a partially appended record, ignored */
+            String line = new String(bytes, start, end > start && bytes[end - 1] == '\r' ? end - start - 1 : end - start,
+                                     StandardCharsets.UTF_8);
+            try {
+                if(line.startsWith("K: ")) {
+                    /* a key line without its value before another record is a torn append, skipped */
+                    if(key != null)
+                        verbose("Ignoring incomplete log record: %s", loadedLine);
+                    loadedLine = line;
+                    key = Registry.getInValidKeyOrValueFormat(line.substring(3));
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Invalid key format", line, file);
+                } else if(line.startsWith("V: ")) {
+                    if(key == null)
+                        throw new CorruptRegistryDataException("Expecting a KEY line", line, file);
+                    String value = Registry.getInValidKeyOrValueFormat(line.substring(3));
+                    if(value == null)
+                        throw new CorruptRegistryDataException("Invalid value format", line, file);
+                    putLast(records, new Key(key), value);
+                    key = null;
+                    consumed = offset + end + 1;
+                } else if(line.startsWith("D: ")) {
+                    if(key != null)
+                        verbose("Ignoring incomplete log record: %s", loadedLine);
+                    key = null;
+                    String deletedKey = Registry.getInValidKeyOrValueFormat(line.substring(3));
+                    if(deletedKey == null)
+                        throw new CorruptRegistryDataException("Invalid key format", line, file);
+                    putLast(records, new Key(deletedKey), null);
+                    consumed = offset + end + 1;
+                } else {
+                    throw new CorruptRegistryDataException("Invalid line format", line, file);
+                }
+            } catch(CorruptRegistryDataException e) {
+                key = null;
+                consumed = offset + end + 1; /* skipped */
+                if(raiseException)
+                    throw e;
+            }
+        }
+        /* a key line without its value at the end is an incomplete append, read again with its value next time */
+        if(key != null)
+            verbose("Ignoring incomplete log record: %s", loadedLine);
+        return consumed;
+    }
+
+    /**
+     * Replays the log records over the specified map (last writer wins).
+     * @param map Map loaded from the database file.
+     * @param raiseException True if required to throw exception in case of data corruption.
+     * @return Count of the records replayed.
+     * @throws IOException For any I/O error.
+     * @throws CorruptRegistryDataException If data corruption detected.
+     * */
+    int replay(final Map<Key,String> map, final boolean raiseException) throws IOException, CorruptRegistryDataException {
+        Map<Key,String> records = readRecords(raiseException);
+        for(Map.Entry<Key,String> record : records.entrySet()) {
+            if(record.getValue() == null)
+                map.remove(record.getKey());
+            else
+                map.put(record.getKey(), record.getValue());
+        }
+        return records.size();
+    }
+
+    /**
+     * Appends a put (insert or overwrite) record.
+     * @throws IOException For any I/O error.
+     * */
+    void appendPut(final Key key, final String value) throws IOException {
+        append("K: " + key + "\nV: " + value + "\n");
+    }
+
+    /**
+     * Appends records of all the pairs in a single write: a put record per
+     * pair, a tombstone record per key mapped to null.
+     * @throws IOException For any I/O error.
+     * */
+    void appendRecords(final Map<Key,String> pairs) throws IOException {
+        StringBuilder records = new StringBuilder();
+        for(Map.Entry<Key,String> pair : pairs.entrySet()) {
+            if(pair.getValue() == null)
+                records.append("D: ").append(pair.getKey()).append('\n');
+            else
+                records.append("K: ").append(pair.getKey()).append("\nV: ").append(pair.getValue()).append('\n');
+        }
+        append(records.toString());
+    }
+
+    /**
+     * Appends a tombstone record.
+     * @throws IOException For any I/O error.
+     * */
+    void appendTombstone(final Key key) throws IOException {
+        append("D: " + key + "\n");
+    }
+
+    /**
+     * @return True if the log has grown past the compaction threshold i.e.
+     *          larger than both {@link #COMPACTION_MIN_SIZE} and the database file.
+     * @throws IOException For any I/O error.
+     * */
+    boolean requiresCompaction() throws IOException {
+        return requiresCompaction(0);
+    }
+
+    /**
+     * @param bytesToAppend Count of bytes about to be appended.
+     * @return True if the log would grow past the compaction threshold with the bytes appended.
+     * @throws IOException For any I/O error.
+     * */
+    boolean requiresCompaction(final long bytesToAppend) throws IOException {
+        long logSize = size() + bytesToAppend;
+        return logSize > COMPACTION_MIN_SIZE && logSize > Files.size(dbFile);
+    }
+
+    /**
+     * Deletes the log, to be called once its records are written into the database file.
+     * @throws IOException For any I/O error.
+     * */
+    void delete() throws IOException {
+        Files.deleteIfExists(logFile);
+    }
+
+    private void append(final String record) throws IOException {
+        boolean created = Files.notExists(logFile);
+        try(FileChannel channel = FileChannel.open(logFile,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+            long size = channel.size(), end = recordEnd(channel, size);
+            if(end < size) {
+                verbose("Truncating incomplete log record (%d bytes) of: %s", size - end, logFile);
+                channel.truncate(end);
+            }
+            channel.position(end);
+            ByteBuffer bytes = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+            while(bytes.hasRemaining())
+                channel.write(bytes);
+            if(syncDeferred)
+                unsynced = true;
+            else
+                channel.force(false);
+        } catch(IOException e) {
+            throw new IOException("While appending to log file (" + logFile + ")", e);
+        }
+        if(created)
+            AtomicFile.forceDirectory(logFile.toAbsolutePath().getParent());
+    }
+
+    /**
+     * Finds the end of the last complete record, past which the bytes of a
+     * torn append are left: a partial line, or a key line without its value.
+     * @param channel Channel of the log.
+     * @param size Size of the log.
+     * @return Offset following the last complete record, size if the log ends with one.
+     * @throws IOException For any I/O error.
+     * */
+    private static long recordEnd(final FileChannel channel, final long size) throws IOException {
+        long lineEnd = lastIndexOfNewLine(channel, size);
+        if(lineEnd < 0)
+            return 0;
+        long lineStart = lastIndexOfNewLine(channel, lineEnd) + 1;
+        ByteBuffer head = ByteBuffer.allocate(3);
+        while(head.hasRemaining() && channel.read(head, lineStart + head.position()) >= 0);
+        boolean keyLine = head.position() == 3 && head.get(0) == 'K' && head.get(1) == ':' && head.get(2) == ' ';
+        return keyLine ? lineStart : lineEnd + 1;
+    }
+
+    /* offset of the last new line before the offset, -1 if none */
+    private static long lastIndexOfNewLine(final FileChannel channel, final long before) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(8 * 1024);
+        for(long end = before; end > 0; end -= chunk.capacity()) {
+            long start = Math.max(0, end - chunk.capacity());
+            chunk.clear().limit((int)(end - start));
+            while(chunk.hasRemaining() && channel.read(chunk, start + chunk.position()) >= 0);
+            for(int i = chunk.position() - 1; i >= 0; i--)
+                if(chunk.get(i) == '\n')
+                    return start + i;
+        }
+        return -1;
+    }
+
+    private static int indexOfNewLine(final byte[] bytes, final int from, final int length) {
+        for(int i = from; i < length; i++)
+            if(bytes[i] == '\n')
+                return i;
+        return -1;
+    }
+
+    /* re-inserts to keep the map in order of the last record per key */
+    private static void putLast(final Map<Key,String> records, final Key key, final String value) {
+        records.remove(key);
+        records.put(key, value);
+    }
+}
@@ -0,0 +1,83 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class BatchQueryTest {
+    @TempDir
+    Path dir;
+
+    private static Map<Key,String> registry() {
+        Map<Key,String> map = new HashMap<>();
+        map.put(new Key("a"), "1");
+        map.put(new Key("b"), "2");
+        map.put(new Key("Mixed.Case"), "3");
+        return map;
+    }
+
+    @Test
+    void resultsAreStreamedInInputOrder() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String[] keys = { "b", " ", "missing", "  a ", "MIXED.case", "b" };
+        assertArrayEquals(new int[] { 4, 1 }, new BatchQuery(keys, null, false).run(registry(), out));
+        assertEquals("+\tb\t2\n-\tmissing\t\n+\ta\t1\n+\tMIXED.case\t3\n+\tb\t2\n", out.toString(StandardCharsets.UTF_8));
+
+        out.reset();
+        assertArrayEquals(new int[] { 1, 1 }, new BatchQuery(new String[] { "a", "c" }, null, true).run(registry(), out));
+        assertEquals("+\0a\0001\0-\0c\0\0", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void keysAreReadOnePerLineFromAFile() throws IOException {
+        final Path keysFile = dir.resolve("keys");
+        Files.writeString(keysFile, "a\r\n\n  \nmissing\nmixed.case");
+        BatchQuery batch = new BatchQuery(null, keysFile.toString(), false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertArrayEquals(new int[] { 2, 1 }, batch.run(registry(), out));
+        assertEquals("+\ta\t1\n-\tmissing\t\n+\tmixed.case\t3\n", out.toString(StandardCharsets.UTF_8));
+        assertArrayEquals(new String[] { "a", "missing", "mixed.case" }, batch.readKeys());
+
+        Map<Key,String> results = new HashMap<>();
+        assertArrayEquals(new int[] { 2, 1 }, batch.collect(registry(), results));
+        assertEquals(Map.of(new Key("a"), "1", new Key("Mixed.Case"), "3"), results);
+
+        IOException e = assertThrows(IOException.class,
+                () -> new BatchQuery(null, dir.resolve("absent").toString(), false).run(registry(), out));
+        assertEquals("While reading keys from: " + dir.resolve("absent"), e.getMessage());
+    }
+
+    @Test
+    void matchingKeysAreBoundedByTheLimit() throws IOException {
+        BatchQuery batch = new BatchQuery(new String[] { "a", "ab", "", "b", "abc" }, null, false);
+        assertEquals(Set.of(new Key("a"), new Key("ab"), new Key("abc")), batch.matching(key -> key.toString().startsWith("a"), 3));
+        assertNull(batch.matching(key -> key.toString().startsWith("a"), 2));
+        assertNull(new BatchQuery(null, "-", false).matching(key -> true, 10));
+    }
+
+    @Test
+    void registryBatchQueryAnswersEveryKeyOfTheDatabaseAndLog() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        Files.writeString(dbFile, "K: a\nV: 1\nK: b\nV: 2\n");
+        Registry.forDbEntry(true, new String[] { "b", "22" }, dbFile.toString(), true).process();
+        Registry.forDbEntry(false, new String[] { "c", "3" }, dbFile.toString(), true).process();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Registry.forDbBatchQuery(new String[] { "c", "B", "d", "a" }, null, false, out, dbFile.toString(), true).process();
+        assertEquals("+\tc\t3\n+\tB\t22\n-\td\t\n+\ta\t1\n", out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,127 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+/**
+ * Stress test of the command line tool run by several processes at once
+ * against a single registry database: entries, queries and compactions
+ * interleave, and no entry is lost and no query reads a wrong value.
+ * */
+class ConcurrentProcessesTest {
+    private static final int WRITERS = 4, ENTRIES_PER_WRITER = 12, READERS = 2, QUERIES_PER_READER = 16, COMPACTIONS = 6;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void concurrentEntriesQueriesAndCompactionsLoseNothing() throws Exception {
+        final Path dbFile = dir.resolve("db");
+        StringBuilder initial = new StringBuilder();
+        for(int i = 0; i < 1000; i++)
+            initial.append("K: initial-").append(i).append("\nV: ").append(value("initial-" + i)).append('\n');
+        Files.writeString(dbFile, initial);
+
+        ExecutorService executor = Executors.newFixedThreadPool(WRITERS + READERS + 1);
+        List<Future<?>> tasks = new ArrayList<>();
+        try {
+            for(int w = 0; w < WRITERS; w++) {
+                final int writer = w;
+                tasks.add(executor.submit(() -> {
+                    for(int i = 0; i < ENTRIES_PER_WRITER; i++) {
+                        String key = "writer-" + writer + "-" + i;
+                        Result result = run(dbFile, "-e", key, value(key));
+                        assertEquals(0, result.exitCode, key + ": " + result.output);
+                    }
+                    return null;
+                }));
+            }
+            for(int r = 0; r < READERS; r++) {
+                final int reader = r;
+                tasks.add(executor.submit(() -> {
+                    for(int i = 0; i < QUERIES_PER_READER; i++) {
+                        String key = i % 2 == 0 ? "initial-" + (reader * 100 + i) : "writer-" + (i % WRITERS) + "-" + (i / WRITERS);
+                        Result result = run(dbFile, "-q", key);
+                        assertEquals(0, result.exitCode, key + ": " + result.output);
+                        /* a writer's key may not be entered yet, never partially or wrongly read */
+                        String output = result.output.trim();
+                        assertTrue(output.equals(value(key)) || output.isEmpty() && key.startsWith("writer-"),
+                                   key + ": " + result.output);
+                    }
+                    return null;
+                }));
+            }
+            tasks.add(executor.submit(() -> {
+                for(int i = 0; i < COMPACTIONS; i++) {
+                    Result result = run(dbFile, "-c");
+                    assertEquals(0, result.exitCode, "compaction: " + result.output);
+                }
+                return null;
+            }));
+            for(Future<?> task : tasks)
+                task.get(5, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<String> keys = new ArrayList<>();
+        for(int w = 0; w < WRITERS; w++)
+            for(int i = 0; i < ENTRIES_PER_WRITER; i++)
+                keys.add("writer-" + w + "-" + i);
+        for(int i = 0; i < 1000; i++)
+            keys.add("initial-" + i);
+        Registry.forDbBatchQuery(keys.toArray(new String[0]), null, false, out, dbFile.toString(), true).process();
+        StringBuilder expected = new StringBuilder();
+        for(String key : keys)
+            BatchQuery.appendResult(expected, key, value(key), false);
+        assertEquals(expected.toString(), out.toString(StandardCharsets.UTF_8));
+        assertTrue(Registry.forDbVerify(dbFile.toString(), true).process().endsWith("no corruption found"));
+    }
+
+    private static String value(final String key) {
+        return "value-of-" + key + "-" + "x".repeat(64);
+    }
+
+    /* runs the command line tool in a new process, without prompts, on the database */
+    private static Result run(final Path dbFile, final String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                                                        "-cp", System.getProperty("java.class.path"),
+                                                        "tester.Main", "-n", "-d", dbFile.toString()));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output;
+        try(InputStream in = process.getInputStream()) {
+            output = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        return new Result(process.waitFor(), output);
+    }
+
+    private static final class Result {
+        final int    exitCode;
+        final String output;
+
+        Result(final int exitCode, final String output) {
+            this.exitCode = exitCode;
+            this.output   = output;
+        }
+    }
+}
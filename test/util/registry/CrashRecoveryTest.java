@@ -0,0 +1,125 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+/**
+ * Crashes at every write step: the log and the database file are cut
+ * short at every byte of the last write, then reloaded and written again.
+ * */
+class CrashRecoveryTest {
+    @TempDir
+    Path dir;
+
+    /* appended in this order, one write each */
+    private static final String[] RECORDS = { "K: a\nV: 1\n", "K: b\nV: 2\n", "D: a\n", "K: c\nV: 3\nK: d\nV: 4\n", "K: b\nV: 22\n" };
+
+    @Test
+    void logCutShortAtEveryByteReloadsAndAppendsCleanly() throws IOException, CorruptRegistryDataException {
+        final byte[] log = String.join("", RECORDS).getBytes(StandardCharsets.UTF_8);
+        final Path dbFile = dir.resolve("db");
+        for(int length = 0; length <= log.length; length++) {
+            Files.write(dbFile, "K: z\nV: 0\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(dir.resolve("db.log"), Arrays.copyOf(log, length));
+            WriteAheadLog writeAheadLog = new WriteAheadLog(dbFile);
+
+            Map<Key,String> expected = committed(length);
+            assertEquals(expected, writeAheadLog.readRecords(true), "log cut at " + length);
+
+            writeAheadLog.appendPut(new Key("e"), "5");
+            expected.remove(new Key("e"));
+            expected.put(new Key("e"), "5");
+            assertEquals(expected, writeAheadLog.readRecords(true), "log cut at " + length + ", then appended");
+
+            String[] keys = { "z", "a", "b", "c", "d", "e" };
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Registry.forDbBatchQuery(keys, null, false, out, dbFile.toString(), true).process();
+            StringBuilder results = new StringBuilder();
+            for(String key : keys) {
+                String value = key.equals("z") ? "0" : expected.get(new Key(key));
+                BatchQuery.appendResult(results, key, value, false);
+            }
+            assertEquals(results.toString(), out.toString(StandardCharsets.UTF_8), "log cut at " + length + ", reloaded");
+        }
+    }
+
+    @Test
+    void compactionCutShortAtEveryByteLeavesTheOldOrTheNewDatabase() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        final byte[] original = "K: a\nV: 1\nK: b\nV: 2\n".getBytes(StandardCharsets.UTF_8);
+        final byte[] replacement = "K: a\nV: 1\nK: b\nV: 22\nK: c\nV: 3\n".getBytes(StandardCharsets.UTF_8);
+        for(int length = 0; length < replacement.length; length++) {
+            Files.write(dbFile, original);
+            final int crashAt = length;
+            IOException e = assertThrows(IOException.class, () -> AtomicFile.write(dbFile, out -> {
+                out.write(replacement, 0, crashAt);
+                throw new IOException("crash after " + crashAt + " bytes");
+            }));
+            assertEquals("crash after " + crashAt + " bytes", e.getMessage());
+            assertArrayEquals(original, Files.readAllBytes(dbFile), "write cut at " + length);
+            assertEquals(List.of("db"), files(), "write cut at " + length);
+            assertEquals("1", query(dbFile, "a"), "write cut at " + length);
+        }
+        AtomicFile.write(dbFile, out -> out.write(replacement));
+        assertArrayEquals(replacement, Files.readAllBytes(dbFile));
+        assertEquals("22", query(dbFile, "b"));
+    }
+
+    @Test
+    void logCutShortIsCompactedWithoutItsPartialRecord() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        Files.write(dbFile, "K: a\nV: 1\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(dir.resolve("db.log"), "K: b\nV: 2\nK: c\nV: 3".getBytes(StandardCharsets.UTF_8));
+        Registry.forDbEntry(false, new String[] { "d", "4" }, dbFile.toString(), true).process();
+        Registry.forDbCompact(dbFile.toString(), true).process();
+        assertEquals("K: a\nV: 1\nK: b\nV: 2\nK: d\nV: 4\n", Files.readString(dbFile));
+    }
+
+    /* complete records within the first bytes, last per key (a write of several records may be cut between two) */
+    private static Map<Key,String> committed(final int length) {
+        Map<Key,String> records = new LinkedHashMap<>();
+        String[] lines = String.join("", RECORDS).split("\n");
+        for(int i = 0, end = 0; i < lines.length; i++) {
+            Key key = new Key(lines[i].substring(3));
+            String value = lines[i].startsWith("D: ") ? null : lines[++i].substring(3);
+            end += value == null ? lines[i].length() + 1 : key.toString().length() + value.length() + 8;
+            if(end > length)
+                break;
+            records.remove(key);
+            records.put(key, value);
+        }
+        return records;
+    }
+
+    private static String query(final Path dbFile, final String key) throws IOException, CorruptRegistryDataException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Registry.forDbBatchQuery(new String[] { key }, null, true, out, dbFile.toString(), true).process();
+        String[] fields = out.toString(StandardCharsets.UTF_8).split("\0");
+        return fields[0].equals("+") ? fields[2] : null;
+    }
+
+    private List<String> files() throws IOException {
+        try(Stream<Path> files = Files.list(dir)) {
+            return files.map(file -> file.getFileName().toString())
+                        .filter(name -> !name.endsWith(RegistryLock.FILE_SUFFIX))
+                        .sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class HashIndexTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void lookupFindsEveryIndexedRecord() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        StringBuilder pairs = new StringBuilder();
+        for(int i = 0; i < 500; i++)
+            pairs.append("K: key-").append(i).append("\r\nV: value-").append(i).append("\r\n");
+        Files.writeString(dbFile, pairs);
+        HashIndex index = new HashIndex(dbFile);
+        assertEquals(500, index.build());
+        assertTrue(index.isFresh());
+        for(int i = 0; i < 500; i++)
+            assertEquals("value-" + i, index.lookup(new Key("KEY-" + i)));
+        assertNull(index.lookup(new Key("key-500")));
+    }
+
+    @Test
+    void staleIndexIsRebuiltAfterTheDatabaseIsRewritten() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        Files.writeString(dbFile, "K: a\nV: 1\nK: b\nV: 2\n");
+        Registry.forDbIndex(dbFile.toString(), true).process();
+        HashIndex index = new HashIndex(dbFile);
+        assertTrue(index.isFresh());
+
+        /* rewritten behind the back of the index: other offsets, other pairs */
+        Files.writeString(dbFile, "K: c\nV: 3\nK: bb\nV: 22\nK: a\nV: 11\n");
+        assertFalse(index.isFresh());
+        assertEquals("11", Registry.forDbQuery("a", dbFile.toString(), true).process());
+        assertTrue(index.isFresh());
+        assertNull(Registry.forDbQuery("b", dbFile.toString(), true).process());
+        assertEquals("22", index.lookup(new Key("bb")));
+
+        /* rewritten by a compaction, the index is kept up to date */
+        Registry.forDbEntry(true, new String[] { "c", "33" }, dbFile.toString(), true).process();
+        Registry.forDbCompact(dbFile.toString(), true).process();
+        assertTrue(index.isFresh());
+        assertEquals("33", index.lookup(new Key("c")));
+        assertEquals("11", index.lookup(new Key("a")));
+    }
+
+    @Test
+    void collidingHashesResolveToTheirOwnRecords() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        /* "a@" and "b!" have the same hash, so do all the keys made of three of them */
+        List<String> colliding = new ArrayList<>();
+        for(String first : new String[] { "a@", "b!" })
+            for(String second : new String[] { "a@", "b!" })
+                for(String third : new String[] { "a@", "b!" })
+                    colliding.add(first + second + third);
+        StringBuilder pairs = new StringBuilder();
+        for(String key : colliding.subList(1, colliding.size()))
+            pairs.append("K: ").append(key).append("\nV: value of ").append(key).append('\n');
+        Files.writeString(dbFile, pairs);
+
+        for(String format : new String[] { "text", "binary" }) {
+            if(!format.equals("text"))
+                Registry.forDbConvert(format, dbFile.toString(), true).process();
+            HashIndex index = new HashIndex(dbFile);
+            assertEquals(colliding.size() - 1, index.build());
+            for(String key : colliding.subList(1, colliding.size())) {
+                assertEquals(new Key(colliding.get(0)).hashCode(), new Key(key).hashCode());
+                assertEquals("value of " + key, index.lookup(new Key(key.toUpperCase())), format);
+            }
+            assertNull(index.lookup(new Key(colliding.get(0))), format);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+
+class KeyTest {
+
+    @Test
+    void keysEqualIgnoringCaseHaveTheSameHash() {
+        String[][] pairs = { { "Key", "kEY" }, { "STRASSE", "strasse" }, { "İstanbul", "istanbul" },
+                             { "Σισ", "σΙΣ" }, { "k1", "K1" } };
+        for(String[] pair : pairs) {
+            Key first = new Key(pair[0]), second = new Key(pair[1]);
+            assertEquals(pair[0].equalsIgnoreCase(pair[1]), first.equals(second), pair[0] + " / " + pair[1]);
+            if(first.equals(second))
+                assertEquals(first.hashCode(), second.hashCode(), pair[0] + " / " + pair[1]);
+        }
+    }
+
+    @Test
+    void foldingAgreesWithEqualsIgnoreCaseForEveryCharacter() {
+        for(char c = 0; c < Character.MAX_VALUE; c++) {
+            char folded = Key.fold(String.valueOf(c)).charAt(0);
+            assertTrue(String.valueOf(c).equalsIgnoreCase(String.valueOf(folded)), "character " + (int)c);
+        }
+    }
+
+    @Test
+    void hashCollisionsResolveToTheRightKey() {
+        /* "a@" and "b!" have the same hash, so do their concatenations, and they fold to themselves */
+        String[] colliding = { "a@a@", "a@b!", "b!a@", "b!b!" };
+        Map<Key,String> map = new HashMap<>();
+        for(String key : colliding) {
+            assertEquals(new Key(colliding[0]).hashCode(), new Key(key).hashCode());
+            map.put(new Key(key), "value of " + key);
+        }
+        assertEquals(colliding.length, map.size());
+        for(String key : colliding)
+            assertEquals("value of " + key, map.get(new Key(key.toUpperCase())));
+        assertNotEquals(new Key("a@a@"), new Key("b!b!"));
+    }
+
+    @Test
+    void hashesSpreadAsTheRegistryGrows() {
+        /* registry keys share long prefixes, the hashes must still tell them apart */
+        for(int size : new int[] { 1_000, 100_000, 1_000_000 }) {
+            Set<Integer> hashes = new HashSet<>();
+            for(int i = 0; i < size; i++)
+                hashes.add(new Key("service.instance-" + (i % 97) + ".configuration.parameter.number-" + i).hashCode());
+            assertTrue(hashes.size() >= size * 0.99, size + " keys, " + hashes.size() + " distinct hashes");
+        }
+    }
+}
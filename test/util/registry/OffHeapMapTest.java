@@ -0,0 +1,114 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class OffHeapMapTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void behavesAsAHashMapThroughRandomChanges() {
+        final Random random = new Random(42);
+        Map<Key,String> expected = new HashMap<>();
+        OffHeapMap map = new OffHeapMap();
+        for(int i = 0; i < 200_000; i++) {
+            /* few keys, hence many replacements and removals amid the probe runs */
+            String key = "key-" + random.nextInt(20_000);
+            if(random.nextBoolean())
+                key = key.toUpperCase();
+            switch(random.nextInt(4)) {
+                case 0:
+                    assertEquals(expected.remove(new Key(key)), map.remove(new Key(key)), key);
+                    break;
+                case 1:
+                    assertEquals(expected.get(new Key(key)), map.get(new Key(key)), key);
+                    break;
+                default:
+                    String value = "välue-" + i;
+                    assertEquals(expected.put(new Key(key), value), map.put(new Key(key), value), key);
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        assertEquals(expected, map);
+        assertEquals(expected, new HashMap<>(map)); /* through the entry iterator */
+    }
+
+    @Test
+    void collidingHashesAreKeptApart() {
+        /* "a@" and "b!" have the same hash, so do all the keys made of them */
+        OffHeapMap map = new OffHeapMap();
+        for(int i = 0; i < 1 << 10; i++)
+            assertNull(map.put(new Key(colliding(i)), "value-" + i));
+        assertEquals(1 << 10, map.size());
+        for(int i = 0; i < 1 << 10; i += 2)
+            assertEquals("value-" + i, map.remove(new Key(colliding(i).toUpperCase())));
+        for(int i = 0; i < 1 << 10; i++)
+            assertEquals(i % 2 == 0 ? null : "value-" + i, map.get(new Key(colliding(i))), colliding(i));
+    }
+
+    @Test
+    void replacedAndRemovedRecordsAreCountedAsGarbage() {
+        OffHeapMap map = new OffHeapMap();
+        map.put(new Key("key"), "value");
+        long recordBytes = map.usedBytes();
+        assertEquals(4 + 4 + 4 + "key".length() + "value".length(), recordBytes);
+        map.put(new Key("KEY"), "other");
+        assertEquals(recordBytes, map.usedBytes());
+        map.remove(new Key("key"));
+        assertEquals(0, map.usedBytes());
+        assertFalse(map.containsKey(new Key("key")));
+        assertTrue(map.allocatedBytes() >= OffHeapMap.CHUNK_SIZE);
+        map.clear();
+        assertEquals(0, map.allocatedBytes());
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    void registryOperationsAreTheSameOffTheHeap() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        StringBuilder text = new StringBuilder();
+        String[] keys = new String[1000];
+        for(int i = 0; i < 1000; i++) {
+            text.append("K: key-").append(i).append("\nV: value-").append(i % 10).append('\n');
+            keys[i] = i % 3 == 0 ? "missing-" + i : "KEY-" + i;
+        }
+        Files.writeString(dbFile, text);
+        Registry.forDbEntry(true, new String[] { "key-1", "changed" }, dbFile.toString(), true).process();
+        Registry.forDbDelete("key-4", dbFile.toString(), true).process();
+
+        ByteArrayOutputStream onHeap = new ByteArrayOutputStream(), offHeap = new ByteArrayOutputStream();
+        Registry.forDbBatchQuery(keys, null, false, onHeap, dbFile.toString(), true).process();
+        Registry.forDbBatchQuery(keys, null, false, offHeap, dbFile.toString(), true).withOffHeapStorage(true).process();
+        assertEquals(onHeap.toString(StandardCharsets.UTF_8), offHeap.toString(StandardCharsets.UTF_8));
+        assertTrue(offHeap.toString(StandardCharsets.UTF_8).startsWith("-\tmissing-0\t\n+\tKEY-1\tchanged\n+\tKEY-2\tvalue-2\n-\tmissing-3\t\n-\tKEY-4\t\n"));
+
+        Registry.forDbCompact(dbFile.toString(), true).withOffHeapStorage(true).process();
+        onHeap.reset();
+        Registry.forDbBatchQuery(keys, null, false, onHeap, dbFile.toString(), true).process();
+        assertEquals(offHeap.toString(StandardCharsets.UTF_8), onHeap.toString(StandardCharsets.UTF_8));
+    }
+
+    /* ten "a@" or "b!", as the bits of i */
+    private static String colliding(final int i) {
+        StringBuilder key = new StringBuilder();
+        for(int bit = 0; bit < 10; bit++)
+            key.append((i >> bit & 1) == 0 ? "a@" : "b!");
+        return key.toString();
+    }
+}
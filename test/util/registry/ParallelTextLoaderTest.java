@@ -0,0 +1,76 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class ParallelTextLoaderTest {
+    /* spans several chunks of at least a MiB */
+    private static final int PAIRS = 200_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void loadsTheSamePairsWhateverTheThreadCount() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        Map<Key,String> expected = new HashMap<>();
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < PAIRS; i++) {
+            String key = "key-" + i, value = i % 7 == 0 ? "K: v" + "v".repeat(i % 300) : "value-" + (i % 50);
+            String newLine = i % 3 == 0 ? "\r\n" : "\n";
+            text.append("K: ").append(key).append(newLine).append("V: ").append(value).append(newLine);
+            expected.put(new Key(key), value);
+        }
+        Files.writeString(dbFile, text);
+
+        for(int threads : new int[] { 1, 2, 3, 8 }) {
+            Map<Key,String> map = new HashMap<>();
+            assertEquals(PAIRS, new ParallelTextLoader(dbFile, threads).load(map, new ValueDictionary()), threads + " thread(s)");
+            assertEquals(expected, map, threads + " thread(s)");
+        }
+    }
+
+    @Test
+    void duplicateKeysAcrossChunksAreCorruption() throws IOException {
+        final Path dbFile = dir.resolve("db");
+        StringBuilder text = new StringBuilder("K: duplicate\nV: first\n");
+        for(int i = 0; i < PAIRS; i++)
+            text.append("K: key-").append(i).append("\nV: value-").append(i).append('\n');
+        text.append("K: DUPLICATE\nV: last\n");
+        Files.writeString(dbFile, text);
+
+        CorruptRegistryDataException e = assertThrows(CorruptRegistryDataException.class,
+                () -> new ParallelTextLoader(dbFile, 4).load(new HashMap<>(), new ValueDictionary()));
+        assertEquals("Duplicate key", e.getErrorDetail());
+        assertEquals("DUPLICATE", e.getCorruptRow());
+    }
+
+    @Test
+    void firstCorruptRowInFileOrderIsReported() throws IOException {
+        final Path dbFile = dir.resolve("db");
+        StringBuilder text = new StringBuilder();
+        for(int i = 0; i < PAIRS; i++) {
+            text.append("K: key-").append(i).append("\nV: value-").append(i).append('\n');
+            if(i == PAIRS / 4)
+                text.append("first corrupt row\n");
+            else if(i == PAIRS - 2)
+                text.append("V: last corrupt row\n");
+        }
+        Files.writeString(dbFile, text);
+
+        CorruptRegistryDataException e = assertThrows(CorruptRegistryDataException.class,
+                () -> new ParallelTextLoader(dbFile, 8).load(new HashMap<>(), new ValueDictionary()));
+        assertEquals("Invalid line format", e.getErrorDetail());
+        assertEquals("first corrupt row", e.getCorruptRow());
+    }
+}
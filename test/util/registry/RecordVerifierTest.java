@@ -0,0 +1,106 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class RecordVerifierTest {
+    /* spans several chunks of at least a MiB */
+    private static final int PAIRS = 150_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void intactFileVerifiesWhateverTheThreadCount() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = framed();
+        assertTrue(BinaryFormat.isFramed(dbFile));
+        for(int threads : new int[] { 1, 2, 3, 8 }) {
+            RecordVerifier.Result result = new RecordVerifier(dbFile, threads).run();
+            assertEquals(PAIRS, result.records, threads + " thread(s)");
+            assertTrue(result.corruptRegions.isEmpty(), threads + " thread(s)");
+        }
+        assertTrue(Registry.forDbVerify(dbFile.toString(), true).process().endsWith("no corruption found"));
+    }
+
+    @Test
+    void corruptRecordsCostOnlyThemselves() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = framed();
+        byte[] bytes = Files.readAllBytes(dbFile);
+        long[] corrupted = { corrupt(bytes, "key-17"), corrupt(bytes, "key-" + PAIRS / 2), corrupt(bytes, "key-" + (PAIRS - 1)) };
+        Files.write(dbFile, bytes);
+
+        for(int threads : new int[] { 1, 4 }) {
+            RecordVerifier.Result result = new RecordVerifier(dbFile, threads).run();
+            assertEquals(PAIRS - corrupted.length, result.records, threads + " thread(s)");
+            assertEquals(corrupted.length, result.corruptRegions.size(), threads + " thread(s)");
+            for(int i = 0; i < corrupted.length; i++) {
+                long[] region = result.corruptRegions.get(i);
+                assertTrue(region[0] <= corrupted[i] && corrupted[i] < region[1], threads + " thread(s), region " + i);
+                assertTrue(region[1] - region[0] < 64, "a single record lost: " + (region[1] - region[0]) + " bytes");
+            }
+        }
+        CorruptRegistryDataException e = assertThrows(CorruptRegistryDataException.class,
+                () -> Registry.forDbVerify(dbFile.toString(), true).process());
+        assertTrue(e.getErrorDetail().startsWith(corrupted.length + " corrupt region(s)"), e.getErrorDetail());
+
+        Map<Key,String> map = new HashMap<>();
+        assertEquals(PAIRS - corrupted.length, BinaryFormat.read(dbFile, map, new ValueDictionary(), false));
+        assertFalse(map.containsKey(new Key("key-17")));
+        assertEquals("value-18", map.get(new Key("key-18")));
+    }
+
+    @Test
+    void corruptHeaderIsAReportedRegion() throws IOException {
+        final Path dbFile = framed();
+        byte[] bytes = Files.readAllBytes(dbFile);
+        bytes[0] ^= 0x55;
+        Files.write(dbFile, bytes);
+
+        RecordVerifier.Result result = new RecordVerifier(dbFile, 2).run();
+        assertEquals(PAIRS, result.records);
+        assertEquals(1, result.corruptRegions.size());
+        assertEquals(0, result.corruptRegions.get(0)[0]);
+        assertEquals(BinaryFormat.HEADER_SIZE, result.corruptRegions.get(0)[1]);
+    }
+
+    private Path framed() throws IOException {
+        final Path dbFile = dir.resolve("db");
+        List<Map.Entry<Key,String>> pairs = new ArrayList<>();
+        for(int i = 0; i < PAIRS; i++)
+            pairs.add(new AbstractMap.SimpleEntry<>(new Key("key-" + i), "value-" + i));
+        BinaryFormat.write(dbFile, pairs, true, false);
+        return dbFile;
+    }
+
+    /* flips the last byte of the key field, offset of the flipped byte */
+    private static long corrupt(final byte[] bytes, final String key) {
+        byte[] field = key.getBytes(StandardCharsets.UTF_8);
+        for(int i = 1; i + field.length + 1 < bytes.length; i++) {
+            int j = 0;
+            while(j < field.length && bytes[i + j] == field[j])
+                j++;
+            /* length prefixed, followed by the length prefixed value */
+            if(j == field.length && bytes[i - 1] == field.length && bytes[i + j + 1] == 'v') {
+                bytes[i + j - 1] ^= 0x01;
+                return i + j - 1;
+            }
+        }
+        throw new AssertionError("key not found: " + key);
+    }
+}
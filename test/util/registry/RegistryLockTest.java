@@ -0,0 +1,89 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class RegistryLockTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void threadsOfTheProcessShareOrWaitForTheLock() throws Exception {
+        final Path dbFile = dir.resolve("db");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try(RegistryLock first = RegistryLock.acquire(dbFile, true, 1000)) {
+            /* another reader shares it, a writer times out */
+            executor.submit(() -> {
+                RegistryLock.acquire(dbFile, true, 1000).close();
+                return null;
+            }).get(1, TimeUnit.MINUTES);
+            Future<?> writer = executor.submit(() -> {
+                RegistryLock.acquire(dbFile, false, 50).close();
+                return null;
+            });
+            Exception e = assertThrows(Exception.class, () -> writer.get(1, TimeUnit.MINUTES));
+            assertTrue(e.getCause() instanceof IOException && e.getCause().getMessage().startsWith("Timed out after 50 ms"),
+                       e.getCause().toString());
+        }
+
+        /* a writer waits for the reader, and gets the lock once released */
+        CountDownLatch locked = new CountDownLatch(1);
+        Future<?> writer;
+        try(RegistryLock reader = RegistryLock.acquire(dbFile, true, 1000)) {
+            writer = executor.submit(() -> {
+                try(RegistryLock lock = RegistryLock.acquire(dbFile, false, 10_000)) {
+                    locked.countDown();
+                }
+                return null;
+            });
+            assertFalse(locked.await(100, TimeUnit.MILLISECONDS));
+        }
+        writer.get(1, TimeUnit.MINUTES);
+        assertEquals(0, locked.getCount());
+        executor.shutdownNow();
+    }
+
+    @Test
+    void storeFlushRacingAQueryWaitsInsteadOfFailing() throws Exception {
+        final Path dbFile = dir.resolve("db");
+        Files.writeString(dbFile, "K: a\nV: 1\n");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try(RegistryStore store = RegistryStore.open(dbFile)) {
+            for(int round = 0; round < 200; round++) {
+                final String value = "value-" + round;
+                store.put("b", value);
+                CountDownLatch start = new CountDownLatch(1);
+                Future<?> flush = executor.submit(() -> {
+                    start.await();
+                    store.flush();
+                    return null;
+                });
+                Future<String> query = executor.submit(() -> {
+                    start.await();
+                    return Registry.forDbQuery("a", dbFile.toString(), true).process();
+                });
+                start.countDown();
+                flush.get(1, TimeUnit.MINUTES);
+                assertEquals("1", query.get(1, TimeUnit.MINUTES), "round " + round);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("value-199", Registry.forDbQuery("b", dbFile.toString(), true).process());
+    }
+}
@@ -0,0 +1,134 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class RegistryStoreTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void changesAreWrittenBackAndReadOnReopen() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        Files.writeString(dbFile, "K: a\nV: 1\nK: b\nV: 2\n");
+        try(RegistryStore store = RegistryStore.open(dbFile)) {
+            assertEquals("1", store.get("A"));
+            assertEquals("2", store.put(" B ", " 22 "));
+            assertEquals("22", store.putIfAbsent("b", "222"));
+            assertNull(store.putIfAbsent("c", "3"));
+            assertEquals("1", store.remove("a"));
+            assertNull(store.remove("missing"));
+            assertEquals(2, store.size());
+            assertFalse(Files.exists(Paths.get(dbFile + WriteAheadLog.FILE_SUFFIX)), "written back on flush only");
+        }
+        assertEquals("K: a\nV: 1\nK: b\nV: 2\n", Files.readString(dbFile), "appended to the log, not rewritten");
+        try(RegistryStore store = RegistryStore.open(dbFile)) {
+            assertNull(store.get("a"));
+            assertEquals("22", store.get("b"));
+            assertEquals("3", store.get("C"));
+            assertEquals(2, store.size());
+        }
+    }
+
+    @Test
+    void invalidArgumentsAndClosedStoreAreRejected() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        RegistryStore store = RegistryStore.open(dbFile);
+        assertThrows(IllegalArgumentException.class, () -> store.put("  ", "1"));
+        assertThrows(IllegalArgumentException.class, () -> store.put("a", "-1"));
+        assertThrows(IllegalArgumentException.class, () -> RegistryStore.open(dbFile, -1));
+        assertThrows(IllegalArgumentException.class, () -> RegistryStore.open(dir.resolve("absent"), true, 0, -1));
+        store.close();
+        store.close();
+        assertThrows(IllegalStateException.class, () -> store.get("a"));
+        assertThrows(IllegalStateException.class, () -> store.put("a", "1"));
+    }
+
+    @Test
+    void refreshPicksUpOtherWritersAndKeepsPendingChanges() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        Files.writeString(dbFile, "K: a\nV: 1\nK: b\nV: 2\n");
+        try(RegistryStore reader = RegistryStore.open(dbFile); RegistryStore writer = RegistryStore.open(dbFile)) {
+            assertFalse(reader.refresh());
+            writer.put("a", "11");
+            writer.put("c", "3");
+            writer.remove("b");
+            writer.flush();
+
+            reader.put("c", "pending");
+            assertTrue(reader.refresh());
+            assertEquals("11", reader.get("a"));
+            assertNull(reader.get("b"));
+            assertEquals("pending", reader.get("c"), "not written back yet, kept over the refreshed pair");
+            assertEquals(Map.of("a", "11", "c", "pending"), reader.glob("*", 0, 10));
+        }
+        try(RegistryStore store = RegistryStore.open(dbFile)) {
+            assertEquals("pending", store.get("c"), "last writer wins");
+        }
+    }
+
+    @Test
+    void logOutgrowingTheDatabaseIsRewrittenFromMemory() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        Files.writeString(dbFile, "K: a\nV: 1\n");
+        try(RegistryStore store = RegistryStore.open(dbFile)) {
+            for(int i = 0; i < 4000; i++) /* past the minimum size of a log to compact */
+                store.put("key-" + i, "value-" + i);
+            store.flush();
+            assertFalse(Files.exists(Paths.get(dbFile + WriteAheadLog.FILE_SUFFIX)), "rewritten, not logged");
+        }
+        try(RegistryStore store = RegistryStore.open(dbFile)) {
+            assertEquals(4001, store.size());
+            assertEquals("1", store.get("a"));
+            assertEquals("value-3999", store.get("key-3999"));
+        }
+    }
+
+    @Test
+    void concurrentWritersLoseNoChange() throws Exception {
+        final Path dbFile = dir.resolve("db");
+        try(RegistryStore store = RegistryStore.open(dbFile, 5)) {
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> tasks = new ArrayList<>();
+            try {
+                for(int t = 0; t < 4; t++) {
+                    final int thread = t;
+                    tasks.add(executor.submit(() -> {
+                        for(int i = 0; i < 500; i++)
+                            store.put("thread-" + thread + "-" + i, "value-" + i);
+                        return null;
+                    }));
+                }
+                for(Future<?> task : tasks)
+                    task.get(1, TimeUnit.MINUTES);
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        try(RegistryStore store = RegistryStore.open(dbFile)) {
+            assertEquals(2000, store.size());
+            for(int t = 0; t < 4; t++)
+                for(int i = 0; i < 500; i++)
+                    assertEquals("value-" + i, store.get("thread-" + t + "-" + i));
+        }
+    }
+}
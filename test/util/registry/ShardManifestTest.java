@@ -0,0 +1,57 @@
+package util.registry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+class ShardManifestTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void splitCutShortBeforeTheDirectoryTookThePathIsRolledBack() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        Files.writeString(dbFile, "K: a\nV: 1\n");
+        Files.writeString(Paths.get(dbFile + WriteAheadLog.FILE_SUFFIX), "K: b\nV: 2\n");
+        Files.move(dbFile, Paths.get(dbFile + ShardManifest.UNSHARDED_SUFFIX)); /* crash right after */
+
+        assertEquals("2", value(dbFile, "b"));
+        assertEquals("K: a\nV: 1\n", Files.readString(dbFile));
+        assertFalse(Files.exists(Paths.get(dbFile + ShardManifest.UNSHARDED_SUFFIX)));
+    }
+
+    @Test
+    void splitCutShortAfterTheDirectoryTookThePathIsCompleted() throws IOException, CorruptRegistryDataException {
+        final Path dbFile = dir.resolve("db");
+        Files.writeString(dbFile, "K: a\nV: 1\nK: b\nV: 2\n");
+        Registry.forDbShard(4, dbFile.toString(), true).process();
+        assertTrue(ShardManifest.isSharded(dbFile));
+        /* as left by a crash before the file renamed aside and its log were deleted */
+        Files.writeString(Paths.get(dbFile + ShardManifest.UNSHARDED_SUFFIX), "K: a\nV: 1\n");
+        Files.writeString(Paths.get(dbFile + WriteAheadLog.FILE_SUFFIX), "D: a\n");
+
+        ShardManifest.recoverSplit(dbFile, RegistryLock.DEFAULT_TIMEOUT);
+        assertFalse(Files.exists(Paths.get(dbFile + ShardManifest.UNSHARDED_SUFFIX)));
+        assertFalse(Files.exists(Paths.get(dbFile + WriteAheadLog.FILE_SUFFIX)));
+        assertEquals("1", value(dbFile, "a"));
+        assertEquals("2", value(dbFile, "b"));
+    }
+
+    private static String value(final Path dbFile, final String key) throws IOException, CorruptRegistryDataException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Registry.forDbBatchQuery(new String[] { key }, null, true, out, dbFile.toString(), true).process();
+        String[] fields = out.toString(StandardCharsets.UTF_8).split("\0");
+        return fields[0].equals("+") ? fields[2] : null;
+    }
+}